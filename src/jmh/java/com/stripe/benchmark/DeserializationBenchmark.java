@@ -0,0 +1,61 @@
+package com.stripe.benchmark;
+
+import com.google.gson.stream.JsonReader;
+import com.stripe.model.Charge;
+import com.stripe.model.Invoice;
+import com.stripe.model.StripeObject;
+import com.stripe.net.ApiResource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures deserialization of large models, both from a buffered string and straight from the
+ * bytes of the response as done by {@code LiveStripeResponseGetter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeserializationBenchmark {
+  @Param({"charge", "invoice"})
+  public String model;
+
+  private Class<? extends StripeObject> clazz;
+  private String json;
+  private byte[] jsonBytes;
+
+  @Setup
+  public void setUp() {
+    if ("charge".equals(this.model)) {
+      this.clazz = Charge.class;
+      this.json = Fixtures.load("/benchmark_fixtures/charge.json");
+    } else {
+      this.clazz = Invoice.class;
+      this.json = Fixtures.load("/api_fixtures/invoice_with_discount_objects.json");
+    }
+    this.jsonBytes = this.json.getBytes(ApiResource.CHARSET);
+  }
+
+  @Benchmark
+  public StripeObject fromString() {
+    return ApiResource.GSON.fromJson(this.json, this.clazz);
+  }
+
+  @Benchmark
+  public StripeObject fromStream() throws IOException {
+    try (JsonReader reader =
+        new JsonReader(
+            new InputStreamReader(new ByteArrayInputStream(this.jsonBytes), ApiResource.CHARSET))) {
+      return ApiResource.GSON.fromJson(reader, this.clazz);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.stripe.benchmark;
+
+import com.stripe.exception.EventDataObjectDeserializationException;
+import com.stripe.model.Event;
+import com.stripe.model.EventEnvelope;
+import com.stripe.model.StripeObject;
+import com.stripe.net.ApiResource;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares parsing a full {@link Event} with reading only its envelope, as done by handlers that
+ * filter events on their type, and with materializing the data object from the envelope.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventEnvelopeBenchmark {
+  private String json;
+  private byte[] jsonBytes;
+
+  @Setup
+  public void setUp() {
+    this.json = Fixtures.load("/api_fixtures/event_plan.json");
+    this.jsonBytes = this.json.getBytes(ApiResource.CHARSET);
+  }
+
+  @Benchmark
+  public Event fullEvent() {
+    return ApiResource.GSON.fromJson(this.json, Event.class);
+  }
+
+  @Benchmark
+  public StripeObject fullEventAndDataObject() throws EventDataObjectDeserializationException {
+    Event event = ApiResource.GSON.fromJson(this.json, Event.class);
+    return event.getDataObjectDeserializer().deserializeUnsafe();
+  }
+
+  @Benchmark
+  public String envelopeType() {
+    return EventEnvelope.parse(this.jsonBytes).getType();
+  }
+
+  @Benchmark
+  public StripeObject envelopeAndDataObject() throws EventDataObjectDeserializationException {
+    return EventEnvelope.parse(this.jsonBytes).deserializeDataObjectUnsafe();
+  }
+}
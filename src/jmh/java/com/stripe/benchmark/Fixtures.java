@@ -0,0 +1,66 @@
+package com.stripe.benchmark;
+
+import com.stripe.net.ApiResource;
+import com.stripe.param.ChargeCreateParams;
+import com.stripe.util.StreamUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Loads the payloads and builds the params the benchmarks run against. */
+public final class Fixtures {
+  private Fixtures() {}
+
+  /**
+   * Reads a classpath resource, e.g. {@code /api_fixtures/event_plan.json} from the test fixtures
+   * or {@code /benchmark_fixtures/charge.json}.
+   *
+   * @param path absolute path of the resource
+   * @return the contents of the resource
+   */
+  public static String load(String path) {
+    try (InputStream stream = Fixtures.class.getResourceAsStream(path)) {
+      if (stream == null) {
+        throw new IllegalArgumentException("No such fixture: " + path);
+      }
+      return StreamUtils.readToEnd(stream, ApiResource.CHARSET);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Builds the params of a typical charge creation, with nested and map params. */
+  public static ChargeCreateParams chargeCreateParams() {
+    Map<String, String> metadata = new HashMap<>();
+    metadata.put("order_id", "1043");
+    metadata.put("customer_segment", "enterprise");
+    metadata.put("fulfillment", "standard");
+
+    return ChargeCreateParams.builder()
+        .setAmount(2000L)
+        .setCurrency("usd")
+        .setCustomer("cus_L6Lc3nTtYQ9vGx")
+        .setDescription("Order #1043")
+        .setReceiptEmail("jenny.rosen@example.com")
+        .setStatementDescriptorSuffix("ORDER 1043")
+        .setMetadata(metadata)
+        .setShipping(
+            ChargeCreateParams.Shipping.builder()
+                .setName("Jenny Rosen")
+                .setPhone("+15555555555")
+                .setCarrier("USPS")
+                .setTrackingNumber("9400111899223100000000")
+                .setAddress(
+                    ChargeCreateParams.Shipping.Address.builder()
+                        .setLine1("510 Townsend St")
+                        .setCity("San Francisco")
+                        .setState("CA")
+                        .setPostalCode("94103")
+                        .setCountry("US")
+                        .build())
+                .build())
+        .build();
+  }
+}
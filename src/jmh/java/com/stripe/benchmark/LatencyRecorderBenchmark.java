@@ -0,0 +1,54 @@
+package com.stripe.benchmark;
+
+import com.stripe.net.ApiResource;
+import com.stripe.net.LatencyRecorder;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures the overhead of recording a latency with {@link LatencyRecorder}, alone and with threads
+ * recording into the same series. Run with the gc profiler to check that recording allocates
+ * nothing ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyRecorderBenchmark {
+  private static final String ENDPOINT = "api.stripe.com/v1/customers/*";
+
+  private LatencyRecorder recorder;
+
+  @Setup
+  public void setUp() {
+    this.recorder = new LatencyRecorder();
+    this.recorder.record(ApiResource.RequestMethod.GET, ENDPOINT, 200, 1);
+  }
+
+  private static long latency() {
+    return ThreadLocalRandom.current().nextLong(1_000_000, 1_000_000_000);
+  }
+
+  @Benchmark
+  public void record() {
+    this.recorder.record(ApiResource.RequestMethod.GET, ENDPOINT, 200, latency());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void recordContended() {
+    this.recorder.record(ApiResource.RequestMethod.GET, ENDPOINT, 200, latency());
+  }
+
+  @Benchmark
+  public long random() {
+    return latency();
+  }
+}
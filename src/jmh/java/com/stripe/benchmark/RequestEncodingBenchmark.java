@@ -0,0 +1,72 @@
+package com.stripe.benchmark;
+
+import com.stripe.exception.StripeException;
+import com.stripe.net.ApiResource;
+import com.stripe.net.FormEncoder;
+import com.stripe.net.HttpContent;
+import com.stripe.net.JsonEncoder;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeRequest;
+import com.stripe.param.ChargeCreateParams;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the request side of an API call: turning typed params into a map, encoding that map,
+ * and building the {@link StripeRequest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestEncodingBenchmark {
+  private static final String URL = "https://api.stripe.com/v1/charges";
+
+  private ChargeCreateParams params;
+  private Map<String, Object> paramsMap;
+  private RequestOptions options;
+
+  @Setup
+  public void setUp() {
+    this.params = Fixtures.chargeCreateParams();
+    this.paramsMap = this.params.toMap();
+    this.options = RequestOptions.builder().setApiKey("sk_test_123").build();
+  }
+
+  @Benchmark
+  public Map<String, Object> paramsToMap() {
+    return this.params.toMap();
+  }
+
+  @Benchmark
+  public String formQueryString() {
+    return FormEncoder.createQueryString(this.paramsMap);
+  }
+
+  @Benchmark
+  public HttpContent formContent() throws IOException {
+    return FormEncoder.createHttpContent(this.paramsMap);
+  }
+
+  @Benchmark
+  public HttpContent jsonContent() {
+    return JsonEncoder.createHttpContent(this.paramsMap);
+  }
+
+  @Benchmark
+  public StripeRequest postRequest() throws StripeException {
+    return new StripeRequest(ApiResource.RequestMethod.POST, URL, this.paramsMap, this.options);
+  }
+
+  @Benchmark
+  public StripeRequest getRequest() throws StripeException {
+    return new StripeRequest(ApiResource.RequestMethod.GET, URL, this.paramsMap, this.options);
+  }
+}
@@ -0,0 +1,140 @@
+package com.stripe.benchmark;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.SPChargeCollection;
+import com.stripe.net.ApiResource;
+import com.stripe.net.HttpClient;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.LiveStripeResponseGetter;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.RequestOptions.ResponseRetention;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+import com.stripe.net.StripeResponseStream;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the cost of each {@link ResponseRetention} policy when listing a page of charges: the
+ * time and allocations per call, and the heap retained by the deserialized pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseRetentionBenchmark {
+  private static final String URL = "https://api.seamlesspay.com/charges";
+  private static final int CHARGES_PER_PAGE = 100;
+  private static final int RETAINED_PAGES = 200;
+
+  @Param({"FULL", "HEADERS_ONLY", "NONE"})
+  public ResponseRetention retention;
+
+  private LiveStripeResponseGetter responseGetter;
+  private RequestOptions options;
+
+  /** Reports the heap retained per page by {@link #retainPages(RetainedHeap)}. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class RetainedHeap {
+    public long retainedBytesPerPage;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      this.retainedBytesPerPage = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    this.responseGetter = new LiveStripeResponseGetter(new FixedResponseClient(buildPage()));
+    this.options =
+        RequestOptions.builder()
+            .setApiKey("sk_test_123")
+            .setMaxNetworkRetries(0)
+            .setResponseRetention(this.retention)
+            .build();
+  }
+
+  @Benchmark
+  public SPChargeCollection listPage() throws StripeException {
+    return this.responseGetter.request(
+        ApiResource.RequestMethod.GET, URL, null, SPChargeCollection.class, this.options);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public List<SPChargeCollection> retainPages(RetainedHeap heap) throws StripeException {
+    long before = usedHeapAfterGc();
+    List<SPChargeCollection> pages = new ArrayList<>(RETAINED_PAGES);
+    for (int i = 0; i < RETAINED_PAGES; i++) {
+      pages.add(this.listPage());
+    }
+    heap.retainedBytesPerPage = (usedHeapAfterGc() - before) / RETAINED_PAGES;
+    return pages;
+  }
+
+  private static long usedHeapAfterGc() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static String buildPage() {
+    StringBuilder sb = new StringBuilder("{\"data\": [");
+    for (int i = 0; i < CHARGES_PER_PAGE; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(
+          String.format(
+              "{\"id\": \"TR_%05d\", \"amount\": \"25.00\", \"authCode\": \"A1B2C3\", "
+                  + "\"businessCard\": false, \"currency\": \"USD\", "
+                  + "\"paymentType\": \"credit_card\", "
+                  + "\"lastFour\": \"4242\", \"transactionDate\": \"2022-02-07T18:42:11Z\"}",
+              i));
+    }
+    sb.append(
+        String.format(
+            "], \"pagination\": {\"count\": %d, \"page\": 1, \"pages\": 1, \"size\": %d}, "
+                + "\"total\": %d}",
+            CHARGES_PER_PAGE, CHARGES_PER_PAGE, CHARGES_PER_PAGE));
+    return sb.toString();
+  }
+
+  /** Answers every request with the same page, without any network I/O. */
+  private static class FixedResponseClient extends HttpClient {
+    private final byte[] bodyBytes;
+    private final HttpHeaders headers =
+        HttpHeaders.of(
+            Collections.singletonMap("Request-Id", Collections.singletonList("req_123")));
+
+    FixedResponseClient(String body) {
+      this.bodyBytes = body.getBytes(ApiResource.CHARSET);
+    }
+
+    @Override
+    public StripeResponse request(StripeRequest request) {
+      return new StripeResponse(200, this.headers, new String(this.bodyBytes, ApiResource.CHARSET));
+    }
+
+    @Override
+    public StripeResponseStream requestStream(StripeRequest request) {
+      return new StripeResponseStream(200, this.headers, new ByteArrayInputStream(this.bodyBytes));
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.stripe.benchmark;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.Charge;
+import com.stripe.model.StripeObjectInterface;
+import com.stripe.net.ApiResource;
+import com.stripe.net.LiveStripeResponseGetter;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponseGetter;
+import com.stripe.param.ChargeCreateParams;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures building a {@link StripeRequest} from typed params as {@link ApiResource} does, encoding
+ * them directly, to compare with the untyped map path measured by {@code RequestEncodingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TypedParamsEncodingBenchmark {
+  private static final String URL = "https://api.stripe.com/v1/charges";
+
+  private ChargeCreateParams params;
+  private RequestOptions options;
+  private RequestBuilder requestBuilder;
+
+  @Setup
+  public void setUp() {
+    this.params = Fixtures.chargeCreateParams();
+    this.options = RequestOptions.builder().setApiKey("sk_test_123").build();
+    this.requestBuilder = new RequestBuilder();
+    ApiResource.setStripeResponseGetter(this.requestBuilder);
+  }
+
+  @TearDown
+  public void tearDown() {
+    ApiResource.setStripeResponseGetter(new LiveStripeResponseGetter());
+  }
+
+  @Benchmark
+  public StripeRequest postRequest() throws StripeException {
+    ApiResource.request(
+        ApiResource.RequestMethod.POST, URL, this.params, Charge.class, this.options);
+    return this.requestBuilder.request;
+  }
+
+  @Benchmark
+  public StripeRequest getRequest() throws StripeException {
+    ApiResource.request(
+        ApiResource.RequestMethod.GET, URL, this.params, Charge.class, this.options);
+    return this.requestBuilder.request;
+  }
+
+  /** Builds the request that would be sent, without sending it. */
+  private static final class RequestBuilder implements StripeResponseGetter {
+    StripeRequest request;
+
+    @Override
+    public <T extends StripeObjectInterface> T request(
+        ApiResource.RequestMethod method,
+        String url,
+        Map<String, Object> params,
+        Class<T> clazz,
+        RequestOptions options)
+        throws StripeException {
+      this.request = new StripeRequest(method, url, params, options);
+      return null;
+    }
+
+    @Override
+    public <T extends StripeObjectInterface> T oauthRequest(
+        ApiResource.RequestMethod method,
+        String url,
+        Map<String, Object> params,
+        Class<T> clazz,
+        RequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
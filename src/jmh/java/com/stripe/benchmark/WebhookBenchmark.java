@@ -0,0 +1,44 @@
+package com.stripe.benchmark;
+
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.model.Event;
+import com.stripe.net.Webhook;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Measures signature verification and parsing of an incoming webhook. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WebhookBenchmark {
+  private static final String SECRET = "whsec_test_secret";
+
+  private String payload;
+  private String sigHeader;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.payload = Fixtures.load("/api_fixtures/event_plan.json");
+    long timestamp = Webhook.Util.getTimeNow();
+    String signature =
+        Webhook.Util.computeHmacSha256(SECRET, String.format("%d.%s", timestamp, this.payload));
+    this.sigHeader = String.format("t=%d,v1=%s", timestamp, signature);
+  }
+
+  @Benchmark
+  public Event constructEvent() throws SignatureVerificationException {
+    // A tolerance of 0 skips the timestamp check, which would otherwise fail on long runs.
+    return Webhook.constructEvent(this.payload, this.sigHeader, SECRET, 0);
+  }
+
+  @Benchmark
+  public boolean verifyHeader() throws SignatureVerificationException {
+    return Webhook.Signature.verifyHeader(this.payload, this.sigHeader, SECRET, 0);
+  }
+}
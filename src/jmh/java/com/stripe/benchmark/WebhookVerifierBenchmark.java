@@ -0,0 +1,78 @@
+package com.stripe.benchmark;
+
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.model.Event;
+import com.stripe.net.Webhook;
+import com.stripe.net.WebhookVerifier;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures webhook throughput per core with a shared {@link WebhookVerifier}, while an endpoint
+ * secret is being rolled: the payload is signed with the second of two accepted secrets. Run with
+ * {@code -t} to measure several cores sharing the verifier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WebhookVerifierBenchmark {
+  private static final String OLD_SECRET = "whsec_test_old_secret";
+  private static final String SECRET = "whsec_test_secret";
+
+  private WebhookVerifier verifier;
+  private byte[] payload;
+  private byte[] forgedPayload;
+  private String sigHeader;
+
+  @Setup
+  public void setUp() throws Exception {
+    // A tolerance of 0 skips the timestamp check, which would otherwise fail on long runs.
+    this.verifier =
+        WebhookVerifier.builder().addSecret(OLD_SECRET).addSecret(SECRET).setTolerance(0).build();
+    String payload = Fixtures.load("/api_fixtures/event_plan.json");
+    this.payload = payload.getBytes(StandardCharsets.UTF_8);
+    this.forgedPayload = payload.replace("evt_", "evt_forged_").getBytes(StandardCharsets.UTF_8);
+    long timestamp = Webhook.Util.getTimeNow();
+    String signature =
+        Webhook.Util.computeHmacSha256(SECRET, String.format("%d.%s", timestamp, payload));
+    this.sigHeader = String.format("t=%d,v1=%s", timestamp, signature);
+  }
+
+  @Benchmark
+  public void verify() throws SignatureVerificationException {
+    this.verifier.verify(this.payload, this.sigHeader);
+  }
+
+  @Benchmark
+  public Event constructEvent() throws SignatureVerificationException {
+    return this.verifier.constructEvent(this.payload, this.sigHeader);
+  }
+
+  @Benchmark
+  public boolean rejectForged() {
+    try {
+      this.verifier.constructEvent(this.forgedPayload, this.sigHeader);
+      return false;
+    } catch (SignatureVerificationException e) {
+      return true;
+    }
+  }
+
+  @Benchmark
+  public Event legacyConstructEvent() throws SignatureVerificationException {
+    String payload = new String(this.payload, StandardCharsets.UTF_8);
+    try {
+      return Webhook.constructEvent(payload, this.sigHeader, OLD_SECRET, 0);
+    } catch (SignatureVerificationException e) {
+      // Without a shared verifier, each secret is tried in turn.
+      return Webhook.constructEvent(payload, this.sigHeader, SECRET, 0);
+    }
+  }
+}
@@ -5,6 +5,11 @@ public class AuthenticationException extends StripeException {
 
   public AuthenticationException(
       String message, String requestId, String code, Integer statusCode) {
-    super(message, requestId, code, statusCode);
+    this(message, requestId, code, statusCode, null);
+  }
+
+  public AuthenticationException(
+      String message, String requestId, String code, Integer statusCode, Throwable e) {
+    super(message, requestId, code, statusCode, e);
   }
 }
@@ -0,0 +1,21 @@
+package com.stripe.exception;
+
+public class CircuitBreakerOpenException extends ApiConnectionException {
+  private static final long serialVersionUID = 2L;
+
+  private final String circuit;
+
+  public CircuitBreakerOpenException(String message, String circuit) {
+    this(message, circuit, null);
+  }
+
+  public CircuitBreakerOpenException(String message, String circuit, Throwable e) {
+    super(message, e);
+    this.circuit = circuit;
+  }
+
+  /** Returns the circuit that rejected the request, i.e. its host and resource path. */
+  public String getCircuit() {
+    return this.circuit;
+  }
+}
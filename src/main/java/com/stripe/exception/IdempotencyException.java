@@ -4,6 +4,11 @@ public class IdempotencyException extends StripeException {
   private static final long serialVersionUID = 2L;
 
   public IdempotencyException(String message, String requestId, String code, Integer statusCode) {
-    super(message, requestId, code, statusCode);
+    this(message, requestId, code, statusCode, null);
+  }
+
+  public IdempotencyException(
+      String message, String requestId, String code, Integer statusCode, Throwable e) {
+    super(message, requestId, code, statusCode, e);
   }
 }
@@ -4,6 +4,11 @@ public class PermissionException extends AuthenticationException {
   private static final long serialVersionUID = 2L;
 
   public PermissionException(String message, String requestId, String code, Integer statusCode) {
-    super(message, requestId, code, statusCode);
+    this(message, requestId, code, statusCode, null);
+  }
+
+  public PermissionException(
+      String message, String requestId, String code, Integer statusCode, Throwable e) {
+    super(message, requestId, code, statusCode, e);
   }
 }
@@ -0,0 +1,531 @@
+package com.stripe.model;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.stripe.Stripe;
+import com.stripe.exception.EventDataObjectDeserializationException;
+import com.stripe.net.ApiResource;
+import com.stripe.net.UntypedMapDeserializer;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The envelope of an event, read from its JSON payload in a single pass that skips over everything
+ * but the envelope fields. The event's {@code data.object} is kept as raw bytes, and is only parsed
+ * when it is asked for, so that events can be routed or filtered on their {@link #getType() type}
+ * at a fraction of the cost of a full {@link Event}.
+ *
+ * <pre>
+ *   EventEnvelope envelope = EventEnvelope.parse(payload);
+ *   if ("invoice.paid".equals(envelope.getType())) {
+ *     Optional&lt;StripeObject&gt; invoice = envelope.getDataObject();
+ *     ...
+ *   }
+ * </pre>
+ *
+ * <p>Only the envelope itself is checked to be well-formed JSON while reading it; the skipped
+ * values are checked when they are parsed. The payload array is not copied and must not be
+ * modified while the envelope is in use.
+ */
+public final class EventEnvelope {
+  private static final UntypedMapDeserializer UNTYPED_MAP_DESERIALIZER =
+      new UntypedMapDeserializer();
+
+  private final byte[] payload;
+  private final int offset;
+  private final int length;
+
+  private String id;
+  private String type;
+  private Long created;
+  private String apiVersion;
+  private String account;
+  private Boolean livemode;
+
+  /** Bounds of the raw {@code data.object} value, or -1 if it is absent or null. */
+  private int dataObjectStart = -1;
+
+  private int dataObjectEnd = -1;
+
+  /** Bounds of the raw {@code data.previous_attributes} value, or -1 if it is absent or null. */
+  private int previousAttributesStart = -1;
+
+  private int previousAttributesEnd = -1;
+
+  /** The data object, once it has been safely deserialized. */
+  private StripeObject dataObject;
+
+  /** The id of the data object, once it has been read. */
+  private String dataObjectId;
+
+  private EventEnvelope(byte[] payload, int offset, int length) {
+    this.payload = payload;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Reads the envelope of an event.
+   *
+   * @param payload the JSON payload of the event
+   * @return the envelope
+   * @throws JsonSyntaxException if the envelope is not valid JSON
+   */
+  public static EventEnvelope parse(String payload) {
+    return parse(payload.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Reads the envelope of an event.
+   *
+   * @param payload the UTF-8 encoded JSON payload of the event
+   * @return the envelope
+   * @throws JsonSyntaxException if the envelope is not valid JSON
+   */
+  public static EventEnvelope parse(byte[] payload) {
+    return parse(payload, 0, payload.length);
+  }
+
+  /**
+   * Reads the envelope of an event.
+   *
+   * @param payload an array holding the UTF-8 encoded JSON payload of the event
+   * @param offset the offset of the payload in the array
+   * @param length the length of the payload
+   * @return the envelope
+   * @throws JsonSyntaxException if the envelope is not valid JSON
+   */
+  public static EventEnvelope parse(byte[] payload, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > payload.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    EventEnvelope envelope = new EventEnvelope(payload, offset, length);
+    new Scanner(payload, offset, offset + length).readEnvelope(envelope);
+    return envelope;
+  }
+
+  /** Returns the unique identifier of the event. */
+  public String getId() {
+    return this.id;
+  }
+
+  /** Returns the type of the event, e.g. {@code invoice.created} or {@code charge.refunded}. */
+  public String getType() {
+    return this.type;
+  }
+
+  /** Returns the time at which the event was created, in seconds since the Unix epoch. */
+  public Long getCreated() {
+    return this.created;
+  }
+
+  /** Returns the Stripe API version used to render {@code data}. */
+  public String getApiVersion() {
+    return this.apiVersion;
+  }
+
+  /** Returns the connected account that originated the event. */
+  public String getAccount() {
+    return this.account;
+  }
+
+  /** Returns whether the event exists in live mode. */
+  public Boolean getLivemode() {
+    return this.livemode;
+  }
+
+  /** Returns the raw JSON of the event's {@code data.object}, or {@code null} if it has none. */
+  public String getRawDataObject() {
+    return (this.dataObjectStart != -1) ? slice(this.dataObjectStart, this.dataObjectEnd) : null;
+  }
+
+  /**
+   * Returns the {@code id} of the event's data object, read from its raw JSON without parsing the
+   * rest of it, or {@code null} if it has none.
+   */
+  public String getDataObjectId() {
+    if (this.dataObjectId == null && this.dataObjectStart != -1) {
+      this.dataObjectId =
+          new Scanner(this.payload, this.dataObjectStart, this.dataObjectEnd).readMember("id");
+    }
+    return this.dataObjectId;
+  }
+
+  /**
+   * Returns the event's {@code data.previous_attributes}, parsed on every call, or {@code null} if
+   * it has none.
+   */
+  public Map<String, Object> getPreviousAttributes() {
+    if (this.previousAttributesStart == -1) {
+      return null;
+    }
+    return UNTYPED_MAP_DESERIALIZER.deserialize(
+        JsonParser.parseReader(reader(this.previousAttributesStart, this.previousAttributesEnd))
+            .getAsJsonObject());
+  }
+
+  /**
+   * Gets an {@code Optional} of the event's data object, deserialized straight from the raw bytes
+   * into its model class. As with {@link EventDataObjectDeserializer#getObject()}, the optional is
+   * empty unless {@link #getApiVersion()} matches {@link Stripe#API_VERSION} and deserialization
+   * succeeds.
+   *
+   * @return {@code Optional} of stripe object when deserialization is safe.
+   */
+  public Optional<StripeObject> getDataObject() {
+    if (this.dataObject == null
+        && this.dataObjectStart != -1
+        && Stripe.API_VERSION.equals(this.apiVersion)) {
+      try {
+        this.dataObject = deserializeDataObject();
+      } catch (JsonParseException e) {
+        // intentionally ignore exception to fulfill simply whether deserialization succeeds
+        return Optional.empty();
+      }
+    }
+    return Optional.ofNullable(this.dataObject);
+  }
+
+  /**
+   * Force deserializes the event's data object, regardless of its API version. See {@link
+   * EventDataObjectDeserializer#deserializeUnsafe()}.
+   *
+   * @return Object with no guarantee on full representation of its original raw JSON response.
+   * @throws EventDataObjectDeserializationException exception that contains the message error and
+   *     the raw JSON response of the {@code StripeObject} to be deserialized.
+   */
+  public StripeObject deserializeDataObjectUnsafe() throws EventDataObjectDeserializationException {
+    if (this.dataObjectStart == -1) {
+      throw new EventDataObjectDeserializationException("Event has no data object", null);
+    }
+    try {
+      return deserializeDataObject();
+    } catch (JsonParseException e) {
+      EventDataObjectDeserializer deserializer;
+      try {
+        deserializer = getDataObjectDeserializer();
+      } catch (JsonParseException | IllegalStateException invalid) {
+        throw new EventDataObjectDeserializationException(
+            String.format("Unable to parse event data object: %s", invalid.getMessage()),
+            getRawDataObject());
+      }
+      // Let the deserializer build its detailed error message.
+      return deserializer.deserializeUnsafe();
+    }
+  }
+
+  /**
+   * Gets a deserialization helper for the event's data object, e.g. to transform the raw JSON of
+   * data objects rendered at an older API version. This parses the data object into a JSON tree.
+   */
+  public EventDataObjectDeserializer getDataObjectDeserializer() {
+    JsonObject rawJsonObject =
+        (this.dataObjectStart != -1)
+            ? JsonParser.parseReader(reader(this.dataObjectStart, this.dataObjectEnd))
+                .getAsJsonObject()
+            : null;
+    return new EventDataObjectDeserializer(this.apiVersion, this.type, rawJsonObject);
+  }
+
+  /** Parses the whole payload into an {@link Event}. */
+  public Event toEvent() {
+    return ApiResource.GSON.fromJson(reader(this.offset, this.offset + this.length), Event.class);
+  }
+
+  private StripeObject deserializeDataObject() {
+    // The concrete class depends on the data object's own `object` field.
+    String objectType =
+        new Scanner(this.payload, this.dataObjectStart, this.dataObjectEnd).readMember("object");
+    Class<? extends StripeObject> cl =
+        (objectType != null) ? EventDataClassLookup.findClass(objectType) : null;
+    return ApiResource.GSON.fromJson(
+        reader(this.dataObjectStart, this.dataObjectEnd),
+        cl != null ? cl : StripeRawJsonObject.class);
+  }
+
+  private String slice(int start, int end) {
+    return new String(this.payload, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  private Reader reader(int start, int end) {
+    return new InputStreamReader(
+        new ByteArrayInputStream(this.payload, start, end - start), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A forward-only scanner over UTF-8 encoded JSON, which reads the few values it needs and skips
+   * over the others without decoding them.
+   */
+  private static final class Scanner {
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+
+    Scanner(byte[] buf, int start, int end) {
+      this.buf = buf;
+      this.pos = start;
+      this.end = end;
+    }
+
+    void readEnvelope(EventEnvelope envelope) {
+      beginObject();
+      for (boolean first = true; hasNextMember(first); first = false) {
+        String name = nextName();
+        switch (name) {
+          case "id":
+            envelope.id = nextString();
+            break;
+          case "type":
+            envelope.type = nextString();
+            break;
+          case "created":
+            envelope.created = nextLong();
+            break;
+          case "api_version":
+            envelope.apiVersion = nextString();
+            break;
+          case "account":
+            envelope.account = nextString();
+            break;
+          case "livemode":
+            envelope.livemode = nextBoolean();
+            break;
+          case "data":
+            readData(envelope);
+            break;
+          default:
+            skipValue();
+        }
+      }
+      skipWhitespace();
+      if (this.pos != this.end) {
+        throw syntaxError("Unexpected data after the event");
+      }
+    }
+
+    /** Reads a top-level string member of a JSON object, or null if it has none. */
+    String readMember(String name) {
+      beginObject();
+      for (boolean first = true; hasNextMember(first); first = false) {
+        if (name.equals(nextName())) {
+          return nextString();
+        }
+        skipValue();
+      }
+      return null;
+    }
+
+    private void readData(EventEnvelope envelope) {
+      if (nextNull()) {
+        return;
+      }
+      beginObject();
+      for (boolean first = true; hasNextMember(first); first = false) {
+        String name = nextName();
+        if ("object".equals(name) && !nextNull()) {
+          envelope.dataObjectStart = this.pos;
+          skipValue();
+          envelope.dataObjectEnd = this.pos;
+        } else if ("previous_attributes".equals(name) && !nextNull()) {
+          envelope.previousAttributesStart = this.pos;
+          skipValue();
+          envelope.previousAttributesEnd = this.pos;
+        } else {
+          skipValue();
+        }
+      }
+    }
+
+    private void beginObject() {
+      skipWhitespace();
+      if (peek() != '{') {
+        throw syntaxError("Expected a JSON object");
+      }
+      this.pos++;
+    }
+
+    /** Moves to the next member of the current object, and returns false at its end. */
+    private boolean hasNextMember(boolean first) {
+      skipWhitespace();
+      byte b = peek();
+      if (b == '}') {
+        this.pos++;
+        return false;
+      }
+      if (!first) {
+        if (b != ',') {
+          throw syntaxError("Expected ',' or '}'");
+        }
+        this.pos++;
+      }
+      return true;
+    }
+
+    private String nextName() {
+      String name = nextString();
+      if (name == null) {
+        throw syntaxError("Expected a member name");
+      }
+      skipWhitespace();
+      if (peek() != ':') {
+        throw syntaxError("Expected ':'");
+      }
+      this.pos++;
+      return name;
+    }
+
+    /** Reads a string or null value. */
+    private String nextString() {
+      if (nextNull()) {
+        return null;
+      }
+      if (peek() != '"') {
+        throw syntaxError("Expected a string");
+      }
+      int start = this.pos;
+      boolean escaped = skipString();
+      if (!escaped) {
+        return new String(this.buf, start + 1, this.pos - start - 2, StandardCharsets.UTF_8);
+      }
+      String literal = new String(this.buf, start, this.pos - start, StandardCharsets.UTF_8);
+      return ApiResource.GSON.fromJson(literal, String.class);
+    }
+
+    private Long nextLong() {
+      if (nextNull()) {
+        return null;
+      }
+      int start = this.pos;
+      skipLiteral();
+      String literal = new String(this.buf, start, this.pos - start, StandardCharsets.US_ASCII);
+      try {
+        return Long.parseLong(literal);
+      } catch (NumberFormatException e) {
+        throw new JsonSyntaxException("Expected a long but was " + literal, e);
+      }
+    }
+
+    private Boolean nextBoolean() {
+      if (nextNull()) {
+        return null;
+      }
+      if (matches("true")) {
+        return true;
+      } else if (matches("false")) {
+        return false;
+      }
+      throw syntaxError("Expected a boolean");
+    }
+
+    /** Consumes a null value if there is one, leaving the position at the next value otherwise. */
+    private boolean nextNull() {
+      skipWhitespace();
+      return matches("null");
+    }
+
+    private boolean matches(String literal) {
+      int literalEnd = this.pos + literal.length();
+      if (literalEnd > this.end) {
+        return false;
+      }
+      for (int i = 0; i < literal.length(); i++) {
+        if (this.buf[this.pos + i] != literal.charAt(i)) {
+          return false;
+        }
+      }
+      if (literalEnd < this.end && !isDelimiter(this.buf[literalEnd])) {
+        return false;
+      }
+      this.pos = literalEnd;
+      return true;
+    }
+
+    private void skipValue() {
+      skipWhitespace();
+      byte b = peek();
+      if (b == '"') {
+        skipString();
+      } else if (b == '{' || b == '[') {
+        skipContainer();
+      } else {
+        skipLiteral();
+      }
+    }
+
+    /** Skips a string, and returns whether it contains escape sequences. */
+    private boolean skipString() {
+      boolean escaped = false;
+      this.pos++;
+      while (true) {
+        byte b = peek();
+        this.pos++;
+        if (b == '"') {
+          return escaped;
+        } else if (b == '\\') {
+          escaped = true;
+          peek();
+          this.pos++;
+        }
+      }
+    }
+
+    /** Skips an object or an array, including everything nested in it. */
+    private void skipContainer() {
+      int depth = 0;
+      do {
+        byte b = peek();
+        if (b == '"') {
+          skipString();
+          continue;
+        } else if (b == '{' || b == '[') {
+          depth++;
+        } else if (b == '}' || b == ']') {
+          depth--;
+        }
+        this.pos++;
+      } while (depth > 0);
+    }
+
+    /** Skips a number, boolean or null. */
+    private void skipLiteral() {
+      int start = this.pos;
+      while (this.pos < this.end && !isDelimiter(this.buf[this.pos])) {
+        this.pos++;
+      }
+      if (this.pos == start) {
+        throw syntaxError("Expected a value");
+      }
+    }
+
+    private void skipWhitespace() {
+      while (this.pos < this.end) {
+        byte b = this.buf[this.pos];
+        if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+          return;
+        }
+        this.pos++;
+      }
+    }
+
+    private byte peek() {
+      if (this.pos >= this.end) {
+        throw syntaxError("Unexpected end of JSON");
+      }
+      return this.buf[this.pos];
+    }
+
+    private static boolean isDelimiter(byte b) {
+      return b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private JsonSyntaxException syntaxError(String message) {
+      return new JsonSyntaxException(message + " at byte " + this.pos);
+    }
+  }
+}
@@ -1,6 +1,10 @@
 package com.stripe.model;
 
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Provides an <code>{@code Iterable<T>}</code> target that automatically iterates across all API
@@ -9,12 +13,49 @@ import java.util.Iterator;
 public class PagingIterable<T extends HasId> implements Iterable<T> {
   private StripeCollectionInterface<T> page;
 
+  /** Number of pages fetched ahead in the background, or 0 to fetch pages on demand. */
+  private final int prefetch;
+
   PagingIterable(final StripeCollectionInterface<T> page) {
+    this(page, 0);
+  }
+
+  PagingIterable(final StripeCollectionInterface<T> page, final int prefetch) {
+    if (prefetch < 0) {
+      throw new IllegalArgumentException("prefetch must not be negative");
+    }
     this.page = page;
+    this.prefetch = prefetch;
   }
 
   @Override
   public Iterator<T> iterator() {
+    if (prefetch > 0) {
+      return PagingIterator.prefetching(page, prefetch);
+    }
     return new PagingIterator<>(page);
   }
+
+  @Override
+  public Spliterator<T> spliterator() {
+    return Spliterators.spliteratorUnknownSize(
+        iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+  }
+
+  /**
+   * Returns a sequential stream of all objects across all pages. Closing the stream stops
+   * prefetching pages that have not been requested yet.
+   */
+  public Stream<T> stream() {
+    final Iterator<T> iterator = iterator();
+    final Stream<T> stream =
+        StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(
+                iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+            false);
+    if (iterator instanceof PrefetchingPageIterator) {
+      return stream.onClose(((PrefetchingPageIterator<?, T>) iterator)::close);
+    }
+    return stream;
+  }
 }
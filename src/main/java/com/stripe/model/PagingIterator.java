@@ -5,6 +5,7 @@ import com.stripe.net.ApiResource;
 import com.stripe.net.RequestOptions;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -72,6 +73,42 @@ public class PagingIterator<T extends HasId> extends ApiResource implements Iter
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Returns an iterator over all the objects of the given collection's pages, which fetches up to
+   * {@code prefetch} pages ahead in the background.
+   */
+  static <T extends HasId> PrefetchingPageIterator<StripeCollectionInterface<T>, T> prefetching(
+      final StripeCollectionInterface<T> stripeCollection, final int prefetch) {
+    final PagingIterator<T> pager = new PagingIterator<>(stripeCollection);
+    return new PrefetchingPageIterator<>(
+        stripeCollection,
+        prefetch,
+        asyncExecutor(stripeCollection.getRequestOptions()),
+        StripeCollectionInterface::getData,
+        pager::fetchPageAfter);
+  }
+
+  private StripeCollectionInterface<T> fetchPageAfter(final StripeCollectionInterface<T> page)
+      throws Exception {
+    final List<T> data = page.getData();
+    if (!Boolean.TRUE.equals(page.getHasMore()) || data.isEmpty()) {
+      return null;
+    }
+
+    Map<String, Object> params = new HashMap<>();
+
+    // copy all the parameters from the initial request
+    Map<String, Object> initialParams = page.getRequestParams();
+    if (initialParams != null) {
+      params.putAll(initialParams);
+    }
+
+    // then put our new page start in
+    params.put("starting_after", data.get(data.size() - 1).getId());
+
+    return list(params, page.getRequestOptions());
+  }
+
   @SuppressWarnings("unchecked")
   private StripeCollectionInterface<T> list(
       final Map<String, Object> params, final RequestOptions options) throws Exception {
@@ -0,0 +1,142 @@
+package com.stripe.model;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Iterates over the elements of successive API pages, fetching the upcoming pages in the background
+ * while the current one is being consumed.
+ *
+ * <p>Each page is requested as soon as the page before it has arrived, and at most {@code prefetch}
+ * pages are requested ahead of the page being iterated. Call {@link #close()} to stop fetching
+ * pages if iteration is abandoned before the end.
+ *
+ * @param <P> the type of the pages
+ * @param <T> the type of the elements
+ */
+class PrefetchingPageIterator<P, T> implements Iterator<T>, AutoCloseable {
+  /** Fetches the page that follows another one. */
+  @FunctionalInterface
+  interface PageFetcher<P> {
+    /**
+     * Fetches the page following the given one.
+     *
+     * @param page the previous page
+     * @return the next page, or {@code null} if {@code page} is the last one
+     */
+    P fetchNext(P page) throws Exception;
+  }
+
+  private final int prefetch;
+  private final Executor executor;
+  private final Function<P, List<T>> dataOf;
+  private final PageFetcher<P> fetcher;
+
+  /** Pages requested ahead of the current one, in order. */
+  private final ArrayDeque<CompletableFuture<P>> pending = new ArrayDeque<>();
+
+  /** The last requested page, which the next request is chained to. */
+  private CompletableFuture<P> tail;
+
+  private Iterator<T> currentDataIterator;
+  private boolean done = false;
+
+  PrefetchingPageIterator(
+      P firstPage,
+      int prefetch,
+      Executor executor,
+      Function<P, List<T>> dataOf,
+      PageFetcher<P> fetcher) {
+    if (prefetch <= 0) {
+      throw new IllegalArgumentException("prefetch must be positive");
+    }
+
+    this.prefetch = prefetch;
+    this.executor = executor;
+    this.dataOf = dataOf;
+    this.fetcher = fetcher;
+
+    this.currentDataIterator = dataOf.apply(firstPage).iterator();
+    this.tail = CompletableFuture.completedFuture(firstPage);
+    this.fill();
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!this.currentDataIterator.hasNext()) {
+      if (this.done) {
+        return false;
+      }
+
+      P page = this.awaitNextPage();
+      if (page == null) {
+        this.close();
+        return false;
+      }
+
+      this.currentDataIterator = this.dataOf.apply(page).iterator();
+      this.fill();
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return this.currentDataIterator.next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /** Stops fetching pages. Requests already sent are not interrupted, but their results dropped. */
+  @Override
+  public void close() {
+    this.done = true;
+    for (CompletableFuture<P> page : this.pending) {
+      page.cancel(false);
+    }
+    this.pending.clear();
+  }
+
+  private void fill() {
+    while (!this.done && this.pending.size() < this.prefetch) {
+      this.tail = this.tail.thenApplyAsync(this::fetchNext, this.executor);
+      this.pending.addLast(this.tail);
+    }
+  }
+
+  private P fetchNext(P page) {
+    // Once the last page has been reached, the requests chained after it resolve to null too.
+    if (page == null) {
+      return null;
+    }
+    try {
+      return this.fetcher.fetchNext(page);
+    } catch (Exception e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private P awaitNextPage() {
+    CompletableFuture<P> next = this.pending.pollFirst();
+    try {
+      return next.join();
+    } catch (CompletionException | CancellationException e) {
+      this.close();
+      Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+      throw new RuntimeException("Unable to lazy-load stripe objects", cause);
+    }
+  }
+}
@@ -13,6 +13,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Getter
 @Setter
@@ -148,6 +149,19 @@ public class SPCharge extends ApiResource {
     return ApiResource.requestSPCollection(url, (ApiRequestParams) null, SPChargeCollection.class, options);
   }
 
+  /**
+   * Returns a page of charges. Use {@link SPChargeCollection#autoPagingIterable()} to iterate over
+   * all the pages.
+   *
+   * @param params filters and pagination parameters (e.g. {@code page})
+   * @param options request options
+   */
+  public static SPChargeCollection list(Map<String, Object> params, RequestOptions options)
+      throws StripeException {
+    String url = String.format("%s%s", SPAPI.getApiBase(), CHARGES_URL_PATH);
+    return ApiResource.requestSPCollection(url, params, SPChargeCollection.class, options);
+  }
+
   /**
    * To charge a credit card or other payment source, you create a <code>Charge</code> object. If
    * your API key is in test mode, the supplied payment source (e.g., card) won’t actually be
@@ -193,6 +207,42 @@ public class SPCharge extends ApiResource {
     return ApiResource.request(RequestMethod.POST, url, params, SPCharge.class, options);
   }
 
+  /**
+   * Asynchronously creates a charge. The returned future is completed with the created charge, or
+   * completed exceptionally with a {@link StripeException}.
+   */
+  public static CompletableFuture<SPCharge> createAsync(Map<String, Object> params) {
+    return createAsync(params, (RequestOptions) null);
+  }
+
+  /**
+   * Asynchronously creates a charge. The returned future is completed with the created charge, or
+   * completed exceptionally with a {@link StripeException}.
+   */
+  public static CompletableFuture<SPCharge> createAsync(
+      Map<String, Object> params, RequestOptions options) {
+    String url = String.format("%s%s", SPAPI.getApiBase(), CHARGES_URL_PATH);
+    return ApiResource.requestAsync(RequestMethod.POST, url, params, SPCharge.class, options);
+  }
+
+  /**
+   * Asynchronously creates a charge. The returned future is completed with the created charge, or
+   * completed exceptionally with a {@link StripeException}.
+   */
+  public static CompletableFuture<SPCharge> createAsync(SPChargeCreateParams params) {
+    return createAsync(params, (RequestOptions) null);
+  }
+
+  /**
+   * Asynchronously creates a charge. The returned future is completed with the created charge, or
+   * completed exceptionally with a {@link StripeException}.
+   */
+  public static CompletableFuture<SPCharge> createAsync(
+      SPChargeCreateParams params, RequestOptions options) {
+    String url = String.format("%s%s", SPAPI.getApiBase(), CHARGES_URL_PATH);
+    return ApiResource.requestAsync(RequestMethod.POST, url, params, SPCharge.class, options);
+  }
+
   /**
    * Retrieves the details of a charge that has previously been created. Supply the transaction ID
    * that was returned from your previous request, and SeamlessPay will return the corresponding charge
@@ -225,6 +275,45 @@ public class SPCharge extends ApiResource {
     return ApiResource.request(RequestMethod.GET, url, params, SPCharge.class, options);
   }
 
+  /**
+   * Asynchronously retrieves the details of a charge that has previously been created. The
+   * returned future is completed with the charge, or completed exceptionally with a {@link
+   * StripeException}.
+   */
+  public static CompletableFuture<SPCharge> retrieveAsync(String transactionId) {
+    return retrieveAsync(transactionId, (Map<String, Object>) null, (RequestOptions) null);
+  }
+
+  /**
+   * Asynchronously retrieves the details of a charge that has previously been created. The
+   * returned future is completed with the charge, or completed exceptionally with a {@link
+   * StripeException}.
+   */
+  public static CompletableFuture<SPCharge> retrieveAsync(
+      String transactionId, RequestOptions options) {
+    return retrieveAsync(transactionId, (Map<String, Object>) null, options);
+  }
+
+  /**
+   * Asynchronously retrieves the details of a charge that has previously been created. The
+   * returned future is completed with the charge, or completed exceptionally with a {@link
+   * StripeException}.
+   */
+  public static CompletableFuture<SPCharge> retrieveAsync(
+      String transactionId, Map<String, Object> params, RequestOptions options) {
+    String url;
+    try {
+      url =
+          String.format(
+              "%s%s",
+              SPAPI.getApiBase(),
+              String.format(CHARGES_URL_PATH + "/%s", ApiResource.urlEncodeId(transactionId)));
+    } catch (StripeException e) {
+      return failedFuture(e);
+    }
+    return ApiResource.requestAsync(RequestMethod.GET, url, params, SPCharge.class, options);
+  }
+
   /**
    * Retrieves the details of a charge that has previously been created. Supply the unique charge ID
    * that was returned from your previous request, and Stripe will return the corresponding charge
@@ -354,4 +443,58 @@ public class SPCharge extends ApiResource {
     return ApiResource.request(RequestMethod.POST, url, params, SPCharge.class, options);
   }
 
+  /**
+   * Asynchronously captures the payment of an existing, uncaptured, charge. The returned future is
+   * completed with the captured charge, or completed exceptionally with a {@link StripeException}.
+   */
+  public CompletableFuture<SPCharge> captureAsync() {
+    return captureAsync((Map<String, Object>) null, (RequestOptions) null);
+  }
+
+  /**
+   * Asynchronously captures the payment of an existing, uncaptured, charge. The returned future is
+   * completed with the captured charge, or completed exceptionally with a {@link StripeException}.
+   */
+  public CompletableFuture<SPCharge> captureAsync(RequestOptions options) {
+    return captureAsync((Map<String, Object>) null, options);
+  }
+
+  /**
+   * Asynchronously captures the payment of an existing, uncaptured, charge. The returned future is
+   * completed with the captured charge, or completed exceptionally with a {@link StripeException}.
+   */
+  public CompletableFuture<SPCharge> captureAsync(
+      Map<String, Object> params, RequestOptions options) {
+    String url;
+    try {
+      url =
+          String.format(
+              "%s%s",
+              SPAPI.getApiBase(),
+              String.format("/v1/charges/%s/capture", ApiResource.urlEncodeId(this.getId())));
+    } catch (StripeException e) {
+      return failedFuture(e);
+    }
+    return ApiResource.requestAsync(RequestMethod.POST, url, params, SPCharge.class, options);
+  }
+
+  /**
+   * Asynchronously captures the payment of an existing, uncaptured, charge. The returned future is
+   * completed with the captured charge, or completed exceptionally with a {@link StripeException}.
+   */
+  public CompletableFuture<SPCharge> captureAsync(
+      ChargeCaptureParams params, RequestOptions options) {
+    String url;
+    try {
+      url =
+          String.format(
+              "%s%s",
+              SPAPI.getApiBase(),
+              String.format("/v1/charges/%s/capture", ApiResource.urlEncodeId(this.getId())));
+    } catch (StripeException e) {
+      return failedFuture(e);
+    }
+    return ApiResource.requestAsync(RequestMethod.POST, url, params, SPCharge.class, options);
+  }
+
 }
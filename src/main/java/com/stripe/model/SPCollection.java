@@ -1,11 +1,26 @@
 package com.stripe.model;
 
+import com.stripe.net.RequestOptions;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
+/**
+ * Provides a representation of a single page worth of data from the Seamless Pay API.
+ *
+ * <p>Seamless Pay collections are paginated by page number. The class provides a helper for
+ * iterating over all the pages of a collection:
+ *
+ * <pre>{@code
+ * for (SPCharge charge : SPCharge.list(options).autoPagingIterable()) {
+ *   System.out.println("Current charge = " + charge.toString());
+ * }
+ * }</pre>
+ */
 @Getter
 @Setter
 @EqualsAndHashCode(callSuper = false)
@@ -20,4 +35,79 @@ public abstract class SPCollection<T> extends StripeObject implements SPCollecti
   @Getter(onMethod_ = {@Override})
   private Integer total;
 
+  @Getter(onMethod_ = {@Override})
+  @Setter(onMethod = @__({@Override}))
+  private transient String requestUrl;
+
+  @Getter(onMethod_ = {@Override})
+  @Setter(onMethod = @__({@Override}))
+  private transient RequestOptions requestOptions;
+
+  @Getter(onMethod_ = {@Override})
+  @Setter(onMethod = @__({@Override}))
+  private transient Map<String, Object> requestParams;
+
+  /**
+   * Constructs an iterable that can be used to iterate across all objects across all pages. As
+   * page boundaries are encountered, the next page will be fetched automatically for continued
+   * iteration.
+   */
+  public Iterable<T> autoPagingIterable() {
+    return new SPPagingIterable<>(this);
+  }
+
+  /**
+   * Constructs an iterable that can be used to iterate across all objects across all pages.
+   *
+   * @param params request parameters (will override the parameters from the initial list request)
+   */
+  public Iterable<T> autoPagingIterable(Map<String, Object> params) {
+    this.setRequestParams(params);
+    return new SPPagingIterable<>(this);
+  }
+
+  /**
+   * Constructs an iterable that can be used to iterate across all objects across all pages.
+   *
+   * @param params request parameters (will override the parameters from the initial list request)
+   * @param options request options (will override the options from the initial list request)
+   */
+  public Iterable<T> autoPagingIterable(Map<String, Object> params, RequestOptions options) {
+    this.setRequestOptions(options);
+    this.setRequestParams(params);
+    return new SPPagingIterable<>(this);
+  }
+
+  /**
+   * Constructs an iterable that can be used to iterate across all objects across all pages. Since
+   * the number of pages is known from this first page, up to {@code parallelism} of the following
+   * pages are fetched concurrently, on the executor from {@link RequestOptions#getExecutor()} or on
+   * a shared thread pool if none is set. Objects are still returned in page order.
+   *
+   * @param params request parameters (will override the parameters from the initial list request)
+   * @param options request options (will override the options from the initial list request)
+   * @param parallelism maximum number of pages fetched concurrently, or 0 to fetch pages on demand
+   */
+  public Iterable<T> autoPagingIterable(
+      Map<String, Object> params, RequestOptions options, int parallelism) {
+    this.setRequestOptions(options);
+    this.setRequestParams(params);
+    return new SPPagingIterable<>(this, parallelism);
+  }
+
+  /**
+   * Returns a sequential stream of all objects across all pages, fetching up to {@code
+   * parallelism} pages concurrently. Close the stream to stop fetching pages if it is not consumed
+   * to the end.
+   *
+   * @param params request parameters (will override the parameters from the initial list request)
+   * @param options request options (will override the options from the initial list request)
+   * @param parallelism maximum number of pages fetched concurrently, or 0 to fetch pages on demand
+   */
+  public Stream<T> autoPagingStream(
+      Map<String, Object> params, RequestOptions options, int parallelism) {
+    this.setRequestOptions(options);
+    this.setRequestParams(params);
+    return new SPPagingIterable<>(this, parallelism).stream();
+  }
 }
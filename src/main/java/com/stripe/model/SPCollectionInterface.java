@@ -1,6 +1,8 @@
 package com.stripe.model;
 
+import com.stripe.net.RequestOptions;
 import java.util.List;
+import java.util.Map;
 
 public interface SPCollectionInterface<T> extends StripeObjectInterface {
 
@@ -10,4 +12,45 @@ public interface SPCollectionInterface<T> extends StripeObjectInterface {
 
   Integer getTotal();
 
+  /**
+   * Get the URL the collection was fetched from. This is useful for purposes of pagination.
+   * Collections that do not keep it return null, and are not auto-paginated past their first page.
+   */
+  default String getRequestUrl() {
+    return null;
+  }
+
+  /**
+   * Set the URL the collection was fetched from. This is required for purposes of pagination. It
+   * is ignored by collections that do not keep it.
+   */
+  default void setRequestUrl(String requestUrl) {}
+
+  /**
+   * Get request options that were used to fetch the collection. This is useful for purposes of
+   * pagination.
+   */
+  default RequestOptions getRequestOptions() {
+    return null;
+  }
+
+  /**
+   * Get request parameters that were used to fetch the collection. This is useful for purposes of
+   * pagination.
+   */
+  default Map<String, Object> getRequestParams() {
+    return null;
+  }
+
+  /**
+   * Set request options that were used to fetch the collection. This is required for purposes of
+   * pagination. It is ignored by collections that do not keep them.
+   */
+  default void setRequestOptions(RequestOptions requestOptions) {}
+
+  /**
+   * Set request parameters that were used to fetch the collection. This is required for purposes of
+   * pagination. It is ignored by collections that do not keep them.
+   */
+  default void setRequestParams(Map<String, Object> requestParams) {}
 }
@@ -0,0 +1,55 @@
+package com.stripe.model;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Provides an <code>{@code Iterable<T>}</code> target that automatically iterates across all pages
+ * of a Seamless Pay collection and which is suitable for use with a <code>{@code foreach}</code>
+ * loop.
+ */
+public class SPPagingIterable<T> implements Iterable<T> {
+  private SPCollectionInterface<T> page;
+
+  /** Number of pages fetched concurrently, or 0 to fetch pages on demand. */
+  private final int parallelism;
+
+  SPPagingIterable(final SPCollectionInterface<T> page) {
+    this(page, 0);
+  }
+
+  SPPagingIterable(final SPCollectionInterface<T> page, final int parallelism) {
+    if (parallelism < 0) {
+      throw new IllegalArgumentException("parallelism must not be negative");
+    }
+    this.page = page;
+    this.parallelism = parallelism;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new SPPagingIterator<>(page, parallelism);
+  }
+
+  @Override
+  public Spliterator<T> spliterator() {
+    return Spliterators.spliteratorUnknownSize(
+        iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+  }
+
+  /**
+   * Returns a sequential stream of all objects across all pages. Closing the stream stops fetching
+   * pages that have not been requested yet.
+   */
+  public Stream<T> stream() {
+    final SPPagingIterator<T> iterator = new SPPagingIterator<>(page, parallelism);
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(
+                iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+            false)
+        .onClose(iterator::close);
+  }
+}
@@ -0,0 +1,185 @@
+package com.stripe.model;
+
+import com.stripe.net.ApiResource;
+import com.stripe.net.RequestOptions;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Iterates over all the objects of a page-number-paginated Seamless Pay collection, fetching the
+ * following pages as the previous ones are consumed.
+ *
+ * <p>With a positive {@code parallelism}, the pages following the first one are fetched
+ * concurrently, at most {@code parallelism} at a time, since the total number of pages is known
+ * from the first response. Objects are still returned in page order.
+ */
+public class SPPagingIterator<T> extends ApiResource implements Iterator<T>, AutoCloseable {
+  static final String PAGE_PARAM = "page";
+
+  private final String url;
+
+  @SuppressWarnings("rawtypes")
+  private final Class<? extends SPCollectionInterface> collectionType;
+
+  private final Map<String, Object> initialParams;
+  private final RequestOptions options;
+
+  private final int parallelism;
+  private final Executor executor;
+
+  /** Pages fetched concurrently ahead of the current one, in order. */
+  private final ArrayDeque<CompletableFuture<SPCollectionInterface<T>>> pending =
+      new ArrayDeque<>();
+
+  private SPCollectionInterface<T> currentCollection;
+  private Iterator<T> currentDataIterator;
+
+  /** The next page number to request in parallel mode. */
+  private int nextPageToRequest;
+
+  private final int lastPage;
+  private boolean closed = false;
+
+  SPPagingIterator(final SPCollectionInterface<T> collection, final int parallelism) {
+    if (parallelism < 0) {
+      throw new IllegalArgumentException("parallelism must not be negative");
+    }
+
+    this.url = collection.getRequestUrl();
+    this.collectionType = collection.getClass();
+    this.initialParams = collection.getRequestParams();
+    this.options = collection.getRequestOptions();
+
+    this.parallelism = parallelism;
+    this.executor = (parallelism > 0) ? asyncExecutor(this.options) : null;
+
+    this.currentCollection = collection;
+    this.currentDataIterator = collection.getData().iterator();
+
+    this.nextPageToRequest = pageNumber(collection) + 1;
+    // Without the URL of the collection, there is no way to request the next pages.
+    this.lastPage = (this.url != null) ? lastPage(collection) : pageNumber(collection);
+    this.fill();
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!this.currentDataIterator.hasNext()) {
+      if (this.closed || !this.hasMorePages()) {
+        return false;
+      }
+
+      this.currentCollection = this.fetchNextPage();
+      this.currentDataIterator = this.currentCollection.getData().iterator();
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return this.currentDataIterator.next();
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /** Stops fetching pages. Requests already sent are not interrupted, but their results dropped. */
+  @Override
+  public void close() {
+    this.closed = true;
+    for (CompletableFuture<SPCollectionInterface<T>> page : this.pending) {
+      page.cancel(false);
+    }
+    this.pending.clear();
+  }
+
+  private boolean hasMorePages() {
+    if (this.parallelism > 0) {
+      return !this.pending.isEmpty();
+    }
+    return this.url != null
+        && pageNumber(this.currentCollection) < lastPage(this.currentCollection);
+  }
+
+  private SPCollectionInterface<T> fetchNextPage() {
+    if (this.parallelism == 0) {
+      try {
+        return this.list(pageNumber(this.currentCollection) + 1);
+      } catch (final Exception e) {
+        throw new RuntimeException("Unable to lazy-load seamless pay objects", e);
+      }
+    }
+
+    CompletableFuture<SPCollectionInterface<T>> next = this.pending.pollFirst();
+    try {
+      SPCollectionInterface<T> page = next.join();
+      this.fill();
+      return page;
+    } catch (CompletionException | CancellationException e) {
+      this.close();
+      Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+      throw new RuntimeException("Unable to lazy-load seamless pay objects", cause);
+    }
+  }
+
+  /** In parallel mode, requests pages until {@code parallelism} of them are in flight. */
+  private void fill() {
+    if (this.parallelism == 0) {
+      return;
+    }
+    while (!this.closed
+        && this.pending.size() < this.parallelism
+        && this.nextPageToRequest <= this.lastPage) {
+      final int page = this.nextPageToRequest++;
+      this.pending.addLast(
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  return this.list(page);
+                } catch (final Exception e) {
+                  throw new CompletionException(e);
+                }
+              },
+              this.executor));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private SPCollectionInterface<T> list(final int page) throws Exception {
+    Map<String, Object> params = new HashMap<>();
+
+    // copy all the parameters from the initial request
+    if (this.initialParams != null) {
+      params.putAll(this.initialParams);
+    }
+
+    // then put our page number in
+    params.put(PAGE_PARAM, page);
+
+    return ApiResource.requestSPCollection(this.url, params, this.collectionType, this.options);
+  }
+
+  private static int pageNumber(final SPCollectionInterface<?> collection) {
+    SPPagination pagination = collection.getPagination();
+    return (pagination != null && pagination.getPage() != null) ? pagination.getPage() : 1;
+  }
+
+  private static int lastPage(final SPCollectionInterface<?> collection) {
+    SPPagination pagination = collection.getPagination();
+    return (pagination != null && pagination.getPages() != null)
+        ? pagination.getPages()
+        : pageNumber(collection);
+  }
+}
@@ -74,6 +74,41 @@ public class SearchPagingIterator<T> extends ApiResource implements Iterator<T>
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Returns an iterator over all the objects of the given search result's pages, which fetches up
+   * to {@code prefetch} pages ahead in the background.
+   */
+  static <T> PrefetchingPageIterator<StripeSearchResultInterface<T>, T> prefetching(
+      final StripeSearchResultInterface<T> stripeSearchResult, final int prefetch) {
+    final SearchPagingIterator<T> pager = new SearchPagingIterator<>(stripeSearchResult);
+    return new PrefetchingPageIterator<>(
+        stripeSearchResult,
+        prefetch,
+        asyncExecutor(stripeSearchResult.getRequestOptions()),
+        StripeSearchResultInterface::getData,
+        pager::fetchPageAfter);
+  }
+
+  private StripeSearchResultInterface<T> fetchPageAfter(
+      final StripeSearchResultInterface<T> page) throws Exception {
+    if (!Boolean.TRUE.equals(page.getHasMore())) {
+      return null;
+    }
+
+    Map<String, Object> params = new HashMap<>();
+
+    // copy all the parameters from the initial request
+    Map<String, Object> initialParams = page.getRequestParams();
+    if (initialParams != null) {
+      params.putAll(initialParams);
+    }
+
+    // then put our new page start in
+    params.put("next_page", page.getNextPage());
+
+    return search(params, page.getRequestOptions());
+  }
+
   @SuppressWarnings("unchecked")
   private StripeSearchResultInterface<T> search(
       final Map<String, Object> params, final RequestOptions options) throws Exception {
@@ -5,6 +5,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import com.stripe.net.ApiResource;
+import com.stripe.net.ClassMetadata;
 import com.stripe.net.StripeResponse;
 import java.lang.reflect.Field;
 
@@ -50,11 +51,17 @@ public abstract class StripeObject implements StripeObjectInterface {
    * Java library might move off Gson in the future and this method would be removed or change
    * significantly.
    *
-   * @return The raw JsonObject.
+   * <p>The raw body is only available if the request was made with the default {@link
+   * com.stripe.net.RequestOptions.ResponseRetention#FULL} retention policy, and is not available on
+   * the elements of a collection.
+   *
+   * @return The raw JsonObject, or {@code null} if the raw body was not retained.
    */
   public JsonObject getRawJsonObject() {
     // Lazily initialize this the first time the getter is called.
-    if ((this.rawJsonObject == null) && (this.getLastResponse() != null)) {
+    if ((this.rawJsonObject == null)
+        && (this.getLastResponse() != null)
+        && !this.getLastResponse().body().isEmpty()) {
       this.rawJsonObject =
           ApiResource.GSON.fromJson(this.getLastResponse().body(), JsonObject.class);
     }
@@ -67,13 +74,14 @@ public abstract class StripeObject implements StripeObjectInterface {
   }
 
   private Object getIdString() {
+    Field idField = ClassMetadata.of(this.getClass()).idField();
+    if (idField == null) {
+      return "";
+    }
     try {
-      Field idField = this.getClass().getDeclaredField("id");
+      // Read the field here rather than in ClassMetadata, as access is checked against the
+      // caller: a private id, or a package-private one outside this package, yields "".
       return idField.get(this);
-    } catch (SecurityException e) {
-      return "";
-    } catch (NoSuchFieldException e) {
-      return "";
     } catch (IllegalArgumentException e) {
       return "";
     } catch (IllegalAccessException e) {
@@ -3,6 +3,7 @@ package com.stripe.model;
 import com.stripe.net.RequestOptions;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
@@ -60,4 +61,46 @@ public abstract class StripeSearchResult<T> extends StripeObject
     this.setRequestParams(params);
     return new SearchPagingIterable<>(this);
   }
+
+  /**
+   * Constructs an iterable that can be used to iterate across all objects across all pages. While
+   * a page is being iterated, up to {@code prefetch} following pages are fetched in the background
+   * on the executor from {@link RequestOptions#getExecutor()}, or on a shared thread pool if none
+   * is set.
+   *
+   * @param params request parameters (will override the parameters from the initial list request)
+   * @param options request options (will override the options from the initial list request)
+   * @param prefetch maximum number of pages fetched ahead, or 0 to fetch pages on demand
+   */
+  public Iterable<T> autoPagingIterable(
+      Map<String, Object> params, RequestOptions options, int prefetch) {
+    this.setRequestOptions(options);
+    this.setRequestParams(params);
+    return new SearchPagingIterable<>(this, prefetch);
+  }
+
+  /**
+   * Returns a sequential stream of all objects across all pages, fetching pages on demand.
+   *
+   * @see #autoPagingStream(Map, RequestOptions, int)
+   */
+  public Stream<T> autoPagingStream() {
+    return new SearchPagingIterable<>(this).stream();
+  }
+
+  /**
+   * Returns a sequential stream of all objects across all pages, fetching up to {@code prefetch}
+   * pages ahead in the background. Close the stream (e.g. with try-with-resources) to stop
+   * prefetching if it is not consumed to the end.
+   *
+   * @param params request parameters (will override the parameters from the initial list request)
+   * @param options request options (will override the options from the initial list request)
+   * @param prefetch maximum number of pages fetched ahead, or 0 to fetch pages on demand
+   */
+  public Stream<T> autoPagingStream(
+      Map<String, Object> params, RequestOptions options, int prefetch) {
+    this.setRequestOptions(options);
+    this.setRequestParams(params);
+    return new SearchPagingIterable<>(this, prefetch).stream();
+  }
 }
@@ -0,0 +1,98 @@
+package com.stripe.net;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Untyped map of typed API request params, which is only converted with {@link
+ * ApiRequestParams#toMap()} when it is first read.
+ *
+ * <p>This lets typed params go through the {@code Map}-based {@link StripeResponseGetter}
+ * interface unchanged, while {@link StripeRequest} encodes them directly with {@link
+ * ApiRequestParamsWriter}, so that the untyped map is never built on the common path. Custom
+ * response getters may still read and modify the map as they would the one returned by {@code
+ * toMap()}: once it has been read, requests are built from the converted map instead, with any
+ * changes made to it.
+ */
+final class ApiRequestParamsMap extends AbstractMap<String, Object> {
+  private final ApiRequestParams params;
+
+  private volatile Map<String, Object> map;
+
+  ApiRequestParamsMap(ApiRequestParams params) {
+    this.params = params;
+  }
+
+  /**
+   * Returns the typed params to encode a request from: those of an {@link ApiRequestParamsMap}
+   * that has not been read, and so may be encoded directly, or else {@code null}. Params whose
+   * class overrides {@link ApiRequestParams#toMap()} are always encoded from that map.
+   */
+  static ApiRequestParams unreadParams(Map<String, Object> params) {
+    if (!(params instanceof ApiRequestParamsMap)) {
+      return null;
+    }
+    ApiRequestParamsMap map = (ApiRequestParamsMap) params;
+    if (map.map != null || ClassMetadata.of(map.params.getClass()).overridesToMap()) {
+      return null;
+    }
+    return map.params;
+  }
+
+  /**
+   * Wraps typed params into an untyped map, or returns {@code null} if {@code params} is {@code
+   * null}.
+   */
+  static Map<String, Object> of(ApiRequestParams params) {
+    return (params == null) ? null : new ApiRequestParamsMap(params);
+  }
+
+  /**
+   * Returns the params to keep on a collection for its {@code getRequestParams()}: the mutable map
+   * converted from typed params, as callers may add to it before fetching other pages, or else
+   * {@code params} itself.
+   */
+  static Map<String, Object> toMutableMap(Map<String, Object> params) {
+    return (params instanceof ApiRequestParamsMap) ? ((ApiRequestParamsMap) params).map() : params;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return this.map().entrySet();
+  }
+
+  @Override
+  public int size() {
+    return this.map().size();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return this.map().containsKey(key);
+  }
+
+  @Override
+  public Object get(Object key) {
+    return this.map().get(key);
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    return this.map().put(key, value);
+  }
+
+  private Map<String, Object> map() {
+    Map<String, Object> map = this.map;
+    if (map == null) {
+      synchronized (this) {
+        map = this.map;
+        if (map == null) {
+          map = this.params.toMap();
+          this.map = map;
+        }
+      }
+    }
+    return map;
+  }
+}
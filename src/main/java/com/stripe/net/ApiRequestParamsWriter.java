@@ -0,0 +1,307 @@
+package com.stripe.net;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import com.stripe.Stripe;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes typed API request params straight to their wire format, JSON or form-encoded, without
+ * first converting them to an untyped map with {@link ApiRequestParams#toMap()}.
+ *
+ * <p>The output is equivalent to encoding the result of {@link ApiRequestParamsConverter#convert}
+ * with {@link JsonEncoder} or {@link FormEncoder}: {@link ApiRequestParams.EnumParam} values with
+ * an empty string value are written as null, params with the serialized name {@link
+ * ApiRequestParams#EXTRA_PARAMS_KEY} are flattened into their enclosing params, and an extra param
+ * that conflicts with a regular param is rejected. Only the order of the keys may differ.
+ */
+final class ApiRequestParamsWriter {
+  /**
+   * Serializes the values that this writer does not handle itself, with the same settings as
+   * {@link ApiRequestParamsConverter}.
+   */
+  private static final Gson GSON =
+      new GsonBuilder()
+          .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+          .create();
+
+  private static final UntypedMapDeserializer UNTYPED_MAP_DESERIALIZER =
+      new UntypedMapDeserializer();
+
+  private ApiRequestParamsWriter() {}
+
+  /**
+   * Creates the {@code application/json} content for the given params.
+   *
+   * @param params the typed params
+   * @return the JSON content
+   */
+  static HttpContent createJsonContent(ApiRequestParams params) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // Use the same writer settings as JsonEncoder, which drops null values from objects.
+    try (JsonWriter writer =
+        ApiResource.GSON.newJsonWriter(new OutputStreamWriter(out, ApiResource.CHARSET))) {
+      writeJsonValue(writer, params);
+    }
+    return new HttpContent(out.toByteArray(), "application/json");
+  }
+
+  /**
+   * Creates the {@code application/x-www-form-urlencoded} content for the given params.
+   *
+   * @param params the typed params
+   * @return the form-encoded content
+   */
+  static HttpContent createFormContent(ApiRequestParams params) {
+    return new HttpContent(
+        createQueryString(params).getBytes(ApiResource.CHARSET),
+        String.format("application/x-www-form-urlencoded;charset=%s", ApiResource.CHARSET));
+  }
+
+  /**
+   * Creates the HTTP query string for the given params. As with {@link
+   * FormEncoder#createQueryString(Map)}, file and stream values are left out.
+   *
+   * @param params the typed params
+   * @return the query string
+   */
+  static String createQueryString(ApiRequestParams params) {
+    StringBuilder sb = new StringBuilder();
+    writeFormValue(sb, null, params);
+    return sb.toString();
+  }
+
+  private static void writeJsonValue(JsonWriter out, Object value) throws IOException {
+    if (value == null) {
+      out.nullValue();
+      return;
+    }
+
+    ClassMetadata metadata = ClassMetadata.of(value.getClass());
+    switch (metadata.kind()) {
+      case PARAMS:
+        out.beginObject();
+        writeJsonFields(out, metadata, value);
+        out.endObject();
+        break;
+      case ENUM_PARAM:
+        String enumValue = ((ApiRequestParams.EnumParam) value).getValue();
+        if (enumValue.isEmpty()) {
+          out.nullValue();
+        } else {
+          out.value(enumValue);
+        }
+        break;
+      case STRING:
+        out.value((String) value);
+        break;
+      case BOOLEAN:
+        out.value((Boolean) value);
+        break;
+      case NUMBER:
+        out.value((Number) value);
+        break;
+      case ENUM:
+        out.value(metadata.enumName(value));
+        break;
+      case MAP:
+        out.beginObject();
+        writeJsonEntries(out, (Map<?, ?>) value);
+        out.endObject();
+        break;
+      case COLLECTION:
+        out.beginArray();
+        for (Object element : (Collection<?>) value) {
+          writeJsonValue(out, element);
+        }
+        out.endArray();
+        break;
+      case ARRAY:
+        out.beginArray();
+        for (int i = 0; i < Array.getLength(value); i++) {
+          writeJsonValue(out, Array.get(value, i));
+        }
+        out.endArray();
+        break;
+      default:
+        GSON.toJson(GSON.toJsonTree(value), out);
+        break;
+    }
+  }
+
+  private static void writeJsonFields(JsonWriter out, ClassMetadata metadata, Object params)
+      throws IOException {
+    for (ClassMetadata.BoundField field : metadata.fields()) {
+      Object value = field.get(params);
+      if (value == null) {
+        continue;
+      }
+      if (field.extraParams) {
+        writeJsonEntries(out, extraParams(params, value));
+      } else {
+        out.name(field.name);
+        writeJsonValue(out, value);
+      }
+    }
+  }
+
+  private static void writeJsonEntries(JsonWriter out, Map<?, ?> map) throws IOException {
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      String key = String.valueOf(entry.getKey());
+      if (ApiRequestParams.EXTRA_PARAMS_KEY.equals(key)) {
+        writeJsonEntries(out, extraParams(map, entry.getValue()));
+      } else {
+        out.name(key);
+        writeJsonValue(out, entry.getValue());
+      }
+    }
+  }
+
+  private static void writeFormValue(StringBuilder sb, String key, Object value) {
+    if (value == null) {
+      writeFormPair(sb, key, "");
+      return;
+    }
+
+    ClassMetadata metadata = ClassMetadata.of(value.getClass());
+    switch (metadata.kind()) {
+      case PARAMS:
+        writeFormFields(sb, key, metadata, value);
+        break;
+      case ENUM_PARAM:
+        writeFormPair(sb, key, ((ApiRequestParams.EnumParam) value).getValue());
+        break;
+      case STRING:
+        writeFormPair(sb, key, (String) value);
+        break;
+      case BOOLEAN:
+      case NUMBER:
+        writeFormPair(sb, key, value.toString());
+        break;
+      case ENUM:
+        writeFormPair(sb, key, metadata.enumName(value));
+        break;
+      case MAP:
+        writeFormEntries(sb, key, (Map<?, ?>) value);
+        break;
+      case COLLECTION:
+        writeFormElements(sb, key, (Collection<?>) value);
+        break;
+      case ARRAY:
+        List<Object> elements = new ArrayList<>(Array.getLength(value));
+        for (int i = 0; i < Array.getLength(value); i++) {
+          elements.add(Array.get(value, i));
+        }
+        writeFormElements(sb, key, elements);
+        break;
+      case FILE:
+      case INPUT_STREAM:
+        // Files can only be sent in a multipart body, and never in a query string.
+        break;
+      default:
+        writeFormValue(
+            sb, key, UNTYPED_MAP_DESERIALIZER.deserializeJsonElement(GSON.toJsonTree(value)));
+        break;
+    }
+  }
+
+  private static void writeFormFields(
+      StringBuilder sb, String keyPrefix, ClassMetadata metadata, Object params) {
+    for (ClassMetadata.BoundField field : metadata.fields()) {
+      Object value = field.get(params);
+      if (value == null) {
+        continue;
+      }
+      if (field.extraParams) {
+        writeFormEntries(sb, keyPrefix, extraParams(params, value));
+      } else {
+        writeFormValue(sb, FormEncoder.newPrefix(field.name, keyPrefix), value);
+      }
+    }
+  }
+
+  private static void writeFormEntries(StringBuilder sb, String keyPrefix, Map<?, ?> map) {
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      String key = String.valueOf(entry.getKey());
+      if (ApiRequestParams.EXTRA_PARAMS_KEY.equals(key)) {
+        writeFormEntries(sb, keyPrefix, extraParams(map, entry.getValue()));
+      } else {
+        writeFormValue(sb, FormEncoder.newPrefix(key, keyPrefix), entry.getValue());
+      }
+    }
+  }
+
+  private static void writeFormElements(
+      StringBuilder sb, String keyPrefix, Collection<?> elements) {
+    // An empty list is sent as an empty value, as in FormEncoder.
+    if (elements.isEmpty()) {
+      writeFormPair(sb, keyPrefix, "");
+      return;
+    }
+    int index = 0;
+    for (Object element : elements) {
+      writeFormValue(sb, keyPrefix + "[" + index + "]", element);
+      index += 1;
+    }
+  }
+
+  private static void writeFormPair(StringBuilder sb, String key, String value) {
+    if (sb.length() > 0) {
+      sb.append('&');
+    }
+    sb.append(FormEncoder.urlEncode(key)).append('=').append(FormEncoder.urlEncode(value));
+  }
+
+  /**
+   * Checks that the extra params of {@code owner} are a map, and that none of them conflicts with
+   * a param that is already set on {@code owner}.
+   */
+  private static Map<?, ?> extraParams(Object owner, Object extraParams) {
+    if (!(extraParams instanceof Map<?, ?>)) {
+      throw new IllegalStateException(
+          String.format(
+              "Unexpected schema for extra params. JSON object is expected at key `%s`, but found"
+                  + " `%s`. This is likely a problem with this current library version `%s`. "
+                  + "Please contact support@stripe.com for assistance.",
+              ApiRequestParams.EXTRA_PARAMS_KEY, GSON.toJson(extraParams), Stripe.VERSION));
+    }
+
+    Map<?, ?> extraParamsMap = (Map<?, ?>) extraParams;
+    for (Map.Entry<?, ?> entry : extraParamsMap.entrySet()) {
+      String key = String.valueOf(entry.getKey());
+      Object existing = null;
+      boolean conflict = false;
+      if (owner instanceof ApiRequestParams) {
+        ClassMetadata.BoundField field = ClassMetadata.of(owner.getClass()).field(key);
+        if (field != null && !field.extraParams) {
+          existing = field.get(owner);
+          conflict = (existing != null);
+        }
+      } else {
+        existing = ((Map<?, ?>) owner).get(key);
+        conflict = ((Map<?, ?>) owner).containsKey(key);
+      }
+      if (conflict) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Found multiple param values for the same param key. This can happen because you "
+                    + "passed additional parameters via `putExtraParam` that conflict with the "
+                    + "existing params. Found param key `%s` with values `%s` and `%s`. "
+                    + "If you wish to pass additional params for nested parameters, you "
+                    + "should add extra params at the nested params themselves, not from the "
+                    + "top-level param.",
+                key, existing, entry.getValue()));
+      }
+    }
+    return extraParamsMap;
+  }
+}
@@ -11,12 +11,12 @@ import com.stripe.model.*;
 import com.stripe.util.StringUtils;
 
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public abstract class ApiResource extends StripeObject {
   public static final Charset CHARSET = StandardCharsets.UTF_8;
@@ -119,16 +119,7 @@ public abstract class ApiResource extends StripeObject {
       return null;
     }
 
-    try {
-      // Don't use strict form encoding by changing the square bracket control
-      // characters back to their literals. This is fine by the server, and
-      // makes these parameter strings easier to read.
-      return URLEncoder.encode(str, CHARSET.name()).replaceAll("%5B", "[").replaceAll("%5D", "]");
-    } catch (UnsupportedEncodingException e) {
-      // This can literally never happen, and lets us avoid having to catch
-      // UnsupportedEncodingException in callers.
-      throw new AssertionError("UTF-8 is unknown");
-    }
+    return FormEncoder.urlEncode(str);
   }
 
   /** URL-encode a string ID in url path formatting. */
@@ -156,7 +147,7 @@ public abstract class ApiResource extends StripeObject {
       RequestOptions options)
       throws StripeException {
     checkNullTypedParams(url, params);
-    return request(method, url, params.toMap(), clazz, options);
+    return request(method, url, ApiRequestParamsMap.of(params), clazz, options);
   }
 
   public static <T extends StripeObjectInterface> T request(ApiResource.RequestMethod method,
@@ -169,6 +160,51 @@ public abstract class ApiResource extends StripeObject {
     return ApiResource.stripeResponseGetter.request(method, url, params, clazz, options);
   }
 
+  /**
+   * Similar to #request, but does not block the calling thread. The returned future is completed
+   * with the deserialized resource, or completed exceptionally with a {@link StripeException}.
+   */
+  public static <T extends StripeObjectInterface> CompletableFuture<T> requestAsync(
+      ApiResource.RequestMethod method,
+      String url,
+      ApiRequestParams params,
+      Class<T> clazz,
+      RequestOptions options) {
+    checkNullTypedParams(url, params);
+    return requestAsync(method, url, ApiRequestParamsMap.of(params), clazz, options);
+  }
+
+  /**
+   * Similar to #request, but does not block the calling thread. The returned future is completed
+   * with the deserialized resource, or completed exceptionally with a {@link StripeException}.
+   */
+  public static <T extends StripeObjectInterface> CompletableFuture<T> requestAsync(
+      ApiResource.RequestMethod method,
+      String url,
+      Map<String, Object> params,
+      Class<T> clazz,
+      RequestOptions options) {
+    return ApiResource.stripeResponseGetter.requestAsync(method, url, params, clazz, options);
+  }
+
+  /**
+   * Returns a future that is already completed exceptionally, for async methods that fail before
+   * sending their request (e.g. because of an invalid ID).
+   */
+  protected static <T> CompletableFuture<T> failedFuture(Throwable e) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(e);
+    return future;
+  }
+
+  /**
+   * Returns the executor that fan-out helpers such as prefetching pagers should run their requests
+   * on: the one set on the request options, or else the library's shared pool of daemon threads.
+   */
+  protected static Executor asyncExecutor(RequestOptions options) {
+    return HttpClient.executorFor(options);
+  }
+
   public static InputStream requestStream(ApiResource.RequestMethod method,
                                           String url,
                                           ApiRequestParams params,
@@ -176,7 +212,7 @@ public abstract class ApiResource extends StripeObject {
       throws StripeException {
 
     checkNullTypedParams(url, params);
-    return requestStream(method, url, params.toMap(), options);
+    return requestStream(method, url, ApiRequestParamsMap.of(params), options);
   }
 
   public static InputStream requestStream(ApiResource.RequestMethod method,
@@ -194,7 +230,7 @@ public abstract class ApiResource extends StripeObject {
                                                                              RequestOptions options)
       throws StripeException {
 
-    return requestCollection(url, params.toMap(), clazz, options);
+    return requestCollection(url, ApiRequestParamsMap.of(params), clazz, options);
   }
 
   public static <T extends SPCollectionInterface<?>> T requestSPCollection(String url,
@@ -203,8 +239,7 @@ public abstract class ApiResource extends StripeObject {
                                                                            RequestOptions options)
     throws StripeException {
 
-    Map<String, Object> paramsMap = (params == null) ? null : params.toMap();
-    return requestSPCollection(url, paramsMap, clazz, options);
+    return requestSPCollection(url, ApiRequestParamsMap.of(params), clazz, options);
   }
 
   /**
@@ -221,7 +256,7 @@ public abstract class ApiResource extends StripeObject {
 
     if (collection != null) {
       collection.setRequestOptions(options);
-      collection.setRequestParams(params);
+      collection.setRequestParams(ApiRequestParamsMap.toMutableMap(params));
     }
 
     return collection;
@@ -237,15 +272,22 @@ public abstract class ApiResource extends StripeObject {
   public static <T extends SPCollectionInterface<?>> T requestSPCollection(
       String url, Map<String, Object> params, Class<T> clazz, RequestOptions options)
       throws StripeException {
+    T collection = request(RequestMethod.GET, url, params, clazz, options);
 
-    return request(RequestMethod.GET, url, params, clazz, options);
+    if (collection != null) {
+      collection.setRequestUrl(url);
+      collection.setRequestOptions(options);
+      collection.setRequestParams(ApiRequestParamsMap.toMutableMap(params));
+    }
+
+    return collection;
   }
 
   public static <T extends StripeSearchResultInterface<?>> T requestSearchResult(
       String url, ApiRequestParams params, Class<T> clazz, RequestOptions options)
       throws StripeException {
     checkNullTypedParams(url, params);
-    return requestSearchResult(url, params.toMap(), clazz, options);
+    return requestSearchResult(url, ApiRequestParamsMap.of(params), clazz, options);
   }
 
   /**
@@ -264,7 +306,7 @@ public abstract class ApiResource extends StripeObject {
 
     if (searchResult != null) {
       searchResult.setRequestOptions(options);
-      searchResult.setRequestParams(params);
+      searchResult.setRequestParams(ApiRequestParamsMap.toMutableMap(params));
     }
 
     return searchResult;
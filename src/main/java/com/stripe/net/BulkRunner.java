@@ -0,0 +1,637 @@
+package com.stripe.net;
+
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs an operation, such as {@code SPCharge::create}, over a stream of inputs with bounded
+ * parallelism, and can resume a job that was interrupted without sending any request twice.
+ *
+ * <p>Each input is identified by an item key: the key given to {@link #run(Stream, Function,
+ * Operation)}, or else its position in the stream of inputs, which must then come in the same order
+ * when the job is resumed. Its requests are sent with the idempotency key {@code
+ * <jobId>-<itemKey>}, so that retrying an item, in this run or a later one, returns the result of
+ * the first attempt rather than repeating it. Inputs that are equal are still distinct items: two
+ * identical charges are both created, unless they are given the same key and {@link
+ * Builder#setSkipDuplicates(boolean) duplicates are skipped}.
+ *
+ * <p>With a {@link Builder#setCheckpointFile(Path) checkpoint file}, the key of each item that
+ * succeeds is appended to the file as soon as it completes, and items found in the file are
+ * skipped by later runs of the same job. Items that were in flight when a run crashed are sent
+ * again with their idempotency key, which Stripe honours for 24 hours.
+ *
+ * <p>At most {@link Builder#setParallelism(int) parallelism} items are in flight at once. When the
+ * API answers with {@code 429 Too Many Requests}, the item is retried after a backoff and the
+ * number of items in flight is halved, then grown back by one for every window of successful
+ * items. Inputs are only read as results are consumed, so a slow consumer pushes back on the job.
+ *
+ * <pre>
+ *   BulkRunner runner =
+ *       BulkRunner.builder("monthly-repricing")
+ *           .setParallelism(16)
+ *           .setCheckpointFile(Paths.get("monthly-repricing.checkpoint"))
+ *           .build();
+ *   try (Stream&lt;BulkRunner.Result&lt;SPChargeCreateParams, SPCharge&gt;&gt; results =
+ *       runner.run(params.stream(), SPCharge::create)) {
+ *     results.filter(r -&gt; r.getStatus() == BulkRunner.Status.FAILED).forEach(this::report);
+ *   }
+ * </pre>
+ */
+public final class BulkRunner {
+  /**
+   * Sends the requests of one item.
+   *
+   * @param <I> the type of the inputs
+   * @param <R> the type of the results
+   */
+  @FunctionalInterface
+  public interface Operation<I, R> {
+    /**
+     * Sends the requests of one item.
+     *
+     * @param input the input
+     * @param options the request options, carrying the idempotency key of the item
+     * @return the result
+     */
+    R apply(I input, RequestOptions options) throws StripeException;
+  }
+
+  /** What became of an item. */
+  public enum Status {
+    /** The operation returned a result. */
+    SUCCEEDED,
+
+    /** The operation threw an exception. */
+    FAILED,
+
+    /**
+     * The item was not run: it succeeded in an earlier run, or its key came up twice in this one
+     * and {@link Builder#setSkipDuplicates(boolean) duplicates are skipped}.
+     */
+    SKIPPED
+  }
+
+  /**
+   * The outcome of one item.
+   *
+   * @param <I> the type of the inputs
+   * @param <R> the type of the results
+   */
+  public static final class Result<I, R> {
+    private final I input;
+    private final String itemKey;
+    private final Status status;
+    private final R value;
+    private final Exception exception;
+
+    /** An error thrown by the operation, rethrown to the consumer of the results. */
+    private Error error;
+
+    private Result(I input, String itemKey, Status status, R value, Exception exception) {
+      this.input = input;
+      this.itemKey = itemKey;
+      this.status = status;
+      this.value = value;
+      this.exception = exception;
+    }
+
+    /** Returns the input of the item. */
+    public I getInput() {
+      return this.input;
+    }
+
+    /** Returns the key identifying the item across runs. */
+    public String getItemKey() {
+      return this.itemKey;
+    }
+
+    /** Returns what became of the item. */
+    public Status getStatus() {
+      return this.status;
+    }
+
+    /** Returns the result of the operation, or null if it did not succeed in this run. */
+    public R getValue() {
+      return this.value;
+    }
+
+    /**
+     * Returns the exception thrown by the operation, a {@link StripeException} or a runtime
+     * exception, or null if it did not fail.
+     */
+    public Exception getException() {
+      return this.exception;
+    }
+  }
+
+  private static final String CHECKPOINT_HEADER = "# bulk job ";
+
+  private static final Duration RATE_LIMIT_COOLDOWN = Duration.ofSeconds(1);
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final String jobId;
+  private final int parallelism;
+  private final boolean skipDuplicates;
+  private final Path checkpointFile;
+  private final RequestOptions options;
+  private final Executor executor;
+  private final int maxRateLimitRetries;
+  private final long rateLimitBackoffNanos;
+  private final LongSupplier nanoTime;
+
+  private BulkRunner(Builder builder) {
+    this.jobId = builder.jobId;
+    this.parallelism = builder.parallelism;
+    this.skipDuplicates = builder.skipDuplicates;
+    this.checkpointFile = builder.checkpointFile;
+    this.options = (builder.options != null) ? builder.options : RequestOptions.getDefault();
+    this.executor =
+        (builder.executor != null) ? builder.executor : HttpClient.executorFor(this.options);
+    this.maxRateLimitRetries = builder.maxRateLimitRetries;
+    this.rateLimitBackoffNanos = builder.rateLimitBackoff.toNanos();
+    this.nanoTime = builder.nanoTime;
+  }
+
+  /**
+   * Returns a builder for a new runner.
+   *
+   * @param jobId identifies the job in idempotency keys and in the checkpoint file; it must stay
+   *     the same when the job is resumed, and differ between jobs
+   */
+  public static Builder builder(String jobId) {
+    return new Builder(jobId);
+  }
+
+  /**
+   * Runs an operation over inputs such as request params, keying each item by its position in the
+   * stream. A resumed job must read the same inputs in the same order.
+   *
+   * @param inputs the inputs of the items
+   * @param operation sends the requests of one item
+   * @return the outcome of each item, in the order the items complete; closing the stream stops
+   *     the job, although items already in flight still run to completion
+   * @throws IOException if the checkpoint file cannot be read
+   */
+  public <I, R> Stream<Result<I, R>> run(
+      Stream<I> inputs, Operation<? super I, ? extends R> operation) throws IOException {
+    // Keys are taken one input at a time, as the inputs are read.
+    AtomicLong position = new AtomicLong();
+    return run(inputs, input -> Long.toString(position.getAndIncrement()), operation);
+  }
+
+  /**
+   * Runs an operation over arbitrary inputs, such as pairs of an ID and the params to update it
+   * with.
+   *
+   * @param inputs the inputs of the items
+   * @param itemKey returns a key identifying an input across runs, without line breaks. Inputs
+   *     with the same key share an idempotency key, so only the first one takes effect.
+   * @param operation sends the requests of one item
+   * @return the outcome of each item, in the order the items complete; closing the stream stops
+   *     the job, although items already in flight still run to completion
+   * @throws IOException if the checkpoint file cannot be read
+   */
+  public <I, R> Stream<Result<I, R>> run(
+      Stream<I> inputs,
+      Function<? super I, String> itemKey,
+      Operation<? super I, ? extends R> operation)
+      throws IOException {
+    Checkpoint checkpoint = (this.checkpointFile != null) ? openCheckpoint() : null;
+    Run<I, R> run = new Run<>(inputs.iterator(), itemKey, operation, checkpoint);
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(run, Spliterator.NONNULL), false)
+        .onClose(run::close)
+        .onClose(inputs::close);
+  }
+
+  private Checkpoint openCheckpoint() throws IOException {
+    Set<String> completed = new HashSet<>();
+    boolean empty = !Files.exists(this.checkpointFile) || Files.size(this.checkpointFile) == 0;
+    boolean terminated = true;
+    if (!empty) {
+      try (BufferedReader reader =
+          Files.newBufferedReader(this.checkpointFile, StandardCharsets.UTF_8)) {
+        String header = reader.readLine();
+        if (!(CHECKPOINT_HEADER + this.jobId).equals(header)) {
+          throw new IllegalStateException(
+              String.format(
+                  "Checkpoint file %s belongs to another job: %s", this.checkpointFile, header));
+        }
+        String line;
+        while ((line = reader.readLine()) != null) {
+          completed.add(line);
+        }
+      }
+      try (SeekableByteChannel channel = Files.newByteChannel(this.checkpointFile)) {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.position(channel.size() - 1).read(last);
+        terminated = last.get(0) == '\n';
+      }
+    }
+
+    Writer writer =
+        Files.newBufferedWriter(
+            this.checkpointFile,
+            StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND);
+    if (empty) {
+      writer.write(CHECKPOINT_HEADER + this.jobId + "\n");
+    } else if (!terminated) {
+      // The previous run crashed halfway through a line, which is left as a key matching no item.
+      writer.write("\n");
+    }
+    writer.flush();
+    return new Checkpoint(completed, writer);
+  }
+
+  private static String sha256(String value) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+    char[] hex = new char[hash.length * 2];
+    for (int i = 0; i < hash.length; i++) {
+      hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+      hex[2 * i + 1] = HEX[hash[i] & 0xF];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * The keys of the items that succeeded, in this run or an earlier one. It is guarded by a {@link
+   * ReentrantLock}, held while writing to the file, so that items run on virtual threads do not pin
+   * their carrier thread.
+   */
+  private static final class Checkpoint {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Set<String> completed;
+    private final Writer writer;
+    private boolean closed;
+
+    Checkpoint(Set<String> completed, Writer writer) {
+      this.completed = completed;
+      this.writer = writer;
+    }
+
+    boolean isCompleted(String itemKey) {
+      this.lock.lock();
+      try {
+        return this.completed.contains(itemKey);
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    void record(String itemKey) throws IOException {
+      this.lock.lock();
+      try {
+        if (this.closed) {
+          // Items finishing after the stream was closed are sent again on resume.
+          return;
+        }
+        this.completed.add(itemKey);
+        this.writer.write(itemKey + "\n");
+        this.writer.flush();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    void close() {
+      this.lock.lock();
+      try {
+        if (this.closed) {
+          return;
+        }
+        this.closed = true;
+        this.writer.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        this.lock.unlock();
+      }
+    }
+  }
+
+  /** One run of the job, pulling inputs as its results are consumed. */
+  private final class Run<I, R> implements Iterator<Result<I, R>> {
+    private final Iterator<I> inputs;
+    private final Function<? super I, String> itemKey;
+    private final Operation<? super I, ? extends R> operation;
+    private final Checkpoint checkpoint;
+
+    private final Set<String> started = new HashSet<>();
+    private final ArrayDeque<Result<I, R>> skipped = new ArrayDeque<>();
+    private final BlockingQueue<Result<I, R>> completed = new LinkedBlockingQueue<>();
+
+    /** The number of items allowed in flight, shrunk when the API is rate limiting. */
+    private double window = parallelism;
+
+    private long lastDecrease;
+    private boolean decreased;
+    private int inFlight;
+    private volatile boolean closed;
+    private volatile IOException checkpointFailure;
+
+    Run(
+        Iterator<I> inputs,
+        Function<? super I, String> itemKey,
+        Operation<? super I, ? extends R> operation,
+        Checkpoint checkpoint) {
+      this.inputs = inputs;
+      this.itemKey = itemKey;
+      this.operation = operation;
+      this.checkpoint = checkpoint;
+    }
+
+    @Override
+    public boolean hasNext() {
+      fill();
+      return !this.skipped.isEmpty() || this.inFlight > 0;
+    }
+
+    @Override
+    public Result<I, R> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (!this.skipped.isEmpty()) {
+        return this.skipped.poll();
+      }
+      Result<I, R> result;
+      try {
+        result = this.completed.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for a bulk job item", e);
+      }
+      this.inFlight--;
+      if (result.error != null) {
+        throw result.error;
+      }
+      if (this.checkpointFailure != null) {
+        throw new UncheckedIOException(
+            "Could not write to checkpoint file " + checkpointFile, this.checkpointFailure);
+      }
+      return result;
+    }
+
+    void close() {
+      this.closed = true;
+      if (this.checkpoint != null) {
+        this.checkpoint.close();
+      }
+    }
+
+    /** Starts items until the window is full, or until an item is skipped. */
+    private void fill() {
+      while (!this.closed
+          && this.skipped.isEmpty()
+          && this.inFlight < currentWindow()
+          && this.inputs.hasNext()) {
+        I input = this.inputs.next();
+        String key = this.itemKey.apply(input);
+        if (key == null || key.isEmpty() || key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+          throw new IllegalArgumentException("Item keys must be non-empty single lines: " + key);
+        }
+        if ((this.checkpoint != null && this.checkpoint.isCompleted(key))
+            || (skipDuplicates && !this.started.add(key))) {
+          this.skipped.add(new Result<>(input, key, Status.SKIPPED, null, null));
+          return;
+        }
+        this.inFlight++;
+        try {
+          executor.execute(() -> this.completed.add(runItem(input, key)));
+        } catch (RejectedExecutionException e) {
+          this.completed.add(new Result<>(input, key, Status.FAILED, null, e));
+        }
+      }
+    }
+
+    /** Runs an item, always giving a result so that {@link #next()} does not wait forever. */
+    private Result<I, R> runItem(I input, String key) {
+      try {
+        return attempt(input, key);
+      } catch (Exception e) {
+        return new Result<>(input, key, Status.FAILED, null, e);
+      } catch (Throwable e) {
+        Result<I, R> result = new Result<>(input, key, Status.FAILED, null, null);
+        result.error = (e instanceof Error) ? (Error) e : new Error(e);
+        return result;
+      }
+    }
+
+    private Result<I, R> attempt(I input, String key) {
+      String idempotencyKey = jobId + "-" + key;
+      if (idempotencyKey.length() > 255) {
+        idempotencyKey = jobId + "-" + sha256(key);
+      }
+      RequestOptions itemOptions = options.withIdempotencyKey(idempotencyKey);
+
+      for (int retries = 0; ; retries++) {
+        try {
+          R value = this.operation.apply(input, itemOptions);
+          onSuccess();
+          if (this.checkpoint != null) {
+            try {
+              this.checkpoint.record(key);
+            } catch (IOException e) {
+              this.checkpointFailure = e;
+            }
+          }
+          return new Result<>(input, key, Status.SUCCEEDED, value, null);
+        } catch (StripeException e) {
+          if (!isRateLimited(e) || retries >= maxRateLimitRetries || this.closed) {
+            return new Result<>(input, key, Status.FAILED, null, e);
+          }
+          onRateLimited();
+          try {
+            TimeUnit.NANOSECONDS.sleep(rateLimitBackoffNanos << Math.min(retries, 16));
+          } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return new Result<>(input, key, Status.FAILED, null, e);
+          }
+        } catch (RuntimeException e) {
+          return new Result<>(input, key, Status.FAILED, null, e);
+        }
+      }
+    }
+
+    private synchronized int currentWindow() {
+      return Math.max(1, (int) this.window);
+    }
+
+    private synchronized void onSuccess() {
+      this.window = Math.min(parallelism, this.window + 1 / this.window);
+    }
+
+    private synchronized void onRateLimited() {
+      long now = nanoTime.getAsLong();
+      // The items in flight when the API started limiting all get a 429; halve the window once.
+      if (this.decreased && now - this.lastDecrease < RATE_LIMIT_COOLDOWN.toNanos()) {
+        return;
+      }
+      this.decreased = true;
+      this.lastDecrease = now;
+      this.window = Math.max(1, this.window / 2);
+    }
+  }
+
+  private static boolean isRateLimited(StripeException e) {
+    return e instanceof RateLimitException
+        || (e.getStatusCode() != null && e.getStatusCode() == 429);
+  }
+
+  /** Builder for {@link BulkRunner} instances. */
+  public static final class Builder {
+    private final String jobId;
+    private int parallelism = 8;
+    private Path checkpointFile;
+    private RequestOptions options;
+    private Executor executor;
+    private boolean skipDuplicates;
+    private int maxRateLimitRetries = 5;
+    private Duration rateLimitBackoff = Duration.ofSeconds(1);
+    private LongSupplier nanoTime = System::nanoTime;
+
+    private Builder(String jobId) {
+      if (jobId == null || jobId.isEmpty() || jobId.length() > 128 || jobId.contains("\n")) {
+        throw new IllegalArgumentException("jobId must be a single line of 1 to 128 characters");
+      }
+      this.jobId = jobId;
+    }
+
+    /**
+     * Sets the most items in flight at once. Defaults to 8.
+     *
+     * @param parallelism the number of items
+     */
+    public Builder setParallelism(int parallelism) {
+      if (parallelism <= 0) {
+        throw new IllegalArgumentException("parallelism must be positive");
+      }
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * Sets whether an item whose key already came up in this run is skipped rather than run, e.g.
+     * when the inputs may repeat the same key. Defaults to false. Only the keys given to {@link
+     * #run(Stream, Function, Operation)} can repeat, as positions never do.
+     *
+     * @param skipDuplicates whether to skip repeated keys
+     */
+    public Builder setSkipDuplicates(boolean skipDuplicates) {
+      this.skipDuplicates = skipDuplicates;
+      return this;
+    }
+
+    /**
+     * Sets the file recording the items that succeeded, so that the job can be resumed. It is
+     * created if it does not exist. Defaults to none.
+     *
+     * @param checkpointFile the file
+     */
+    public Builder setCheckpointFile(Path checkpointFile) {
+      this.checkpointFile = checkpointFile;
+      return this;
+    }
+
+    /**
+     * Sets the options the requests are sent with. Their idempotency key is replaced by the one of
+     * each item. Defaults to {@link RequestOptions#getDefault()}.
+     *
+     * @param options the request options
+     */
+    public Builder setRequestOptions(RequestOptions options) {
+      this.options = options;
+      return this;
+    }
+
+    /**
+     * Sets the executor running the items. Defaults to the executor of the request options, or
+     * else the library's shared pool of daemon threads.
+     *
+     * @param executor the executor
+     */
+    public Builder setExecutor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Sets how many times an item answered with {@code 429 Too Many Requests} is retried. Defaults
+     * to 5.
+     *
+     * @param maxRateLimitRetries the number of retries
+     */
+    public Builder setMaxRateLimitRetries(int maxRateLimitRetries) {
+      if (maxRateLimitRetries < 0) {
+        throw new IllegalArgumentException("maxRateLimitRetries must not be negative");
+      }
+      this.maxRateLimitRetries = maxRateLimitRetries;
+      return this;
+    }
+
+    /**
+     * Sets the wait before the first retry of a rate limited item, doubled on each further retry.
+     * Defaults to 1 second.
+     *
+     * @param rateLimitBackoff the wait
+     */
+    public Builder setRateLimitBackoff(Duration rateLimitBackoff) {
+      if (rateLimitBackoff == null || rateLimitBackoff.isNegative()) {
+        throw new IllegalArgumentException("rateLimitBackoff must not be negative");
+      }
+      this.rateLimitBackoff = rateLimitBackoff;
+      return this;
+    }
+
+    /** Sets the time source, for tests. */
+    Builder setNanoTime(LongSupplier nanoTime) {
+      this.nanoTime = nanoTime;
+      return this;
+    }
+
+    /** Builds the runner. */
+    public BulkRunner build() {
+      return new BulkRunner(this);
+    }
+  }
+}
@@ -0,0 +1,546 @@
+package com.stripe.net;
+
+import com.stripe.exception.ApiException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.StripeObjectInterface;
+import com.stripe.net.RequestOptions.CachePolicy;
+import com.stripe.net.RequestOptions.ResponseRetention;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import lombok.EqualsAndHashCode;
+
+/**
+ * A read-through cache in front of another {@link StripeResponseGetter}, for resources that rarely
+ * change, such as prices, products, tax rates or country specs.
+ *
+ * <p>Only {@code GET} requests for the classes given a {@link Builder#setTtl(Class, Duration) TTL}
+ * are cached, the class being matched exactly: caching {@code Price} does not cache {@code
+ * PriceCollection}. Requests are cached per URL, parameters, API key, account and version override,
+ * and may opt out through {@link RequestOptions#getCachePolicy()}.
+ *
+ * <p>The cache keeps the raw responses rather than the resources, so that each call gets a resource
+ * of its own that it is free to modify, with its last response kept according to its {@link
+ * RequestOptions#getResponseRetention()}. Responses of {@code 404 Not Found} are cached too, for
+ * {@link Builder#setNegativeTtl(Duration) a shorter time}; each hit throws a new exception of the
+ * same type and details, caused by the exception of the original request.
+ *
+ * <p>Once its TTL is over, a response may still be served for {@link
+ * Builder#setStaleWhileRevalidate(Duration) a while} while it is refreshed in the background, on
+ * the executor from {@link RequestOptions#getExecutor()} or the shared pool of daemon threads.
+ *
+ * <p>The cache holds at most {@link Builder#setMaxEntries(int) maxEntries} responses, evicted by a
+ * segmented LRU policy: new responses enter a probation segment, and are promoted to a protected
+ * segment on their first hit, so that a burst of one-off requests cannot evict the responses that
+ * are hit over and over. All methods are thread-safe.
+ */
+public final class CachingStripeResponseGetter implements StripeResponseGetter {
+  /** The share of the entries kept in the protected segment. */
+  private static final double PROTECTED_SHARE = 0.8;
+
+  private final StripeResponseGetter delegate;
+  private final Map<Class<?>, Long> ttlNanos;
+  private final long negativeTtlNanos;
+  private final long staleNanos;
+  private final int maxEntries;
+  private final int protectedCapacity;
+  private final LongSupplier nanoTime;
+
+  private final LinkedHashMap<CacheKey, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<CacheKey, Entry> protectedSegment =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder staleHits = new LongAdder();
+  private final LongAdder negativeHits = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private CachingStripeResponseGetter(Builder builder) {
+    this.delegate = builder.delegate;
+    this.ttlNanos = new HashMap<>(builder.ttlNanos);
+    this.negativeTtlNanos = builder.negativeTtl.toNanos();
+    this.staleNanos = builder.staleWhileRevalidate.toNanos();
+    this.maxEntries = builder.maxEntries;
+    this.protectedCapacity = (int) (builder.maxEntries * PROTECTED_SHARE);
+    this.nanoTime = builder.nanoTime;
+  }
+
+  /**
+   * Returns a builder for a new cache.
+   *
+   * @param delegate the response getter sending the requests that miss the cache
+   */
+  public static Builder builder(StripeResponseGetter delegate) {
+    return new Builder(delegate);
+  }
+
+  /** Returns the number of requests answered from the cache, stale and negative hits included. */
+  public long getHits() {
+    return this.hits.sum();
+  }
+
+  /** Returns the number of cacheable requests that were sent to the delegate. */
+  public long getMisses() {
+    return this.misses.sum();
+  }
+
+  /** Returns the number of requests answered with a response past its TTL. */
+  public long getStaleHits() {
+    return this.staleHits.sum();
+  }
+
+  /** Returns the number of requests answered with a cached {@code 404 Not Found}. */
+  public long getNegativeHits() {
+    return this.negativeHits.sum();
+  }
+
+  /** Returns the number of responses evicted to make room for others. */
+  public long getEvictions() {
+    return this.evictions.sum();
+  }
+
+  /** Returns the number of responses in the cache, including expired ones not yet removed. */
+  public synchronized int size() {
+    return this.probation.size() + this.protectedSegment.size();
+  }
+
+  /** Removes all responses from the cache. */
+  public synchronized void invalidateAll() {
+    this.probation.clear();
+    this.protectedSegment.clear();
+  }
+
+  @Override
+  public <T extends StripeObjectInterface> T request(
+      ApiResource.RequestMethod method,
+      String url,
+      Map<String, Object> params,
+      Class<T> clazz,
+      RequestOptions options)
+      throws StripeException {
+    RequestOptions effective = (options != null) ? options : RequestOptions.getDefault();
+    Long ttl = this.ttlNanos.get(clazz);
+    if (ttl == null
+        || method != ApiResource.RequestMethod.GET
+        || effective.getCachePolicy() == CachePolicy.BYPASS) {
+      return this.delegate.request(method, url, params, clazz, options);
+    }
+
+    CacheKey key = new CacheKey(url, params, clazz, effective);
+    if (effective.getCachePolicy() == CachePolicy.USE) {
+      Entry entry = lookup(key);
+      if (entry != null) {
+        return entry.resourceFor(clazz, effective.getResponseRetention());
+      }
+    }
+
+    this.misses.increment();
+    return new Call<>(method, url, params, clazz, effective, key, ttl).fetch();
+  }
+
+  @Override
+  public <T extends StripeObjectInterface> CompletableFuture<T> requestAsync(
+      ApiResource.RequestMethod method,
+      String url,
+      Map<String, Object> params,
+      Class<T> clazz,
+      RequestOptions options) {
+    RequestOptions effective = (options != null) ? options : RequestOptions.getDefault();
+    Long ttl = this.ttlNanos.get(clazz);
+    if (ttl == null
+        || method != ApiResource.RequestMethod.GET
+        || effective.getCachePolicy() == CachePolicy.BYPASS) {
+      return this.delegate.requestAsync(method, url, params, clazz, options);
+    }
+
+    CacheKey key = new CacheKey(url, params, clazz, effective);
+    if (effective.getCachePolicy() == CachePolicy.USE) {
+      Entry entry = lookup(key);
+      if (entry != null) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+          result.complete(entry.resourceFor(clazz, effective.getResponseRetention()));
+        } catch (StripeException | RuntimeException e) {
+          result.completeExceptionally(e);
+        }
+        return result;
+      }
+    }
+
+    this.misses.increment();
+    return new Call<>(method, url, params, clazz, effective, key, ttl).fetchAsync();
+  }
+
+  @Override
+  public <T extends StripeObjectInterface> T oauthRequest(
+      ApiResource.RequestMethod method,
+      String url,
+      Map<String, Object> params,
+      Class<T> clazz,
+      RequestOptions options)
+      throws StripeException {
+    return this.delegate.oauthRequest(method, url, params, clazz, options);
+  }
+
+  @Override
+  public InputStream requestStream(
+      ApiResource.RequestMethod method,
+      String url,
+      Map<String, Object> params,
+      RequestOptions options)
+      throws StripeException {
+    return this.delegate.requestStream(method, url, params, options);
+  }
+
+  /**
+   * Returns the cached entry for a request, or null if there is none that may still be served.
+   * Starts refreshing the entry if it is stale.
+   */
+  private Entry lookup(CacheKey key) {
+    long now = this.nanoTime.getAsLong();
+    Entry entry;
+    boolean refresh = false;
+    synchronized (this) {
+      entry = get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (now - entry.staleUntil >= 0) {
+        remove(key);
+        return null;
+      }
+      if (now - entry.freshUntil >= 0) {
+        this.staleHits.increment();
+        refresh = !entry.refreshing;
+        entry.refreshing = true;
+      }
+    }
+
+    this.hits.increment();
+    if (entry.failure != null) {
+      this.negativeHits.increment();
+    }
+    if (refresh) {
+      entry.refresher.refresh(entry);
+    }
+    return entry;
+  }
+
+  /** Returns the entry for a key, promoting it to the protected segment. */
+  private Entry get(CacheKey key) {
+    Entry entry = this.protectedSegment.get(key);
+    if (entry != null) {
+      return entry;
+    }
+    entry = this.probation.remove(key);
+    if (entry == null) {
+      return null;
+    }
+    this.protectedSegment.put(key, entry);
+    if (this.protectedSegment.size() > this.protectedCapacity) {
+      // The least recently used protected entry gets a second chance in probation.
+      Iterator<Map.Entry<CacheKey, Entry>> eldest = this.protectedSegment.entrySet().iterator();
+      Map.Entry<CacheKey, Entry> demoted = eldest.next();
+      eldest.remove();
+      this.probation.put(demoted.getKey(), demoted.getValue());
+    }
+    return entry;
+  }
+
+  private synchronized void put(CacheKey key, Entry entry) {
+    if (this.protectedSegment.containsKey(key)) {
+      this.protectedSegment.put(key, entry);
+      return;
+    }
+    this.probation.put(key, entry);
+    while (size() > this.maxEntries) {
+      LinkedHashMap<CacheKey, Entry> segment =
+          this.probation.isEmpty() ? this.protectedSegment : this.probation;
+      Iterator<CacheKey> eldest = segment.keySet().iterator();
+      eldest.next();
+      eldest.remove();
+      this.evictions.increment();
+    }
+  }
+
+  private void remove(CacheKey key) {
+    if (this.protectedSegment.remove(key) == null) {
+      this.probation.remove(key);
+    }
+  }
+
+  private synchronized void endRefresh(Entry entry) {
+    entry.refreshing = false;
+  }
+
+  /** Identifies requests whose responses are interchangeable. */
+  @EqualsAndHashCode
+  private static final class CacheKey {
+    private final String url;
+    private final String query;
+    private final String apiKey;
+    private final String seamlessPayAccount;
+    private final String seamlessPayVersion;
+    private final Class<?> clazz;
+
+    CacheKey(String url, Map<String, Object> params, Class<?> clazz, RequestOptions options) {
+      this.url = url;
+      this.query = FormEncoder.createQueryString(params);
+      this.apiKey = options.getApiKey();
+      this.seamlessPayAccount = options.getSeamlessPayAccount();
+      this.seamlessPayVersion = options.getSeamlessPayVersionOverride();
+      this.clazz = clazz;
+    }
+  }
+
+  /** Refreshes a stale entry in the background. */
+  private interface Refresher {
+    void refresh(Entry entry);
+  }
+
+  /** A cached response, or a cached {@code 404 Not Found}. */
+  private static final class Entry {
+    private final StripeResponse response;
+    private final StripeException failure;
+    private final long freshUntil;
+    private final long staleUntil;
+    private final Refresher refresher;
+
+    /** Whether the entry is being refreshed, guarded by the cache. */
+    private boolean refreshing;
+
+    Entry(
+        StripeResponse response,
+        StripeException failure,
+        long freshUntil,
+        long staleUntil,
+        Refresher refresher) {
+      this.response = response;
+      this.failure = failure;
+      this.freshUntil = freshUntil;
+      this.staleUntil = staleUntil;
+      this.refresher = refresher;
+    }
+
+    <T extends StripeObjectInterface> T resourceFor(Class<T> clazz, ResponseRetention retention)
+        throws StripeException {
+      if (this.failure != null) {
+        throw LiveStripeResponseGetter.copyOf(this.failure);
+      }
+      return LiveStripeResponseGetter.processResponse(this.response, clazz, retention);
+    }
+  }
+
+  /** A request that missed the cache, or refreshes a stale entry. */
+  private final class Call<T extends StripeObjectInterface> {
+    private final ApiResource.RequestMethod method;
+    private final String url;
+    private final Map<String, Object> params;
+    private final Class<T> clazz;
+    private final RequestOptions options;
+    private final CacheKey key;
+    private final long ttl;
+
+    Call(
+        ApiResource.RequestMethod method,
+        String url,
+        Map<String, Object> params,
+        Class<T> clazz,
+        RequestOptions options,
+        CacheKey key,
+        long ttl) {
+      this.method = method;
+      this.url = url;
+      this.params = params;
+      this.clazz = clazz;
+      this.options = options;
+      this.key = key;
+      this.ttl = ttl;
+    }
+
+    /** Options keeping the raw response, which is what the cache stores. */
+    private RequestOptions fullOptions() {
+      return this.options.withResponseRetention(ResponseRetention.FULL);
+    }
+
+    T fetch() throws StripeException {
+      T resource;
+      try {
+        resource = delegate.request(this.method, this.url, this.params, this.clazz, fullOptions());
+      } catch (StripeException e) {
+        onFailure(e);
+        throw e;
+      }
+      return onSuccess(resource);
+    }
+
+    CompletableFuture<T> fetchAsync() {
+      CompletableFuture<T> result = new CompletableFuture<>();
+      CompletableFuture<T> attempt;
+      try {
+        attempt =
+            delegate.requestAsync(this.method, this.url, this.params, this.clazz, fullOptions());
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+        return result;
+      }
+      attempt.whenComplete(
+          (resource, error) -> {
+            try {
+              if (error != null) {
+                Throwable cause = HttpClient.unwrapCompletionException(error);
+                if (cause instanceof StripeException) {
+                  onFailure((StripeException) cause);
+                }
+                result.completeExceptionally(cause);
+                return;
+              }
+              result.complete(onSuccess(resource));
+            } catch (StripeException | RuntimeException e) {
+              result.completeExceptionally(e);
+            }
+          });
+      return result;
+    }
+
+    private T onSuccess(T resource) throws StripeException {
+      StripeResponse response = resource.getLastResponse();
+      if (response == null) {
+        // Nothing to cache from a getter that does not keep responses.
+        return resource;
+      }
+      long now = nanoTime.getAsLong();
+      long freshUntil = now + this.ttl;
+      put(this.key, new Entry(response, null, freshUntil, freshUntil + staleNanos, this::refresh));
+      ResponseRetention retention = this.options.getResponseRetention();
+      if (retention == ResponseRetention.FULL) {
+        return resource;
+      }
+      return LiveStripeResponseGetter.processResponse(response, this.clazz, retention);
+    }
+
+    private void onFailure(StripeException e) {
+      Integer statusCode = e.getStatusCode();
+      if (statusCode == null || statusCode != 404 || negativeTtlNanos == 0) {
+        return;
+      }
+      // Only the exceptions that hits can throw copies of are cached.
+      if (!(e instanceof ApiException) && !(e instanceof InvalidRequestException)) {
+        return;
+      }
+      long expiry = nanoTime.getAsLong() + negativeTtlNanos;
+      put(this.key, new Entry(null, e, expiry, expiry, this::refresh));
+    }
+
+    private void refresh(Entry entry) {
+      try {
+        HttpClient.executorFor(this.options)
+            .execute(
+                () -> {
+                  try {
+                    fetch();
+                  } catch (StripeException | RuntimeException e) {
+                    // The stale entry is still served, and refreshed again on a later hit.
+                    endRefresh(entry);
+                  }
+                });
+      } catch (RejectedExecutionException e) {
+        endRefresh(entry);
+      }
+    }
+  }
+
+  /** Builder for {@link CachingStripeResponseGetter} instances. */
+  public static final class Builder {
+    private final StripeResponseGetter delegate;
+    private final Map<Class<?>, Long> ttlNanos = new HashMap<>();
+    private Duration negativeTtl = Duration.ofSeconds(30);
+    private Duration staleWhileRevalidate = Duration.ZERO;
+    private int maxEntries = 10_000;
+    private LongSupplier nanoTime = System::nanoTime;
+
+    private Builder(StripeResponseGetter delegate) {
+      if (delegate == null) {
+        throw new IllegalArgumentException("delegate must not be null");
+      }
+      this.delegate = delegate;
+    }
+
+    /**
+     * Caches the resources of a class for a given time. Classes without a TTL are not cached.
+     *
+     * @param clazz the class of the resources, e.g. {@code Price.class}
+     * @param ttl how long a response is served from the cache
+     */
+    public Builder setTtl(Class<? extends StripeObjectInterface> clazz, Duration ttl) {
+      if (clazz == null) {
+        throw new IllegalArgumentException("clazz must not be null");
+      }
+      if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+        throw new IllegalArgumentException("ttl must be positive");
+      }
+      this.ttlNanos.put(clazz, ttl.toNanos());
+      return this;
+    }
+
+    /**
+     * Sets how long a {@code 404 Not Found} is served from the cache. Defaults to 30 seconds.
+     *
+     * @param negativeTtl the time, or zero not to cache missing resources
+     */
+    public Builder setNegativeTtl(Duration negativeTtl) {
+      if (negativeTtl == null || negativeTtl.isNegative()) {
+        throw new IllegalArgumentException("negativeTtl must not be negative");
+      }
+      this.negativeTtl = negativeTtl;
+      return this;
+    }
+
+    /**
+     * Sets how long a response may still be served past its TTL, while it is refreshed in the
+     * background. Defaults to zero, i.e. expired responses are refreshed by the next call.
+     *
+     * @param staleWhileRevalidate the time
+     */
+    public Builder setStaleWhileRevalidate(Duration staleWhileRevalidate) {
+      if (staleWhileRevalidate == null || staleWhileRevalidate.isNegative()) {
+        throw new IllegalArgumentException("staleWhileRevalidate must not be negative");
+      }
+      this.staleWhileRevalidate = staleWhileRevalidate;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of responses kept in the cache. Defaults to 10,000.
+     *
+     * @param maxEntries the number of responses
+     */
+    public Builder setMaxEntries(int maxEntries) {
+      if (maxEntries <= 0) {
+        throw new IllegalArgumentException("maxEntries must be positive");
+      }
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /** Sets the time source, for tests. */
+    Builder setNanoTime(LongSupplier nanoTime) {
+      this.nanoTime = nanoTime;
+      return this;
+    }
+
+    /** Builds the cache. */
+    public CachingStripeResponseGetter build() {
+      return new CachingStripeResponseGetter(this);
+    }
+  }
+}
@@ -0,0 +1,480 @@
+package com.stripe.net;
+
+import com.stripe.exception.CircuitBreakerOpenException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending requests to an endpoint that is failing or too slow, so that callers fail fast
+ * instead of waiting on timeouts and retries while Stripe's API is degraded.
+ *
+ * <p>Requests are tracked by circuit, i.e. by host and resource path, with the ids of objects
+ * in the path replaced by {@code *}: {@code api.stripe.com/v1/customers/*}. Each circuit is:
+ *
+ * <ul>
+ *   <li>closed, sending requests, as long as fewer than {@link
+ *       Builder#setFailureRateThreshold(double) failureRateThreshold} of its last {@link
+ *       Builder#setWindowSize(int) windowSize} requests failed with a connection error or a 5xx
+ *       response, and fewer than {@link Builder#setSlowCallRateThreshold(double)
+ *       slowCallRateThreshold} of them took longer than {@link
+ *       Builder#setSlowCallDuration(Duration) slowCallDuration};
+ *   <li>open, failing every request with a {@link CircuitBreakerOpenException} without sending
+ *       it, for {@link Builder#setOpenDuration(Duration) openDuration} after exceeding one of
+ *       these thresholds;
+ *   <li>half-open, letting through {@link Builder#setProbes(int) probes} requests once the open
+ *       duration is over. The circuit closes if all of them succeed, and opens again otherwise.
+ * </ul>
+ *
+ * <p>At most {@link #MAX_CIRCUITS} circuits are tracked, since paths whose object ids have no digit
+ * each get a circuit of their own. Once there are that many, the closed circuits are dropped,
+ * forgetting their recent requests, and open or half-open ones are kept. Requests to new circuits
+ * that still find no room are let through without being tracked.
+ *
+ * <p>Requests failed fast by an open circuit are not retried. All methods are thread-safe.
+ */
+public final class CircuitBreaker {
+  /** The states of a circuit. */
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  /** Receives the state changes of circuits. */
+  @FunctionalInterface
+  public interface Listener {
+    /**
+     * Called after a circuit changes state, on the thread of the request that caused the change.
+     *
+     * @param circuit the circuit, i.e. its host and resource path
+     * @param from the previous state
+     * @param to the new state
+     */
+    void onStateChange(String circuit, State from, State to);
+  }
+
+  private final double failureRateThreshold;
+  private final double slowCallRateThreshold;
+  private final long slowCallNanos;
+  private final int windowSize;
+  private final int minimumCalls;
+  private final long openNanos;
+  private final int probes;
+  private final List<Listener> listeners;
+  private final LongSupplier nanoTime;
+
+  /** The maximum number of circuits tracked at once. */
+  public static final int MAX_CIRCUITS = 1000;
+
+  private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+  private CircuitBreaker(Builder builder) {
+    this.failureRateThreshold = builder.failureRateThreshold;
+    this.slowCallRateThreshold = builder.slowCallRateThreshold;
+    this.slowCallNanos = builder.slowCallDuration.toNanos();
+    this.windowSize = builder.windowSize;
+    this.minimumCalls = Math.min(builder.minimumCalls, builder.windowSize);
+    this.openNanos = builder.openDuration.toNanos();
+    this.probes = builder.probes;
+    this.listeners = new CopyOnWriteArrayList<>(builder.listeners);
+    this.nanoTime = builder.nanoTime;
+  }
+
+  /** Returns a builder for a new circuit breaker. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the current state of the circuit a request belongs to.
+   *
+   * @param request the request
+   */
+  public State getState(StripeRequest request) {
+    return circuit(request).state();
+  }
+
+  /**
+   * Returns the circuit of a URL: its host and path, with the segments of the path that contain
+   * a digit, other than API versions such as {@code v1}, replaced by {@code *}.
+   *
+   * @param url the URL
+   */
+  static String circuitOf(URL url) {
+    StringBuilder circuit = new StringBuilder(url.getHost());
+    for (String segment : url.getPath().split("/")) {
+      if (segment.isEmpty()) {
+        continue;
+      }
+      circuit.append('/');
+      if (isObjectId(segment)) {
+        circuit.append('*');
+      } else {
+        circuit.append(segment);
+      }
+    }
+    return circuit.toString();
+  }
+
+  private static boolean isObjectId(String segment) {
+    // API versions, such as v1, are v followed only by digits.
+    boolean version = segment.length() > 1 && segment.charAt(0) == 'v';
+    boolean digit = false;
+    for (int i = 0; i < segment.length(); i++) {
+      boolean isDigit = Character.isDigit(segment.charAt(i));
+      digit |= isDigit;
+      if (i > 0 && !isDigit) {
+        version = false;
+      }
+    }
+    return digit && !version;
+  }
+
+  /**
+   * Lets a request through, if its circuit allows it.
+   *
+   * @param request the request
+   * @return the permit, which must be completed with the outcome of the request or cancelled
+   * @throws CircuitBreakerOpenException if the circuit is open
+   */
+  Permit acquire(StripeRequest request) throws CircuitBreakerOpenException {
+    return circuit(request).acquire();
+  }
+
+  /** Returns the number of circuits currently tracked. Used for internal tests only. */
+  int circuitCount() {
+    return this.circuits.size();
+  }
+
+  private Circuit circuit(StripeRequest request) {
+    String name = circuitOf(request.url());
+    Circuit circuit = this.circuits.get(name);
+    if (circuit != null) {
+      return circuit;
+    }
+    if (this.circuits.size() >= MAX_CIRCUITS) {
+      this.circuits.values().removeIf(Circuit::isClosed);
+      if (this.circuits.size() >= MAX_CIRCUITS) {
+        return new Circuit(name);
+      }
+    }
+    return this.circuits.computeIfAbsent(name, Circuit::new);
+  }
+
+  private void notifyListeners(String circuit, State from, State to) {
+    for (Listener listener : this.listeners) {
+      listener.onStateChange(circuit, from, to);
+    }
+  }
+
+  /**
+   * The permission to send a request through a circuit. It is completed exactly once, later calls
+   * are ignored.
+   */
+  final class Permit {
+    private final Circuit circuit;
+    private final long generation;
+    private long startNanos;
+    private boolean done;
+
+    Permit(Circuit circuit, long generation) {
+      this.circuit = circuit;
+      this.generation = generation;
+    }
+
+    /** Marks the time the request is sent, after any wait for a rate limiter. */
+    void start() {
+      this.startNanos = nanoTime.getAsLong();
+    }
+
+    /**
+     * Records the outcome of the request.
+     *
+     * @param failed whether the request failed with a connection error or a 5xx response
+     */
+    void complete(boolean failed) {
+      if (markDone()) {
+        long latency = nanoTime.getAsLong() - this.startNanos;
+        this.circuit.onResult(this.generation, failed, latency > slowCallNanos);
+      }
+    }
+
+    /** Gives the permit back without recording an outcome, e.g. when the request is not sent. */
+    void cancel() {
+      if (markDone()) {
+        this.circuit.onCancel(this.generation);
+      }
+    }
+
+    private synchronized boolean markDone() {
+      boolean first = !this.done;
+      this.done = true;
+      return first;
+    }
+  }
+
+  private final class Circuit {
+    private final String name;
+
+    /** Outcomes of the last requests, as bit 0 for failures and bit 1 for slow calls. */
+    private final byte[] window = new byte[windowSize];
+
+    private int calls;
+    private int next;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    /** Incremented on each state change, so that outcomes of older requests are ignored. */
+    private long generation;
+
+    private long openedNanos;
+    private int probesInFlight;
+    private int probesSucceeded;
+
+    Circuit(String name) {
+      this.name = name;
+    }
+
+    synchronized State state() {
+      return this.state;
+    }
+
+    synchronized boolean isClosed() {
+      return this.state == State.CLOSED;
+    }
+
+    Permit acquire() throws CircuitBreakerOpenException {
+      boolean halfOpened = false;
+      Permit permit;
+      synchronized (this) {
+        if (this.state == State.OPEN && nanoTime.getAsLong() - this.openedNanos >= openNanos) {
+          transition(State.HALF_OPEN);
+          halfOpened = true;
+        }
+        if (this.state == State.OPEN
+            || (this.state == State.HALF_OPEN
+                && this.probesInFlight + this.probesSucceeded >= probes)) {
+          permit = null;
+        } else {
+          if (this.state == State.HALF_OPEN) {
+            this.probesInFlight++;
+          }
+          permit = new Permit(this, this.generation);
+        }
+      }
+      if (halfOpened) {
+        notifyListeners(this.name, State.OPEN, State.HALF_OPEN);
+      }
+      if (permit == null) {
+        throw new CircuitBreakerOpenException(
+            String.format(
+                "Request was not sent because the circuit breaker for %s is open.", this.name),
+            this.name);
+      }
+      return permit;
+    }
+
+    void onResult(long generation, boolean failed, boolean slow) {
+      State from;
+      State to;
+      synchronized (this) {
+        if (generation != this.generation) {
+          return;
+        }
+        from = this.state;
+        if (this.state == State.HALF_OPEN) {
+          this.probesInFlight--;
+          if (failed || slow) {
+            open();
+          } else if (++this.probesSucceeded >= probes) {
+            transition(State.CLOSED);
+          }
+        } else if (this.state == State.CLOSED) {
+          record(failed, slow);
+          if (this.calls >= minimumCalls
+              && (this.failures >= failureRateThreshold * this.calls
+                  || this.slowCalls >= slowCallRateThreshold * this.calls)) {
+            open();
+          }
+        }
+        to = this.state;
+      }
+      if (from != to) {
+        notifyListeners(this.name, from, to);
+      }
+    }
+
+    synchronized void onCancel(long generation) {
+      if (generation == this.generation && this.state == State.HALF_OPEN) {
+        this.probesInFlight--;
+      }
+    }
+
+    private void record(boolean failed, boolean slow) {
+      if (this.calls == this.window.length) {
+        byte evicted = this.window[this.next];
+        this.failures -= evicted & 1;
+        this.slowCalls -= (evicted >> 1) & 1;
+      } else {
+        this.calls++;
+      }
+      this.window[this.next] = (byte) ((failed ? 1 : 0) | (slow ? 2 : 0));
+      this.failures += failed ? 1 : 0;
+      this.slowCalls += slow ? 1 : 0;
+      this.next = (this.next + 1) % this.window.length;
+    }
+
+    private void open() {
+      transition(State.OPEN);
+      this.openedNanos = nanoTime.getAsLong();
+    }
+
+    private void transition(State to) {
+      this.state = to;
+      this.generation++;
+      this.probesInFlight = 0;
+      this.probesSucceeded = 0;
+      if (to == State.CLOSED) {
+        this.calls = 0;
+        this.next = 0;
+        this.failures = 0;
+        this.slowCalls = 0;
+      }
+    }
+  }
+
+  /** Builder for {@link CircuitBreaker} instances. */
+  public static final class Builder {
+    private double failureRateThreshold = 0.5;
+    private double slowCallRateThreshold = 0.5;
+    private Duration slowCallDuration = Duration.ofSeconds(10);
+    private int windowSize = 20;
+    private int minimumCalls = 10;
+    private Duration openDuration = Duration.ofSeconds(30);
+    private int probes = 3;
+    private final List<Listener> listeners = new ArrayList<>();
+    private LongSupplier nanoTime = System::nanoTime;
+
+    private Builder() {}
+
+    /**
+     * Sets the fraction of failed requests that opens a circuit. Defaults to 0.5.
+     *
+     * @param failureRateThreshold the fraction, greater than 0 and at most 1
+     */
+    public Builder setFailureRateThreshold(double failureRateThreshold) {
+      if (!(failureRateThreshold > 0 && failureRateThreshold <= 1)) {
+        throw new IllegalArgumentException("failureRateThreshold must be in (0, 1]");
+      }
+      this.failureRateThreshold = failureRateThreshold;
+      return this;
+    }
+
+    /**
+     * Sets the fraction of slow requests that opens a circuit. Defaults to 0.5.
+     *
+     * @param slowCallRateThreshold the fraction, greater than 0 and at most 1
+     */
+    public Builder setSlowCallRateThreshold(double slowCallRateThreshold) {
+      if (!(slowCallRateThreshold > 0 && slowCallRateThreshold <= 1)) {
+        throw new IllegalArgumentException("slowCallRateThreshold must be in (0, 1]");
+      }
+      this.slowCallRateThreshold = slowCallRateThreshold;
+      return this;
+    }
+
+    /**
+     * Sets how long a request takes before it counts as slow. Defaults to 10 seconds.
+     *
+     * @param slowCallDuration the duration
+     */
+    public Builder setSlowCallDuration(Duration slowCallDuration) {
+      if (slowCallDuration == null || slowCallDuration.isZero() || slowCallDuration.isNegative()) {
+        throw new IllegalArgumentException("slowCallDuration must be positive");
+      }
+      this.slowCallDuration = slowCallDuration;
+      return this;
+    }
+
+    /**
+     * Sets the number of most recent requests that the failure and slow call rates are computed
+     * over. Defaults to 20.
+     *
+     * @param windowSize the number of requests
+     */
+    public Builder setWindowSize(int windowSize) {
+      if (windowSize <= 0) {
+        throw new IllegalArgumentException("windowSize must be positive");
+      }
+      this.windowSize = windowSize;
+      return this;
+    }
+
+    /**
+     * Sets the number of requests a circuit must have seen before it can open. Defaults to 10.
+     *
+     * @param minimumCalls the number of requests
+     */
+    public Builder setMinimumCalls(int minimumCalls) {
+      if (minimumCalls <= 0) {
+        throw new IllegalArgumentException("minimumCalls must be positive");
+      }
+      this.minimumCalls = minimumCalls;
+      return this;
+    }
+
+    /**
+     * Sets how long a circuit stays open before letting probe requests through. Defaults to 30
+     * seconds.
+     *
+     * @param openDuration the duration
+     */
+    public Builder setOpenDuration(Duration openDuration) {
+      if (openDuration == null || openDuration.isNegative()) {
+        throw new IllegalArgumentException("openDuration must not be negative");
+      }
+      this.openDuration = openDuration;
+      return this;
+    }
+
+    /**
+     * Sets the number of successful probe requests that close a half-open circuit. Defaults to 3.
+     *
+     * @param probes the number of requests
+     */
+    public Builder setProbes(int probes) {
+      if (probes <= 0) {
+        throw new IllegalArgumentException("probes must be positive");
+      }
+      this.probes = probes;
+      return this;
+    }
+
+    /**
+     * Adds a listener notified of the state changes of circuits.
+     *
+     * @param listener the listener
+     */
+    public Builder addListener(Listener listener) {
+      this.listeners.add(listener);
+      return this;
+    }
+
+    /** Sets the time source, for tests. */
+    Builder setNanoTime(LongSupplier nanoTime) {
+      this.nanoTime = nanoTime;
+      return this;
+    }
+
+    /** Builds the circuit breaker. */
+    public CircuitBreaker build() {
+      return new CircuitBreaker(this);
+    }
+  }
+}
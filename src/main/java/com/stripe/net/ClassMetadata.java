@@ -0,0 +1,246 @@
+package com.stripe.net;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.annotations.SerializedName;
+import com.stripe.model.StripeObjectInterface;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reflection metadata about a class, computed the first time the class is encountered and cached
+ * for as long as the class is loaded.
+ *
+ * <p>This holds what the request encoders and {@link com.stripe.model.StripeObject#toString()}
+ * would otherwise rediscover on every call: how values of the class are encoded, the serialized
+ * fields of {@link ApiRequestParams} classes and their names, the serialized names of enum
+ * constants, and the {@code id} field of API resources.
+ *
+ * <p>This class is used internally by the library and is not part of its stable API.
+ */
+public final class ClassMetadata {
+  /** How the values of a class are encoded in API request params. */
+  enum Kind {
+    PARAMS,
+    ENUM_PARAM,
+    STRING,
+    MAP,
+    FILE,
+    INPUT_STREAM,
+    COLLECTION,
+    ARRAY,
+    ENUM,
+    BOOLEAN,
+    NUMBER,
+    OTHER
+  }
+
+  private static final ClassValue<ClassMetadata> METADATA =
+      new ClassValue<ClassMetadata>() {
+        @Override
+        protected ClassMetadata computeValue(Class<?> type) {
+          return new ClassMetadata(type);
+        }
+      };
+
+  private final Kind kind;
+
+  /** The serialized fields of an {@link ApiRequestParams} class, in declaration order. */
+  private final List<BoundField> fields;
+
+  private final Map<String, BoundField> fieldsByName;
+
+  /** Whether an {@link ApiRequestParams} class overrides {@link ApiRequestParams#toMap()}. */
+  private final boolean overridesToMap;
+
+  /** The serialized names of the constants of an enum class, by ordinal. */
+  private final String[] enumNames;
+
+  /** The {@code id} field declared by an API resource class itself, if any. */
+  private final Field idField;
+
+  private ClassMetadata(Class<?> type) {
+    this.kind = kindOf(type);
+
+    if (this.kind == Kind.PARAMS) {
+      this.fields = Collections.unmodifiableList(bindFields(type));
+      this.fieldsByName = new HashMap<>();
+      for (BoundField field : this.fields) {
+        this.fieldsByName.put(field.name, field);
+      }
+    } else {
+      this.fields = Collections.emptyList();
+      this.fieldsByName = Collections.emptyMap();
+    }
+    this.overridesToMap = (this.kind == Kind.PARAMS) && overridesToMap(type);
+
+    this.enumNames = type.isEnum() ? enumNames(type) : null;
+    this.idField = StripeObjectInterface.class.isAssignableFrom(type) ? idField(type) : null;
+  }
+
+  /**
+   * Returns the metadata of a class.
+   *
+   * @param type the class
+   * @return the cached metadata
+   */
+  public static ClassMetadata of(Class<?> type) {
+    return METADATA.get(type);
+  }
+
+  /** Returns how values of the class are encoded in API request params. */
+  Kind kind() {
+    return this.kind;
+  }
+
+  /**
+   * Returns the serialized name of an enum constant, i.e. the value of its {@link SerializedName}
+   * annotation or else its name, or {@code null} if the class is not an enum.
+   *
+   * @param constant a constant of the class
+   */
+  String enumName(Object constant) {
+    return (this.enumNames != null) ? this.enumNames[((Enum<?>) constant).ordinal()] : null;
+  }
+
+  /** Returns the serialized fields of an {@link ApiRequestParams} class. */
+  List<BoundField> fields() {
+    return this.fields;
+  }
+
+  /** Returns the serialized field with the given name, or {@code null} if there is none. */
+  BoundField field(String name) {
+    return this.fieldsByName.get(name);
+  }
+
+  /**
+   * Returns whether an {@link ApiRequestParams} class overrides {@link ApiRequestParams#toMap()},
+   * e.g. to add a transient file, so that its params are only encoded right from that map.
+   */
+  boolean overridesToMap() {
+    return this.overridesToMap;
+  }
+
+  /**
+   * Returns the {@code id} field declared by an API resource class itself, as {@link
+   * Class#getDeclaredField} finds it, or {@code null} if the class declares none.
+   */
+  public Field idField() {
+    return this.idField;
+  }
+
+  private static Kind kindOf(Class<?> type) {
+    if (ApiRequestParams.class.isAssignableFrom(type)) {
+      return Kind.PARAMS;
+    } else if (ApiRequestParams.EnumParam.class.isAssignableFrom(type)) {
+      return Kind.ENUM_PARAM;
+    } else if (type == String.class) {
+      return Kind.STRING;
+    } else if (Map.class.isAssignableFrom(type)) {
+      return Kind.MAP;
+    } else if (File.class.isAssignableFrom(type)) {
+      return Kind.FILE;
+    } else if (InputStream.class.isAssignableFrom(type)) {
+      return Kind.INPUT_STREAM;
+    } else if (Collection.class.isAssignableFrom(type)) {
+      return Kind.COLLECTION;
+    } else if (type.isArray()) {
+      return Kind.ARRAY;
+    } else if (type.isEnum()) {
+      return Kind.ENUM;
+    } else if (type == Boolean.class) {
+      return Kind.BOOLEAN;
+    } else if (Number.class.isAssignableFrom(type)) {
+      return Kind.NUMBER;
+    }
+    return Kind.OTHER;
+  }
+
+  /** Finds the fields that Gson would serialize, with the names it would serialize them under. */
+  private static List<BoundField> bindFields(Class<?> type) {
+    List<BoundField> fields = new ArrayList<>();
+    for (Class<?> c = type; c != ApiRequestParams.class && c != Object.class; ) {
+      for (Field field : c.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers)
+            || Modifier.isTransient(modifiers)
+            || field.isSynthetic()) {
+          continue;
+        }
+        field.setAccessible(true);
+        SerializedName serializedName = field.getAnnotation(SerializedName.class);
+        String name =
+            (serializedName != null)
+                ? serializedName.value()
+                : FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES.translateName(field);
+        fields.add(new BoundField(field, name));
+      }
+      c = c.getSuperclass();
+    }
+    return fields;
+  }
+
+  private static boolean overridesToMap(Class<?> type) {
+    try {
+      return type.getMethod("toMap").getDeclaringClass() != ApiRequestParams.class;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private static Field idField(Class<?> type) {
+    try {
+      return type.getDeclaredField("id");
+    } catch (NoSuchFieldException | SecurityException e) {
+      return null;
+    }
+  }
+
+  /** Computes the names Gson serializes the constants of an enum under. */
+  private static String[] enumNames(Class<?> type) {
+    Object[] constants = type.getEnumConstants();
+    String[] names = new String[constants.length];
+    for (Object constant : constants) {
+      String name = ((Enum<?>) constant).name();
+      try {
+        SerializedName serializedName =
+            type.getField(name).getAnnotation(SerializedName.class);
+        names[((Enum<?>) constant).ordinal()] =
+            (serializedName != null) ? serializedName.value() : name;
+      } catch (NoSuchFieldException e) {
+        names[((Enum<?>) constant).ordinal()] = name;
+      }
+    }
+    return names;
+  }
+
+  /** A serialized field of an {@link ApiRequestParams} class. */
+  static final class BoundField {
+    final Field field;
+    final String name;
+
+    /** Whether the field holds extra params, to be flattened into the enclosing params. */
+    final boolean extraParams;
+
+    BoundField(Field field, String name) {
+      this.field = field;
+      this.name = name;
+      this.extraParams = ApiRequestParams.EXTRA_PARAMS_KEY.equals(name);
+    }
+
+    Object get(Object params) {
+      try {
+        return this.field.get(params);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,385 @@
+package com.stripe.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Remembers the ids of recently processed events in fixed memory, to skip events that Stripe
+ * delivers more than once, or that are seen both from webhooks and from {@code Event.list}.
+ *
+ * <p>Ids are stored as 64-bit fingerprints in open-addressing hash tables, one for each time
+ * bucket of the retention period. When the newest bucket has covered its share of the retention
+ * period, or is full, the oldest bucket is cleared and reused. Memory is therefore bounded by
+ * {@link Builder#setMaxEvents(int) maxEvents}, at 16 to 32 bytes per event. An id is remembered
+ * for the retention period, less up to one bucket's share of it, as long as no bucket receives
+ * more than {@code maxEvents / buckets} events. Two different ids are mistaken for one another
+ * with a probability of about {@code n / 2^64} for {@code n} remembered events, i.e. less than one
+ * in 10^12 for ten million events.
+ *
+ * <p>The tables can be kept in a memory-mapped file instead of on the heap, in which case they
+ * also survive restarts. All methods are thread-safe.
+ */
+public final class EventDeduplicator implements Closeable {
+  private static final long MAGIC = 0x5354524950454444L;
+
+  /** Header: magic, bucket count, slots per bucket, current bucket. */
+  private static final int HEADER_LONGS = 4;
+
+  private final Clock clock;
+  private final int bucketCount;
+  private final int slotsPerBucket;
+  private final int maxEventsPerBucket;
+  private final long bucketSpanMillis;
+  private final LongBuffer table;
+  private final FileChannel channel;
+  private final MappedByteBuffer mapped;
+
+  private int current;
+
+  private EventDeduplicator(Builder builder) throws IOException {
+    this.clock = builder.clock;
+    this.bucketCount = builder.buckets;
+    this.maxEventsPerBucket = Math.max(1, builder.maxEvents / builder.buckets);
+    // Keep each table at most half full, so that probe sequences stay short.
+    this.slotsPerBucket = Integer.highestOneBit(this.maxEventsPerBucket * 2 - 1) << 1;
+    this.bucketSpanMillis = Math.max(1, builder.retention.toMillis() / builder.buckets);
+
+    long longs =
+        HEADER_LONGS + 2L * this.bucketCount + (long) this.bucketCount * this.slotsPerBucket;
+    if (longs * Long.BYTES > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("maxEvents is too large");
+    }
+
+    if (builder.file != null) {
+      this.channel =
+          FileChannel.open(
+              builder.file,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      try {
+        boolean reuse = this.channel.size() == longs * Long.BYTES;
+        this.mapped = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, longs * Long.BYTES);
+        this.table = this.mapped.asLongBuffer();
+        if (!reuse || !hasLayout()) {
+          initialize();
+        }
+      } catch (IOException | RuntimeException e) {
+        this.channel.close();
+        throw e;
+      }
+    } else {
+      this.channel = null;
+      this.mapped = null;
+      this.table = LongBuffer.allocate((int) longs);
+      initialize();
+    }
+    this.current = (int) this.table.get(3);
+  }
+
+  /** Returns a builder for a new deduplicator. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Records that an event is being processed.
+   *
+   * @param eventId the id of the event
+   * @return {@code true} if the event had not been seen yet and should be processed, {@code false}
+   *     if it is a duplicate
+   */
+  public synchronized boolean markSeen(String eventId) {
+    long fingerprint = fingerprint(eventId);
+    rotate(this.clock.millis());
+    if (find(fingerprint) != -1) {
+      return false;
+    }
+    if (count(this.current) >= this.maxEventsPerBucket) {
+      advance(this.clock.millis());
+    }
+    insert(this.current, fingerprint);
+    return true;
+  }
+
+  /**
+   * Returns whether an event has been seen, without recording it.
+   *
+   * @param eventId the id of the event
+   */
+  public synchronized boolean hasSeen(String eventId) {
+    long fingerprint = fingerprint(eventId);
+    rotate(this.clock.millis());
+    return find(fingerprint) != -1;
+  }
+
+  /**
+   * Forgets an event, e.g. because processing it failed and it should be processed again when it
+   * is delivered again.
+   *
+   * @param eventId the id of the event
+   */
+  public synchronized void forget(String eventId) {
+    long fingerprint = fingerprint(eventId);
+    for (int bucket = 0; bucket < this.bucketCount; bucket++) {
+      int slot = findSlot(bucket, fingerprint);
+      if (this.table.get(slotIndex(bucket, slot)) == fingerprint) {
+        remove(bucket, slot);
+      }
+    }
+  }
+
+  /** Returns the number of remembered events. */
+  public synchronized long size() {
+    rotate(this.clock.millis());
+    long size = 0;
+    for (int bucket = 0; bucket < this.bucketCount; bucket++) {
+      size += count(bucket);
+    }
+    return size;
+  }
+
+  /** Flushes the memory-mapped file, if any, and closes it. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.channel != null) {
+      this.mapped.force();
+      this.channel.close();
+    }
+  }
+
+  /** Computes a 64-bit fingerprint of an id, which is never 0 since 0 marks empty slots. */
+  static long fingerprint(String id) {
+    // FNV-1a over the UTF-16 code units, then the MurmurHash3 finalizer to spread the bits.
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < id.length(); i++) {
+      hash ^= id.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return (hash != 0) ? hash : 1;
+  }
+
+  /** Clears the buckets that have expired since the last operation. */
+  private void rotate(long now) {
+    long elapsed = now - start(this.current);
+    if (elapsed < this.bucketSpanMillis) {
+      return;
+    }
+    long spans = elapsed / this.bucketSpanMillis;
+    if (spans >= this.bucketCount) {
+      // Everything has expired.
+      for (int bucket = 0; bucket < this.bucketCount; bucket++) {
+        clear(bucket, now);
+      }
+      return;
+    }
+    long start = start(this.current);
+    for (long i = 1; i <= spans; i++) {
+      advance(start + i * this.bucketSpanMillis);
+    }
+  }
+
+  /** Moves on to the next bucket, which replaces the oldest one. */
+  private void advance(long start) {
+    this.current = (this.current + 1) % this.bucketCount;
+    this.table.put(3, this.current);
+    clear(this.current, start);
+  }
+
+  /** Returns the bucket holding a fingerprint, or -1. */
+  private int find(long fingerprint) {
+    for (int i = 0; i < this.bucketCount; i++) {
+      // Recent buckets first, since duplicates usually arrive soon after the original.
+      int bucket = (this.current - i + this.bucketCount) % this.bucketCount;
+      if (this.table.get(slotIndex(bucket, findSlot(bucket, fingerprint))) == fingerprint) {
+        return bucket;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the slot holding a fingerprint, or else the empty slot where it would be inserted. */
+  private int findSlot(int bucket, long fingerprint) {
+    int mask = this.slotsPerBucket - 1;
+    int slot = (int) fingerprint & mask;
+    while (true) {
+      long value = this.table.get(slotIndex(bucket, slot));
+      if (value == 0 || value == fingerprint) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void insert(int bucket, long fingerprint) {
+    this.table.put(slotIndex(bucket, findSlot(bucket, fingerprint)), fingerprint);
+    this.table.put(countIndex(bucket), count(bucket) + 1);
+  }
+
+  /** Removes the fingerprint in a slot, shifting back the ones that probed past it. */
+  private void remove(int bucket, int slot) {
+    int mask = this.slotsPerBucket - 1;
+    int hole = slot;
+    int next = (hole + 1) & mask;
+    while (true) {
+      long value = this.table.get(slotIndex(bucket, next));
+      if (value == 0) {
+        break;
+      }
+      int home = (int) value & mask;
+      // Move the value into the hole unless its home slot lies cyclically in (hole, next].
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        this.table.put(slotIndex(bucket, hole), value);
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    this.table.put(slotIndex(bucket, hole), 0);
+    this.table.put(countIndex(bucket), count(bucket) - 1);
+  }
+
+  private void clear(int bucket, long start) {
+    int from = slotIndex(bucket, 0);
+    for (int i = 0; i < this.slotsPerBucket; i++) {
+      this.table.put(from + i, 0);
+    }
+    this.table.put(startIndex(bucket), start);
+    this.table.put(countIndex(bucket), 0);
+  }
+
+  private void initialize() {
+    this.table.put(0, MAGIC);
+    this.table.put(1, this.bucketCount);
+    this.table.put(2, this.slotsPerBucket);
+    this.table.put(3, 0);
+    long now = this.clock.millis();
+    for (int bucket = 0; bucket < this.bucketCount; bucket++) {
+      clear(bucket, now);
+    }
+  }
+
+  private boolean hasLayout() {
+    return this.table.get(0) == MAGIC
+        && this.table.get(1) == this.bucketCount
+        && this.table.get(2) == this.slotsPerBucket
+        && this.table.get(3) >= 0
+        && this.table.get(3) < this.bucketCount;
+  }
+
+  private long start(int bucket) {
+    return this.table.get(startIndex(bucket));
+  }
+
+  private long count(int bucket) {
+    return this.table.get(countIndex(bucket));
+  }
+
+  private static int startIndex(int bucket) {
+    return HEADER_LONGS + 2 * bucket;
+  }
+
+  private static int countIndex(int bucket) {
+    return HEADER_LONGS + 2 * bucket + 1;
+  }
+
+  private int slotIndex(int bucket, int slot) {
+    return HEADER_LONGS + 2 * this.bucketCount + bucket * this.slotsPerBucket + slot;
+  }
+
+  /** Builder for {@link EventDeduplicator} instances. */
+  public static final class Builder {
+    private Duration retention = Duration.ofDays(3);
+    private int maxEvents = 1_000_000;
+    private int buckets = 12;
+    private Path file;
+    private Clock clock = Clock.systemUTC();
+
+    private Builder() {}
+
+    /**
+     * Sets how long events are remembered for. Defaults to 3 days, the period over which Stripe
+     * retries webhook deliveries. Events may be forgotten up to {@code retention / buckets}
+     * earlier.
+     *
+     * @param retention the retention period
+     */
+    public Builder setRetention(Duration retention) {
+      if (retention == null || retention.isZero() || retention.isNegative()) {
+        throw new IllegalArgumentException("retention must be positive");
+      }
+      this.retention = retention;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of events remembered at once, which bounds memory use to 16 to 32
+     * bytes per event. Defaults to one million.
+     *
+     * @param maxEvents the maximum number of events
+     */
+    public Builder setMaxEvents(int maxEvents) {
+      if (maxEvents <= 0) {
+        throw new IllegalArgumentException("maxEvents must be positive");
+      }
+      this.maxEvents = maxEvents;
+      return this;
+    }
+
+    /**
+     * Sets the number of time buckets the retention period is split into. More buckets expire
+     * events closer to the end of the retention period, at the cost of slower lookups. Defaults to
+     * 12.
+     *
+     * @param buckets the number of buckets
+     */
+    public Builder setBuckets(int buckets) {
+      if (buckets < 2) {
+        throw new IllegalArgumentException("buckets must be at least 2");
+      }
+      this.buckets = buckets;
+      return this;
+    }
+
+    /**
+     * Keeps the tables in a memory-mapped file rather than on the heap. An existing file written
+     * with the same settings is reused, so remembered events survive restarts.
+     *
+     * @param file the file
+     */
+    public Builder setFile(Path file) {
+      this.file = file;
+      return this;
+    }
+
+    /**
+     * Sets the clock used to expire events. Defaults to the system clock.
+     *
+     * @param clock the clock
+     */
+    public Builder setClock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /**
+     * Builds the deduplicator.
+     *
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public EventDeduplicator build() throws IOException {
+      return new EventDeduplicator(this);
+    }
+  }
+}
@@ -3,10 +3,7 @@ package com.stripe.net;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -19,23 +16,17 @@ public final class FormEncoder {
     // If params is null, we create an empty HttpContent because we still want to send the
     // Content-Type header.
     if (params == null) {
-      return HttpContent.buildFormURLEncodedContent(new ArrayList<KeyValuePair<String, String>>());
+      return HttpContent.formURLEncodedContent(new byte[0]);
     }
 
-    Collection<KeyValuePair<String, Object>> flatParams = flattenParams(params);
-
-    // If all parameters have been encoded as strings, then the content can be represented
+    // If all parameters can be encoded as strings, then the content can be represented
     // with application/x-www-form-url-encoded encoding. Otherwise, use
     // multipart/form-data encoding.
-    if (flatParams.stream().allMatch(kvp -> kvp.getValue() instanceof String)) {
-      Collection<KeyValuePair<String, String>> flatParamsString =
-          flatParams.stream()
-              .filter(kvp -> kvp.getValue() instanceof String)
-              .map(kvp -> new KeyValuePair<String, String>(kvp.getKey(), (String) kvp.getValue()))
-              .collect(Collectors.toList());
-      return HttpContent.buildFormURLEncodedContent(flatParamsString);
+    byte[] body = FormWriter.createFormBody(params);
+    if (body != null) {
+      return HttpContent.formURLEncodedContent(body);
     } else {
-      return HttpContent.buildMultipartFormDataContent(flatParams);
+      return HttpContent.buildStreamingMultipartFormDataContent(flattenParams(params));
     }
   }
 
@@ -50,12 +41,7 @@ public final class FormEncoder {
       return "";
     }
 
-    Collection<KeyValuePair<String, String>> flatParams =
-        flattenParams(params).stream()
-            .filter(kvp -> kvp.getValue() instanceof String)
-            .map(kvp -> new KeyValuePair<String, String>(kvp.getKey(), (String) kvp.getValue()))
-            .collect(Collectors.toList());
-    return createQueryString(flatParams);
+    return FormWriter.createQueryString(params);
   }
 
   /**
@@ -70,11 +56,7 @@ public final class FormEncoder {
       return "";
     }
 
-    return String.join(
-        "&",
-        nameValueCollection.stream()
-            .map(kvp -> String.format("%s=%s", urlEncode(kvp.getKey()), urlEncode(kvp.getValue())))
-            .collect(Collectors.toList()));
+    return FormWriter.createQueryString(nameValueCollection);
   }
 
   /**
@@ -111,29 +93,72 @@ public final class FormEncoder {
     return flattenParamsValue(params, null);
   }
 
+  /**
+   * Returns whether a value holds {@link File} or {@link InputStream} values, at any depth, which
+   * can only be sent in a {@code multipart/form-data} body.
+   *
+   * @param value The value, e.g. a map of parameters or typed params.
+   * @return Whether the value holds files.
+   */
+  static boolean containsFiles(Object value) {
+    if (value == null) {
+      return false;
+    }
+
+    switch (ClassMetadata.of(value.getClass()).kind()) {
+      case FILE:
+      case INPUT_STREAM:
+        return true;
+      case PARAMS:
+        for (ClassMetadata.BoundField field : ClassMetadata.of(value.getClass()).fields()) {
+          if (containsFiles(field.get(value))) {
+            return true;
+          }
+        }
+        return false;
+      case MAP:
+        for (Object element : ((Map<?, ?>) value).values()) {
+          if (containsFiles(element)) {
+            return true;
+          }
+        }
+        return false;
+      case COLLECTION:
+        for (Object element : (Collection<?>) value) {
+          if (containsFiles(element)) {
+            return true;
+          }
+        }
+        return false;
+      case ARRAY:
+        if (value.getClass().getComponentType().isPrimitive()) {
+          return false;
+        }
+        for (Object element : (Object[]) value) {
+          if (containsFiles(element)) {
+            return true;
+          }
+        }
+        return false;
+      default:
+        return false;
+    }
+  }
+
   /**
    * URL-encodes a string.
    *
    * @param value The string to URL-encode.
    * @return The URL-encoded string.
    */
-  private static String urlEncode(String value) {
+  static String urlEncode(String value) {
     if (value == null) {
       return null;
     }
 
-    try {
-      // Don't use strict form encoding by changing the square bracket control
-      // characters back to their literals. This is fine by the server, and
-      // makes these parameter strings easier to read.
-      return URLEncoder.encode(value, StandardCharsets.UTF_8.name())
-          .replaceAll("%5B", "[")
-          .replaceAll("%5D", "]");
-    } catch (UnsupportedEncodingException e) {
-      // This can literally never happen, and lets us avoid having to catch
-      // UnsupportedEncodingException in callers.
-      throw new AssertionError("UTF-8 is unknown");
-    }
+    // Square brackets are not encoded, which is fine by the server and makes these parameter
+    // strings easier to read.
+    return FormWriter.encode(value);
   }
 
   /**
@@ -146,41 +171,38 @@ public final class FormEncoder {
    */
   private static List<KeyValuePair<String, Object>> flattenParamsValue(
       Object value, String keyPrefix) {
-    List<KeyValuePair<String, Object>> flatParams = null;
-
-    // I wish Java had pattern matching :(
-
     if (value == null) {
-      flatParams = singleParam(keyPrefix, "");
-
-    } else if (value instanceof Map<?, ?>) {
-      flatParams = flattenParamsMap((Map<?, ?>) value, keyPrefix);
-
-    } else if (value instanceof String) {
-      flatParams = singleParam(keyPrefix, value);
-
-    } else if (value instanceof File) {
-      flatParams = singleParam(keyPrefix, value);
-
-    } else if (value instanceof InputStream) {
-      flatParams = singleParam(keyPrefix, value);
-
-    } else if (value instanceof Collection<?>) {
-      flatParams = flattenParamsCollection((Collection<?>) value, keyPrefix);
-
-    } else if (value.getClass().isArray()) {
-      Object[] array = getArrayForObject(value);
-      Collection<?> collection = Arrays.stream(array).collect(Collectors.toList());
-      flatParams = flattenParamsCollection(collection, keyPrefix);
-
-    } else if (value.getClass().isEnum()) {
-      flatParams = singleParam(keyPrefix, ApiResource.GSON.toJson(value).replaceAll("\"", ""));
-
-    } else {
-      flatParams = singleParam(keyPrefix, value.toString());
+      return singleParam(keyPrefix, "");
     }
 
-    return flatParams;
+    ClassMetadata metadata = ClassMetadata.of(value.getClass());
+    switch (metadata.kind()) {
+      case MAP:
+        return flattenParamsMap((Map<?, ?>) value, keyPrefix);
+
+      case STRING:
+      case FILE:
+      case INPUT_STREAM:
+        return singleParam(keyPrefix, value);
+
+      case COLLECTION:
+        return flattenParamsCollection((Collection<?>) value, keyPrefix);
+
+      case ARRAY:
+        Object[] array = getArrayForObject(value);
+        Collection<?> collection = Arrays.stream(array).collect(Collectors.toList());
+        return flattenParamsCollection(collection, keyPrefix);
+
+      case ENUM:
+      case ENUM_PARAM:
+        // Enums are sent under their serialized name; other EnumParam implementations use their
+        // string representation.
+        String enumName = metadata.enumName(value);
+        return singleParam(keyPrefix, (enumName != null) ? enumName : value.toString());
+
+      default:
+        return singleParam(keyPrefix, value.toString());
+    }
   }
 
   /**
@@ -271,16 +293,16 @@ public final class FormEncoder {
    * @param keyPrefix The existing key prefix, if any.
    * @return The new key prefix.
    */
-  private static String newPrefix(String key, String keyPrefix) {
+  static String newPrefix(String key, String keyPrefix) {
     if (keyPrefix == null || keyPrefix.isEmpty()) {
       return key;
     }
 
     int i = key.indexOf("[");
     if (i == -1) {
-      return String.format("%s[%s]", keyPrefix, key);
+      return keyPrefix + "[" + key + "]";
     } else {
-      return String.format("%s[%s][%s]", keyPrefix, key.substring(0, i), key.substring(i));
+      return keyPrefix + "[" + key.substring(0, i) + "][" + key.substring(i) + "]";
     }
   }
 
@@ -0,0 +1,317 @@
+package com.stripe.net;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes params in the {@code application/x-www-form-urlencoded} format in a single pass, straight
+ * into a byte buffer that is reused by the calling thread.
+ *
+ * <p>The params are flattened as by {@link FormEncoder#flattenParams(Map)}, without building the
+ * list of pairs, and keys and values are encoded as by {@link FormEncoder#urlEncode(String)}, i.e.
+ * as by {@link java.net.URLEncoder} in UTF-8 except that square brackets are left as-is. File and
+ * stream values are left out, as in a query string.
+ */
+final class FormWriter {
+  /** Buffers that grew larger than this are not kept for the next params. */
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  private static final ThreadLocal<FormWriter> WRITERS = ThreadLocal.withInitial(FormWriter::new);
+
+  /** The ASCII characters written as-is. Spaces become {@code +}, the others are %-encoded. */
+  private static final boolean[] SAFE = new boolean[128];
+
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+  static {
+    for (char c = 'a'; c <= 'z'; c++) {
+      SAFE[c] = true;
+    }
+    for (char c = 'A'; c <= 'Z'; c++) {
+      SAFE[c] = true;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      SAFE[c] = true;
+    }
+    for (char c : new char[] {'-', '_', '.', '*', '[', ']'}) {
+      SAFE[c] = true;
+    }
+  }
+
+  private byte[] buffer = new byte[256];
+  private int length;
+
+  /** The key of the value being written, before encoding. */
+  private StringBuilder key = new StringBuilder();
+
+  private int pairs;
+
+  /** The number of values met while flattening, including the file and stream values. */
+  private int values;
+
+  private boolean hasFiles;
+
+  /** Whether the writer is in use, in case a value's {@code toString()} encodes params too. */
+  private boolean inUse;
+
+  private FormWriter() {}
+
+  /**
+   * Creates the query string for the given params.
+   *
+   * @param params the params
+   * @return the query string
+   */
+  static String createQueryString(Map<String, Object> params) {
+    FormWriter writer = acquire();
+    try {
+      writer.writeMap(params);
+      return writer.asString();
+    } finally {
+      writer.release();
+    }
+  }
+
+  /**
+   * Creates the form-encoded body for the given params.
+   *
+   * @param params the params
+   * @return the body, or {@code null} if the params contain files or streams, which can only be
+   *     sent in a multipart body
+   */
+  static byte[] createFormBody(Map<String, Object> params) {
+    FormWriter writer = acquire();
+    try {
+      writer.writeMap(params);
+      return writer.hasFiles ? null : Arrays.copyOf(writer.buffer, writer.length);
+    } finally {
+      writer.release();
+    }
+  }
+
+  /**
+   * Creates the query string for a collection of name/value tuples.
+   *
+   * @param nameValueCollection the name/value tuples
+   * @return the query string
+   */
+  static String createQueryString(Collection<KeyValuePair<String, String>> nameValueCollection) {
+    FormWriter writer = acquire();
+    try {
+      for (KeyValuePair<String, String> kvp : nameValueCollection) {
+        writer.writePair(kvp.getKey(), kvp.getValue());
+      }
+      return writer.asString();
+    } finally {
+      writer.release();
+    }
+  }
+
+  /**
+   * URL-encodes a string.
+   *
+   * @param value the string
+   * @return the encoded string
+   */
+  static String encode(String value) {
+    FormWriter writer = acquire();
+    try {
+      writer.writeEncoded(value);
+      return writer.asString();
+    } finally {
+      writer.release();
+    }
+  }
+
+  private static FormWriter acquire() {
+    FormWriter writer = WRITERS.get();
+    if (writer.inUse) {
+      writer = new FormWriter();
+    }
+    writer.inUse = true;
+    return writer;
+  }
+
+  private void release() {
+    if (this.buffer.length > MAX_RETAINED_CAPACITY) {
+      this.buffer = new byte[256];
+    }
+    if (this.key.capacity() > MAX_RETAINED_CAPACITY) {
+      this.key = new StringBuilder();
+    }
+    this.length = 0;
+    this.key.setLength(0);
+    this.pairs = 0;
+    this.values = 0;
+    this.hasFiles = false;
+    this.inUse = false;
+  }
+
+  private String asString() {
+    // Encoded output is pure ASCII.
+    return new String(this.buffer, 0, this.length, StandardCharsets.ISO_8859_1);
+  }
+
+  private void writeValue(Object value) {
+    if (value == null) {
+      writePair("");
+      return;
+    }
+
+    ClassMetadata metadata = ClassMetadata.of(value.getClass());
+    switch (metadata.kind()) {
+      case MAP:
+        writeMap((Map<?, ?>) value);
+        break;
+      case STRING:
+        writePair((String) value);
+        break;
+      case FILE:
+      case INPUT_STREAM:
+        this.values++;
+        this.hasFiles = true;
+        break;
+      case COLLECTION:
+        writeElements((Collection<?>) value, null);
+        break;
+      case ARRAY:
+        writeElements(null, value);
+        break;
+      case ENUM:
+      case ENUM_PARAM:
+        String enumName = metadata.enumName(value);
+        writePair((enumName != null) ? enumName : value.toString());
+        break;
+      default:
+        writePair(value.toString());
+        break;
+    }
+  }
+
+  private void writeMap(Map<?, ?> map) {
+    int mark = this.key.length();
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      String name = entry.getKey().toString();
+      // Same nesting as FormEncoder.newPrefix.
+      if (mark == 0) {
+        this.key.append(name);
+      } else {
+        int i = name.indexOf('[');
+        if (i == -1) {
+          this.key.append('[').append(name).append(']');
+        } else {
+          this.key.append('[').append(name, 0, i).append("][").append(name, i, name.length());
+          this.key.append(']');
+        }
+      }
+      writeValue(entry.getValue());
+      this.key.setLength(mark);
+    }
+  }
+
+  /** Writes the elements of either a collection or an array. */
+  private void writeElements(Collection<?> collection, Object array) {
+    int mark = this.key.length();
+    int valuesBefore = this.values;
+    if (collection != null) {
+      int index = 0;
+      for (Object element : collection) {
+        this.key.append('[').append(index++).append(']');
+        writeValue(element);
+        this.key.setLength(mark);
+      }
+    } else {
+      for (int index = 0; index < Array.getLength(array); index++) {
+        this.key.append('[').append(index).append(']');
+        writeValue(Array.get(array, index));
+        this.key.setLength(mark);
+      }
+    }
+
+    // An empty list is sent as an empty value, as in FormEncoder.
+    if (this.values == valuesBefore) {
+      writePair("");
+    }
+  }
+
+  private void writePair(String value) {
+    this.values++;
+    writePair(this.key, value);
+  }
+
+  private void writePair(CharSequence key, String value) {
+    if (this.pairs++ > 0) {
+      ensureCapacity(1);
+      this.buffer[this.length++] = '&';
+    }
+    writeEncoded(key);
+    ensureCapacity(1);
+    this.buffer[this.length++] = '=';
+    writeEncoded(value);
+  }
+
+  private void writeEncoded(CharSequence s) {
+    // Match String.format, which writes nulls as "null".
+    if (s == null) {
+      s = "null";
+    }
+    int n = s.length();
+    ensureCapacity(3 * n);
+    for (int i = 0; i < n; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        if (SAFE[c]) {
+          this.buffer[this.length++] = (byte) c;
+        } else if (c == ' ') {
+          this.buffer[this.length++] = '+';
+        } else {
+          writePercentEncoded(c);
+        }
+        continue;
+      }
+
+      // A char takes up to 9 bytes and a surrogate pair 12, against the 3 per char reserved.
+      ensureCapacity(6 + 3 * (n - i));
+      int codePoint = c;
+      if (Character.isHighSurrogate(c)
+          && i + 1 < n
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        codePoint = Character.toCodePoint(c, s.charAt(++i));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates are replaced by '?', as by String.getBytes.
+        writePercentEncoded('?');
+        continue;
+      }
+
+      if (codePoint < 0x800) {
+        writePercentEncoded(0xC0 | (codePoint >> 6));
+        writePercentEncoded(0x80 | (codePoint & 0x3F));
+      } else if (codePoint < 0x10000) {
+        writePercentEncoded(0xE0 | (codePoint >> 12));
+        writePercentEncoded(0x80 | ((codePoint >> 6) & 0x3F));
+        writePercentEncoded(0x80 | (codePoint & 0x3F));
+      } else {
+        writePercentEncoded(0xF0 | (codePoint >> 18));
+        writePercentEncoded(0x80 | ((codePoint >> 12) & 0x3F));
+        writePercentEncoded(0x80 | ((codePoint >> 6) & 0x3F));
+        writePercentEncoded(0x80 | (codePoint & 0x3F));
+      }
+    }
+  }
+
+  private void writePercentEncoded(int b) {
+    this.buffer[this.length++] = '%';
+    this.buffer[this.length++] = HEX[(b >> 4) & 0xF];
+    this.buffer[this.length++] = HEX[b & 0xF];
+  }
+
+  private void ensureCapacity(int extra) {
+    if (this.length + extra > this.buffer.length) {
+      this.buffer =
+          Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.length + extra));
+    }
+  }
+}
@@ -0,0 +1,392 @@
+package com.stripe.net;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Cuts the tail latency of {@code GET} requests by sending a second, identical request when the
+ * first one is slower than usual, and keeping whichever response comes first.
+ *
+ * <p>The hedge is sent once the first request has been in flight for longer than the {@link
+ * Builder#setPercentile(double) percentile} of the recent latencies of its endpoint, the
+ * endpoints being grouped the same way as the circuits of a {@link CircuitBreaker}. No hedge is
+ * sent until an endpoint has seen {@link Builder#setMinSamples(int) minSamples} responses. The
+ * response that arrives second is discarded, closing its body if it is streamed; the request
+ * itself still runs to completion, since the HTTP clients cannot abort a request in flight.
+ *
+ * <p>Hedges are bounded by a {@link Builder#setBudget(double) budget}: each request earns a
+ * fraction of a hedge, and a hedge is only sent if a whole one has been earned, so that hedging
+ * adds at most that fraction to the load on the API even when it is slow across the board.
+ *
+ * <p>At most {@link #MAX_ENDPOINTS} endpoints are tracked, since paths whose object ids have no
+ * digit each get an endpoint of their own. Once there are that many, the endpoints with too few
+ * responses to be hedged, or without requests for the last five minutes, are dropped, forgetting
+ * their recent latencies. Requests to new endpoints that still find no room are not hedged.
+ *
+ * <p>With hedging, {@code GET} requests sent synchronously run on the executor from {@link
+ * RequestOptions#getExecutor()}, or the shared pool of daemon threads, while the calling thread
+ * waits for the first response. All methods are thread-safe.
+ */
+public final class HedgingPolicy {
+  /** The maximum number of endpoints tracked at once. */
+  public static final int MAX_ENDPOINTS = 1000;
+
+  /** How long an endpoint goes without requests before it may be dropped to make room. */
+  private static final long MAX_IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+  private final double percentile;
+  private final long minDelayNanos;
+  private final int windowSize;
+  private final int minSamples;
+  private final double budget;
+  private final double maxBudgetBalance;
+  private final LongSupplier nanoTime;
+
+  private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+  private final LongAdder hedges = new LongAdder();
+  private final LongAdder hedgeWins = new LongAdder();
+
+  private double budgetBalance;
+
+  private HedgingPolicy(Builder builder) {
+    this.percentile = builder.percentile;
+    this.minDelayNanos = builder.minDelay.toNanos();
+    this.windowSize = builder.windowSize;
+    this.minSamples = Math.min(builder.minSamples, builder.windowSize);
+    this.budget = builder.budget;
+    this.maxBudgetBalance = builder.maxBudgetBalance;
+    this.budgetBalance = builder.maxBudgetBalance;
+    this.nanoTime = builder.nanoTime;
+  }
+
+  /** Returns a builder for a new hedging policy. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Returns the number of hedges sent so far. */
+  public long getHedges() {
+    return this.hedges.sum();
+  }
+
+  /** Returns the number of hedges whose response arrived before the one of the first request. */
+  public long getHedgeWins() {
+    return this.hedgeWins.sum();
+  }
+
+  /**
+   * Returns how long a request waits before it is hedged.
+   *
+   * @param request the request
+   * @return the delay, or empty if the endpoint of the request has seen too few responses yet
+   */
+  public Optional<Duration> getDelay(StripeRequest request) {
+    long delay = endpoint(request).delayNanos();
+    return (delay < 0) ? Optional.empty() : Optional.of(Duration.ofNanos(delay));
+  }
+
+  /** Returns whether requests of this kind may be hedged, i.e. whether they are idempotent. */
+  static boolean appliesTo(StripeRequest request) {
+    return request.method() == ApiResource.RequestMethod.GET;
+  }
+
+  /**
+   * Sends a request, hedging it if it is slower than usual.
+   *
+   * @param request the request
+   * @param send sends one copy of the request
+   * @param scheduler the timer sending the hedge
+   * @return a future completed with the first response, or with the first failure if no copy
+   *     succeeds
+   */
+  <T extends AbstractStripeResponse<?>> CompletableFuture<T> send(
+      StripeRequest request,
+      Function<StripeRequest, CompletableFuture<T>> send,
+      ScheduledExecutorService scheduler) {
+    Endpoint endpoint = endpoint(request);
+    long delay = endpoint.delayNanos();
+    earnBudget();
+
+    Race<T> race = new Race<>(request, send, endpoint);
+    race.launch(false);
+    if (delay >= 0 && !race.result.isDone()) {
+      try {
+        ScheduledFuture<?> timer = scheduler.schedule(race::hedge, delay, TimeUnit.NANOSECONDS);
+        race.result.whenComplete((response, error) -> timer.cancel(false));
+      } catch (RejectedExecutionException e) {
+        // Without a timer, the request is simply not hedged.
+      }
+    }
+    return race.result;
+  }
+
+  /** Returns the number of endpoints currently tracked. Used for internal tests only. */
+  int endpointCount() {
+    return this.endpoints.size();
+  }
+
+  private Endpoint endpoint(StripeRequest request) {
+    String name = CircuitBreaker.circuitOf(request.url());
+    long now = this.nanoTime.getAsLong();
+    Endpoint endpoint = this.endpoints.get(name);
+    if (endpoint == null) {
+      if (this.endpoints.size() >= MAX_ENDPOINTS) {
+        this.endpoints.values().removeIf(e -> e.isDroppable(now));
+        if (this.endpoints.size() >= MAX_ENDPOINTS) {
+          return new Endpoint();
+        }
+      }
+      endpoint = this.endpoints.computeIfAbsent(name, k -> new Endpoint());
+    }
+    endpoint.lastUsedNanos = now;
+    return endpoint;
+  }
+
+  private synchronized void earnBudget() {
+    this.budgetBalance = Math.min(this.maxBudgetBalance, this.budgetBalance + this.budget);
+  }
+
+  private synchronized boolean spendBudget() {
+    if (this.budgetBalance < 1) {
+      return false;
+    }
+    this.budgetBalance -= 1;
+    return true;
+  }
+
+  /** The recent latencies of an endpoint. */
+  private final class Endpoint {
+    private final long[] latencies = new long[windowSize];
+    private int count;
+    private int next;
+    private int sinceUpdate;
+    private long delay = -1;
+    private volatile long lastUsedNanos;
+
+    synchronized long delayNanos() {
+      return this.delay;
+    }
+
+    /** Whether the endpoint has too few responses to be hedged, or has been idle for long. */
+    synchronized boolean isDroppable(long now) {
+      return this.delay < 0 || now - this.lastUsedNanos > MAX_IDLE_NANOS;
+    }
+
+    synchronized void record(long latency) {
+      this.latencies[this.next] = latency;
+      this.next = (this.next + 1) % this.latencies.length;
+      this.count = Math.min(this.count + 1, this.latencies.length);
+      // Sorting the window is cheap next to a request, but still only redone every few samples.
+      if (this.count >= minSamples
+          && (this.delay < 0 || ++this.sinceUpdate >= Math.max(1, this.count / 16))) {
+        this.sinceUpdate = 0;
+        long[] sorted = Arrays.copyOf(this.latencies, this.count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * this.count) - 1;
+        this.delay = Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+      }
+    }
+  }
+
+  /** The first request and its hedge, if any. */
+  private final class Race<T extends AbstractStripeResponse<?>> {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+
+    private final StripeRequest request;
+    private final Function<StripeRequest, CompletableFuture<T>> send;
+    private final Endpoint endpoint;
+
+    /** The number of requests in flight, starting with the first one. */
+    private int pending = 1;
+
+    private boolean mayHedge = true;
+    private Throwable failure;
+
+    Race(
+        StripeRequest request,
+        Function<StripeRequest, CompletableFuture<T>> send,
+        Endpoint endpoint) {
+      this.request = request;
+      this.send = send;
+      this.endpoint = endpoint;
+    }
+
+    void hedge() {
+      synchronized (this) {
+        if (!this.mayHedge || this.result.isDone()) {
+          return;
+        }
+        this.mayHedge = false;
+        if (!spendBudget()) {
+          return;
+        }
+        this.pending++;
+      }
+      hedges.increment();
+      launch(true);
+    }
+
+    void launch(boolean hedge) {
+      long start = nanoTime.getAsLong();
+      CompletableFuture<T> attempt;
+      try {
+        attempt = this.send.apply(this.request);
+      } catch (RuntimeException e) {
+        attempt = new CompletableFuture<>();
+        attempt.completeExceptionally(e);
+      }
+      attempt.whenComplete(
+          (response, error) -> {
+            if (response != null && !hedge) {
+              // Only the latencies of first requests, which hedging does not skew.
+              this.endpoint.record(nanoTime.getAsLong() - start);
+            }
+            onComplete(hedge, response, error);
+          });
+    }
+
+    private void onComplete(boolean hedge, T response, Throwable error) {
+      if (response != null) {
+        if (this.result.complete(response)) {
+          if (hedge) {
+            hedgeWins.increment();
+          }
+        } else {
+          HttpClient.discard(response);
+        }
+        return;
+      }
+
+      synchronized (this) {
+        this.pending--;
+        // A failed request is retried, not hedged.
+        this.mayHedge = false;
+        if (this.failure == null) {
+          this.failure = error;
+        }
+        if (this.pending > 0) {
+          return;
+        }
+      }
+      this.result.completeExceptionally(HttpClient.unwrapCompletionException(this.failure));
+    }
+  }
+
+  /** Builder for {@link HedgingPolicy} instances. */
+  public static final class Builder {
+    private double percentile = 0.95;
+    private Duration minDelay = Duration.ofMillis(50);
+    private int windowSize = 1000;
+    private int minSamples = 20;
+    private double budget = 0.05;
+    private double maxBudgetBalance = 10;
+    private LongSupplier nanoTime = System::nanoTime;
+
+    private Builder() {}
+
+    /**
+     * Sets the percentile of the recent latencies of an endpoint after which requests are hedged.
+     * Defaults to 0.95.
+     *
+     * @param percentile the percentile, greater than 0 and at most 1
+     */
+    public Builder setPercentile(double percentile) {
+      if (!(percentile > 0 && percentile <= 1)) {
+        throw new IllegalArgumentException("percentile must be in (0, 1]");
+      }
+      this.percentile = percentile;
+      return this;
+    }
+
+    /**
+     * Sets the shortest delay before a request is hedged, whatever the latencies of its endpoint.
+     * Defaults to 50 milliseconds.
+     *
+     * @param minDelay the delay
+     */
+    public Builder setMinDelay(Duration minDelay) {
+      if (minDelay == null || minDelay.isNegative()) {
+        throw new IllegalArgumentException("minDelay must not be negative");
+      }
+      this.minDelay = minDelay;
+      return this;
+    }
+
+    /**
+     * Sets the number of recent latencies of each endpoint that the percentile is computed over.
+     * Defaults to 1000.
+     *
+     * @param windowSize the number of latencies
+     */
+    public Builder setWindowSize(int windowSize) {
+      if (windowSize <= 0) {
+        throw new IllegalArgumentException("windowSize must be positive");
+      }
+      this.windowSize = windowSize;
+      return this;
+    }
+
+    /**
+     * Sets the number of responses an endpoint must have seen before its requests are hedged.
+     * Defaults to 20.
+     *
+     * @param minSamples the number of responses
+     */
+    public Builder setMinSamples(int minSamples) {
+      if (minSamples <= 0) {
+        throw new IllegalArgumentException("minSamples must be positive");
+      }
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /**
+     * Sets the fraction of a hedge earned by each request, i.e. the most extra load that hedging
+     * adds in the long run. Defaults to 0.05.
+     *
+     * @param budget the fraction, greater than 0 and at most 1
+     */
+    public Builder setBudget(double budget) {
+      if (!(budget > 0 && budget <= 1)) {
+        throw new IllegalArgumentException("budget must be in (0, 1]");
+      }
+      this.budget = budget;
+      return this;
+    }
+
+    /**
+     * Sets the number of earned hedges that may be saved up, and sent in a burst. Defaults to 10.
+     *
+     * @param maxBudgetBalance the number of hedges, at least 1
+     */
+    public Builder setMaxBudgetBalance(double maxBudgetBalance) {
+      if (!(maxBudgetBalance >= 1)) {
+        throw new IllegalArgumentException("maxBudgetBalance must be at least 1");
+      }
+      this.maxBudgetBalance = maxBudgetBalance;
+      return this;
+    }
+
+    /** Sets the time source, for tests. */
+    Builder setNanoTime(LongSupplier nanoTime) {
+      this.nanoTime = nanoTime;
+      return this;
+    }
+
+    /** Builds the hedging policy. */
+    public HedgingPolicy build() {
+      return new HedgingPolicy(this);
+    }
+  }
+}
@@ -2,15 +2,32 @@ package com.stripe.net;
 
 import com.stripe.Stripe;
 import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.CircuitBreakerOpenException;
 import com.stripe.exception.StripeException;
 import com.stripe.util.Stopwatch;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Base abstract class for HTTP clients used to send requests to Stripe's API. */
 public abstract class HttpClient {
@@ -20,14 +37,125 @@ public abstract class HttpClient {
   /** Minimum sleep time between tries to send HTTP requests after network failure. */
   public static final Duration minNetworkRetriesDelay = Duration.ofMillis(500);
 
+  /** Runs the blocking part of asynchronous requests for clients without non-blocking I/O. */
+  private static final ExecutorService ASYNC_EXECUTOR =
+      Executors.newCachedThreadPool(daemonThreadFactory("stripe-async-"));
+
+  /** Schedules retries of asynchronous requests, so that no thread sleeps between attempts. */
+  private static final ScheduledExecutorService RETRY_SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("stripe-retry-timer-"));
+
+  /** The user agent headers, built again only when the app info changes. */
+  private static volatile UserAgentHeaders userAgentHeaders;
+
   private final RequestTelemetry requestTelemetry = new RequestTelemetry();
 
   /** A value indicating whether the client should sleep between automatic request retries. */
   boolean networkRetriesSleep = true;
 
+  private volatile RateLimiter rateLimiter;
+
+  private volatile CircuitBreaker circuitBreaker;
+
+  private volatile HedgingPolicy hedgingPolicy;
+
+  private volatile RequestListener requestListener;
+
   /** Initializes a new instance of the {@link HttpClient} class. */
   protected HttpClient() {}
 
+  /**
+   * Sets the rate limiter pacing the requests sent with retries, or {@code null} to send them
+   * unthrottled, which is the default.
+   *
+   * @param rateLimiter the rate limiter
+   */
+  public void setRateLimiter(RateLimiter rateLimiter) {
+    this.rateLimiter = rateLimiter;
+  }
+
+  /** Returns the rate limiter pacing the requests sent with retries, possibly {@code null}. */
+  public RateLimiter getRateLimiter() {
+    return this.rateLimiter;
+  }
+
+  /**
+   * Sets the circuit breaker failing fast the requests sent with retries while their endpoint is
+   * failing, or {@code null} to always send them, which is the default.
+   *
+   * @param circuitBreaker the circuit breaker
+   */
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /** Returns the circuit breaker of the requests sent with retries, possibly {@code null}. */
+  public CircuitBreaker getCircuitBreaker() {
+    return this.circuitBreaker;
+  }
+
+  /**
+   * Sets the policy hedging the {@code GET} requests sent with retries, or {@code null} to never
+   * hedge them, which is the default.
+   *
+   * @param hedgingPolicy the hedging policy
+   */
+  public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+    this.hedgingPolicy = hedgingPolicy;
+  }
+
+  /** Returns the policy hedging the {@code GET} requests sent with retries, possibly null. */
+  public HedgingPolicy getHedgingPolicy() {
+    return this.hedgingPolicy;
+  }
+
+  /**
+   * Sets the listener receiving the events of the requests sent with retries, or {@code null} to
+   * report none, which is the default.
+   *
+   * @param requestListener the listener
+   */
+  public void setRequestListener(RequestListener requestListener) {
+    this.requestListener = requestListener;
+  }
+
+  /** Returns the listener receiving the events of the requests sent with retries, possibly null. */
+  public RequestListener getRequestListener() {
+    return this.requestListener;
+  }
+
+  /**
+   * Starts the trace of a request, unless it already has one, e.g. because the response getter
+   * started it to report deserialization too.
+   *
+   * @return the traced request, or the request itself if it is already traced or if no listener is
+   *     set
+   */
+  StripeRequest traced(StripeRequest request) {
+    if (request.trace() != RequestTrace.NONE) {
+      return request;
+    }
+    RequestTrace trace = RequestTrace.start(this.requestListener, request);
+    return (trace == RequestTrace.NONE) ? request : request.withTrace(trace);
+  }
+
+  /** Sends a request, ending its trace if it was started here. */
+  private <T> T sendTraced(StripeRequest request, RequestSendFunction<T> send)
+      throws StripeException {
+    StripeRequest traced = this.traced(request);
+    if (traced == request) {
+      return send.apply(request);
+    }
+    try {
+      T response = send.apply(traced);
+      traced.trace().end(null);
+      return response;
+    } catch (StripeException | RuntimeException e) {
+      traced.trace().end(e);
+      throw e;
+    }
+  }
+
   /**
    * Sends the given request to Stripe's API, buffering the response body into memory.
    *
@@ -40,12 +168,35 @@ public abstract class HttpClient {
   /**
    * Sends the given request to Stripe's API, streaming the response body.
    *
+   * <p>The default implementation buffers the response returned by {@link #request(StripeRequest)}.
+   * Clients able to hand out the body as it is read from the network should override this method.
+   *
    * @param request the request
    * @return the response
    * @throws StripeException If the request fails for any reason
    */
   public StripeResponseStream requestStream(StripeRequest request) throws StripeException {
-    throw new UnsupportedOperationException("requestStream is unimplemented for this HttpClient");
+    StripeResponse response = this.request(request);
+    return new StripeResponseStream(
+        response.code(),
+        response.headers(),
+        new ByteArrayInputStream(response.body().getBytes(ApiResource.CHARSET)));
+  }
+
+  /**
+   * Sends the given request to Stripe's API without blocking the calling thread, buffering the
+   * response body into memory.
+   *
+   * <p>The default implementation runs {@link #request(StripeRequest)} on the executor from the
+   * request's {@link RequestOptions#getExecutor()} or, if none is set, on a shared pool of daemon
+   * threads. Clients with a non-blocking transport should override this method.
+   *
+   * @param request the request
+   * @return a future completed with the response, or completed exceptionally with a {@link
+   *     StripeException} if the request fails for any reason
+   */
+  public CompletableFuture<StripeResponse> requestAsync(StripeRequest request) {
+    return supplyAsync(request, this::request, executorFor(request.options()));
   }
 
   @FunctionalInterface
@@ -53,6 +204,24 @@ public abstract class HttpClient {
     R apply(StripeRequest request) throws StripeException;
   }
 
+  private static <R> CompletableFuture<R> supplyAsync(
+      StripeRequest request, RequestSendFunction<R> send, Executor executor) {
+    CompletableFuture<R> future = new CompletableFuture<>();
+    try {
+      executor.execute(
+          () -> {
+            try {
+              future.complete(send.apply(request));
+            } catch (Throwable e) {
+              future.completeExceptionally(e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
   private <T extends AbstractStripeResponse<?>> T sendWithTelemetry(
       StripeRequest request, RequestSendFunction<T> send) throws StripeException {
     Optional<String> telemetryHeaderValue = requestTelemetry.getHeaderValue(request.headers());
@@ -67,6 +236,7 @@ public abstract class HttpClient {
 
     stopwatch.stop();
 
+    request.trace().attemptDone(response);
     requestTelemetry.maybeEnqueueMetrics(response, stopwatch.getElapsed());
 
     return response;
@@ -96,6 +266,33 @@ public abstract class HttpClient {
     return sendWithTelemetry(request, this::requestStream);
   }
 
+  /**
+   * Sends the given request to Stripe's API without blocking the calling thread, handling telemetry
+   * if not disabled.
+   *
+   * @param request the request
+   * @return a future completed with the response
+   */
+  public CompletableFuture<StripeResponse> requestWithTelemetryAsync(StripeRequest request) {
+    Optional<String> telemetryHeaderValue = requestTelemetry.getHeaderValue(request.headers());
+    if (telemetryHeaderValue.isPresent()) {
+      request =
+          request.withAdditionalHeader(RequestTelemetry.HEADER_NAME, telemetryHeaderValue.get());
+    }
+
+    Stopwatch stopwatch = Stopwatch.startNew();
+    RequestTrace trace = request.trace();
+
+    return this.requestAsync(request)
+        .thenApply(
+            response -> {
+              stopwatch.stop();
+              trace.attemptDone(response);
+              requestTelemetry.maybeEnqueueMetrics(response, stopwatch.getElapsed());
+              return response;
+            });
+  }
+
   public <T extends AbstractStripeResponse<?>> T sendWithRetries(
       StripeRequest request, RequestSendFunction<T> send) throws StripeException {
     ApiConnectionException requestException = null;
@@ -106,7 +303,9 @@ public abstract class HttpClient {
       requestException = null;
 
       try {
-        response = send.apply(request);
+        response = this.sendAttempt(request, send);
+      } catch (CircuitBreakerOpenException e) {
+        throw e;
       } catch (ApiConnectionException e) {
         requestException = e;
       }
@@ -116,6 +315,8 @@ public abstract class HttpClient {
       }
 
       retry += 1;
+      request.trace().retry(requestException);
+      discard(response);
 
       try {
         Thread.sleep(this.sleepTime(retry).toMillis());
@@ -133,6 +334,80 @@ public abstract class HttpClient {
     return response;
   }
 
+  /** Sends one attempt of a request through the circuit breaker and the rate limiter, if set. */
+  private <T extends AbstractStripeResponse<?>> T sendAttempt(
+      StripeRequest request, RequestSendFunction<T> send) throws StripeException {
+    CircuitBreaker circuitBreaker = this.circuitBreaker;
+    CircuitBreaker.Permit permit = null;
+    if (circuitBreaker != null) {
+      permit = circuitBreaker.acquire(request);
+    }
+
+    try {
+      RateLimiter rateLimiter = this.rateLimiter;
+      if (rateLimiter != null) {
+        rateLimiter.acquire(request);
+      }
+      if (permit != null) {
+        permit.start();
+      }
+
+      T response;
+      try {
+        response = this.sendHedged(request, send);
+      } catch (ApiConnectionException e) {
+        if (permit != null) {
+          permit.complete(true);
+        }
+        throw e;
+      }
+
+      if (permit != null) {
+        permit.complete(response.code() >= 500);
+      }
+      if (rateLimiter != null) {
+        rateLimiter.onResponse(request, response);
+      }
+      return response;
+    } finally {
+      if (permit != null) {
+        // Only takes effect if the request was not sent.
+        permit.cancel();
+      }
+    }
+  }
+
+  /** Sends a request, hedging it if a hedging policy is set and applies to it. */
+  private <T extends AbstractStripeResponse<?>> T sendHedged(
+      StripeRequest request, RequestSendFunction<T> send) throws StripeException {
+    HedgingPolicy hedgingPolicy = this.hedgingPolicy;
+    if (hedgingPolicy == null || !HedgingPolicy.appliesTo(request)) {
+      return send.apply(request);
+    }
+
+    Executor executor = executorFor(request.options());
+    CompletableFuture<T> response =
+        hedgingPolicy.send(request, r -> supplyAsync(r, send, executor), RETRY_SCHEDULER);
+    try {
+      return response.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ApiConnectionException("Interrupted while waiting for a response from Stripe", e);
+    } catch (ExecutionException e) {
+      Throwable cause = unwrapCompletionException(e.getCause());
+      if (cause instanceof StripeException) {
+        throw (StripeException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new ApiConnectionException(cause.getMessage(), cause);
+    }
+  }
+
   /**
    * Sends the given request to Stripe's API, retrying the request in cases of intermittent
    * problems.
@@ -142,7 +417,7 @@ public abstract class HttpClient {
    * @throws StripeException If the request fails for any reason
    */
   public StripeResponse requestWithRetries(StripeRequest request) throws StripeException {
-    return sendWithRetries(request, (r) -> this.requestWithTelemetry(r));
+    return sendTraced(request, (t) -> sendWithRetries(t, (r) -> this.requestWithTelemetry(r)));
   }
 
   /**
@@ -155,7 +430,197 @@ public abstract class HttpClient {
    */
   public StripeResponseStream requestStreamWithRetries(StripeRequest request)
       throws StripeException {
-    return sendWithRetries(request, (r) -> this.requestStreamWithTelemetry(r));
+    return sendTraced(
+        request, (t) -> sendWithRetries(t, (r) -> this.requestStreamWithTelemetry(r)));
+  }
+
+  /**
+   * Sends the given request to Stripe's API without blocking the calling thread, retrying the
+   * request in cases of intermittent problems. Unlike {@link #requestWithRetries(StripeRequest)},
+   * the delay between attempts is handled by a timer rather than by sleeping.
+   *
+   * @param request the request
+   * @return a future completed with the response, or completed exceptionally with a {@link
+   *     StripeException} if the request fails for any reason
+   */
+  public CompletableFuture<StripeResponse> requestWithRetriesAsync(StripeRequest request) {
+    CompletableFuture<StripeResponse> result = new CompletableFuture<>();
+    StripeRequest traced = this.traced(request);
+    if (traced != request) {
+      result.whenComplete(
+          (response, error) -> traced.trace().end(unwrapCompletionException(error)));
+    }
+    this.sendWithRetriesAsync(traced, 0, result);
+    return result;
+  }
+
+  private void sendWithRetriesAsync(
+      StripeRequest request, int retry, CompletableFuture<StripeResponse> result) {
+    CircuitBreaker circuitBreaker = this.circuitBreaker;
+    CircuitBreaker.Permit permit = null;
+    RateLimiter rateLimiter = this.rateLimiter;
+    long wait = 0;
+    try {
+      if (circuitBreaker != null) {
+        permit = circuitBreaker.acquire(request);
+      }
+      if (rateLimiter != null) {
+        wait = rateLimiter.reserve(request);
+      }
+    } catch (Throwable e) {
+      // Includes CircuitBreakerOpenException and RateLimitException.
+      if (permit != null) {
+        permit.cancel();
+      }
+      result.completeExceptionally(e);
+      return;
+    }
+
+    CircuitBreaker.Permit attemptPermit = permit;
+    if (wait > 0) {
+      // Queue the request on the timer rather than holding a thread until the token is available.
+      try {
+        RETRY_SCHEDULER.schedule(
+            () -> this.attemptWithRetriesAsync(request, retry, attemptPermit, rateLimiter, result),
+            wait,
+            TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        if (permit != null) {
+          permit.cancel();
+        }
+        result.completeExceptionally(e);
+      }
+    } else {
+      this.attemptWithRetriesAsync(request, retry, permit, rateLimiter, result);
+    }
+  }
+
+  private void attemptWithRetriesAsync(
+      StripeRequest request,
+      int retry,
+      CircuitBreaker.Permit permit,
+      RateLimiter rateLimiter,
+      CompletableFuture<StripeResponse> result) {
+    CompletableFuture<StripeResponse> attempt;
+    try {
+      if (permit != null) {
+        permit.start();
+      }
+      HedgingPolicy hedgingPolicy = this.hedgingPolicy;
+      if (hedgingPolicy != null && HedgingPolicy.appliesTo(request)) {
+        attempt = hedgingPolicy.send(request, this::requestWithTelemetryAsync, RETRY_SCHEDULER);
+      } else {
+        attempt = this.requestWithTelemetryAsync(request);
+      }
+    } catch (Throwable e) {
+      result.completeExceptionally(e);
+      return;
+    }
+    attempt.whenComplete(
+        (response, error) -> {
+          // Whatever goes wrong here, the caller's future must be completed.
+          try {
+            this.onAttemptDone(request, retry, permit, rateLimiter, result, response, error);
+          } catch (Throwable e) {
+            result.completeExceptionally(e);
+          }
+        });
+  }
+
+  private void onAttemptDone(
+      StripeRequest request,
+      int retry,
+      CircuitBreaker.Permit permit,
+      RateLimiter rateLimiter,
+      CompletableFuture<StripeResponse> result,
+      StripeResponse response,
+      Throwable error) {
+    Throwable cause = unwrapCompletionException(error);
+    if (permit != null) {
+      if (cause == null || cause instanceof ApiConnectionException) {
+        permit.complete(cause != null || response.code() >= 500);
+      } else {
+        permit.cancel();
+      }
+    }
+    if (cause != null && !(cause instanceof ApiConnectionException)) {
+      result.completeExceptionally(cause);
+      return;
+    }
+    ApiConnectionException requestException = (ApiConnectionException) cause;
+
+    if (rateLimiter != null) {
+      rateLimiter.onResponse(request, response);
+    }
+
+    if (this.shouldRetry(retry, requestException, request, response)) {
+      int nextRetry = retry + 1;
+      request.trace().retry(requestException);
+      try {
+        RETRY_SCHEDULER.schedule(
+            () -> this.sendWithRetriesAsync(request, nextRetry, result),
+            this.sleepTime(nextRetry).toNanos(),
+            TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        result.completeExceptionally(e);
+      }
+      return;
+    }
+
+    if (requestException != null) {
+      result.completeExceptionally(requestException);
+      return;
+    }
+
+    response.numRetries(retry);
+    result.complete(response);
+  }
+
+  /**
+   * Returns the executor to run blocking work on behalf of asynchronous requests and fan-out
+   * helpers.
+   *
+   * @param options the request options, possibly {@code null}
+   * @return the executor from the options if any, or else the shared pool of daemon threads
+   */
+  static Executor executorFor(RequestOptions options) {
+    if (options != null && options.getExecutor() != null) {
+      return options.getExecutor();
+    }
+    return ASYNC_EXECUTOR;
+  }
+
+  /** Closes the body of a streamed response that is dropped in favor of a retry or a hedge. */
+  static void discard(AbstractStripeResponse<?> response) {
+    if (response instanceof StripeResponseStream) {
+      try {
+        ((StripeResponseStream) response).body().close();
+      } catch (IOException e) {
+        // the response is being thrown away anyway
+      }
+    }
+  }
+
+  /**
+   * Returns the actual cause of a failed {@link CompletableFuture} stage.
+   *
+   * @param error the error passed to a completion callback, possibly {@code null}
+   * @return the error, stripped of any {@link CompletionException} wrapper
+   */
+  static Throwable unwrapCompletionException(Throwable error) {
+    while (error instanceof CompletionException && error.getCause() != null) {
+      error = error.getCause();
+    }
+    return error;
+  }
+
+  static ThreadFactory daemonThreadFactory(String namePrefix) {
+    AtomicInteger threadNumber = new AtomicInteger(1);
+    return runnable -> {
+      Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
   }
 
   /**
@@ -203,6 +668,41 @@ public abstract class HttpClient {
     return ApiResource.GSON.toJson(propertyMap);
   }
 
+  /**
+   * Returns the {@code User-Agent} and {@code X-Stripe-Client-User-Agent} headers. They are built
+   * once, and again whenever the app info set with {@link Stripe#setAppInfo} changes.
+   *
+   * @return an unmodifiable map of the headers
+   */
+  static Map<String, List<String>> userAgentHeaders() {
+    Map<String, String> appInfo = Stripe.getAppInfo();
+    UserAgentHeaders cached = userAgentHeaders;
+    if (cached == null || !Objects.equals(cached.appInfo, appInfo)) {
+      Map<String, List<String>> headers = new HashMap<>();
+      headers.put("User-Agent", Collections.singletonList(buildUserAgentString()));
+      headers.put(
+          "X-Stripe-Client-User-Agent",
+          Collections.singletonList(buildXStripeClientUserAgentString()));
+      cached =
+          new UserAgentHeaders(
+              (appInfo != null) ? new HashMap<>(appInfo) : null,
+              Collections.unmodifiableMap(headers));
+      userAgentHeaders = cached;
+    }
+    return cached.headers;
+  }
+
+  /** The user agent headers, and a copy of the app info they were built with. */
+  private static final class UserAgentHeaders {
+    private final Map<String, String> appInfo;
+    private final Map<String, List<String>> headers;
+
+    UserAgentHeaders(Map<String, String> appInfo, Map<String, List<String>> headers) {
+      this.appInfo = appInfo;
+      this.headers = headers;
+    }
+  }
+
   private static String formatAppInfo(Map<String, String> info) {
     String str = info.get("name");
 
@@ -224,6 +724,11 @@ public abstract class HttpClient {
       return false;
     }
 
+    // Do not retry if the body cannot be sent again, i.e. its input streams were read.
+    if ((request.content() != null) && !request.content().isRepeatable()) {
+      return false;
+    }
+
     // Retry on connection error.
     if ((exception != null)
         && (exception.getCause() != null)
@@ -246,6 +751,11 @@ public abstract class HttpClient {
       }
     }
 
+    // Retry on rate limiting errors if a rate limiter slows down the next attempt.
+    if ((response != null) && (response.code() == 429) && (this.rateLimiter != null)) {
+      return true;
+    }
+
     // Retry on conflict errors.
     if ((response != null) && (response.code() == 409)) {
       return true;
@@ -0,0 +1,373 @@
+package com.stripe.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A bounded, per-host pool of persistent HTTP/1.1 connections, used by {@link PooledHttpClient}.
+ *
+ * <p>Each host (scheme, host name and port) gets at most {@code maxConnectionsPerHost} leased
+ * connections at a time. Released connections are kept alive and handed out again in LIFO order,
+ * so that the most recently used (and least likely to have been closed by the server) connection
+ * is reused first. Connections that stay idle longer than the keep-alive duration are closed by a
+ * background evictor.
+ */
+@Slf4j
+class HttpConnectionPool implements Closeable {
+  private static final int DEFAULT_HTTP_PORT = 80;
+  private static final int DEFAULT_HTTPS_PORT = 443;
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /** Connections idle for longer than this are checked for having been closed before reuse. */
+  private static final long VALIDATE_AFTER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  private final int maxConnectionsPerHost;
+  private final long keepAliveNanos;
+  private final SSLSocketFactory sslSocketFactory;
+  private final Map<String, HostPool> hostPools = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService evictor;
+
+  private volatile boolean closed = false;
+
+  /**
+   * Initializes a new instance of the {@link HttpConnectionPool} class.
+   *
+   * @param maxConnectionsPerHost the maximum number of connections leased at once for a given host
+   * @param keepAlive how long an idle connection is kept before being closed
+   * @param sslSocketFactory the factory used to open TLS connections
+   */
+  HttpConnectionPool(
+      int maxConnectionsPerHost, Duration keepAlive, SSLSocketFactory sslSocketFactory) {
+    if (maxConnectionsPerHost <= 0) {
+      throw new IllegalArgumentException("maxConnectionsPerHost must be positive");
+    }
+    if (keepAlive == null || keepAlive.isNegative() || keepAlive.isZero()) {
+      throw new IllegalArgumentException("keepAlive must be a positive duration");
+    }
+
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+    this.keepAliveNanos = keepAlive.toNanos();
+    this.sslSocketFactory = sslSocketFactory;
+
+    this.evictor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "stripe-connection-evictor");
+              thread.setDaemon(true);
+              return thread;
+            });
+    long evictionPeriodNanos = Math.max(this.keepAliveNanos / 2, TimeUnit.SECONDS.toNanos(1));
+    this.evictor.scheduleWithFixedDelay(
+        this::evictIdleConnections, evictionPeriodNanos, evictionPeriodNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Leases a connection to the host of the given URL, reusing an idle connection if one is
+   * available and opening a new one otherwise. Blocks until a lease is available, for at most
+   * {@code connectTimeout} milliseconds (0 meaning no limit).
+   *
+   * @param url the URL to connect to
+   * @param connectTimeout the connect timeout, in milliseconds
+   * @return the leased connection, which must be given back via {@link #release(Connection,
+   *     boolean)}
+   * @throws IOException if no connection could be leased or opened
+   */
+  Connection acquire(URL url, int connectTimeout) throws IOException {
+    if (this.closed) {
+      throw new IllegalStateException("The connection pool has been closed");
+    }
+
+    String route = route(url);
+    HostPool hostPool =
+        this.hostPools.computeIfAbsent(route, r -> new HostPool(this.maxConnectionsPerHost));
+
+    boolean leased;
+    try {
+      if (connectTimeout > 0) {
+        leased = hostPool.permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS);
+      } else {
+        hostPool.permits.acquire();
+        leased = true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ConnectException(
+          String.format("Interrupted while waiting for a connection to %s", route));
+    }
+    if (!leased) {
+      throw new ConnectException(
+          String.format(
+              "Timed out waiting for one of the %d pooled connections to %s",
+              this.maxConnectionsPerHost, route));
+    }
+
+    try {
+      Connection connection;
+      while ((connection = hostPool.idle.pollFirst()) != null) {
+        long now = System.nanoTime();
+        if (connection.isOpen()
+            && !isExpired(connection, now)
+            && (now - connection.idleSinceNanos <= VALIDATE_AFTER_IDLE_NANOS
+                || !connection.isClosedByPeer())) {
+          connection.reused = true;
+          log.trace("reusing pooled connection to {}", route);
+          return connection;
+        }
+        connection.closeQuietly();
+      }
+
+      log.debug("opening new connection to {}", route);
+      return open(url, hostPool, connectTimeout);
+    } catch (IOException | RuntimeException e) {
+      hostPool.permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Gives back a leased connection. Connections whose response was fully read and which the server
+   * agreed to keep alive go back to the pool; all other connections are closed.
+   *
+   * @param connection the leased connection
+   * @param reusable whether the connection can be used for another request
+   */
+  void release(Connection connection, boolean reusable) {
+    HostPool hostPool = connection.hostPool;
+    try {
+      if (reusable
+          && !this.closed
+          && connection.isOpen()
+          && hostPool.idle.size() < this.maxConnectionsPerHost) {
+        connection.idleSinceNanos = System.nanoTime();
+        hostPool.idle.offerFirst(connection);
+      } else {
+        connection.closeQuietly();
+      }
+    } finally {
+      hostPool.permits.release();
+    }
+  }
+
+  /** Closes all connections that have been idle for longer than the keep-alive duration. */
+  void evictIdleConnections() {
+    long now = System.nanoTime();
+    for (HostPool hostPool : this.hostPools.values()) {
+      Iterator<Connection> it = hostPool.idle.iterator();
+      while (it.hasNext()) {
+        Connection connection = it.next();
+        if (!connection.isOpen() || isExpired(connection, now)) {
+          if (hostPool.idle.remove(connection)) {
+            connection.closeQuietly();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of idle connections currently held by the pool.
+   *
+   * @return the number of idle connections
+   */
+  int idleConnectionCount() {
+    int count = 0;
+    for (HostPool hostPool : this.hostPools.values()) {
+      count += hostPool.idle.size();
+    }
+    return count;
+  }
+
+  /** Closes all idle connections and stops the evictor. Leased connections close on release. */
+  @Override
+  public void close() {
+    this.closed = true;
+    this.evictor.shutdownNow();
+    for (HostPool hostPool : this.hostPools.values()) {
+      Connection connection;
+      while ((connection = hostPool.idle.pollFirst()) != null) {
+        connection.closeQuietly();
+      }
+    }
+  }
+
+  private boolean isExpired(Connection connection, long now) {
+    return now - connection.idleSinceNanos > this.keepAliveNanos;
+  }
+
+  private Connection open(URL url, HostPool hostPool, int connectTimeout) throws IOException {
+    boolean https = "https".equalsIgnoreCase(url.getProtocol());
+    String host = url.getHost();
+    int port = port(url);
+
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+      socket.connect(new InetSocketAddress(host, port), connectTimeout);
+
+      if (https) {
+        SSLSocket sslSocket =
+            (SSLSocket) this.sslSocketFactory.createSocket(socket, host, port, true);
+        SSLParameters sslParameters = sslSocket.getSSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+        sslSocket.setSSLParameters(sslParameters);
+        sslSocket.setSoTimeout(connectTimeout);
+        sslSocket.startHandshake();
+        socket = sslSocket;
+      }
+    } catch (IOException | RuntimeException e) {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+        // already failing
+      }
+      throw e;
+    }
+
+    return new Connection(hostPool, socket);
+  }
+
+  private static String route(URL url) {
+    return String.format("%s://%s:%d", url.getProtocol().toLowerCase(), url.getHost(), port(url));
+  }
+
+  private static int port(URL url) {
+    if (url.getPort() != -1) {
+      return url.getPort();
+    }
+    return "https".equalsIgnoreCase(url.getProtocol()) ? DEFAULT_HTTPS_PORT : DEFAULT_HTTP_PORT;
+  }
+
+  private static class HostPool {
+    final Semaphore permits;
+    final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+    HostPool(int maxConnections) {
+      this.permits = new Semaphore(maxConnections, true);
+    }
+  }
+
+  /** A single persistent connection leased from a {@link HttpConnectionPool}. */
+  static final class Connection {
+    private final HostPool hostPool;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    private volatile long idleSinceNanos;
+    private boolean reused = false;
+
+    /** The number of bytes handed to the socket, i.e. written past the buffer. */
+    private long bytesSent = 0;
+
+    private Connection(HostPool hostPool, Socket socket) throws IOException {
+      this.hostPool = hostPool;
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+      this.out =
+          new BufferedOutputStream(
+              new FilterOutputStream(socket.getOutputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                  this.out.write(b, off, len);
+                  Connection.this.bytesSent += len;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                  this.out.write(b);
+                  Connection.this.bytesSent += 1;
+                }
+              },
+              BUFFER_SIZE);
+    }
+
+    /** Whether this connection has already served at least one request. */
+    boolean isReused() {
+      return this.reused;
+    }
+
+    /**
+     * Returns the number of bytes written to the socket so far. Bytes still in the output buffer
+     * are not counted, and neither are those of a write that failed.
+     */
+    long bytesSent() {
+      return this.bytesSent;
+    }
+
+    InputStream inputStream() {
+      return this.in;
+    }
+
+    OutputStream outputStream() {
+      return this.out;
+    }
+
+    /**
+     * Checks whether the server closed this idle connection, by waiting a millisecond for a read.
+     * An idle connection has nothing to read, so any data or the end of the stream means it cannot
+     * be used anymore.
+     */
+    boolean isClosedByPeer() {
+      try {
+        if (this.in.available() > 0) {
+          return true;
+        }
+        int soTimeout = this.socket.getSoTimeout();
+        this.socket.setSoTimeout(1);
+        try {
+          // Either the end of the stream, or unexpected data.
+          this.in.read();
+          return true;
+        } catch (SocketTimeoutException e) {
+          return false;
+        } finally {
+          this.socket.setSoTimeout(soTimeout);
+        }
+      } catch (IOException e) {
+        return true;
+      }
+    }
+
+    void setReadTimeout(int readTimeout) throws IOException {
+      this.socket.setSoTimeout(readTimeout);
+    }
+
+    boolean isOpen() {
+      return !this.socket.isClosed()
+          && !this.socket.isInputShutdown()
+          && !this.socket.isOutputShutdown();
+    }
+
+    void closeQuietly() {
+      try {
+        this.socket.close();
+      } catch (IOException e) {
+        log.trace("failed to close pooled connection", e);
+      }
+    }
+  }
+}
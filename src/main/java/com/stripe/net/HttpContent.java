@@ -2,13 +2,15 @@ package com.stripe.net;
 
 import static java.util.Objects.requireNonNull;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.UUID;
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
 import lombok.experimental.Accessors;
 
@@ -16,19 +18,41 @@ import lombok.experimental.Accessors;
  * Represents the content of an HTTP request, i.e. the request's body. This class also holds the
  * value of the {@code Content-Type} header, which can depend on the body in some cases (e.g. for
  * multipart requests).
+ *
+ * <p>The content is either held in memory, or, for {@link
+ * #buildStreamingMultipartFormDataContent(Collection) streamed multipart content}, written as the
+ * request is sent. Transports should send it with {@link #writeTo(OutputStream)} and {@link
+ * #contentLength()} rather than {@link #byteArrayContent()}, which buffers streamed content.
  */
 @Value
 @Accessors(fluent = true)
+@EqualsAndHashCode(doNotUseGetters = true)
+@ToString(doNotUseGetters = true)
 public class HttpContent {
-  /** The request's content, as a byte array. */
+  private static final String FORM_URL_ENCODED_CONTENT_TYPE =
+      String.format("application/x-www-form-urlencoded;charset=%s", ApiResource.CHARSET);
+
+  /** The request's content, as a byte array, or {@code null} for streamed content. */
   byte[] byteArrayContent;
 
   /** The value of the {@code Content-Type} header. */
   String contentType;
 
+  /** The streamed content, or {@code null} for content held in memory. */
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  MultipartBody multipartBody;
+
   public HttpContent(byte[] byteArrayContent, String contentType) {
     this.byteArrayContent = byteArrayContent;
     this.contentType = contentType;
+    this.multipartBody = null;
+  }
+
+  private HttpContent(MultipartBody multipartBody, String contentType) {
+    this.byteArrayContent = null;
+    this.contentType = contentType;
+    this.multipartBody = multipartBody;
   }
 
   /**
@@ -43,14 +67,78 @@ public class HttpContent {
       Collection<KeyValuePair<String, String>> nameValueCollection) throws IOException {
     requireNonNull(nameValueCollection);
 
-    return new HttpContent(
-        FormEncoder.createQueryString(nameValueCollection).getBytes(ApiResource.CHARSET),
-        String.format("application/x-www-form-urlencoded;charset=%s", ApiResource.CHARSET));
+    return formURLEncodedContent(
+        FormEncoder.createQueryString(nameValueCollection).getBytes(ApiResource.CHARSET));
+  }
+
+  /**
+   * Builds a new HttpContent for a body that is already encoded using {@code
+   * application/x-www-form-urlencoded} MIME type.
+   *
+   * @param body the encoded body
+   * @return the HttpContent instance
+   */
+  static HttpContent formURLEncodedContent(byte[] body) {
+    return new HttpContent(body, FORM_URL_ENCODED_CONTENT_TYPE);
+  }
+
+  /**
+   * The request's content, as a byte array. Streamed content is read in memory the first time, and
+   * no longer streamed afterwards.
+   *
+   * @throws UncheckedIOException if streamed content cannot be read
+   */
+  public byte[] byteArrayContent() {
+    if (this.multipartBody == null) {
+      return this.byteArrayContent;
+    }
+    try {
+      return this.multipartBody.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   /** The request's content, as a string. */
   public String stringContent() {
-    return new String(this.byteArrayContent, ApiResource.CHARSET);
+    return new String(byteArrayContent(), ApiResource.CHARSET);
+  }
+
+  /** Whether the content is written as the request is sent rather than held in memory. */
+  public boolean isStreamed() {
+    return this.multipartBody != null;
+  }
+
+  /**
+   * The length of the content in bytes, or -1 if it is only known once written, i.e. for streamed
+   * content with input streams, which is sent with chunked transfer encoding.
+   */
+  public long contentLength() {
+    return (this.multipartBody != null)
+        ? this.multipartBody.length()
+        : this.byteArrayContent.length;
+  }
+
+  /**
+   * Whether the content can be written, i.e. it is not streamed content whose input streams were
+   * already read by a previous attempt.
+   */
+  public boolean isRepeatable() {
+    return (this.multipartBody == null) || this.multipartBody.isRepeatable();
+  }
+
+  /**
+   * Writes the content, reading the files and input streams of streamed content.
+   *
+   * @param out the stream to write to
+   * @throws IOException if the content cannot be read or written
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    if (this.multipartBody != null) {
+      this.multipartBody.writeTo(out);
+    } else {
+      out.write(this.byteArrayContent);
+    }
   }
 
   /**
@@ -79,33 +167,49 @@ public class HttpContent {
   public static HttpContent buildMultipartFormDataContent(
       Collection<KeyValuePair<String, Object>> nameValueCollection, String boundary)
       throws IOException {
-    requireNonNull(nameValueCollection);
+    MultipartBody body = new MultipartBody(nameValueCollection, boundary, ApiResource.CHARSET);
+    return new HttpContent(body.toByteArray(), multipartContentType(boundary));
+  }
 
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    MultipartProcessor multipartProcessor = null;
-    try {
-      multipartProcessor = new MultipartProcessor(baos, boundary, ApiResource.CHARSET);
-
-      for (KeyValuePair<String, Object> entry : nameValueCollection) {
-        String key = entry.getKey();
-        Object value = entry.getValue();
-
-        if (value instanceof File) {
-          File file = (File) value;
-          multipartProcessor.addFileField(key, file.getName(), new FileInputStream(file));
-        } else if (value instanceof InputStream) {
-          multipartProcessor.addFileField(key, "blob", (InputStream) value);
-        } else {
-          multipartProcessor.addFormField(key, (String) value);
-        }
-      }
-    } finally {
-      if (multipartProcessor != null) {
-        multipartProcessor.finish();
-      }
-    }
+  /**
+   * Builds a new HttpContent for name/value tuples encoded using {@code multipart/form-data} MIME
+   * type, whose files and input streams are read as the request is sent rather than in memory.
+   *
+   * <p>Files are read again if the request is retried. Input streams can only be read once, so a
+   * request with input streams is not retried once it was sent, and is sent with chunked transfer
+   * encoding since its length is unknown.
+   *
+   * @param nameValueCollection the collection of name/value tuples to encode
+   * @return the encoded HttpContent instance
+   * @throws IllegalArgumentException if nameValueCollection is null
+   * @throws IOException if a file does not exist
+   */
+  public static HttpContent buildStreamingMultipartFormDataContent(
+      Collection<KeyValuePair<String, Object>> nameValueCollection) throws IOException {
+    return buildStreamingMultipartFormDataContent(
+        nameValueCollection, UUID.randomUUID().toString());
+  }
 
+  /**
+   * Builds a new HttpContent for name/value tuples encoded using {@code multipart/form-data} MIME
+   * type, whose files and input streams are read as the request is sent rather than in memory.
+   *
+   * @param nameValueCollection the collection of name/value tuples to encode
+   * @param boundary the boundary
+   * @return the encoded HttpContent instance
+   * @throws IllegalArgumentException if nameValueCollection is null
+   * @throws IOException if a file does not exist
+   * @see #buildStreamingMultipartFormDataContent(Collection)
+   */
+  public static HttpContent buildStreamingMultipartFormDataContent(
+      Collection<KeyValuePair<String, Object>> nameValueCollection, String boundary)
+      throws IOException {
     return new HttpContent(
-        baos.toByteArray(), String.format("multipart/form-data; boundary=%s", boundary));
+        new MultipartBody(nameValueCollection, boundary, ApiResource.CHARSET),
+        multipartContentType(boundary));
+  }
+
+  private static String multipartContentType(String boundary) {
+    return String.format("multipart/form-data; boundary=%s", boundary);
   }
 }
@@ -2,26 +2,75 @@ package com.stripe.net;
 
 import static java.util.Objects.requireNonNull;
 
-import com.stripe.util.CaseInsensitiveMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
-import lombok.EqualsAndHashCode;
+import java.util.Set;
 
 /**
- * A read-only view of a set of HTTP headers.
+ * A read-only view of a set of HTTP headers. Lookups ignore the case of header names, and take
+ * constant time without allocating.
  *
  * <p>This class mimics the {@code java.net.http.HttpHeaders} added in Java 11.
  */
-@EqualsAndHashCode
 public class HttpHeaders {
-  private CaseInsensitiveMap<List<String>> headerMap;
+  @SuppressWarnings("unchecked")
+  private static final HttpHeaders EMPTY =
+      new HttpHeaders(new String[0], (List<String>[]) new List<?>[0], 0);
 
-  private HttpHeaders(CaseInsensitiveMap<List<String>> headerMap) {
-    this.headerMap = headerMap;
+  /** The names of the headers, in the case they were last set with. */
+  private final String[] names;
+
+  private final List<String>[] values;
+
+  /**
+   * An open-addressing table over {@link #names}, hashed case-insensitively, holding the index of
+   * each name plus one, or 0 for empty slots.
+   */
+  private final int[] slots;
+
+  private Map<String, List<String>> map;
+
+  /**
+   * Takes ownership of the first {@code count} names and values, which may contain the same name
+   * more than once, in which case the last one wins.
+   */
+  private HttpHeaders(String[] names, List<String>[] values, int count) {
+    int size = 4;
+    while (size < 2 * count) {
+      size <<= 1;
+    }
+    int[] slots = new int[size];
+    int mask = size - 1;
+    int n = 0;
+    for (int i = 0; i < count; i++) {
+      String name = names[i];
+      List<String> value = values[i];
+      for (int j = hash(name) & mask; ; j = (j + 1) & mask) {
+        int slot = slots[j];
+        if (slot == 0) {
+          names[n] = name;
+          values[n] = value;
+          slots[j] = ++n;
+          break;
+        }
+        if (matches(names[slot - 1], name)) {
+          names[slot - 1] = name;
+          values[slot - 1] = value;
+          break;
+        }
+      }
+    }
+    this.names = (n == names.length) ? names : Arrays.copyOf(names, n);
+    this.values = (n == values.length) ? values : Arrays.copyOf(values, n);
+    this.slots = slots;
   }
 
   /**
@@ -33,7 +82,7 @@ public class HttpHeaders {
    */
   public static HttpHeaders of(Map<String, List<String>> headerMap) {
     requireNonNull(headerMap);
-    return new HttpHeaders(CaseInsensitiveMap.of(headerMap));
+    return EMPTY.withAdditionalHeaders(headerMap);
   }
 
   /**
@@ -48,7 +97,7 @@ public class HttpHeaders {
   public HttpHeaders withAdditionalHeader(String name, String value) {
     requireNonNull(name);
     requireNonNull(value);
-    return this.withAdditionalHeader(name, Arrays.asList(value));
+    return this.withAdditionalHeader(name, Collections.singletonList(value));
   }
 
   /**
@@ -63,9 +112,12 @@ public class HttpHeaders {
   public HttpHeaders withAdditionalHeader(String name, List<String> values) {
     requireNonNull(name);
     requireNonNull(values);
-    Map<String, List<String>> headerMap = new HashMap<>();
-    headerMap.put(name, values);
-    return this.withAdditionalHeaders(headerMap);
+    int count = this.names.length;
+    String[] names = Arrays.copyOf(this.names, count + 1);
+    List<String>[] newValues = Arrays.copyOf(this.values, count + 1);
+    names[count] = name;
+    newValues[count] = values;
+    return new HttpHeaders(names, newValues, count + 1);
   }
 
   /**
@@ -78,9 +130,15 @@ public class HttpHeaders {
    */
   public HttpHeaders withAdditionalHeaders(Map<String, List<String>> headerMap) {
     requireNonNull(headerMap);
-    Map<String, List<String>> newHeaderMap = new HashMap<>(this.map());
-    newHeaderMap.putAll(headerMap);
-    return HttpHeaders.of(newHeaderMap);
+    int count = this.names.length;
+    String[] names = Arrays.copyOf(this.names, count + headerMap.size());
+    List<String>[] values = Arrays.copyOf(this.values, count + headerMap.size());
+    for (Map.Entry<String, List<String>> entry : headerMap.entrySet()) {
+      names[count] = entry.getKey();
+      values[count] = entry.getValue();
+      count++;
+    }
+    return new HttpHeaders(names, values, count);
   }
 
   /**
@@ -91,8 +149,9 @@ public class HttpHeaders {
    * @return a List of headers string values
    */
   public List<String> allValues(String name) {
-    if (this.headerMap.containsKey(name)) {
-      List<String> values = this.headerMap.get(name);
+    int index = indexOf(name);
+    if (index >= 0) {
+      List<String> values = this.values[index];
       if ((values != null) && (values.size() > 0)) {
         return Collections.unmodifiableList(values);
       }
@@ -109,8 +168,9 @@ public class HttpHeaders {
    * @return an {@code Optional<String>} containing the first named header string value, if present
    */
   public Optional<String> firstValue(String name) {
-    if (this.headerMap.containsKey(name)) {
-      List<String> values = this.headerMap.get(name);
+    int index = indexOf(name);
+    if (index >= 0) {
+      List<String> values = this.values[index];
       if ((values != null) && (values.size() > 0)) {
         return Optional.of(values.get(0));
       }
@@ -124,7 +184,24 @@ public class HttpHeaders {
    * @return the Map
    */
   public Map<String, List<String>> map() {
-    return Collections.unmodifiableMap(this.headerMap);
+    if (this.map == null) {
+      this.map = new MapView();
+    }
+    return this.map;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return (o instanceof HttpHeaders) && this.map().equals(((HttpHeaders) o).map());
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = 0;
+    for (int i = 0; i < this.names.length; i++) {
+      hashCode += hash(this.names[i]) ^ Objects.hashCode(this.values[i]);
+    }
+    return hashCode;
   }
 
   /**
@@ -141,4 +218,88 @@ public class HttpHeaders {
     sb.append(" }");
     return sb.toString();
   }
+
+  /** Returns the index of a header, or -1 if it is not present. */
+  private int indexOf(String name) {
+    int mask = this.slots.length - 1;
+    for (int j = hash(name) & mask; ; j = (j + 1) & mask) {
+      int slot = this.slots[j];
+      if (slot == 0) {
+        return -1;
+      }
+      if (matches(this.names[slot - 1], name)) {
+        return slot - 1;
+      }
+    }
+  }
+
+  /** Hashes a header name the same regardless of its case, like {@link #matches}. */
+  private static int hash(String name) {
+    if (name == null) {
+      return 0;
+    }
+    int hash = 0;
+    for (int i = 0; i < name.length(); i++) {
+      hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean matches(String a, String b) {
+    return (a == null) ? (b == null) : a.equalsIgnoreCase(b);
+  }
+
+  /** A read-only map over the headers, whose lookups ignore the case of the names. */
+  private final class MapView extends AbstractMap<String, List<String>> {
+    @Override
+    public int size() {
+      return HttpHeaders.this.names.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return ((key == null) || (key instanceof String)) && (indexOf((String) key) >= 0);
+    }
+
+    @Override
+    public List<String> get(Object key) {
+      if ((key != null) && !(key instanceof String)) {
+        return null;
+      }
+      int index = indexOf((String) key);
+      return (index >= 0) ? HttpHeaders.this.values[index] : null;
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+      return new AbstractSet<Entry<String, List<String>>>() {
+        @Override
+        public int size() {
+          return HttpHeaders.this.names.length;
+        }
+
+        @Override
+        public Iterator<Entry<String, List<String>>> iterator() {
+          return new Iterator<Entry<String, List<String>>>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+              return this.next < HttpHeaders.this.names.length;
+            }
+
+            @Override
+            public Entry<String, List<String>> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              int index = this.next++;
+              return new SimpleImmutableEntry<>(
+                  HttpHeaders.this.names[index], HttpHeaders.this.values[index]);
+            }
+          };
+        }
+      };
+    }
+  }
 }
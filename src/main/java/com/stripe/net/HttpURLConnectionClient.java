@@ -8,8 +8,6 @@ import java.io.OutputStream;
 import java.net.Authenticator;
 import java.net.HttpURLConnection;
 import java.net.PasswordAuthentication;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.ConsoleHandler;
@@ -20,6 +18,12 @@ import java.util.logging.Logger;
 import lombok.Cleanup;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * The default {@link HttpClient}, built on the JDK's {@link HttpURLConnection}.
+ *
+ * <p>{@code HttpURLConnection} holds monitors while blocked on the network, which pins the carrier
+ * thread of callers running on virtual threads. Prefer {@link PooledHttpClient} in that case.
+ */
 @Slf4j
 public class HttpURLConnectionClient extends HttpClient {
 
@@ -54,6 +58,7 @@ public class HttpURLConnectionClient extends HttpClient {
 
       // Calling `getResponseCode()` triggers the request.
       final int responseCode = conn.getResponseCode();
+      request.trace().responseHeaders(responseCode);
 
       final HttpHeaders headers = HttpHeaders.of(conn.getHeaderFields());
       log.debug("response: code={}, headers={}", responseCode, headers);
@@ -63,7 +68,8 @@ public class HttpURLConnectionClient extends HttpClient {
               ? conn.getInputStream()
               : conn.getErrorStream();
 
-      return new StripeResponseStream(responseCode, headers, responseStream);
+      return new StripeResponseStream(
+          responseCode, headers, request.trace().countBody(responseStream));
 
     } catch (IOException e) {
       throw new ApiConnectionException(
@@ -102,13 +108,7 @@ public class HttpURLConnectionClient extends HttpClient {
   }
 
   static HttpHeaders getHeaders(StripeRequest request) {
-    Map<String, List<String>> userAgentHeadersMap = new HashMap<>();
-
-    userAgentHeadersMap.put("User-Agent", Arrays.asList(buildUserAgentString()));
-    userAgentHeadersMap.put(
-        "X-Stripe-Client-User-Agent", Arrays.asList(buildXStripeClientUserAgentString()));
-
-    return request.headers().withAdditionalHeaders(userAgentHeadersMap);
+    return request.headers().withAdditionalHeaders(userAgentHeaders());
   }
 
   private static HttpURLConnection createStripeConnection(StripeRequest request)
@@ -141,15 +141,35 @@ public class HttpURLConnectionClient extends HttpClient {
     conn.setRequestMethod(request.method().name());
     log.debug("request method={}", request.method().name());
 
-    if (request.content() != null) {
+    HttpContent content = request.content();
+    if (content != null) {
       conn.setDoOutput(true);
-      conn.setRequestProperty("Content-Type", request.content().contentType());
-      log.debug("setting header: name={}; value={}", "Content-Type", request.content().contentType());
+      conn.setRequestProperty("Content-Type", content.contentType());
+      log.debug("setting header: name={}; value={}", "Content-Type", content.contentType());
+
+      // Stream uploads instead of letting the connection buffer them to compute their length.
+      if (content.isStreamed()) {
+        if (content.contentLength() >= 0) {
+          conn.setFixedLengthStreamingMode(content.contentLength());
+        } else {
+          conn.setChunkedStreamingMode(0);
+        }
+      }
+    }
 
-      @Cleanup OutputStream output = conn.getOutputStream();
-      log.debug("request content={}", new String(request.content().byteArrayContent(), ApiResource.CHARSET));
-      output.write(request.content().byteArrayContent());
+    conn.connect();
+    request.trace().connectionAcquired();
+
+    if (content != null) {
+      @Cleanup
+      OutputStream output =
+          request.trace().countUpload(conn.getOutputStream(), content.contentLength());
+      if (!content.isStreamed() && log.isDebugEnabled()) {
+        log.debug("request content={}", content.stringContent());
+      }
+      content.writeTo(output);
     }
+    request.trace().requestSent();
 
     return conn;
   }
@@ -0,0 +1,154 @@
+package com.stripe.net;
+
+/**
+ * A distribution of request latencies, as recorded by a {@link LatencyRecorder}.
+ *
+ * <p>Latencies are counted in log-linear buckets: latencies under 16 ns have a bucket each, and
+ * each power of two above that is split into 16 buckets of equal width, so that a bucket is at most
+ * 1/16th wider than its lower bound. Percentiles are reported as the upper bound of their bucket,
+ * capped by the largest latency recorded, and are thus overestimated by at most 6.25%. Latencies
+ * of 2<sup>44</sup> ns (about 4.9 hours) or more share the last bucket.
+ *
+ * <p>Histograms are immutable. {@link #merge(LatencyHistogram)} adds two of them together, e.g.
+ * the intervals of a longer period, or the status classes of an endpoint.
+ */
+public final class LatencyHistogram {
+  static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final int MAX_EXPONENT = 44;
+  static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+  /** A histogram with no latencies. */
+  public static final LatencyHistogram EMPTY = new LatencyHistogram(new long[BUCKET_COUNT], 0, 0);
+
+  private final long[] counts;
+  private final long count;
+  private final long sumNanos;
+  private final long maxNanos;
+
+  /** Takes ownership of {@code counts}, which must have {@link #BUCKET_COUNT} elements. */
+  LatencyHistogram(long[] counts, long sumNanos, long maxNanos) {
+    long count = 0;
+    for (long c : counts) {
+      count += c;
+    }
+    this.counts = counts;
+    this.count = count;
+    this.sumNanos = sumNanos;
+    this.maxNanos = maxNanos;
+  }
+
+  /** Returns the index of the bucket counting a latency. */
+  static int bucketOf(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (nanos < 0) ? 0 : (int) nanos;
+    }
+    if (nanos >= 1L << MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /** Returns the smallest latency counted by a bucket. */
+  static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+  }
+
+  /** Returns the number of latencies. */
+  public long getCount() {
+    return this.count;
+  }
+
+  /** Returns the sum of the latencies, in nanoseconds. */
+  public long getSumNanos() {
+    return this.sumNanos;
+  }
+
+  /** Returns the mean latency in nanoseconds, or 0 if there are none. */
+  public long getMeanNanos() {
+    return (this.count == 0) ? 0 : this.sumNanos / this.count;
+  }
+
+  /** Returns the largest latency in nanoseconds, or 0 if there are none. */
+  public long getMaxNanos() {
+    return this.maxNanos;
+  }
+
+  /**
+   * Returns the latency under which the given percentage of latencies fall, e.g. the p99 for
+   * {@code 99}.
+   *
+   * @param percentile the percentile, between 0 and 100
+   * @return the latency in nanoseconds, or 0 if there are none
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (!(percentile >= 0 && percentile <= 100)) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100");
+    }
+    if (this.count == 0) {
+      return 0;
+    }
+    // The epsilon keeps e.g. the 99.9th percentile of 1000 latencies from rounding up to the last.
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count - 1e-9));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(lowerBound(i + 1) - 1, this.maxNanos);
+      }
+    }
+    return this.maxNanos;
+  }
+
+  /**
+   * Returns the number of latencies in each bucket, the bucket of a latency being given by {@link
+   * #getBucketLowerBound(int)}.
+   */
+  public long[] getCounts() {
+    return this.counts.clone();
+  }
+
+  /**
+   * Returns the smallest latency counted in a bucket, in nanoseconds.
+   *
+   * @param bucket the index of the bucket in {@link #getCounts()}
+   * @return the lower bound of the bucket
+   */
+  public static long getBucketLowerBound(int bucket) {
+    if (bucket < 0 || bucket >= BUCKET_COUNT) {
+      throw new IndexOutOfBoundsException("bucket " + bucket);
+    }
+    return lowerBound(bucket);
+  }
+
+  /**
+   * Returns a histogram of the latencies of both this histogram and another one.
+   *
+   * @param other the other histogram
+   * @return the merged histogram
+   */
+  public LatencyHistogram merge(LatencyHistogram other) {
+    long[] merged = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      merged[i] = this.counts[i] + other.counts[i];
+    }
+    return new LatencyHistogram(
+        merged, this.sumNanos + other.sumNanos, Math.max(this.maxNanos, other.maxNanos));
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "LatencyHistogram(count=%d, p50=%dns, p99=%dns, p999=%dns, max=%dns)",
+        this.count,
+        getValueAtPercentile(50),
+        getValueAtPercentile(99),
+        getValueAtPercentile(99.9),
+        this.maxNanos);
+  }
+}
@@ -0,0 +1,225 @@
+package com.stripe.net;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Records the latencies of requests into a {@link LatencyHistogram} per {@link Series series}, i.e.
+ * per HTTP method, endpoint template and status class, to give the percentiles of the latency of
+ * each endpoint as seen by the client.
+ *
+ * <p>Set it as the {@link HttpClient#setRequestListener(RequestListener) request listener} of an
+ * HTTP client to record the whole duration of each request, retries included, or call {@link
+ * #record(ApiResource.RequestMethod, String, int, long)} directly. Recording does not lock, and
+ * does not allocate once the series has been seen.
+ *
+ * <p>{@link #snapshot()} returns the latencies recorded since the recorder was created or {@link
+ * #reset()}, and {@link #intervalSnapshot()} those recorded since the previous interval, e.g. to
+ * report them periodically. A latency recorded while a snapshot is taken is counted either in that
+ * snapshot or in the next one.
+ */
+public final class LatencyRecorder implements RequestListener {
+  /** The status classes: 0 for requests without a response, and 1 to 5 for 1xx to 5xx. */
+  private static final int STATUS_CLASSES = 6;
+
+  private static final ApiResource.RequestMethod[] METHODS = ApiResource.RequestMethod.values();
+
+  private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+  /** The latencies taken out of the live counts by interval snapshots, since the last reset. */
+  private final Map<Series, LatencyHistogram> drained = new HashMap<>();
+
+  /** Records the duration of each request when it ends. */
+  @Override
+  public void onEvent(RequestEvent event) {
+    if (event.getType() == RequestEvent.Type.END) {
+      record(
+          event.getMethod(),
+          event.getEndpoint(),
+          event.getStatusCode(),
+          event.getNanosSinceStart());
+    }
+  }
+
+  /**
+   * Records the latency of a request.
+   *
+   * @param method the HTTP method of the request
+   * @param endpoint the endpoint template, as in {@link RequestEvent#getEndpoint()}
+   * @param statusCode the HTTP status code of the response, or 0 if there was none
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(
+      ApiResource.RequestMethod method, String endpoint, int statusCode, long nanos) {
+    requireNonNull(method);
+    Endpoint counts = this.endpoints.get(endpoint);
+    if (counts == null) {
+      counts = this.endpoints.computeIfAbsent(endpoint, Endpoint::new);
+    }
+    counts.get(method.ordinal() * STATUS_CLASSES + statusClass(statusCode)).record(nanos);
+  }
+
+  /**
+   * Returns the latencies recorded since the recorder was created or reset.
+   *
+   * @return the histogram of each series with latencies
+   */
+  public synchronized Map<Series, LatencyHistogram> snapshot() {
+    Map<Series, LatencyHistogram> snapshot = new HashMap<>(this.drained);
+    read(snapshot, false);
+    return Collections.unmodifiableMap(snapshot);
+  }
+
+  /**
+   * Returns the latencies recorded since the previous call to this method, or since the recorder
+   * was created or reset. Intervals can be merged into longer ones with {@link
+   * LatencyHistogram#merge(LatencyHistogram)}.
+   *
+   * @return the histogram of each series with latencies in the interval
+   */
+  public synchronized Map<Series, LatencyHistogram> intervalSnapshot() {
+    Map<Series, LatencyHistogram> interval = new HashMap<>();
+    read(interval, true);
+    interval.forEach(
+        (series, histogram) -> this.drained.merge(series, histogram, LatencyHistogram::merge));
+    return Collections.unmodifiableMap(interval);
+  }
+
+  /** Forgets the latencies recorded so far. */
+  public synchronized void reset() {
+    read(new HashMap<>(), true);
+    this.drained.clear();
+  }
+
+  /**
+   * Adds the latencies of each series to a map, optionally resetting them.
+   *
+   * @param histograms the map to add to
+   * @param drain whether to reset the latencies that are read
+   */
+  private void read(Map<Series, LatencyHistogram> histograms, boolean drain) {
+    for (Endpoint endpoint : this.endpoints.values()) {
+      for (int i = 0; i < endpoint.counts.length(); i++) {
+        Counts counts = endpoint.counts.get(i);
+        if (counts == null) {
+          continue;
+        }
+        LatencyHistogram histogram = counts.read(drain);
+        if (histogram.getCount() > 0) {
+          Series series =
+              new Series(METHODS[i / STATUS_CLASSES], endpoint.name, i % STATUS_CLASSES);
+          histograms.merge(series, histogram, LatencyHistogram::merge);
+        }
+      }
+    }
+  }
+
+  private static int statusClass(int statusCode) {
+    return (statusCode >= 100 && statusCode < 600) ? statusCode / 100 : 0;
+  }
+
+  /** The latencies recorded for one method, endpoint template and status class. */
+  @EqualsAndHashCode
+  public static final class Series {
+    private final ApiResource.RequestMethod method;
+    private final String endpoint;
+    private final int statusClass;
+
+    /**
+     * Initializes a new series.
+     *
+     * @param method the HTTP method
+     * @param endpoint the endpoint template, as in {@link RequestEvent#getEndpoint()}
+     * @param statusClass the status class, from 1 to 5 for 1xx to 5xx, or 0 for requests without
+     *     a response
+     */
+    public Series(ApiResource.RequestMethod method, String endpoint, int statusClass) {
+      this.method = requireNonNull(method);
+      this.endpoint = requireNonNull(endpoint);
+      this.statusClass = statusClass;
+    }
+
+    /** Returns the HTTP method. */
+    public ApiResource.RequestMethod getMethod() {
+      return this.method;
+    }
+
+    /** Returns the endpoint template, e.g. {@code api.stripe.com/v1/customers/*}. */
+    public String getEndpoint() {
+      return this.endpoint;
+    }
+
+    /**
+     * Returns the status class, from 1 to 5 for 1xx to 5xx, or 0 for requests without a response.
+     */
+    public int getStatusClass() {
+      return this.statusClass;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s %s %s",
+          this.method,
+          this.endpoint,
+          (this.statusClass == 0) ? "no response" : this.statusClass + "xx");
+    }
+  }
+
+  /** The live counts of one endpoint, per method and status class. */
+  private static final class Endpoint {
+    private final String name;
+    private final AtomicReferenceArray<Counts> counts =
+        new AtomicReferenceArray<>(METHODS.length * STATUS_CLASSES);
+
+    Endpoint(String name) {
+      this.name = name;
+    }
+
+    Counts get(int index) {
+      Counts result = this.counts.get(index);
+      if (result == null) {
+        this.counts.compareAndSet(index, null, new Counts());
+        result = this.counts.get(index);
+      }
+      return result;
+    }
+  }
+
+  /** The live counts of one series. */
+  private static final class Counts {
+    private final AtomicLongArray buckets = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+      if (nanos < 0) {
+        nanos = 0;
+      }
+      this.buckets.incrementAndGet(LatencyHistogram.bucketOf(nanos));
+      this.sumNanos.addAndGet(nanos);
+      long max = this.maxNanos.get();
+      while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+        max = this.maxNanos.get();
+      }
+    }
+
+    LatencyHistogram read(boolean drain) {
+      long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = drain ? this.buckets.getAndSet(i, 0) : this.buckets.get(i);
+      }
+      long sum = drain ? this.sumNanos.getAndSet(0) : this.sumNanos.get();
+      long max = drain ? this.maxNanos.getAndSet(0) : this.maxNanos.get();
+      return new LatencyHistogram(counts, sum, max);
+    }
+  }
+}
@@ -2,11 +2,15 @@ package com.stripe.net;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 import com.stripe.Stripe;
 import com.stripe.exception.ApiConnectionException;
 import com.stripe.exception.ApiException;
 import com.stripe.exception.AuthenticationException;
 import com.stripe.exception.CardException;
+import com.stripe.exception.CircuitBreakerOpenException;
 import com.stripe.exception.IdempotencyException;
 import com.stripe.exception.InvalidRequestException;
 import com.stripe.exception.PermissionException;
@@ -20,16 +24,55 @@ import com.stripe.exception.oauth.UnsupportedGrantTypeException;
 import com.stripe.exception.oauth.UnsupportedResponseTypeException;
 import com.stripe.model.*;
 import com.stripe.model.oauth.OAuthError;
+import com.stripe.net.RequestOptions.ResponseRetention;
+import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 @Slf4j
 public class LiveStripeResponseGetter implements StripeResponseGetter {
+  /** Stands in for the body in error messages when the response was not buffered. */
+  private static final String STREAMED_BODY = "<streamed response body>";
+
+  /**
+   * How concurrent identical {@code GET} requests are coalesced into a single request. Requests
+   * are identical if they have the same URL, including the query string, API key, account, API
+   * version override, response retention and resource class.
+   */
+  public enum Coalescing {
+    /** Every request is sent on its own. This is the default. */
+    NONE,
+
+    /**
+     * Callers share the request in flight and the resource it returns: all of them get the same
+     * object, which they must not modify. If the request fails, each caller gets its own exception,
+     * a copy of the failure whose cause is the failure itself.
+     */
+    SHARE,
+
+    /**
+     * Callers share the request in flight, and each one gets its own copy of the resource,
+     * deserialized again from the shared response. If the request fails, each caller gets its own
+     * exception, as with {@link #SHARE}.
+     */
+    COPY
+  }
+
   private final HttpClient httpClient;
 
+  private volatile Coalescing coalescing = Coalescing.NONE;
+
+  private final ConcurrentHashMap<CoalescingKey, CompletableFuture<CoalescedResponse>> inFlight =
+      new ConcurrentHashMap<>();
+
   /**
    * Initializes a new instance of the {@link LiveStripeResponseGetter} class with default
    * parameters.
@@ -47,6 +90,21 @@ public class LiveStripeResponseGetter implements StripeResponseGetter {
     this.httpClient = (httpClient != null) ? httpClient : buildDefaultHttpClient();
   }
 
+  /**
+   * Sets how concurrent identical {@code GET} requests are coalesced. Defaults to {@link
+   * Coalescing#NONE}.
+   *
+   * @param coalescing the coalescing mode
+   */
+  public void setCoalescing(Coalescing coalescing) {
+    this.coalescing = (coalescing != null) ? coalescing : Coalescing.NONE;
+  }
+
+  /** Returns how concurrent identical {@code GET} requests are coalesced. */
+  public Coalescing getCoalescing() {
+    return this.coalescing;
+  }
+
   @Override
   public <T extends StripeObjectInterface> T request(
       ApiResource.RequestMethod method,
@@ -55,9 +113,282 @@ public class LiveStripeResponseGetter implements StripeResponseGetter {
       Class<T> clazz,
       RequestOptions options)
       throws StripeException {
-    StripeRequest request = new StripeRequest(method, url, params, options);
-    StripeResponse response = httpClient.requestWithRetries(request);
+    StripeRequest request = httpClient.traced(new StripeRequest(method, url, params, options));
+    RequestTrace trace = request.trace();
+    try {
+      T resource = send(request, clazz);
+      trace.deserialized();
+      trace.end(null);
+      return resource;
+    } catch (StripeException | RuntimeException e) {
+      trace.end(e);
+      throw e;
+    }
+  }
+
+  private <T extends StripeObjectInterface> T send(StripeRequest request, Class<T> clazz)
+      throws StripeException {
+    ResponseRetention retention = request.options().getResponseRetention();
+
+    Coalescing coalescing = this.coalescing;
+    if (coalescing != Coalescing.NONE && request.method() == ApiResource.RequestMethod.GET) {
+      return requestCoalesced(request, clazz, coalescing);
+    }
+
+    if (retention == ResponseRetention.FULL) {
+      StripeResponse response = httpClient.requestWithRetries(request);
+      return processResponse(response, clazz, retention);
+    }
+
+    StripeResponseStream responseStream = httpClient.requestStreamWithRetries(request);
+    return processResponseStream(responseStream, clazz, retention);
+  }
+
+  @Override
+  public <T extends StripeObjectInterface> CompletableFuture<T> requestAsync(
+      ApiResource.RequestMethod method,
+      String url,
+      Map<String, Object> params,
+      Class<T> clazz,
+      RequestOptions options) {
+    StripeRequest request;
+    try {
+      request = httpClient.traced(new StripeRequest(method, url, params, options));
+    } catch (StripeException e) {
+      return ApiResource.failedFuture(e);
+    }
+
+    RequestTrace trace = request.trace();
+    return sendAsync(request, clazz)
+        .whenComplete(
+            (resource, error) -> {
+              if (error == null) {
+                trace.deserialized();
+              }
+              trace.end(HttpClient.unwrapCompletionException(error));
+            });
+  }
+
+  private <T extends StripeObjectInterface> CompletableFuture<T> sendAsync(
+      StripeRequest request, Class<T> clazz) {
+    Coalescing coalescing = this.coalescing;
+    if (coalescing != Coalescing.NONE && request.method() == ApiResource.RequestMethod.GET) {
+      return requestCoalescedAsync(request, clazz, coalescing);
+    }
+
+    return httpClient
+        .requestWithRetriesAsync(request)
+        .thenCompose(
+            response -> {
+              CompletableFuture<T> result = new CompletableFuture<>();
+              try {
+                result.complete(
+                    processResponse(response, clazz, request.options().getResponseRetention()));
+              } catch (StripeException | RuntimeException e) {
+                result.completeExceptionally(e);
+              }
+              return result;
+            });
+  }
+
+  private <T extends StripeObjectInterface> T requestCoalesced(
+      StripeRequest request, Class<T> clazz, Coalescing coalescing) throws StripeException {
+    CoalescingKey key = new CoalescingKey(request, clazz);
+    CompletableFuture<CoalescedResponse> shared = new CompletableFuture<>();
+    CompletableFuture<CoalescedResponse> existing = this.inFlight.putIfAbsent(key, shared);
+
+    if (existing == null) {
+      try {
+        StripeResponse response = httpClient.requestWithRetries(request);
+        T resource = processResponse(response, clazz, request.options().getResponseRetention());
+        this.inFlight.remove(key, shared);
+        shared.complete(new CoalescedResponse(response, resource));
+        return resource;
+      } catch (Throwable e) {
+        // Errors fail the waiting requests too, rather than leaving them blocked.
+        this.inFlight.remove(key, shared);
+        shared.completeExceptionally(e);
+        throw e;
+      }
+    }
+
+    CoalescedResponse coalesced;
+    try {
+      coalesced = existing.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ApiConnectionException("Interrupted while waiting for a coalesced request", e);
+    } catch (ExecutionException e) {
+      throw joinedFailure(HttpClient.unwrapCompletionException(e.getCause()));
+    }
+    return coalesced.resourceFor(clazz, request.options().getResponseRetention(), coalescing);
+  }
+
+  private <T extends StripeObjectInterface> CompletableFuture<T> requestCoalescedAsync(
+      StripeRequest request, Class<T> clazz, Coalescing coalescing) {
+    CoalescingKey key = new CoalescingKey(request, clazz);
+    ResponseRetention retention = request.options().getResponseRetention();
+    CompletableFuture<CoalescedResponse> shared = new CompletableFuture<>();
+    CompletableFuture<CoalescedResponse> existing = this.inFlight.putIfAbsent(key, shared);
+
+    if (existing == null) {
+      httpClient
+          .requestWithRetriesAsync(request)
+          .whenComplete(
+              (response, error) -> {
+                this.inFlight.remove(key, shared);
+                if (error != null) {
+                  shared.completeExceptionally(HttpClient.unwrapCompletionException(error));
+                  return;
+                }
+                try {
+                  shared.complete(
+                      new CoalescedResponse(response, processResponse(response, clazz, retention)));
+                } catch (Throwable e) {
+                  shared.completeExceptionally(e);
+                }
+              });
+      return shared.thenApply(coalesced -> clazz.cast(coalesced.resource));
+    }
+
+    CompletableFuture<T> result = new CompletableFuture<>();
+    existing.whenComplete(
+        (coalesced, error) -> {
+          if (error != null) {
+            result.completeExceptionally(
+                joinedFailure(HttpClient.unwrapCompletionException(error)));
+            return;
+          }
+          try {
+            result.complete(coalesced.resourceFor(clazz, retention, coalescing));
+          } catch (StripeException | RuntimeException e) {
+            result.completeExceptionally(e);
+          }
+        });
+    return result;
+  }
+
+  /**
+   * Returns the exception to report to a request that joined a coalesced request which failed, so
+   * that no two callers share an exception: a copy of the failure if it is a {@link
+   * StripeException}, or else an {@link ApiConnectionException} caused by it.
+   */
+  private static StripeException joinedFailure(Throwable failure) {
+    if (failure instanceof StripeException) {
+      return copyOf((StripeException) failure);
+    }
+    return new ApiConnectionException(failure.getMessage(), failure);
+  }
+
+  /**
+   * Returns a new exception like the given one, with the given one as its cause, so that callers
+   * sharing a failure each get an exception of their own, with their own stack trace. The copy has
+   * the class of the original for the exceptions thrown for API errors and connection failures, and
+   * is an {@link ApiException} for any other.
+   *
+   * @param failure the shared failure
+   * @return a copy of the failure
+   */
+  static StripeException copyOf(StripeException failure) {
+    String message = failure.getUserMessage();
+    String requestId = failure.getRequestId();
+    String code = failure.getCode();
+    Integer statusCode = failure.getStatusCode();
+    StripeException copy;
+    if (failure instanceof CircuitBreakerOpenException) {
+      copy =
+          new CircuitBreakerOpenException(
+              message, ((CircuitBreakerOpenException) failure).getCircuit(), failure);
+    } else if (failure instanceof ApiConnectionException) {
+      copy = new ApiConnectionException(message, failure);
+    } else if (failure instanceof RateLimitException) {
+      copy =
+          new RateLimitException(
+              message,
+              ((RateLimitException) failure).getParam(),
+              requestId,
+              code,
+              statusCode,
+              failure);
+    } else if (failure instanceof InvalidRequestException) {
+      copy =
+          new InvalidRequestException(
+              message,
+              ((InvalidRequestException) failure).getParam(),
+              requestId,
+              code,
+              statusCode,
+              failure);
+    } else if (failure instanceof PermissionException) {
+      copy = new PermissionException(message, requestId, code, statusCode, failure);
+    } else if (failure instanceof AuthenticationException) {
+      copy = new AuthenticationException(message, requestId, code, statusCode, failure);
+    } else if (failure instanceof IdempotencyException) {
+      copy = new IdempotencyException(message, requestId, code, statusCode, failure);
+    } else if (failure instanceof CardException) {
+      CardException cardException = (CardException) failure;
+      copy =
+          new CardException(
+              message,
+              requestId,
+              code,
+              cardException.getParam(),
+              cardException.getDeclineCode(),
+              cardException.getCharge(),
+              statusCode,
+              failure);
+    } else {
+      copy = new ApiException(message, requestId, code, statusCode, failure);
+    }
+    copy.setStripeError(failure.getStripeError());
+    return copy;
+  }
+
+  /** Identifies requests whose responses are interchangeable. */
+  @EqualsAndHashCode
+  private static final class CoalescingKey {
+    private final String url;
+    private final String apiKey;
+    private final String seamlessPayAccount;
+    private final String seamlessPayVersion;
+    private final ResponseRetention retention;
+    private final Class<?> clazz;
+
+    CoalescingKey(StripeRequest request, Class<?> clazz) {
+      RequestOptions options = request.options();
+      this.url = request.url().toString();
+      this.apiKey = options.getApiKey();
+      this.seamlessPayAccount = options.getSeamlessPayAccount();
+      this.seamlessPayVersion = options.getSeamlessPayVersionOverride();
+      this.retention = options.getResponseRetention();
+      this.clazz = clazz;
+    }
+  }
+
+  /** The response of a coalesced request, and the resource deserialized from it. */
+  private static final class CoalescedResponse {
+    private final StripeResponse response;
+    private final StripeObjectInterface resource;
+
+    CoalescedResponse(StripeResponse response, StripeObjectInterface resource) {
+      this.response = response;
+      this.resource = resource;
+    }
+
+    /** Returns the resource for a caller that joined the request in flight. */
+    <T extends StripeObjectInterface> T resourceFor(
+        Class<T> clazz, ResponseRetention retention, Coalescing coalescing)
+        throws StripeException {
+      if (coalescing == Coalescing.SHARE) {
+        return clazz.cast(this.resource);
+      }
+      return processResponse(this.response, clazz, retention);
+    }
+  }
 
+  static <T extends StripeObjectInterface> T processResponse(
+      StripeResponse response, Class<T> clazz, ResponseRetention retention)
+      throws StripeException {
     int responseCode = response.code();
     String responseBody = response.body();
     String requestId = response.requestId();
@@ -74,11 +405,117 @@ public class LiveStripeResponseGetter implements StripeResponseGetter {
       raiseMalformedJsonError(responseBody, responseCode, requestId, e);
     }
 
-    resource.setLastResponse(response);
+    attachResponse(resource, response, retention);
+
+    return resource;
+  }
+
+  /**
+   * Deserializes a successful response directly from the network stream, without buffering the
+   * body into a string first. Error responses are still buffered, as they are small and their body
+   * is needed to build the exception.
+   */
+  private static <T extends StripeObjectInterface> T processResponseStream(
+      StripeResponseStream responseStream, Class<T> clazz, ResponseRetention retention)
+      throws StripeException {
+    int responseCode = responseStream.code();
+    String requestId = responseStream.requestId();
+
+    if (responseCode < 200 || responseCode >= 300) {
+      handleApiError(unstream(responseStream));
+    }
+
+    T resource = null;
+    try (JsonReader reader =
+        new JsonReader(new InputStreamReader(responseStream.body(), ApiResource.CHARSET))) {
+      resource = ApiResource.GSON.fromJson(reader, clazz);
+      if (reader.peek() != JsonToken.END_DOCUMENT) {
+        throw new JsonSyntaxException("JSON document was not fully consumed.");
+      }
+    } catch (JsonSyntaxException e) {
+      // Gson reports I/O errors on the underlying stream as syntax errors.
+      if (e.getCause() instanceof IOException
+          && !(e.getCause() instanceof MalformedJsonException)) {
+        throw connectionError((IOException) e.getCause());
+      }
+      log.debug("failed to parse streamed response", e);
+      raiseMalformedJsonError(STREAMED_BODY, responseCode, requestId, e);
+    } catch (MalformedJsonException e) {
+      raiseMalformedJsonError(STREAMED_BODY, responseCode, requestId, e);
+    } catch (IOException e) {
+      throw connectionError(e);
+    }
+    if (resource == null) {
+      raiseMalformedJsonError(STREAMED_BODY, responseCode, requestId, null);
+    }
+
+    attachResponse(resource, responseStream, retention);
 
     return resource;
   }
 
+  /**
+   * Sets the last response of a deserialized resource according to the retention policy. Elements
+   * of a collection all share a single body-less response rather than each holding a copy of the
+   * page.
+   */
+  private static void attachResponse(
+      StripeObjectInterface resource,
+      AbstractStripeResponse<?> response,
+      ResponseRetention retention) {
+    if (retention == ResponseRetention.NONE) {
+      return;
+    }
+
+    StripeResponse headersOnly = withoutBody(response);
+    if (retention == ResponseRetention.FULL && response instanceof StripeResponse) {
+      resource.setLastResponse((StripeResponse) response);
+    } else {
+      resource.setLastResponse(headersOnly);
+    }
+
+    List<?> elements = null;
+    if (resource instanceof StripeCollectionInterface) {
+      elements = ((StripeCollectionInterface<?>) resource).getData();
+    } else if (resource instanceof SPCollectionInterface) {
+      elements = ((SPCollectionInterface<?>) resource).getData();
+    }
+    if (elements == null) {
+      return;
+    }
+    for (Object element : elements) {
+      if (element instanceof StripeObjectInterface) {
+        ((StripeObjectInterface) element).setLastResponse(headersOnly);
+      }
+    }
+  }
+
+  private static StripeResponse withoutBody(AbstractStripeResponse<?> response) {
+    StripeResponse headersOnly = new StripeResponse(response.code(), response.headers(), "");
+    headersOnly.numRetries(response.numRetries());
+    return headersOnly;
+  }
+
+  private static StripeResponse unstream(StripeResponseStream responseStream)
+      throws ApiConnectionException {
+    try {
+      return responseStream.unstream();
+    } catch (IOException e) {
+      throw connectionError(e);
+    }
+  }
+
+  private static ApiConnectionException connectionError(IOException e) {
+    return new ApiConnectionException(
+        String.format(
+            "IOException during API request to Stripe (%s): %s "
+                + "Please check your internet connection and try again. If this problem persists,"
+                + "you should check Stripe's service status at https://twitter.com/stripestatus,"
+                + " or let us know at support@stripe.com.",
+            Stripe.getApiBase(), e.getMessage()),
+        e);
+  }
+
   @Override
   public InputStream requestStream(
       ApiResource.RequestMethod method,
@@ -92,20 +529,7 @@ public class LiveStripeResponseGetter implements StripeResponseGetter {
     int responseCode = responseStream.code();
 
     if (responseCode < 200 || responseCode >= 300) {
-      StripeResponse response;
-      try {
-        response = responseStream.unstream();
-      } catch (IOException e) {
-        throw new ApiConnectionException(
-            String.format(
-                "IOException during API request to Stripe (%s): %s "
-                    + "Please check your internet connection and try again. If this problem persists,"
-                    + "you should check Stripe's service status at https://twitter.com/stripestatus,"
-                    + " or let us know at support@stripe.com.",
-                Stripe.getApiBase(), e.getMessage()),
-            e);
-      }
-      handleApiError(response);
+      handleApiError(unstream(responseStream));
     }
 
     return responseStream.body();
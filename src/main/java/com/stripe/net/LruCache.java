@@ -0,0 +1,62 @@
+package com.stripe.net;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small thread-safe cache keeping the entries used most recently, evicting the least recently
+ * used one once it holds {@code maxSize} entries. It is meant for a handful of entries, such as the
+ * values derived from the few credentials a process uses, and locks on every access.
+ */
+final class LruCache<K, V> {
+  private final Map<K, V> entries;
+
+  /**
+   * Initializes a new cache.
+   *
+   * @param maxSize the maximum number of entries kept
+   */
+  LruCache(int maxSize) {
+    this.entries =
+        new LinkedHashMap<K, V>(maxSize, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+          }
+        };
+  }
+
+  /**
+   * Returns the value of a key, computing it outside the lock if it is not cached. Values computed
+   * concurrently for the same key must be interchangeable.
+   *
+   * @param key the key
+   * @param compute computes the value of a key that is not cached, without returning {@code null}
+   */
+  <X extends Exception> V get(K key, ThrowingFunction<K, V, X> compute) throws X {
+    synchronized (this.entries) {
+      V value = this.entries.get(key);
+      if (value != null) {
+        return value;
+      }
+    }
+    V value = compute.apply(key);
+    synchronized (this.entries) {
+      this.entries.put(key, value);
+    }
+    return value;
+  }
+
+  /** Returns the number of entries. */
+  int size() {
+    synchronized (this.entries) {
+      return this.entries.size();
+    }
+  }
+
+  /** A {@link java.util.function.Function} that may throw a checked exception. */
+  @FunctionalInterface
+  interface ThrowingFunction<K, V, X extends Exception> {
+    V apply(K key) throws X;
+  }
+}
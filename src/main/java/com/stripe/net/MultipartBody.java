@@ -0,0 +1,252 @@
+package com.stripe.net;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The body of a {@code multipart/form-data} request, written part by part as the request is sent
+ * rather than buffered when it is built. It is encoded as by {@link MultipartProcessor}.
+ *
+ * <p>File fields are read from disk each time the body is written, so their length is known up
+ * front and the body can be sent again on retries. Input stream fields are read as the body is
+ * written, and closed afterwards: a body with such a field has an unknown length and can only be
+ * written once, unless it was {@link #toByteArray() buffered}.
+ *
+ * <p>The body is guarded by a {@link ReentrantLock} rather than a monitor, since it is written to
+ * the network while holding it, which would pin the carrier thread of a virtual thread.
+ */
+final class MultipartBody {
+  private static final byte[] LINE_BREAK = {'\r', '\n'};
+
+  /** The number of bytes of a file transferred at once. */
+  private static final int TRANSFER_SIZE = 64 * 1024;
+
+  private final List<Part> parts = new ArrayList<>();
+  private final byte[] closingBoundary;
+  private final boolean hasStreams;
+  private final long length;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private byte[] buffered;
+  private boolean streamsRead;
+
+  /**
+   * Initializes a new multipart body.
+   *
+   * @param nameValueCollection the fields, whose values are strings, files or input streams
+   * @param boundary the boundary
+   * @param charset the charset of the names and string values
+   * @throws FileNotFoundException if a file does not exist
+   */
+  MultipartBody(
+      Collection<KeyValuePair<String, Object>> nameValueCollection,
+      String boundary,
+      Charset charset)
+      throws FileNotFoundException {
+    requireNonNull(nameValueCollection);
+
+    boolean hasStreams = false;
+    long length = 0;
+    for (KeyValuePair<String, Object> entry : nameValueCollection) {
+      String key = entry.getKey();
+      Object value = entry.getValue();
+
+      Part part;
+      if (value instanceof File) {
+        File file = (File) value;
+        if (!file.isFile()) {
+          throw new FileNotFoundException(file.getPath());
+        }
+        byte[] head = fileHead(boundary, key, file.getName(), charset);
+        part = new Part(head, file, null, file.length());
+      } else if (value instanceof InputStream) {
+        part = new Part(fileHead(boundary, key, "blob", charset), null, (InputStream) value, -1);
+        hasStreams = true;
+      } else {
+        String field =
+            "--"
+                + boundary
+                + "\r\nContent-Disposition: form-data; name=\""
+                + key
+                + "\"\r\n\r\n"
+                + value
+                + "\r\n";
+        part = new Part(field.getBytes(charset), null, null, 0);
+      }
+      this.parts.add(part);
+      length += part.head.length;
+      if (part.file != null) {
+        length += part.length + LINE_BREAK.length;
+      }
+    }
+    this.closingBoundary = ("--" + boundary + "--\r\n").getBytes(charset);
+    this.hasStreams = hasStreams;
+    this.length = hasStreams ? -1 : length + this.closingBoundary.length;
+  }
+
+  private static byte[] fileHead(String boundary, String name, String fileName, Charset charset) {
+    String head =
+        "--"
+            + boundary
+            + "\r\nContent-Disposition: form-data; name=\""
+            + name
+            + "\"; filename=\""
+            + fileName
+            + "\"\r\nContent-Type: "
+            + URLConnection.guessContentTypeFromName(fileName)
+            + "\r\nContent-Transfer-Encoding: binary\r\n\r\n";
+    return head.getBytes(charset);
+  }
+
+  /** Returns the length of the body in bytes, or -1 if it has input streams and is not buffered. */
+  long length() {
+    this.lock.lock();
+    try {
+      return (this.buffered != null) ? this.buffered.length : this.length;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /** Returns whether the body can be written, i.e. it has no input stream that was read. */
+  boolean isRepeatable() {
+    this.lock.lock();
+    try {
+      return (this.buffered != null) || !this.streamsRead;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Writes the body.
+   *
+   * @param out the stream to write to
+   * @throws IOException if a file or input stream cannot be read, or the body cannot be written
+   *     again because its input streams were read
+   */
+  void writeTo(OutputStream out) throws IOException {
+    this.lock.lock();
+    try {
+      writeParts(out);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void writeParts(OutputStream out) throws IOException {
+    if (this.buffered != null) {
+      out.write(this.buffered);
+      return;
+    }
+    if (this.hasStreams) {
+      if (this.streamsRead) {
+        throw new IOException("The input streams of the multipart body were already read");
+      }
+      this.streamsRead = true;
+    }
+
+    byte[] buffer = null;
+    for (Part part : this.parts) {
+      out.write(part.head);
+      if (part.file != null) {
+        transferFile(part.file, part.length, out);
+        out.write(LINE_BREAK);
+      } else if (part.stream != null) {
+        if (buffer == null) {
+          buffer = new byte[8192];
+        }
+        try (InputStream in = part.stream) {
+          int n;
+          while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+          }
+        }
+        out.write(LINE_BREAK);
+      }
+    }
+    out.write(this.closingBoundary);
+  }
+
+  /**
+   * Returns the body as a byte array, writing it in memory the first time. It is then written from
+   * memory, its files and input streams no longer being read.
+   *
+   * @return the body
+   * @throws IOException if a file or input stream cannot be read
+   */
+  byte[] toByteArray() throws IOException {
+    this.lock.lock();
+    try {
+      if (this.buffered == null) {
+        ByteArrayOutputStream out =
+            new ByteArrayOutputStream(
+                (this.length >= 0 && this.length <= Integer.MAX_VALUE) ? (int) this.length : 8192);
+        writeParts(out);
+        this.buffered = out.toByteArray();
+      }
+      return this.buffered;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /** Writes a file, which must still have the length it had when the body was built. */
+  private static void transferFile(File file, long length, OutputStream out) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() != length) {
+        throw new IOException(
+            String.format(
+                "File %s changed from %d to %d bytes while being uploaded",
+                file.getPath(), length, channel.size()));
+      }
+      // Let the channel write straight to files, or through its own direct buffer otherwise.
+      WritableByteChannel target =
+          (out instanceof FileOutputStream)
+              ? ((FileOutputStream) out).getChannel()
+              : Channels.newChannel(out);
+      long position = 0;
+      while (position < length) {
+        long n = channel.transferTo(position, Math.min(TRANSFER_SIZE, length - position), target);
+        if (n <= 0) {
+          throw new IOException(
+              String.format("File %s was truncated while being uploaded", file.getPath()));
+        }
+        position += n;
+      }
+    }
+  }
+
+  /** A field, with its head, or its whole encoding for string fields. */
+  private static final class Part {
+    final byte[] head;
+    final File file;
+    final InputStream stream;
+    final long length;
+
+    Part(byte[] head, File file, InputStream stream, long length) {
+      this.head = head;
+      this.file = file;
+      this.stream = stream;
+      this.length = length;
+    }
+  }
+}
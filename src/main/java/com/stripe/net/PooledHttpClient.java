@@ -0,0 +1,622 @@
+package com.stripe.net;
+
+import com.stripe.Stripe;
+import com.stripe.exception.ApiConnectionException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.SSLSocketFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An {@link HttpClient} that keeps persistent HTTP/1.1 connections to Stripe's API in a bounded,
+ * per-host pool, so that consecutive requests do not pay for a new TCP and TLS handshake.
+ *
+ * <p>A single instance is meant to be shared by the whole application, e.g.:
+ *
+ * <pre>{@code
+ * PooledHttpClient httpClient = new PooledHttpClient(50, Duration.ofSeconds(30));
+ * ApiResource.setStripeResponseGetter(new LiveStripeResponseGetter(httpClient));
+ * }</pre>
+ *
+ * <p>This client is also the recommended transport when calling the library from virtual threads
+ * (Java 21 and later): it holds no monitor while blocked on the network, multipart bodies included,
+ * and waiting for a pooled connection parks on a {@link java.util.concurrent.Semaphore}, so callers
+ * do not pin their carrier thread. {@link HttpURLConnectionClient}, also used for proxied
+ * requests, relies on the JDK's {@code HttpURLConnection}, whose internals hold monitors across
+ * blocking I/O.
+ *
+ * <p>Requests that go through a proxy (see {@link RequestOptions#getConnectionProxy()}) are
+ * delegated to an {@link HttpURLConnectionClient}.
+ */
+@Slf4j
+public class PooledHttpClient extends HttpClient implements Closeable {
+  /** Default maximum number of connections leased at once for a given host. */
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+  /** Default duration after which an idle connection is closed. */
+  public static final Duration DEFAULT_KEEP_ALIVE = Duration.ofSeconds(30);
+
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  /** The size of the chunks of request bodies of unknown length. */
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  private final HttpConnectionPool pool;
+
+  private final HttpURLConnectionClient proxyClient = new HttpURLConnectionClient();
+
+  /**
+   * Initializes a new instance of the {@link PooledHttpClient} with {@link
+   * #DEFAULT_MAX_CONNECTIONS_PER_HOST} connections per host and a keep-alive of {@link
+   * #DEFAULT_KEEP_ALIVE}.
+   */
+  public PooledHttpClient() {
+    this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE);
+  }
+
+  /**
+   * Initializes a new instance of the {@link PooledHttpClient}.
+   *
+   * @param maxConnectionsPerHost the maximum number of connections leased at once for a given host.
+   *     Requests beyond that wait for a connection, for at most the connect timeout.
+   * @param keepAlive how long an idle connection is kept before being closed
+   */
+  public PooledHttpClient(int maxConnectionsPerHost, Duration keepAlive) {
+    this(maxConnectionsPerHost, keepAlive, (SSLSocketFactory) SSLSocketFactory.getDefault());
+  }
+
+  /**
+   * Initializes a new instance of the {@link PooledHttpClient}.
+   *
+   * @param maxConnectionsPerHost the maximum number of connections leased at once for a given host.
+   *     Requests beyond that wait for a connection, for at most the connect timeout.
+   * @param keepAlive how long an idle connection is kept before being closed
+   * @param sslSocketFactory the factory used to open TLS connections
+   */
+  public PooledHttpClient(
+      int maxConnectionsPerHost, Duration keepAlive, SSLSocketFactory sslSocketFactory) {
+    super();
+    this.pool = new HttpConnectionPool(maxConnectionsPerHost, keepAlive, sslSocketFactory);
+  }
+
+  /**
+   * Sends the given request to Stripe's API over a pooled connection. The connection goes back to
+   * the pool once the response body has been fully read or closed.
+   *
+   * @param request the request
+   * @return the response
+   * @throws ApiConnectionException if an error occurs when sending or receiving
+   */
+  @Override
+  public StripeResponseStream requestStream(StripeRequest request) throws ApiConnectionException {
+    if (request.options().getConnectionProxy() != null) {
+      return this.proxyClient.requestStream(request);
+    }
+
+    try {
+      return send(request);
+    } catch (IOException e) {
+      throw new ApiConnectionException(
+          String.format(
+              "IOException during API request to Stripe (%s): %s "
+                  + "Please check your internet connection and try again. If this problem persists,"
+                  + "you should check Stripe's service status at https://twitter.com/stripestatus,"
+                  + " or let us know at support@stripe.com.",
+              Stripe.getApiBase(), e.getMessage()),
+          e);
+    }
+  }
+
+  /**
+   * Sends the given request to Stripe's API, and returns a buffered response.
+   *
+   * @param request the request
+   * @return the response
+   * @throws ApiConnectionException if an error occurs when sending or receiving
+   */
+  @Override
+  public StripeResponse request(StripeRequest request) throws ApiConnectionException {
+    final StripeResponseStream responseStream = requestStream(request);
+    try {
+      return responseStream.unstream();
+    } catch (IOException e) {
+      throw new ApiConnectionException(
+          String.format(
+              "IOException during API request to Stripe (%s): %s "
+                  + "Please check your internet connection and try again. If this problem persists,"
+                  + "you should check Stripe's service status at https://twitter.com/stripestatus,"
+                  + " or let us know at support@stripe.com.",
+              Stripe.getApiBase(), e.getMessage()),
+          e);
+    }
+  }
+
+  /**
+   * Closes all idle connections and stops the background evictor. Connections still in use are
+   * closed as soon as their response has been read.
+   */
+  @Override
+  public void close() {
+    this.pool.close();
+  }
+
+  /** Closes all pooled connections that have been idle for longer than the keep-alive duration. */
+  public void evictIdleConnections() {
+    this.pool.evictIdleConnections();
+  }
+
+  /** Number of idle connections currently held by the pool. Used for internal tests only. */
+  int idleConnectionCount() {
+    return this.pool.idleConnectionCount();
+  }
+
+  private StripeResponseStream send(StripeRequest request) throws IOException {
+    final HttpContent content = request.content();
+    final long contentLength = (content != null) ? content.contentLength() : 0;
+    final byte[] head = encodeRequestHead(request, contentLength);
+
+    while (true) {
+      HttpConnectionPool.Connection conn =
+          this.pool.acquire(request.url(), request.options().getConnectTimeout());
+      request.trace().connectionAcquired();
+      try {
+        conn.setReadTimeout(request.options().getReadTimeout());
+        return exchange(conn, request, head, content, contentLength);
+      } catch (StaleConnectionException e) {
+        this.pool.release(conn, false);
+        if (!e.nothingSent && !isIdempotent(request.method())) {
+          // The server closed the connection after (part of) our request reached it: it may have
+          // processed the request, so leave it to the retry policy of HttpClient to decide.
+          throw e;
+        }
+        if (content != null && !content.isRepeatable()) {
+          // The input streams of the body were read, so it cannot be sent again.
+          throw e;
+        }
+        // Either nothing reached the server, or sending the request again has the same effect.
+        log.debug("pooled connection was closed by the server, retrying on a new one");
+      } catch (IOException | RuntimeException e) {
+        this.pool.release(conn, false);
+        throw e;
+      }
+    }
+  }
+
+  private StripeResponseStream exchange(
+      HttpConnectionPool.Connection conn,
+      StripeRequest request,
+      byte[] head,
+      HttpContent content,
+      long bodyLength)
+      throws IOException {
+    long sentBefore = conn.bytesSent();
+    try {
+      OutputStream out = conn.outputStream();
+      out.write(head);
+      if (content != null && bodyLength >= 0) {
+        content.writeTo(request.trace().countUpload(out, bodyLength));
+      } else if (content != null) {
+        ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+        OutputStream buffered = new BufferedOutputStream(chunked, CHUNK_SIZE);
+        content.writeTo(request.trace().countUpload(buffered, -1));
+        buffered.flush();
+        chunked.finish();
+      }
+      out.flush();
+      request.trace().requestSent();
+    } catch (SocketTimeoutException e) {
+      throw e;
+    } catch (IOException e) {
+      if (conn.isReused()) {
+        throw new StaleConnectionException(e, conn.bytesSent() == sentBefore);
+      }
+      throw e;
+    }
+
+    InputStream in = conn.inputStream();
+
+    String statusLine = readLine(in);
+    if (statusLine == null) {
+      if (conn.isReused()) {
+        throw new StaleConnectionException(null, false);
+      }
+      throw new EOFException("Connection closed before a response was received");
+    }
+
+    int code = parseStatusCode(statusLine);
+    Map<String, List<String>> headerMap = readHeaders(in);
+
+    // Skip informational responses, e.g. `100 Continue`.
+    while (code >= 100 && code < 200) {
+      statusLine = readLine(in);
+      if (statusLine == null) {
+        throw new EOFException("Connection closed before a final response was received");
+      }
+      code = parseStatusCode(statusLine);
+      headerMap = readHeaders(in);
+    }
+
+    final HttpHeaders headers = HttpHeaders.of(headerMap);
+    log.debug("response: code={}, headers={}", code, headers);
+    request.trace().responseHeaders(code);
+
+    boolean keepAlive = isKeepAlive(statusLine, headers);
+    InputStream bodyStream;
+    if (code == 204 || code == 304) {
+      bodyStream = new FixedLengthBodyStream(conn, in, 0, keepAlive);
+    } else if (headers
+        .firstValue("Transfer-Encoding")
+        .map(v -> v.toLowerCase().contains("chunked"))
+        .orElse(false)) {
+      bodyStream = new ChunkedBodyStream(conn, in, keepAlive);
+    } else if (headers.firstValue("Content-Length").isPresent()) {
+      long contentLength;
+      try {
+        contentLength = Long.parseLong(headers.firstValue("Content-Length").get().trim());
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Invalid Content-Length in response");
+      }
+      bodyStream = new FixedLengthBodyStream(conn, in, contentLength, keepAlive);
+    } else {
+      // Without framing information, the body extends until the server closes the connection.
+      bodyStream = new FixedLengthBodyStream(conn, in, Long.MAX_VALUE, false);
+    }
+
+    return new StripeResponseStream(code, headers, request.trace().countBody(bodyStream));
+  }
+
+  private static byte[] encodeRequestHead(StripeRequest request, long contentLength) {
+    URL url = request.url();
+    StringBuilder sb = new StringBuilder(512);
+
+    sb.append(request.method().name()).append(' ');
+    sb.append(url.getPath().isEmpty() ? "/" : url.getPath());
+    if (url.getQuery() != null) {
+      sb.append('?').append(url.getQuery());
+    }
+    sb.append(" HTTP/1.1\r\n");
+
+    sb.append("Host: ").append(url.getHost());
+    if (url.getPort() != -1) {
+      sb.append(':').append(url.getPort());
+    }
+    sb.append("\r\n");
+
+    for (Map.Entry<String, List<String>> entry :
+        HttpURLConnectionClient.getHeaders(request).map().entrySet()) {
+      String value = String.join(",", entry.getValue());
+      log.trace("setting header: name={}; value={}", entry.getKey(), value);
+      sb.append(entry.getKey()).append(": ").append(value).append("\r\n");
+    }
+
+    if (request.content() != null) {
+      sb.append("Content-Type: ").append(request.content().contentType()).append("\r\n");
+      if (contentLength >= 0) {
+        sb.append("Content-Length: ").append(contentLength).append("\r\n");
+      } else {
+        sb.append("Transfer-Encoding: chunked\r\n");
+      }
+    } else if (request.method() == ApiResource.RequestMethod.POST
+        || request.method() == ApiResource.RequestMethod.PUT) {
+      sb.append("Content-Length: 0\r\n");
+    }
+
+    sb.append("\r\n");
+    log.debug("request method={}", request.method().name());
+
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int parseStatusCode(String statusLine) throws ProtocolException {
+    // e.g. "HTTP/1.1 200 OK"
+    if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12) {
+      throw new ProtocolException(String.format("Unexpected status line: %s", statusLine));
+    }
+    try {
+      return Integer.parseInt(statusLine.substring(9, 12));
+    } catch (NumberFormatException e) {
+      throw new ProtocolException(String.format("Unexpected status line: %s", statusLine));
+    }
+  }
+
+  private static Map<String, List<String>> readHeaders(InputStream in) throws IOException {
+    Map<String, List<String>> headerMap = new LinkedHashMap<>();
+    String line;
+    while ((line = readLine(in)) != null && !line.isEmpty()) {
+      int colon = line.indexOf(':');
+      if (colon <= 0) {
+        throw new ProtocolException(String.format("Malformed response header: %s", line));
+      }
+      String name = line.substring(0, colon).trim();
+      String value = line.substring(colon + 1).trim();
+      headerMap.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+    }
+    if (line == null) {
+      throw new EOFException("Connection closed while reading response headers");
+    }
+    return headerMap;
+  }
+
+  private static boolean isKeepAlive(String statusLine, HttpHeaders headers) {
+    String connection = headers.firstValue("Connection").orElse("").toLowerCase();
+    if (statusLine.startsWith("HTTP/1.0")) {
+      return connection.contains("keep-alive");
+    }
+    return !connection.contains("close");
+  }
+
+  /**
+   * Reads a single CRLF-terminated line.
+   *
+   * @return the line without its terminator, or {@code null} if the stream ended before any byte
+   *     was read
+   */
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+    int b;
+    while ((b = in.read()) != -1) {
+      if (b == '\n') {
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+          length -= 1;
+        }
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+      }
+      if (line.size() >= MAX_LINE_LENGTH) {
+        throw new ProtocolException("Response line is too long");
+      }
+      line.write(b);
+    }
+    if (line.size() == 0) {
+      return null;
+    }
+    throw new EOFException("Connection closed in the middle of a line");
+  }
+
+  /** Whether sending a request more than once has the same effect as sending it once. */
+  private static boolean isIdempotent(ApiResource.RequestMethod method) {
+    return method == ApiResource.RequestMethod.GET
+        || method == ApiResource.RequestMethod.PUT
+        || method == ApiResource.RequestMethod.DELETE;
+  }
+
+  /** Thrown when a reused connection turns out to have been closed by the server. */
+  private static class StaleConnectionException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /** Whether the connection failed before any byte of the request was written to it. */
+    final boolean nothingSent;
+
+    StaleConnectionException(Throwable cause, boolean nothingSent) {
+      super("Pooled connection was closed by the server", cause);
+      this.nothingSent = nothingSent;
+    }
+  }
+
+  /**
+   * Base class for response bodies read from a pooled connection. The connection is released as
+   * soon as the body has been fully read, or when the stream is closed.
+   */
+  private abstract class PooledBodyStream extends InputStream {
+    final HttpConnectionPool.Connection conn;
+    final InputStream in;
+    private final boolean keepAlive;
+    private boolean released = false;
+
+    PooledBodyStream(HttpConnectionPool.Connection conn, InputStream in, boolean keepAlive) {
+      this.conn = conn;
+      this.in = in;
+      this.keepAlive = keepAlive;
+    }
+
+    /** Whether the whole body has been consumed from the connection. */
+    abstract boolean isExhausted();
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      int n = read(single, 0, 1);
+      return (n == -1) ? -1 : (single[0] & 0xff);
+    }
+
+    @Override
+    public void close() throws IOException {
+      release();
+    }
+
+    void release() {
+      if (this.released) {
+        return;
+      }
+      this.released = true;
+      PooledHttpClient.this.pool.release(this.conn, this.keepAlive && isExhausted());
+    }
+
+    void fail() {
+      if (this.released) {
+        return;
+      }
+      this.released = true;
+      PooledHttpClient.this.pool.release(this.conn, false);
+    }
+  }
+
+  /** A body delimited by a {@code Content-Length} header (or by the end of the connection). */
+  private class FixedLengthBodyStream extends PooledBodyStream {
+    private long remaining;
+
+    FixedLengthBodyStream(
+        HttpConnectionPool.Connection conn, InputStream in, long length, boolean keepAlive) {
+      super(conn, in, keepAlive);
+      this.remaining = length;
+      if (length == 0) {
+        release();
+      }
+    }
+
+    @Override
+    boolean isExhausted() {
+      return this.remaining == 0;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (this.remaining == 0) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+
+      int n;
+      try {
+        n = this.in.read(b, off, (int) Math.min(len, this.remaining));
+      } catch (IOException e) {
+        fail();
+        throw e;
+      }
+
+      if (n == -1) {
+        if (this.remaining != Long.MAX_VALUE) {
+          fail();
+          throw new EOFException("Connection closed before the response body was fully read");
+        }
+        // Body delimited by the end of the connection.
+        this.remaining = 0;
+        release();
+        return -1;
+      }
+
+      if (this.remaining != Long.MAX_VALUE) {
+        this.remaining -= n;
+        if (this.remaining == 0) {
+          release();
+        }
+      }
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (this.remaining == 0) ? 0 : (int) Math.min(this.in.available(), this.remaining);
+    }
+  }
+
+  /**
+   * A request body sent with {@code Transfer-Encoding: chunked}, one chunk per write. {@link
+   * #finish()} writes the last chunk, without closing the connection.
+   */
+  private static final class ChunkedOutputStream extends OutputStream {
+    private static final byte[] LINE_BREAK = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final OutputStream out;
+
+    ChunkedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      this.out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+      this.out.write(LINE_BREAK);
+      this.out.write(b, off, len);
+      this.out.write(LINE_BREAK);
+    }
+
+    void finish() throws IOException {
+      this.out.write(LAST_CHUNK);
+    }
+  }
+
+  /** A body sent with {@code Transfer-Encoding: chunked}. */
+  private class ChunkedBodyStream extends PooledBodyStream {
+    private long chunkRemaining = 0;
+    private boolean firstChunk = true;
+    private boolean exhausted = false;
+
+    ChunkedBodyStream(HttpConnectionPool.Connection conn, InputStream in, boolean keepAlive) {
+      super(conn, in, keepAlive);
+    }
+
+    @Override
+    boolean isExhausted() {
+      return this.exhausted;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (this.exhausted) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+
+      try {
+        if (this.chunkRemaining == 0) {
+          if (!this.firstChunk) {
+            // Each chunk's data is followed by a CRLF.
+            readLine(this.in);
+          }
+          this.firstChunk = false;
+          this.chunkRemaining = readChunkSize();
+          if (this.chunkRemaining == 0) {
+            // Skip trailers, up to and including the final empty line.
+            readHeaders(this.in);
+            this.exhausted = true;
+            release();
+            return -1;
+          }
+        }
+
+        int n = this.in.read(b, off, (int) Math.min(len, this.chunkRemaining));
+        if (n == -1) {
+          throw new EOFException("Connection closed in the middle of a chunk");
+        }
+        this.chunkRemaining -= n;
+        return n;
+      } catch (IOException e) {
+        fail();
+        throw e;
+      }
+    }
+
+    private long readChunkSize() throws IOException {
+      String line = readLine(this.in);
+      if (line == null) {
+        throw new EOFException("Connection closed before the next chunk");
+      }
+      int extension = line.indexOf(';');
+      String size = (extension == -1) ? line.trim() : line.substring(0, extension).trim();
+      try {
+        return Long.parseLong(size, 16);
+      } catch (NumberFormatException e) {
+        throw new ProtocolException(String.format("Invalid chunk size: %s", line));
+      }
+    }
+  }
+}
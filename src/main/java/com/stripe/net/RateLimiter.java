@@ -0,0 +1,441 @@
+package com.stripe.net;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces the requests sent by an {@link HttpClient}, to stay below the rate limits of Stripe's API
+ * instead of running into them.
+ *
+ * <p>Requests are throttled by token buckets, one for each API key, connected account and {@link
+ * EndpointClass endpoint class}. The rate of a bucket adapts to the API the way TCP congestion
+ * control does: it is halved when a request is rate limited with a 429 response, and probes upward
+ * again by {@link Builder#setAdditiveIncrease(double) additiveIncrease} requests per second for
+ * every second of successful requests, up to the {@link Builder#setMaxRate(EndpointClass, double)
+ * maximum rate} of the endpoint class. While a rate limiter is set, rate limited requests are also
+ * retried, within the request's maximum number of network retries.
+ *
+ * <p>A request that finds its bucket empty waits for a token. Synchronous requests block the
+ * calling thread, while asynchronous ones are queued on a timer without holding a thread. If the
+ * wait would exceed {@link Builder#setMaxWait(Duration) maxWait}, the request fails immediately
+ * with a {@link RateLimitException} and is not sent; a {@code maxWait} of zero makes requests fail
+ * fast as soon as the rate is exceeded.
+ *
+ * <p>Rate limiters are independent of each other. To keep a background job from starving
+ * interactive traffic sharing the same API key, send the job's requests through a client whose
+ * rate limiter has lower maximum rates, leaving the rest of the API's limit to the interactive
+ * requests. All methods are thread-safe.
+ *
+ * <p>Buckets that go unused for {@link #BUCKET_IDLE_EXPIRY} are dropped, so that a platform
+ * sending requests on behalf of many connected accounts does not keep a bucket for each of them
+ * forever. A dropped bucket starts again at the maximum rate.
+ */
+public final class RateLimiter {
+  /** The classes of endpoints that Stripe rate limits separately. */
+  public enum EndpointClass {
+    /** {@code GET} requests, other than searches. */
+    READ,
+    /** {@code POST}, {@code PUT} and {@code DELETE} requests. */
+    WRITE,
+    /** {@code GET} requests to {@code /search} endpoints. */
+    SEARCH;
+
+    /**
+     * Returns the endpoint class of a request.
+     *
+     * @param request the request
+     */
+    public static EndpointClass of(StripeRequest request) {
+      if (request.method() != ApiResource.RequestMethod.GET) {
+        return WRITE;
+      }
+      return request.url().getPath().endsWith("/search") ? SEARCH : READ;
+    }
+  }
+
+  /** Rate limited requests seen within this period after a decrease only count once. */
+  private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** How long a bucket is kept without being used. */
+  public static final Duration BUCKET_IDLE_EXPIRY = Duration.ofMinutes(10);
+
+  private static final long BUCKET_IDLE_EXPIRY_NANOS = BUCKET_IDLE_EXPIRY.toNanos();
+
+  private final Map<EndpointClass, Double> maxRates;
+  private final double minRate;
+  private final double decreaseFactor;
+  private final double additiveIncrease;
+  private final double burst;
+  private final long maxWaitNanos;
+  private final LongSupplier nanoTime;
+
+  private final ConcurrentHashMap<BucketKey, Bucket> buckets = new ConcurrentHashMap<>();
+
+  /** When idle buckets were last dropped. */
+  private final AtomicLong lastEvictionNanos;
+
+  private RateLimiter(Builder builder) {
+    this.maxRates = new EnumMap<>(builder.maxRates);
+    this.minRate = builder.minRate;
+    this.decreaseFactor = builder.decreaseFactor;
+    this.additiveIncrease = builder.additiveIncrease;
+    this.burst = builder.burst.toNanos() / 1e9;
+    this.maxWaitNanos = builder.maxWait.toNanos();
+    this.nanoTime = builder.nanoTime;
+    this.lastEvictionNanos = new AtomicLong(this.nanoTime.getAsLong());
+  }
+
+  /** Returns a builder for a new rate limiter. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the current rate of the bucket a request is throttled by.
+   *
+   * @param request the request
+   * @return the rate, in requests per second
+   */
+  public double getRate(StripeRequest request) {
+    return bucket(request).rate();
+  }
+
+  /**
+   * Takes a token for a request, blocking until one is available.
+   *
+   * @param request the request
+   * @throws RateLimitException if no token is available within {@code maxWait}
+   * @throws ApiConnectionException if the thread is interrupted while waiting, in which case the
+   *     request must not be sent
+   */
+  void acquire(StripeRequest request) throws StripeException {
+    long wait = reserve(request);
+    if (wait > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ApiConnectionException(
+            "Interrupted while waiting for the client-side rate limiter", e);
+      }
+    }
+  }
+
+  /**
+   * Takes a token for a request, possibly one that only becomes available in the future.
+   *
+   * @param request the request
+   * @return the time to wait before sending the request, in nanoseconds
+   * @throws RateLimitException if no token is available within {@code maxWait}
+   */
+  long reserve(StripeRequest request) throws RateLimitException {
+    Bucket bucket = bucket(request);
+    long wait = bucket.reserve(this.nanoTime.getAsLong(), this.maxWaitNanos);
+    if (wait < 0) {
+      throw new RateLimitException(
+          String.format(
+              "Request was not sent because it exceeds the client-side rate limit of %.1f %s "
+                  + "requests per second.",
+              bucket.rate(), EndpointClass.of(request).name().toLowerCase(Locale.ROOT)),
+          null,
+          null,
+          "rate_limit",
+          null,
+          null);
+    }
+    return wait;
+  }
+
+  /**
+   * Adapts the rate of a request's bucket to the response Stripe sent.
+   *
+   * @param request the request
+   * @param response the response, or {@code null} if the request failed to get one
+   */
+  void onResponse(StripeRequest request, AbstractStripeResponse<?> response) {
+    if (response == null) {
+      return;
+    }
+    if (response.code() == 429) {
+      bucket(request).decrease(this.nanoTime.getAsLong());
+    } else if (response.code() < 500) {
+      bucket(request).increase(this.nanoTime.getAsLong());
+    }
+  }
+
+  /** Returns the number of buckets currently kept. Used for internal tests only. */
+  int bucketCount() {
+    return this.buckets.size();
+  }
+
+  private Bucket bucket(StripeRequest request) {
+    EndpointClass endpointClass = EndpointClass.of(request);
+    RequestOptions options = request.options();
+    BucketKey key =
+        new BucketKey(options.getApiKey(), options.getSeamlessPayAccount(), endpointClass);
+    Bucket bucket = this.buckets.get(key);
+    if (bucket != null) {
+      return bucket;
+    }
+    long now = this.nanoTime.getAsLong();
+    evictIdleBuckets(now);
+    return this.buckets.computeIfAbsent(
+        key, k -> new Bucket(this.maxRates.get(endpointClass), now));
+  }
+
+  /** Drops the buckets left unused for too long, at most once per expiry period. */
+  private void evictIdleBuckets(long now) {
+    long last = this.lastEvictionNanos.get();
+    if (now - last < BUCKET_IDLE_EXPIRY_NANOS
+        || !this.lastEvictionNanos.compareAndSet(last, now)) {
+      return;
+    }
+    this.buckets.values().removeIf(bucket -> bucket.isIdle(now));
+  }
+
+  private static final class BucketKey {
+    private final String apiKey;
+    private final String account;
+    private final EndpointClass endpointClass;
+
+    BucketKey(String apiKey, String account, EndpointClass endpointClass) {
+      this.apiKey = apiKey;
+      this.account = account;
+      this.endpointClass = endpointClass;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BucketKey)) {
+        return false;
+      }
+      BucketKey other = (BucketKey) o;
+      return Objects.equals(this.apiKey, other.apiKey)
+          && Objects.equals(this.account, other.account)
+          && this.endpointClass == other.endpointClass;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.apiKey, this.account, this.endpointClass);
+    }
+  }
+
+  /**
+   * A token bucket whose tokens may be reserved ahead of time: a request that finds the bucket
+   * empty takes the next token to become available, and waits until then.
+   */
+  private final class Bucket {
+    private final double maxRate;
+    private double rate;
+    private double storedTokens;
+    /** When the next token becomes available; tokens accumulate from then on. */
+    private long nextTokenNanos;
+
+    private long lastDecreaseNanos;
+
+    private long lastUsedNanos;
+
+    Bucket(double maxRate, long now) {
+      this.maxRate = maxRate;
+      this.rate = maxRate;
+      this.nextTokenNanos = now;
+      this.storedTokens = maxStoredTokens();
+      this.lastDecreaseNanos = now - DECREASE_COOLDOWN_NANOS;
+      this.lastUsedNanos = now;
+    }
+
+    /** Whether the bucket has not been used, nor has tokens reserved, for the idle expiry. */
+    synchronized boolean isIdle(long now) {
+      return now - Math.max(this.lastUsedNanos, this.nextTokenNanos) > BUCKET_IDLE_EXPIRY_NANOS;
+    }
+
+    synchronized double rate() {
+      return this.rate;
+    }
+
+    /** Returns the time to wait for a token, or -1 if it exceeds {@code maxWait}. */
+    synchronized long reserve(long now, long maxWait) {
+      this.lastUsedNanos = now;
+      refill(now);
+      long wait = Math.max(0, this.nextTokenNanos - now);
+      if (wait > maxWait) {
+        return -1;
+      }
+      if (this.storedTokens >= 1) {
+        this.storedTokens -= 1;
+      } else {
+        this.nextTokenNanos += (long) ((1 - this.storedTokens) * 1e9 / this.rate);
+        this.storedTokens = 0;
+      }
+      return wait;
+    }
+
+    /** Probes upward, by {@code additiveIncrease} per second of requests at the current rate. */
+    synchronized void increase(long now) {
+      setRate(now, Math.min(this.maxRate, this.rate + additiveIncrease / this.rate));
+    }
+
+    /** Backs off multiplicatively, once for all the requests in flight when throttling started. */
+    synchronized void decrease(long now) {
+      if (now - this.lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+        return;
+      }
+      this.lastDecreaseNanos = now;
+      setRate(now, Math.max(minRate, this.rate * decreaseFactor));
+      // Drop the accumulated burst, which the API just refused.
+      this.storedTokens = 0;
+    }
+
+    private void setRate(long now, double rate) {
+      refill(now);
+      this.rate = rate;
+      this.storedTokens = Math.min(this.storedTokens, maxStoredTokens());
+    }
+
+    private void refill(long now) {
+      if (now > this.nextTokenNanos) {
+        double tokens = (now - this.nextTokenNanos) * this.rate / 1e9;
+        this.storedTokens = Math.min(maxStoredTokens(), this.storedTokens + tokens);
+        this.nextTokenNanos = now;
+      }
+    }
+
+    private double maxStoredTokens() {
+      return this.rate * burst;
+    }
+  }
+
+  /** Builder for {@link RateLimiter} instances. */
+  public static final class Builder {
+    private final Map<EndpointClass, Double> maxRates = new EnumMap<>(EndpointClass.class);
+    private double minRate = 1;
+    private double decreaseFactor = 0.5;
+    private double additiveIncrease = 1;
+    private Duration burst = Duration.ofSeconds(1);
+    private Duration maxWait = Duration.ofSeconds(30);
+    private LongSupplier nanoTime = System::nanoTime;
+
+    private Builder() {
+      // Stripe's default live mode limits.
+      this.maxRates.put(EndpointClass.READ, 100.0);
+      this.maxRates.put(EndpointClass.WRITE, 100.0);
+      this.maxRates.put(EndpointClass.SEARCH, 20.0);
+    }
+
+    /**
+     * Sets the rate that the buckets of an endpoint class start at and never exceed. Defaults to
+     * 100 requests per second for reads and writes, and 20 for searches.
+     *
+     * @param endpointClass the endpoint class
+     * @param maxRate the maximum rate, in requests per second
+     */
+    public Builder setMaxRate(EndpointClass endpointClass, double maxRate) {
+      if (!(maxRate > 0)) {
+        throw new IllegalArgumentException("maxRate must be positive");
+      }
+      this.maxRates.put(endpointClass, maxRate);
+      return this;
+    }
+
+    /**
+     * Sets the rate that rate limited requests never push the buckets below. Defaults to 1 request
+     * per second.
+     *
+     * @param minRate the minimum rate, in requests per second
+     */
+    public Builder setMinRate(double minRate) {
+      if (!(minRate > 0)) {
+        throw new IllegalArgumentException("minRate must be positive");
+      }
+      this.minRate = minRate;
+      return this;
+    }
+
+    /**
+     * Sets the factor that the rate is multiplied by when a request is rate limited. Defaults to
+     * 0.5.
+     *
+     * @param decreaseFactor the factor, strictly between 0 and 1
+     */
+    public Builder setDecreaseFactor(double decreaseFactor) {
+      if (!(decreaseFactor > 0 && decreaseFactor < 1)) {
+        throw new IllegalArgumentException("decreaseFactor must be between 0 and 1");
+      }
+      this.decreaseFactor = decreaseFactor;
+      return this;
+    }
+
+    /**
+     * Sets by how many requests per second the rate grows for each second of successful requests.
+     * Defaults to 1.
+     *
+     * @param additiveIncrease the increase, in requests per second
+     */
+    public Builder setAdditiveIncrease(double additiveIncrease) {
+      if (!(additiveIncrease > 0)) {
+        throw new IllegalArgumentException("additiveIncrease must be positive");
+      }
+      this.additiveIncrease = additiveIncrease;
+      return this;
+    }
+
+    /**
+     * Sets for how long idle buckets accumulate tokens, i.e. how large a burst of requests is sent
+     * without pacing. Defaults to 1 second, the window of Stripe's rate limits.
+     *
+     * @param burst the burst duration
+     */
+    public Builder setBurst(Duration burst) {
+      if (burst == null || burst.isNegative()) {
+        throw new IllegalArgumentException("burst must not be negative");
+      }
+      this.burst = burst;
+      return this;
+    }
+
+    /**
+     * Sets how long a request may wait for a token before failing with a {@link
+     * RateLimitException}. Defaults to 30 seconds. Use {@link Duration#ZERO} to fail fast.
+     *
+     * @param maxWait the maximum wait
+     */
+    public Builder setMaxWait(Duration maxWait) {
+      if (maxWait == null || maxWait.isNegative()) {
+        throw new IllegalArgumentException("maxWait must not be negative");
+      }
+      this.maxWait = maxWait;
+      return this;
+    }
+
+    /** Sets the time source, for tests. */
+    Builder setNanoTime(LongSupplier nanoTime) {
+      this.nanoTime = nanoTime;
+      return this;
+    }
+
+    /**
+     * Builds the rate limiter.
+     *
+     * @throws IllegalStateException if the minimum rate exceeds a maximum rate
+     */
+    public RateLimiter build() {
+      for (double maxRate : this.maxRates.values()) {
+        if (this.minRate > maxRate) {
+          throw new IllegalStateException("minRate must not exceed the maximum rates");
+        }
+      }
+      return new RateLimiter(this);
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package com.stripe.net;
+
+/**
+ * A step in the life of a request, reported to a {@link RequestListener}.
+ *
+ * <p>Each event carries the time elapsed since the request started and since the previous event
+ * of the same request, so that the time spent in a phase is the {@link #getNanosSincePrevious()}
+ * of the event ending it: e.g. the time to first byte is that of {@link Type#RESPONSE_HEADERS}.
+ * {@link Type#UPLOAD_PROGRESS} events do not end a phase, and are not counted as previous events.
+ */
+public final class RequestEvent {
+  /** The kind of event. */
+  public enum Type {
+    /** The request is about to be sent for the first time. */
+    START,
+
+    /** A connection to the API was opened, or taken from a pool. */
+    CONNECTION_ACQUIRED,
+
+    /**
+     * Another 64 KiB of the request body were written to the connection, as given by {@link
+     * #getUploadedBytes()} out of {@link #getUploadLength()}, e.g. to report the progress of file
+     * uploads.
+     */
+    UPLOAD_PROGRESS,
+
+    /** The request head and body were written to the connection. */
+    REQUEST_SENT,
+
+    /** The status line and headers of the response were received. */
+    RESPONSE_HEADERS,
+
+    /**
+     * The response body was read to its end. For responses deserialized straight from the network
+     * stream, this includes the time spent deserializing.
+     */
+    RESPONSE_BODY_READ,
+
+    /** The response was deserialized into a resource. */
+    DESERIALIZED,
+
+    /** An attempt failed and the request is about to be retried. */
+    RETRY,
+
+    /** The request is done, successfully or not. */
+    END
+  }
+
+  private final Type type;
+  private final ApiResource.RequestMethod method;
+  private final String endpoint;
+  private final int retries;
+  private final int statusCode;
+  private final long nanosSinceStart;
+  private final long nanosSincePrevious;
+  private final long bytesSent;
+  private final long bytesReceived;
+  private final long uploadedBytes;
+  private final long uploadLength;
+  private final Throwable error;
+
+  RequestEvent(
+      Type type,
+      ApiResource.RequestMethod method,
+      String endpoint,
+      int retries,
+      int statusCode,
+      long nanosSinceStart,
+      long nanosSincePrevious,
+      long bytesSent,
+      long bytesReceived,
+      Throwable error) {
+    this(
+        type,
+        method,
+        endpoint,
+        retries,
+        statusCode,
+        nanosSinceStart,
+        nanosSincePrevious,
+        bytesSent,
+        bytesReceived,
+        0,
+        0,
+        error);
+  }
+
+  RequestEvent(
+      Type type,
+      ApiResource.RequestMethod method,
+      String endpoint,
+      int retries,
+      int statusCode,
+      long nanosSinceStart,
+      long nanosSincePrevious,
+      long bytesSent,
+      long bytesReceived,
+      long uploadedBytes,
+      long uploadLength,
+      Throwable error) {
+    this.type = type;
+    this.method = method;
+    this.endpoint = endpoint;
+    this.retries = retries;
+    this.statusCode = statusCode;
+    this.nanosSinceStart = nanosSinceStart;
+    this.nanosSincePrevious = nanosSincePrevious;
+    this.bytesSent = bytesSent;
+    this.bytesReceived = bytesReceived;
+    this.uploadedBytes = uploadedBytes;
+    this.uploadLength = uploadLength;
+    this.error = error;
+  }
+
+  /** Returns the kind of event. */
+  public Type getType() {
+    return this.type;
+  }
+
+  /** Returns the HTTP method of the request. */
+  public ApiResource.RequestMethod getMethod() {
+    return this.method;
+  }
+
+  /**
+   * Returns the endpoint of the request, as a template where IDs are replaced by {@code *}, e.g.
+   * {@code api.stripe.com/v1/customers/*}.
+   */
+  public String getEndpoint() {
+    return this.endpoint;
+  }
+
+  /** Returns the number of retries so far, i.e. the index of the current attempt. */
+  public int getRetries() {
+    return this.retries;
+  }
+
+  /** Returns the HTTP status code of the latest response, or 0 if none was received yet. */
+  public int getStatusCode() {
+    return this.statusCode;
+  }
+
+  /** Returns the nanoseconds elapsed since the request started. */
+  public long getNanosSinceStart() {
+    return this.nanosSinceStart;
+  }
+
+  /** Returns the nanoseconds elapsed since the previous event of the request. */
+  public long getNanosSincePrevious() {
+    return this.nanosSincePrevious;
+  }
+
+  /** Returns the number of body bytes sent so far, over all attempts. */
+  public long getBytesSent() {
+    return this.bytesSent;
+  }
+
+  /** Returns the number of body bytes received so far, over all attempts. */
+  public long getBytesReceived() {
+    return this.bytesReceived;
+  }
+
+  /** Returns the number of body bytes written so far in the current attempt. */
+  public long getUploadedBytes() {
+    return this.uploadedBytes;
+  }
+
+  /**
+   * Returns the length of the body of the current attempt once it started being written, or -1 if
+   * it is unknown, e.g. for a streamed upload of an input stream.
+   */
+  public long getUploadLength() {
+    return this.uploadLength;
+  }
+
+  /**
+   * Returns the error of a failed attempt for {@link Type#RETRY}, or of the request for {@link
+   * Type#END}, or null.
+   */
+  public Throwable getError() {
+    return this.error;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "RequestEvent(%s %s %s, retries=%d, status=%d, sinceStart=%dns, sincePrevious=%dns)",
+        this.type,
+        this.method,
+        this.endpoint,
+        this.retries,
+        this.statusCode,
+        this.nanosSinceStart,
+        this.nanosSincePrevious);
+  }
+}
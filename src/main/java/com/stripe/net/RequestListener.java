@@ -0,0 +1,20 @@
+package com.stripe.net;
+
+/**
+ * Receives the events of the requests sent by an {@link HttpClient}, from their start to their
+ * end, with the timings of each phase in between. Set one with {@link
+ * HttpClient#setRequestListener(RequestListener)}; {@link RequestMetricsListener} aggregates the
+ * events in memory.
+ *
+ * <p>Events are delivered synchronously on the thread doing the work, so implementations must be
+ * fast and thread-safe. Exceptions thrown by a listener are logged and otherwise ignored.
+ */
+@FunctionalInterface
+public interface RequestListener {
+  /**
+   * Handles an event.
+   *
+   * @param event the event
+   */
+  void onEvent(RequestEvent event);
+}
@@ -0,0 +1,187 @@
+package com.stripe.net;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RequestListener} that aggregates the events of requests in memory, per endpoint.
+ *
+ * <p>Endpoints are keyed by the HTTP method and the {@link RequestEvent#getEndpoint() endpoint
+ * template}, e.g. {@code GET api.stripe.com/v1/customers/*}. For each of them it counts requests,
+ * failures, retries and bytes, and keeps the count, total and maximum duration of each phase, the
+ * duration of a phase being the time elapsed before the event that ends it. The phase of {@link
+ * RequestEvent.Type#END} is the whole request, from its start to its end, including retries.
+ *
+ * <p>All methods are thread-safe, and recording does not lock.
+ */
+public final class RequestMetricsListener implements RequestListener {
+  private final ConcurrentHashMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+  @Override
+  public void onEvent(RequestEvent event) {
+    String key = event.getMethod() + " " + event.getEndpoint();
+    EndpointMetrics metrics = this.endpoints.get(key);
+    if (metrics == null) {
+      metrics = this.endpoints.computeIfAbsent(key, k -> new EndpointMetrics());
+    }
+    metrics.record(event);
+  }
+
+  /**
+   * Returns the metrics of each endpoint seen so far, keyed by method and endpoint template, e.g.
+   * {@code GET api.stripe.com/v1/customers/*}. The metrics keep being updated after they are
+   * returned.
+   */
+  public Map<String, EndpointMetrics> getEndpoints() {
+    return Collections.unmodifiableMap(new TreeMap<>(this.endpoints));
+  }
+
+  /**
+   * Returns the metrics of an endpoint.
+   *
+   * @param method the HTTP method
+   * @param endpoint the endpoint template, as in {@link RequestEvent#getEndpoint()}
+   * @return the metrics, or {@code null} if no request to the endpoint was seen
+   */
+  public EndpointMetrics getEndpoint(ApiResource.RequestMethod method, String endpoint) {
+    return this.endpoints.get(method + " " + endpoint);
+  }
+
+  /** Forgets all the metrics recorded so far. */
+  public void reset() {
+    this.endpoints.clear();
+  }
+
+  /** The metrics of the requests to one endpoint. */
+  public static final class EndpointMetrics {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final Map<RequestEvent.Type, PhaseMetrics> phases =
+        new EnumMap<>(RequestEvent.Type.class);
+
+    private EndpointMetrics() {
+      for (RequestEvent.Type type : RequestEvent.Type.values()) {
+        if (type != RequestEvent.Type.START && type != RequestEvent.Type.UPLOAD_PROGRESS) {
+          this.phases.put(type, new PhaseMetrics());
+        }
+      }
+    }
+
+    private void record(RequestEvent event) {
+      switch (event.getType()) {
+        case START:
+        case UPLOAD_PROGRESS:
+          return;
+        case RETRY:
+          this.retries.increment();
+          break;
+        case END:
+          this.requests.increment();
+          if (event.getError() != null || event.getStatusCode() >= 400) {
+            this.failures.increment();
+          }
+          this.bytesSent.add(event.getBytesSent());
+          this.bytesReceived.add(event.getBytesReceived());
+          this.phases.get(RequestEvent.Type.END).record(event.getNanosSinceStart());
+          return;
+        default:
+          break;
+      }
+      this.phases.get(event.getType()).record(event.getNanosSincePrevious());
+    }
+
+    /** Returns the number of requests that ended. */
+    public long getRequests() {
+      return this.requests.sum();
+    }
+
+    /** Returns the number of requests that ended with an error or an HTTP status of 400 or more. */
+    public long getFailures() {
+      return this.failures.sum();
+    }
+
+    /** Returns the number of retries. */
+    public long getRetries() {
+      return this.retries.sum();
+    }
+
+    /** Returns the number of body bytes sent by the requests that ended. */
+    public long getBytesSent() {
+      return this.bytesSent.sum();
+    }
+
+    /** Returns the number of body bytes received by the requests that ended. */
+    public long getBytesReceived() {
+      return this.bytesReceived.sum();
+    }
+
+    /**
+     * Returns the metrics of the phase ended by an event.
+     *
+     * @param type the type of the event ending the phase
+     * @return the metrics, or {@code null} for {@link RequestEvent.Type#START} and {@link
+     *     RequestEvent.Type#UPLOAD_PROGRESS}
+     */
+    public PhaseMetrics getPhase(RequestEvent.Type type) {
+      return this.phases.get(type);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "EndpointMetrics(requests=%d, failures=%d, retries=%d, phases=%s)",
+          getRequests(), getFailures(), getRetries(), this.phases);
+    }
+  }
+
+  /** The durations of one phase of requests. */
+  public static final class PhaseMetrics {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    private PhaseMetrics() {}
+
+    private void record(long nanos) {
+      this.count.increment();
+      this.totalNanos.add(nanos);
+      this.maxNanos.accumulate(nanos);
+    }
+
+    /** Returns the number of times the phase was recorded. */
+    public long getCount() {
+      return this.count.sum();
+    }
+
+    /** Returns the total duration of the phase, in nanoseconds. */
+    public long getTotalNanos() {
+      return this.totalNanos.sum();
+    }
+
+    /** Returns the longest duration of the phase, in nanoseconds. */
+    public long getMaxNanos() {
+      return this.maxNanos.get();
+    }
+
+    /** Returns the mean duration of the phase in nanoseconds, or 0 if it was never recorded. */
+    public long getMeanNanos() {
+      long count = getCount();
+      return (count == 0) ? 0 : getTotalNanos() / count;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "PhaseMetrics(count=%d, meanNanos=%d, maxNanos=%d)",
+          getCount(), getMeanNanos(), getMaxNanos());
+    }
+  }
+}
@@ -6,6 +6,7 @@ import java.net.PasswordAuthentication;
 import java.net.Proxy;
 import java.util.Base64;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import lombok.EqualsAndHashCode;
 
 @EqualsAndHashCode(callSuper = false)
@@ -31,6 +32,28 @@ public class RequestOptions {
   private final Proxy connectionProxy;
   private final PasswordAuthentication proxyCredential;
 
+  /**
+   * Executor running asynchronous requests and fan-out helpers. When {@code null}, a shared pool of
+   * daemon threads is used.
+   */
+  private final Executor executor;
+
+  /** How much of the response is kept on the returned resources. */
+  private final ResponseRetention responseRetention;
+
+  /** Whether a {@link CachingStripeResponseGetter} may answer the request from its cache. */
+  private final CachePolicy cachePolicy;
+
+  /** The maximum number of API keys whose encoding is kept for reuse. */
+  private static final int MAX_ENCODED_API_KEYS = 16;
+
+  /**
+   * The Base64 encodings of the API keys used most recently, since most options, and those of
+   * {@link #getDefault()} in particular, are built with one of a few keys.
+   */
+  private static final LruCache<String, String> encodedApiKeys =
+      new LruCache<>(MAX_ENCODED_API_KEYS);
+
   public static RequestOptions getDefault() {
     return new RequestOptions(
         Stripe.apiKey,
@@ -42,7 +65,10 @@ public class RequestOptions {
         Stripe.getReadTimeout(),
         Stripe.getMaxNetworkRetries(),
         Stripe.getConnectionProxy(),
-        Stripe.getProxyCredential());
+        Stripe.getProxyCredential(),
+        null,
+        ResponseRetention.FULL,
+        CachePolicy.USE);
   }
 
   private RequestOptions(
@@ -55,8 +81,12 @@ public class RequestOptions {
       int readTimeout,
       int maxNetworkRetries,
       Proxy connectionProxy,
-      PasswordAuthentication proxyCredential) {
-    this.apiKey = (apiKey == null) ? null : Base64.getEncoder().encodeToString(apiKey.getBytes(ApiResource.CHARSET));
+      PasswordAuthentication proxyCredential,
+      Executor executor,
+      ResponseRetention responseRetention,
+      CachePolicy cachePolicy) {
+    this.apiKey =
+        (apiKey == null) ? null : encodedApiKeys.get(apiKey, RequestOptions::encodeApiKey);
     this.clientId = clientId;
     this.idempotencyKey = idempotencyKey;
     this.seamlessPayAccount = seamlessPayAccount;
@@ -66,6 +96,31 @@ public class RequestOptions {
     this.maxNetworkRetries = maxNetworkRetries;
     this.connectionProxy = connectionProxy;
     this.proxyCredential = proxyCredential;
+    this.executor = executor;
+    this.responseRetention = responseRetention;
+    this.cachePolicy = cachePolicy;
+  }
+
+  private static String encodeApiKey(String apiKey) {
+    return Base64.getEncoder().encodeToString(apiKey.getBytes(ApiResource.CHARSET));
+  }
+
+  /** Copies the options, except for the API key which is already encoded. */
+  private RequestOptions(
+      RequestOptions other, String idempotencyKey, ResponseRetention responseRetention) {
+    this.apiKey = other.apiKey;
+    this.clientId = other.clientId;
+    this.idempotencyKey = idempotencyKey;
+    this.seamlessPayAccount = other.seamlessPayAccount;
+    this.seamlessPayVersionOverride = other.seamlessPayVersionOverride;
+    this.connectTimeout = other.connectTimeout;
+    this.readTimeout = other.readTimeout;
+    this.maxNetworkRetries = other.maxNetworkRetries;
+    this.connectionProxy = other.connectionProxy;
+    this.proxyCredential = other.proxyCredential;
+    this.executor = other.executor;
+    this.responseRetention = responseRetention;
+    this.cachePolicy = other.cachePolicy;
   }
 
   public String getApiKey() {
@@ -112,6 +167,32 @@ public class RequestOptions {
     return proxyCredential;
   }
 
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  public ResponseRetention getResponseRetention() {
+    return responseRetention;
+  }
+
+  public CachePolicy getCachePolicy() {
+    return cachePolicy;
+  }
+
+  /** Returns a copy of these options with another response retention policy. */
+  RequestOptions withResponseRetention(ResponseRetention responseRetention) {
+    if (responseRetention == this.responseRetention) {
+      return this;
+    }
+    return new RequestOptions(this, this.idempotencyKey, responseRetention);
+  }
+
+  /** Returns a copy of these options with another idempotency key. */
+  RequestOptions withIdempotencyKey(String idempotencyKey) {
+    return new RequestOptions(
+        this, normalizeIdempotencyKey(idempotencyKey), this.responseRetention);
+  }
+
   public static RequestOptionsBuilder builder() {
     return new RequestOptionsBuilder();
   }
@@ -136,6 +217,9 @@ public class RequestOptions {
     private int maxNetworkRetries;
     private Proxy connectionProxy;
     private PasswordAuthentication proxyCredential;
+    private Executor executor;
+    private ResponseRetention responseRetention;
+    private CachePolicy cachePolicy;
 
     /**
      * Constructs a request options builder with the global parameters (API key and client ID) as
@@ -149,6 +233,8 @@ public class RequestOptions {
       this.maxNetworkRetries = Stripe.getMaxNetworkRetries();
       this.connectionProxy = Stripe.getConnectionProxy();
       this.proxyCredential = Stripe.getProxyCredential();
+      this.responseRetention = ResponseRetention.FULL;
+      this.cachePolicy = CachePolicy.USE;
     }
 
     public String getApiKey() {
@@ -249,6 +335,56 @@ public class RequestOptions {
       return this;
     }
 
+    public Executor getExecutor() {
+      return executor;
+    }
+
+    /**
+     * Sets the executor running asynchronous requests (e.g. {@link
+     * com.stripe.model.SPCharge#retrieveAsync(String, RequestOptions)}) and fan-out helpers. On Java
+     * 21 and later, passing {@code Executors.newVirtualThreadPerTaskExecutor()} runs each of them
+     * on its own virtual thread.
+     *
+     * @param executor the executor, or {@code null} to use the library's shared thread pool
+     */
+    public RequestOptionsBuilder setExecutor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public ResponseRetention getResponseRetention() {
+      return responseRetention;
+    }
+
+    /**
+     * Sets how much of the response is kept on the returned resources, and made available through
+     * {@link com.stripe.model.StripeObject#getLastResponse()}. Defaults to {@link
+     * ResponseRetention#FULL}; {@link ResponseRetention#HEADERS_ONLY} deserializes responses
+     * straight from the network stream instead.
+     *
+     * @param responseRetention the retention policy
+     */
+    public RequestOptionsBuilder setResponseRetention(ResponseRetention responseRetention) {
+      this.responseRetention =
+          (responseRetention != null) ? responseRetention : ResponseRetention.FULL;
+      return this;
+    }
+
+    public CachePolicy getCachePolicy() {
+      return cachePolicy;
+    }
+
+    /**
+     * Sets whether a {@link CachingStripeResponseGetter} may answer the request from its cache.
+     * Defaults to {@link CachePolicy#USE}.
+     *
+     * @param cachePolicy the cache policy
+     */
+    public RequestOptionsBuilder setCachePolicy(CachePolicy cachePolicy) {
+      this.cachePolicy = (cachePolicy != null) ? cachePolicy : CachePolicy.USE;
+      return this;
+    }
+
     public RequestOptionsBuilder clearIdempotencyKey() {
       this.idempotencyKey = null;
       return this;
@@ -308,7 +444,10 @@ public class RequestOptions {
           readTimeout,
           maxNetworkRetries,
           connectionProxy,
-          proxyCredential);
+          proxyCredential,
+          executor,
+          responseRetention,
+          cachePolicy);
     }
   }
 
@@ -376,6 +515,37 @@ public class RequestOptions {
     return normalized;
   }
 
+  /** How much of an API response is kept on the resources deserialized from it. */
+  public enum ResponseRetention {
+    /**
+     * Keep the status code, headers and raw body. The body is buffered into a string before being
+     * deserialized, and {@link com.stripe.model.StripeObject#getRawJsonObject()} is available.
+     * This is the default.
+     */
+    FULL,
+
+    /**
+     * Keep the status code and headers only. The body is deserialized straight from the network
+     * stream and is not retained.
+     */
+    HEADERS_ONLY,
+
+    /** Keep nothing: {@link com.stripe.model.StripeObject#getLastResponse()} returns null. */
+    NONE
+  }
+
+  /** How a {@link CachingStripeResponseGetter} treats a request. */
+  public enum CachePolicy {
+    /** Answer the request from the cache when possible, and cache the response. */
+    USE,
+
+    /** Send the request and leave the cache untouched. */
+    BYPASS,
+
+    /** Send the request, even if a cached response is fresh, and cache the response. */
+    REFRESH
+  }
+
   public static class InvalidRequestOptionsException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
@@ -6,6 +6,7 @@ import com.stripe.Stripe;
 import java.time.Duration;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.Data;
 
 /** Helper class used by {@link LiveStripeResponseGetter} to manage request telemetry. */
@@ -20,6 +21,9 @@ class RequestTelemetry {
   private static ConcurrentLinkedQueue<RequestMetrics> prevRequestMetrics =
       new ConcurrentLinkedQueue<RequestMetrics>();
 
+  /** The size of {@link #prevRequestMetrics}, whose own {@code size()} walks the whole queue. */
+  private static final AtomicInteger prevRequestMetricsSize = new AtomicInteger();
+
   /**
    * Returns an {@link Optional} containing the value of the {@code X-Stripe-Telemetry} header to
    * add to the request. If the header is already present in the request, or if there is available
@@ -36,6 +40,7 @@ class RequestTelemetry {
     if (requestMetrics == null) {
       return Optional.empty();
     }
+    prevRequestMetricsSize.decrementAndGet();
 
     if (!Stripe.enableTelemetry) {
       return Optional.empty();
@@ -61,7 +66,8 @@ class RequestTelemetry {
       return;
     }
 
-    if (prevRequestMetrics.size() >= MAX_REQUEST_METRICS_QUEUE_SIZE) {
+    if (prevRequestMetricsSize.incrementAndGet() > MAX_REQUEST_METRICS_QUEUE_SIZE) {
+      prevRequestMetricsSize.decrementAndGet();
       return;
     }
 
@@ -0,0 +1,295 @@
+package com.stripe.net;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reports the events of one request to a {@link RequestListener}. It travels with the {@link
+ * StripeRequest} so that the transports and the response getter can report the phases they see.
+ * The methods of {@link #NONE} do nothing, so that callers need not check whether a listener is
+ * set.
+ */
+@Slf4j
+final class RequestTrace {
+  /** The number of request body bytes between two {@link RequestEvent.Type#UPLOAD_PROGRESS}. */
+  static final int PROGRESS_INTERVAL = 64 * 1024;
+
+  /** The trace of requests without a listener. */
+  static final RequestTrace NONE = new RequestTrace(null, null, null);
+
+  private final RequestListener listener;
+  private final ApiResource.RequestMethod method;
+  private final String endpoint;
+  private final long start;
+
+  private long previous;
+  private int retries;
+  private int statusCode;
+  private long bytesSent;
+  private long bytesReceived;
+
+  /** The body bytes written in the current attempt, and the length of its body. */
+  private long uploadedBytes;
+
+  private long uploadLength;
+
+  /** Whether the transport reported the response headers of the current attempt. */
+  private boolean headersReported;
+
+  private boolean ended;
+
+  private RequestTrace(
+      RequestListener listener, ApiResource.RequestMethod method, String endpoint) {
+    this.listener = listener;
+    this.method = method;
+    this.endpoint = endpoint;
+    this.start = System.nanoTime();
+    this.previous = this.start;
+  }
+
+  /**
+   * Starts the trace of a request.
+   *
+   * @param listener the listener, possibly {@code null}
+   * @param request the request
+   * @return the trace, or {@link #NONE} if there is no listener
+   */
+  static RequestTrace start(RequestListener listener, StripeRequest request) {
+    if (listener == null) {
+      return NONE;
+    }
+    RequestTrace trace =
+        new RequestTrace(listener, request.method(), CircuitBreaker.circuitOf(request.url()));
+    trace.emit(RequestEvent.Type.START, null);
+    return trace;
+  }
+
+  void connectionAcquired() {
+    emit(RequestEvent.Type.CONNECTION_ACQUIRED, null);
+  }
+
+  /**
+   * Counts the bytes of a request body as they are written, reporting the progress of the upload
+   * every {@link #PROGRESS_INTERVAL} bytes.
+   *
+   * @param out the stream the body is written to
+   * @param length the length of the body, or -1 if it is unknown
+   * @return the stream to write the body to, which closes {@code out} when closed
+   */
+  OutputStream countUpload(OutputStream out, long length) {
+    if (this.listener == null) {
+      return out;
+    }
+    synchronized (this) {
+      this.uploadedBytes = 0;
+      this.uploadLength = length;
+    }
+    return new CountingOutputStream(out);
+  }
+
+  /** Reports the request as sent, with the body bytes counted by {@link #countUpload}. */
+  void requestSent() {
+    emit(RequestEvent.Type.REQUEST_SENT, null);
+  }
+
+  void responseHeaders(int code) {
+    if (this.listener == null) {
+      return;
+    }
+    synchronized (this) {
+      this.statusCode = code;
+      this.headersReported = true;
+    }
+    emit(RequestEvent.Type.RESPONSE_HEADERS, null);
+  }
+
+  /** Counts the bytes of a response body, reporting it as read at its end or when closed. */
+  InputStream countBody(InputStream body) {
+    if (this.listener == null || body == null) {
+      return body;
+    }
+    return new CountingInputStream(body);
+  }
+
+  /**
+   * Reports the response of an attempt, for transports that do not report their own phases. The
+   * length of a buffered body is counted in characters rather than bytes.
+   */
+  void attemptDone(AbstractStripeResponse<?> response) {
+    if (this.listener == null) {
+      return;
+    }
+    synchronized (this) {
+      if (this.headersReported) {
+        return;
+      }
+    }
+    responseHeaders(response.code());
+    if (response instanceof StripeResponse) {
+      synchronized (this) {
+        this.bytesReceived += ((StripeResponse) response).body().length();
+      }
+      emit(RequestEvent.Type.RESPONSE_BODY_READ, null);
+    }
+  }
+
+  void retry(Throwable error) {
+    if (this.listener == null) {
+      return;
+    }
+    emit(RequestEvent.Type.RETRY, error);
+    synchronized (this) {
+      this.retries++;
+      this.headersReported = false;
+      this.uploadedBytes = 0;
+      this.uploadLength = 0;
+    }
+  }
+
+  void deserialized() {
+    emit(RequestEvent.Type.DESERIALIZED, null);
+  }
+
+  void end(Throwable error) {
+    if (this.listener == null) {
+      return;
+    }
+    synchronized (this) {
+      if (this.ended) {
+        return;
+      }
+      this.ended = true;
+    }
+    emit(RequestEvent.Type.END, error);
+  }
+
+  private void emit(RequestEvent.Type type, Throwable error) {
+    if (this.listener == null) {
+      return;
+    }
+    RequestEvent event;
+    synchronized (this) {
+      long now = System.nanoTime();
+      event =
+          new RequestEvent(
+              type,
+              this.method,
+              this.endpoint,
+              this.retries,
+              this.statusCode,
+              now - this.start,
+              now - this.previous,
+              this.bytesSent,
+              this.bytesReceived,
+              this.uploadedBytes,
+              this.uploadLength,
+              error);
+      if (type != RequestEvent.Type.UPLOAD_PROGRESS) {
+        this.previous = now;
+      }
+    }
+    try {
+      this.listener.onEvent(event);
+    } catch (RuntimeException e) {
+      log.warn("request listener failed on {}", event, e);
+    }
+  }
+
+  /** A response body that reports how many bytes were read from it. */
+  private final class CountingInputStream extends FilterInputStream {
+    private boolean done;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b < 0) {
+        done();
+      } else {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n < 0) {
+        done();
+      } else {
+        count(n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        done();
+      }
+    }
+
+    private void count(long n) {
+      synchronized (RequestTrace.this) {
+        RequestTrace.this.bytesReceived += n;
+      }
+    }
+
+    private void done() {
+      if (this.done) {
+        return;
+      }
+      this.done = true;
+      emit(RequestEvent.Type.RESPONSE_BODY_READ, null);
+    }
+  }
+
+  /** A request body that reports how many bytes were written to it. */
+  private final class CountingOutputStream extends FilterOutputStream {
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.out.write(b);
+      count(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      this.out.write(b, off, len);
+      count(len);
+    }
+
+    private void count(long n) {
+      boolean progress;
+      synchronized (RequestTrace.this) {
+        long before = RequestTrace.this.uploadedBytes;
+        long after = before + n;
+        RequestTrace.this.uploadedBytes = after;
+        RequestTrace.this.bytesSent += n;
+        progress = (before / PROGRESS_INTERVAL) != (after / PROGRESS_INTERVAL);
+      }
+      if (progress) {
+        emit(RequestEvent.Type.UPLOAD_PROGRESS, null);
+      }
+    }
+  }
+}
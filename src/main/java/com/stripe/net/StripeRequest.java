@@ -7,14 +7,16 @@ import com.stripe.exception.StripeException;
 import com.stripe.util.StringUtils;
 import java.io.IOException;
 import java.net.URL;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.Value;
 import lombok.experimental.Accessors;
 
@@ -26,6 +28,16 @@ import static com.stripe.net.ApiResource.RequestMethod.PUT;
 @AllArgsConstructor(access = AccessLevel.PROTECTED)
 @Accessors(fluent = true)
 public class StripeRequest {
+  /** The maximum number of credentials whose headers are kept for reuse. */
+  private static final int MAX_HEADER_TEMPLATES = 16;
+
+  /**
+   * The headers built for the credentials used most recently, so that a process alternating
+   * between a few keys or accounts keeps reusing them.
+   */
+  private static final LruCache<HeaderTemplateKey, HttpHeaders> headerTemplates =
+      new LruCache<>(MAX_HEADER_TEMPLATES);
+
   /** The HTTP method for the request (GET, POST or DELETE). */
   ApiResource.RequestMethod method;
 
@@ -54,6 +66,9 @@ public class StripeRequest {
   /** The special modifiers of the request. */
   RequestOptions options;
 
+  /** Reports the phases of the request to the listener of the HTTP client, if any. */
+  @EqualsAndHashCode.Exclude @ToString.Exclude RequestTrace trace;
+
   /**
    * Initializes a new instance of the {@link StripeRequest} class.
    *
@@ -70,12 +85,13 @@ public class StripeRequest {
       RequestOptions options)
       throws StripeException {
     try {
-      this.params = (params != null) ? Collections.unmodifiableMap(params) : null;
+      this.params = (params == null) ? null : Collections.unmodifiableMap(params);
       this.options = (options != null) ? options : RequestOptions.getDefault();
       this.method = method;
       this.url = buildURL(method, url, params);
       this.content = buildContent(method, params);
       this.headers = buildHeaders(method, this.options);
+      this.trace = RequestTrace.NONE;
     } catch (IOException e) {
       throw new ApiConnectionException(
           String.format(
@@ -102,7 +118,19 @@ public class StripeRequest {
         this.content,
         this.headers.withAdditionalHeader(name, value),
         this.params,
-        this.options);
+        this.options,
+        this.trace);
+  }
+
+  /** Returns the trace reporting the phases of the request. */
+  RequestTrace trace() {
+    return this.trace;
+  }
+
+  /** Returns a new {@link StripeRequest} instance reporting its phases to the given trace. */
+  StripeRequest withTrace(RequestTrace trace) {
+    return new StripeRequest(
+        this.method, this.url, this.content, this.headers, this.params, this.options, trace);
   }
 
   private static URL buildURL(
@@ -116,7 +144,11 @@ public class StripeRequest {
     String specQueryString = specUrl.getQuery();
 
     if ((method != POST) && (params != null)) {
-      String queryString = FormEncoder.createQueryString(params);
+      ApiRequestParams typedParams = ApiRequestParamsMap.unreadParams(params);
+      String queryString =
+          (typedParams != null)
+              ? ApiRequestParamsWriter.createQueryString(typedParams)
+              : FormEncoder.createQueryString(params);
 
       if (queryString != null && !queryString.isEmpty()) {
         if (specQueryString != null && !specQueryString.isEmpty()) {
@@ -137,21 +169,65 @@ public class StripeRequest {
       return null;
     }
 
+    ApiRequestParams typedParams = ApiRequestParamsMap.unreadParams(params);
+
+    // Files are uploaded in a multipart body, streamed from disk as the request is sent.
+    if (FormEncoder.containsFiles((typedParams != null) ? typedParams : params)) {
+      return FormEncoder.createHttpContent(params);
+    }
+
+    // Typed params are written directly, without building their untyped map.
+    if (typedParams != null) {
+      return ApiRequestParamsWriter.createJsonContent(typedParams);
+    }
+
     return JsonEncoder.createHttpContent(params);
   }
 
   private static HttpHeaders buildHeaders(ApiResource.RequestMethod method, RequestOptions options)
       throws AuthenticationException {
+    HttpHeaders headers = credentialHeaders(options);
+
+    // Idempotency-Key
+    if (options.getIdempotencyKey() != null) {
+      return headers.withAdditionalHeader("Idempotency-Key", options.getIdempotencyKey());
+    } else if (method == POST) {
+      return headers.withAdditionalHeader("Idempotency-Key", UUID.randomUUID().toString());
+    }
+    return headers;
+  }
+
+  /**
+   * Returns the headers that only depend on the credentials and version of the request. They are
+   * built once and shared by the requests made with the same credentials, among the last {@link
+   * #MAX_HEADER_TEMPLATES} used.
+   */
+  private static HttpHeaders credentialHeaders(RequestOptions options)
+      throws AuthenticationException {
+    String version =
+        (options.getSeamlessPayVersionOverride() != null)
+            ? options.getSeamlessPayVersionOverride()
+            : options.getSeamlessPayVersion();
+    HeaderTemplateKey key =
+        new HeaderTemplateKey(options.getApiKey(), version, options.getSeamlessPayAccount());
+    return headerTemplates.get(key, StripeRequest::buildCredentialHeaders);
+  }
+
+  private static HttpHeaders buildCredentialHeaders(HeaderTemplateKey key)
+      throws AuthenticationException {
+    String apiKey = key.apiKey;
+    String version = key.version;
+    String account = key.account;
+
     Map<String, List<String>> headerMap = new HashMap<String, List<String>>();
 
     // Accept
-    headerMap.put("Accept", Arrays.asList("application/json"));
+    headerMap.put("Accept", Collections.singletonList("application/json"));
 
     // Accept-Charset
-    headerMap.put("Accept-Charset", Arrays.asList(ApiResource.CHARSET.name()));
+    headerMap.put("Accept-Charset", Collections.singletonList(ApiResource.CHARSET.name()));
 
     // Authorization
-    String apiKey = options.getApiKey();
     if (apiKey == null || apiKey.isEmpty()) {
       throw new AuthenticationException(
           "No API key provided. Set your API key using `SPAPI.apiKey = \"<API-KEY>\"`. You can "
@@ -167,30 +243,49 @@ public class StripeRequest {
           null,
           0);
     }
-    headerMap.put("Authorization", Arrays.asList(String.format("Bearer %s", apiKey)));
+    headerMap.put("Authorization", Collections.singletonList("Bearer " + apiKey));
 
     // Stripe-Version
-    if (options.getSeamlessPayVersionOverride() != null) {
-      headerMap.put("API-Version", Arrays.asList(options.getSeamlessPayVersionOverride()));
-    } else if (options.getSeamlessPayVersion() != null) {
-      headerMap.put("API-Version", Arrays.asList(options.getSeamlessPayVersion()));
-    } else {
+    if (version == null) {
       throw new IllegalStateException(
           "Either `SeamlessPayVersion` or `SeamlessPayVersionOverride` value must be set.");
     }
+    headerMap.put("API-Version", Collections.singletonList(version));
 
     // Stripe-Account
-    if (options.getSeamlessPayAccount() != null) {
-      headerMap.put("SeamlessPay-Account", Arrays.asList(options.getSeamlessPayAccount()));
+    if (account != null) {
+      headerMap.put("SeamlessPay-Account", Collections.singletonList(account));
     }
 
-    // Idempotency-Key
-    if (options.getIdempotencyKey() != null) {
-      headerMap.put("Idempotency-Key", Arrays.asList(options.getIdempotencyKey()));
-    } else if (method == POST) {
-      headerMap.put("Idempotency-Key", Arrays.asList(UUID.randomUUID().toString()));
+    return HttpHeaders.of(headerMap);
+  }
+
+  /** The credentials and version that the headers of a template are built from. */
+  private static final class HeaderTemplateKey {
+    private final String apiKey;
+    private final String version;
+    private final String account;
+
+    HeaderTemplateKey(String apiKey, String version, String account) {
+      this.apiKey = apiKey;
+      this.version = version;
+      this.account = account;
     }
 
-    return HttpHeaders.of(headerMap);
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof HeaderTemplateKey)) {
+        return false;
+      }
+      HeaderTemplateKey other = (HeaderTemplateKey) o;
+      return Objects.equals(this.apiKey, other.apiKey)
+          && Objects.equals(this.version, other.version)
+          && Objects.equals(this.account, other.account);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.apiKey, this.version, this.account);
+    }
   }
 }
@@ -4,6 +4,8 @@ import com.stripe.exception.StripeException;
 import com.stripe.model.StripeObjectInterface;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 public interface StripeResponseGetter {
   <T extends StripeObjectInterface> T request(
@@ -14,6 +16,39 @@ public interface StripeResponseGetter {
       RequestOptions options)
       throws StripeException;
 
+  /**
+   * Sends a request without blocking the calling thread.
+   *
+   * <p>By default, {@link #request} is called on the executor of the request options (see {@link
+   * RequestOptions#getExecutor()}), or else on the library's shared thread pool. Implementations
+   * that can send requests without holding a thread should override this method.
+   *
+   * @return a future completed with the deserialized resource, or completed exceptionally with a
+   *     {@link StripeException} if the request fails for any reason
+   */
+  default <T extends StripeObjectInterface> CompletableFuture<T> requestAsync(
+      ApiResource.RequestMethod method,
+      String url,
+      Map<String, Object> params,
+      Class<T> clazz,
+      RequestOptions options) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      HttpClient.executorFor(options)
+          .execute(
+              () -> {
+                try {
+                  future.complete(request(method, url, params, clazz, options));
+                } catch (Throwable e) {
+                  future.completeExceptionally(e);
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
   <T extends StripeObjectInterface> T oauthRequest(
       ApiResource.RequestMethod method,
       String url,
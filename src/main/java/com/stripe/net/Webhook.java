@@ -2,22 +2,23 @@ package com.stripe.net;
 
 import com.stripe.exception.SignatureVerificationException;
 import com.stripe.model.Event;
-import com.stripe.util.StringUtils;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.List;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
 public final class Webhook {
-  private static final long DEFAULT_TOLERANCE = 300;
+  static final long DEFAULT_TOLERANCE = 300;
 
   /**
-   * Returns an Event instance using the provided JSON payload. Throws a JsonSyntaxException if the
-   * payload is not valid JSON, and a SignatureVerificationException if the signature verification
-   * fails for any reason.
+   * Returns an Event instance using the provided JSON payload. Throws a
+   * SignatureVerificationException if the signature verification fails for any reason, and a
+   * JsonSyntaxException if the payload is correctly signed but is not valid JSON.
+   *
+   * <p>To verify many payloads, or to accept several secrets during a secret rotation, prefer a
+   * shared {@link WebhookVerifier}.
    *
    * @param payload the payload sent by Stripe.
    * @param sigHeader the contents of the signature header sent by Stripe.
@@ -31,9 +32,9 @@ public final class Webhook {
   }
 
   /**
-   * Returns an Event instance using the provided JSON payload. Throws a JsonSyntaxException if the
-   * payload is not valid JSON, and a SignatureVerificationException if the signature verification
-   * fails for any reason.
+   * Returns an Event instance using the provided JSON payload. Throws a
+   * SignatureVerificationException if the signature verification fails for any reason, and a
+   * JsonSyntaxException if the payload is correctly signed but is not valid JSON.
    *
    * @param payload the payload sent by Stripe.
    * @param sigHeader the contents of the signature header sent by Stripe.
@@ -46,9 +47,9 @@ public final class Webhook {
   public static Event constructEvent(
       String payload, String sigHeader, String secret, long tolerance)
       throws SignatureVerificationException {
-    Event event = ApiResource.GSON.fromJson(payload, Event.class);
+    // Verify first, so that forged payloads are rejected without being parsed.
     Signature.verifyHeader(payload, sigHeader, secret, tolerance);
-    return event;
+    return ApiResource.GSON.fromJson(payload, Event.class);
   }
 
   public static final class Signature {
@@ -68,105 +69,29 @@ public final class Webhook {
     public static boolean verifyHeader(
         String payload, String sigHeader, String secret, long tolerance)
         throws SignatureVerificationException {
-      // Get timestamp and signatures from header
-      long timestamp = getTimestamp(sigHeader);
-      List<String> signatures = getSignatures(sigHeader, EXPECTED_SCHEME);
-      if (timestamp <= 0) {
-        throw new SignatureVerificationException(
-            "Unable to extract timestamp and signatures from header", sigHeader);
-      }
-      if (signatures.size() == 0) {
-        throw new SignatureVerificationException(
-            "No signatures found with expected scheme", sigHeader);
-      }
-
-      // Compute expected signature
-      String signedPayload = String.format("%d.%s", timestamp, payload);
-      String expectedSignature;
+      Mac mac;
       try {
-        expectedSignature = computeSignature(signedPayload, secret);
+        mac = Util.hmacSha256(secret);
       } catch (Exception e) {
         throw new SignatureVerificationException(
             "Unable to compute signature for payload", sigHeader);
       }
 
-      // Check if expected signature is found in list of header's signatures
-      boolean signatureFound = false;
-      for (String signature : signatures) {
-        if (StringUtils.secureCompare(expectedSignature, signature)) {
-          signatureFound = true;
-          break;
-        }
-      }
-      if (!signatureFound) {
-        throw new SignatureVerificationException(
-            "No signatures found matching the expected signature for payload", sigHeader);
-      }
-
-      // Check tolerance
-      if ((tolerance > 0) && (timestamp < (Util.getTimeNow() - tolerance))) {
-        throw new SignatureVerificationException("Timestamp outside the tolerance zone", sigHeader);
-      }
-
+      WebhookVerifier.verify(
+          ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)),
+          sigHeader,
+          new Mac[] {mac},
+          tolerance);
       return true;
     }
-
-    /**
-     * Extracts the timestamp in a signature header.
-     *
-     * @param sigHeader the signature header
-     * @return the timestamp contained in the header.
-     */
-    private static long getTimestamp(String sigHeader) {
-      String[] items = sigHeader.split(",", -1);
-
-      for (String item : items) {
-        String[] itemParts = item.split("=", 2);
-        if (itemParts[0].equals("t")) {
-          return Long.parseLong(itemParts[1]);
-        }
-      }
-
-      return -1;
-    }
-
-    /**
-     * Extracts the signatures matching a given scheme in a signature header.
-     *
-     * @param sigHeader the signature header
-     * @param scheme the signature scheme to look for.
-     * @return the list of signatures matching the provided scheme.
-     */
-    private static List<String> getSignatures(String sigHeader, String scheme) {
-      List<String> signatures = new ArrayList<String>();
-      String[] items = sigHeader.split(",", -1);
-
-      for (String item : items) {
-        String[] itemParts = item.split("=", 2);
-        if (itemParts[0].equals(scheme)) {
-          signatures.add(itemParts[1]);
-        }
-      }
-
-      return signatures;
-    }
-
-    /**
-     * Computes the signature for a given payload and secret.
-     *
-     * <p>The current scheme used by Stripe ("v1") is HMAC/SHA-256.
-     *
-     * @param payload the payload to sign.
-     * @param secret the secret used to generate the signature.
-     * @return the signature as a string.
-     */
-    private static String computeSignature(String payload, String secret)
-        throws NoSuchAlgorithmException, InvalidKeyException {
-      return Util.computeHmacSha256(secret, payload);
-    }
   }
 
   public static final class Util {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Mac> HMAC_SHA256 =
+        ThreadLocal.withInitial(WebhookVerifier::newHmacSha256);
+
     /**
      * Computes the HMAC/SHA-256 code for a given key and message.
      *
@@ -176,14 +101,23 @@ public final class Webhook {
      */
     public static String computeHmacSha256(String key, String message)
         throws NoSuchAlgorithmException, InvalidKeyException {
-      Mac hasher = Mac.getInstance("HmacSHA256");
-      hasher.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
-      byte[] hash = hasher.doFinal(message.getBytes(StandardCharsets.UTF_8));
-      String result = "";
-      for (byte b : hash) {
-        result += Integer.toString((b & 0xff) + 0x100, 16).substring(1);
+      byte[] hash = hmacSha256(key).doFinal(message.getBytes(StandardCharsets.UTF_8));
+      char[] result = new char[hash.length * 2];
+      for (int i = 0; i < hash.length; i++) {
+        result[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+        result[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
       }
-      return result;
+      return new String(result);
+    }
+
+    /**
+     * Returns this thread's HMAC/SHA-256 {@link Mac}, initialized with the given key. Creating a
+     * {@link Mac} is much more expensive than initializing one, so instances are reused.
+     */
+    static Mac hmacSha256(String key) throws InvalidKeyException {
+      Mac mac = HMAC_SHA256.get();
+      mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+      return mac;
     }
 
     /**
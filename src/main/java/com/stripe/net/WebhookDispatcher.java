@@ -0,0 +1,444 @@
+package com.stripe.net;
+
+import com.stripe.exception.EventDataObjectDeserializationException;
+import com.stripe.model.EventEnvelope;
+import com.stripe.model.StripeObject;
+import com.stripe.util.Stopwatch;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatches webhook events to the handlers registered for their type, running them in parallel
+ * on an executor while keeping the events of each object in order.
+ *
+ * <p>Events are keyed by the {@code id} of their data object. The handlers of events with the same
+ * key run one event at a time, in the order the events were dispatched, so that updates to a given
+ * charge or subscription are never reordered. Events with different keys run concurrently.
+ *
+ * <p>At most {@link Builder#setMaxPendingEvents(int) maxPendingEvents} events are queued or
+ * running at once. Beyond that, {@link #dispatch(EventEnvelope)} blocks and {@link
+ * #tryDispatch(EventEnvelope)} declines the event, so that a slow handler pushes back on the
+ * webhook endpoint instead of buffering events without bound.
+ *
+ * <p>Unless {@link Builder#setExecutor(Executor) an executor} is given, handlers run on a pool of
+ * at most {@link Builder#setMaxConcurrentEvents(int) maxConcurrentEvents} daemon threads of the
+ * dispatcher's own, which exit once idle.
+ *
+ * <p>With an {@link EventDeduplicator}, events that have already been dispatched are skipped, and
+ * events whose handlers fail are forgotten so that they are handled again when redelivered.
+ *
+ * <pre>
+ *   WebhookDispatcher dispatcher =
+ *       WebhookDispatcher.builder()
+ *           .addHandler("charge.succeeded", Charge.class, (event, charge) -&gt; fulfill(charge))
+ *           .addHandler("customer.deleted", event -&gt; forget(event.getDataObjectId()))
+ *           .build();
+ *   dispatcher.dispatch(verifier.constructEventEnvelope(payload, sigHeader));
+ * </pre>
+ */
+public final class WebhookDispatcher {
+  /** Handles an event, given its envelope. */
+  @FunctionalInterface
+  public interface EventHandler {
+    /**
+     * Handles an event.
+     *
+     * @param event the event envelope
+     */
+    void handle(EventEnvelope event) throws Exception;
+  }
+
+  /**
+   * Handles an event, given its envelope and its data object.
+   *
+   * @param <T> the type of the data object
+   */
+  @FunctionalInterface
+  public interface ObjectHandler<T extends StripeObject> {
+    /**
+     * Handles an event.
+     *
+     * @param event the event envelope
+     * @param object the event's data object
+     */
+    void handle(EventEnvelope event, T object) throws Exception;
+  }
+
+  private final Map<String, List<RegisteredHandler>> handlers;
+  private final List<HandlerMetrics> metrics;
+  private final Executor executor;
+  private final Semaphore permits;
+  private final int maxPendingEvents;
+  private final EventDeduplicator deduplicator;
+
+  /** Completed once the last event queued for each key is done; the next one runs after it. */
+  private final ConcurrentHashMap<String, CompletableFuture<Void>> tails =
+      new ConcurrentHashMap<>();
+
+  private WebhookDispatcher(Builder builder) {
+    this.handlers = new HashMap<>();
+    List<HandlerMetrics> metrics = new ArrayList<>();
+    for (RegisteredHandler handler : builder.handlers) {
+      this.handlers.computeIfAbsent(handler.metrics.eventType, k -> new ArrayList<>()).add(handler);
+      metrics.add(handler.metrics);
+    }
+    this.metrics = Collections.unmodifiableList(metrics);
+    this.executor =
+        (builder.executor != null)
+            ? builder.executor
+            : defaultExecutor(builder.maxConcurrentEvents);
+    this.maxPendingEvents = builder.maxPendingEvents;
+    this.permits = new Semaphore(builder.maxPendingEvents);
+    this.deduplicator = builder.deduplicator;
+  }
+
+  /** Returns a builder for a new dispatcher. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Dispatches an event to its handlers, waiting for room in the queue if it is full.
+   *
+   * @param event the event envelope
+   * @return a future completed once all handlers of the event have run, exceptionally with the
+   *     first exception thrown by a handler if any, or right away if the event is a duplicate
+   * @throws InterruptedException if the thread is interrupted while waiting for room in the queue
+   */
+  public CompletableFuture<Void> dispatch(EventEnvelope event) throws InterruptedException {
+    List<RegisteredHandler> eventHandlers = this.handlers.get(event.getType());
+    if (eventHandlers == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    this.permits.acquire();
+    return enqueue(event, eventHandlers);
+  }
+
+  /**
+   * Dispatches an event to its handlers if there is room in the queue.
+   *
+   * @param event the event envelope
+   * @return a future completed once all handlers of the event have run, or an empty optional if
+   *     the queue is full
+   */
+  public Optional<CompletableFuture<Void>> tryDispatch(EventEnvelope event) {
+    List<RegisteredHandler> eventHandlers = this.handlers.get(event.getType());
+    if (eventHandlers == null) {
+      return Optional.of(CompletableFuture.completedFuture(null));
+    }
+    if (!this.permits.tryAcquire()) {
+      return Optional.empty();
+    }
+    return Optional.of(enqueue(event, eventHandlers));
+  }
+
+  /** Returns the number of events that are queued or running. */
+  public int getPendingEvents() {
+    return this.maxPendingEvents - this.permits.availablePermits();
+  }
+
+  /** Returns the metrics of each registered handler, in registration order. */
+  public List<HandlerMetrics> getHandlerMetrics() {
+    return this.metrics;
+  }
+
+  private CompletableFuture<Void> enqueue(EventEnvelope event, List<RegisteredHandler> handlers) {
+    String eventId = event.getId();
+    if (this.deduplicator != null && eventId != null && !this.deduplicator.markSeen(eventId)) {
+      this.permits.release();
+      return CompletableFuture.completedFuture(null);
+    }
+
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    String key;
+    try {
+      key = orderingKey(event);
+    } catch (RuntimeException e) {
+      fail(eventId, result, e);
+      return result;
+    }
+
+    Runnable task =
+        () -> {
+          Throwable failure = runHandlers(event, handlers);
+          if (failure != null) {
+            fail(eventId, result, failure);
+          } else {
+            // Make room for another event before notifying the caller.
+            this.permits.release();
+            result.complete(null);
+          }
+        };
+
+    // Each event runs once the previous event with the same key is done, successfully or not.
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    CompletableFuture<Void> previous = this.tails.put(key, done);
+    CompletableFuture<Void> ready =
+        (previous != null) ? previous : CompletableFuture.completedFuture(null);
+    ready
+        .thenRunAsync(task, this.executor)
+        .whenComplete(
+            (ignored, error) -> {
+              this.tails.remove(key, done);
+              if (error != null && !result.isDone()) {
+                // The executor rejected the task, which will never run.
+                fail(eventId, result, HttpClient.unwrapCompletionException(error));
+              }
+              done.complete(null);
+            });
+    return result;
+  }
+
+  /** Completes an event that could not be handled, so that it is handled when redelivered. */
+  private void fail(String eventId, CompletableFuture<Void> result, Throwable failure) {
+    if (this.deduplicator != null && eventId != null) {
+      this.deduplicator.forget(eventId);
+    }
+    this.permits.release();
+    result.completeExceptionally(failure);
+  }
+
+  /**
+   * Returns a pool of daemon threads running the handlers of at most {@code maxConcurrentEvents}
+   * events at once. Its queue is bounded by the maximum number of pending events.
+   */
+  private static Executor defaultExecutor(int maxConcurrentEvents) {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            maxConcurrentEvents,
+            maxConcurrentEvents,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            HttpClient.daemonThreadFactory("stripe-webhook-"));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /** Events about the same object are kept in order; events without an object are not ordered. */
+  private static String orderingKey(EventEnvelope event) {
+    String objectId = event.getDataObjectId();
+    if (objectId != null) {
+      return objectId;
+    }
+    return (event.getId() != null) ? event.getId() : "";
+  }
+
+  /** Runs all handlers of an event, and returns the first exception thrown by them if any. */
+  private static Throwable runHandlers(EventEnvelope event, List<RegisteredHandler> handlers) {
+    Throwable failure = null;
+    for (RegisteredHandler handler : handlers) {
+      Stopwatch stopwatch = Stopwatch.startNew();
+      try {
+        handler.handle(event);
+        handler.metrics.record(stopwatch, false);
+      } catch (Throwable e) {
+        handler.metrics.record(stopwatch, true);
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    return failure;
+  }
+
+  private static final class RegisteredHandler {
+    final EventHandler handler;
+    final HandlerMetrics metrics;
+
+    RegisteredHandler(String eventType, EventHandler handler) {
+      this.handler = handler;
+      this.metrics = new HandlerMetrics(eventType);
+    }
+
+    void handle(EventEnvelope event) throws Exception {
+      this.handler.handle(event);
+    }
+  }
+
+  /** Invocation counts and latencies of a handler. */
+  public static final class HandlerMetrics {
+    private final String eventType;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    HandlerMetrics(String eventType) {
+      this.eventType = eventType;
+    }
+
+    void record(Stopwatch stopwatch, boolean failed) {
+      stopwatch.stop();
+      long nanos = stopwatch.getElapsed().toNanos();
+      this.invocations.increment();
+      if (failed) {
+        this.failures.increment();
+      }
+      this.totalNanos.add(nanos);
+      this.maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /** Returns the event type the handler is registered for. */
+    public String getEventType() {
+      return this.eventType;
+    }
+
+    /** Returns the number of events the handler has handled, including failures. */
+    public long getInvocations() {
+      return this.invocations.sum();
+    }
+
+    /** Returns the number of events for which the handler has thrown an exception. */
+    public long getFailures() {
+      return this.failures.sum();
+    }
+
+    /** Returns the total time spent in the handler. */
+    public Duration getTotalLatency() {
+      return Duration.ofNanos(this.totalNanos.sum());
+    }
+
+    /** Returns the average time spent in the handler per event, or zero if it has not run. */
+    public Duration getAverageLatency() {
+      long invocations = this.invocations.sum();
+      return (invocations == 0)
+          ? Duration.ZERO
+          : Duration.ofNanos(this.totalNanos.sum() / invocations);
+    }
+
+    /** Returns the longest time spent in the handler for one event. */
+    public Duration getMaxLatency() {
+      return Duration.ofNanos(this.maxNanos.get());
+    }
+  }
+
+  /** Builder for {@link WebhookDispatcher} instances. */
+  public static final class Builder {
+    private final List<RegisteredHandler> handlers = new ArrayList<>();
+    private Executor executor;
+    private int maxPendingEvents = 1000;
+    private int maxConcurrentEvents = 16;
+    private EventDeduplicator deduplicator;
+
+    private Builder() {}
+
+    /**
+     * Registers a handler for events of a type. Handlers of the same type run in registration
+     * order.
+     *
+     * @param eventType the event type, e.g. {@code charge.succeeded}
+     * @param handler the handler
+     */
+    public Builder addHandler(String eventType, EventHandler handler) {
+      if (eventType == null || handler == null) {
+        throw new IllegalArgumentException("eventType and handler must not be null");
+      }
+      this.handlers.add(new RegisteredHandler(eventType, handler));
+      return this;
+    }
+
+    /**
+     * Registers a handler for events of a type, which is given the event's data object. The data
+     * object is deserialized with {@link EventEnvelope#getDataObject()}, and the handler fails
+     * with an {@link EventDataObjectDeserializationException} if that is not safe, e.g. because
+     * the event was rendered at another API version.
+     *
+     * @param eventType the event type, e.g. {@code charge.succeeded}
+     * @param objectClass the class of the event's data object
+     * @param handler the handler
+     */
+    public <T extends StripeObject> Builder addHandler(
+        String eventType, Class<T> objectClass, ObjectHandler<T> handler) {
+      if (objectClass == null || handler == null) {
+        throw new IllegalArgumentException("objectClass and handler must not be null");
+      }
+      return addHandler(
+          eventType,
+          event -> {
+            StripeObject object =
+                event
+                    .getDataObject()
+                    .orElseThrow(
+                        () ->
+                            new EventDataObjectDeserializationException(
+                                String.format(
+                                    "Unable to safely deserialize the data object of event %s "
+                                        + "with API version %s",
+                                    event.getId(), event.getApiVersion()),
+                                event.getRawDataObject()));
+            handler.handle(event, objectClass.cast(object));
+          });
+    }
+
+    /**
+     * Sets the executor to run handlers on. Defaults to a pool of daemon threads of the
+     * dispatcher's own, of {@link #setMaxConcurrentEvents(int) maxConcurrentEvents} threads.
+     *
+     * @param executor the executor
+     */
+    public Builder setExecutor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of events that can be queued or running at once. Defaults to 1000.
+     *
+     * @param maxPendingEvents the maximum number of pending events
+     */
+    public Builder setMaxPendingEvents(int maxPendingEvents) {
+      if (maxPendingEvents <= 0) {
+        throw new IllegalArgumentException("maxPendingEvents must be positive");
+      }
+      this.maxPendingEvents = maxPendingEvents;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of events whose handlers run at once on the default executor.
+     * Defaults to 16. Ignored if an executor is {@link #setExecutor(Executor) set}.
+     *
+     * @param maxConcurrentEvents the maximum number of events handled at once
+     */
+    public Builder setMaxConcurrentEvents(int maxConcurrentEvents) {
+      if (maxConcurrentEvents <= 0) {
+        throw new IllegalArgumentException("maxConcurrentEvents must be positive");
+      }
+      this.maxConcurrentEvents = maxConcurrentEvents;
+      return this;
+    }
+
+    /**
+     * Sets the deduplicator used to skip events that have already been dispatched. It can be
+     * shared with other consumers of events, e.g. a backfill from {@code Event.list}.
+     *
+     * @param deduplicator the deduplicator
+     */
+    public Builder setDeduplicator(EventDeduplicator deduplicator) {
+      this.deduplicator = deduplicator;
+      return this;
+    }
+
+    /** Builds the dispatcher. */
+    public WebhookDispatcher build() {
+      return new WebhookDispatcher(this);
+    }
+  }
+}
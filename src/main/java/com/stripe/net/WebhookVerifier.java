@@ -0,0 +1,370 @@
+package com.stripe.net;
+
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.model.Event;
+import com.stripe.model.EventEnvelope;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies the signature of webhook payloads against a set of endpoint secrets, and parses them
+ * into events only once their signature has been verified, so that forged or replayed payloads are
+ * rejected before any parsing.
+ *
+ * <p>Build a verifier once and share it between threads: each thread reuses its own {@link Mac}
+ * instances, already initialized with the secrets. While rolling an endpoint secret, add both the
+ * old and the new secret, and payloads signed with either of them are accepted.
+ *
+ * <pre>{@code
+ * WebhookVerifier verifier =
+ *     WebhookVerifier.builder().addSecret(oldSecret).addSecret(newSecret).build();
+ * Event event = verifier.constructEvent(payloadBytes, sigHeader);
+ * }</pre>
+ */
+public final class WebhookVerifier {
+  private static final String HMAC_SHA256 = "HmacSHA256";
+
+  private final List<SecretKeySpec> keys;
+  private final long tolerance;
+
+  /** Per-thread {@link Mac} instances, one for each secret. */
+  private final ThreadLocal<Mac[]> macs = ThreadLocal.withInitial(this::initMacs);
+
+  private WebhookVerifier(List<SecretKeySpec> keys, long tolerance) {
+    this.keys = keys;
+    this.tolerance = tolerance;
+  }
+
+  /** Returns a builder for a new verifier. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Returns the maximum age of a payload's timestamp, in seconds, or 0 if it is not checked. */
+  public long getTolerance() {
+    return this.tolerance;
+  }
+
+  /**
+   * Verifies the signature of a payload.
+   *
+   * @param payload the payload sent by Stripe
+   * @param sigHeader the contents of the signature header sent by Stripe
+   * @throws SignatureVerificationException if the verification fails
+   */
+  public void verify(byte[] payload, String sigHeader) throws SignatureVerificationException {
+    verify(ByteBuffer.wrap(payload), sigHeader, this.macs.get(), this.tolerance);
+  }
+
+  /**
+   * Verifies the signature of a payload. The position of the buffer is left unchanged.
+   *
+   * @param payload the payload sent by Stripe, between the buffer's position and its limit
+   * @param sigHeader the contents of the signature header sent by Stripe
+   * @throws SignatureVerificationException if the verification fails
+   */
+  public void verify(ByteBuffer payload, String sigHeader) throws SignatureVerificationException {
+    verify(payload, sigHeader, this.macs.get(), this.tolerance);
+  }
+
+  /**
+   * Verifies the signature of a payload.
+   *
+   * @param payload the payload sent by Stripe
+   * @param sigHeader the contents of the signature header sent by Stripe
+   * @throws SignatureVerificationException if the verification fails
+   */
+  public void verify(String payload, String sigHeader) throws SignatureVerificationException {
+    verify(payload.getBytes(StandardCharsets.UTF_8), sigHeader);
+  }
+
+  /**
+   * Verifies the signature of a payload, then parses it into an event. Throws a JsonSyntaxException
+   * if the payload is correctly signed but is not valid JSON.
+   *
+   * @param payload the payload sent by Stripe
+   * @param sigHeader the contents of the signature header sent by Stripe
+   * @return the Event instance
+   * @throws SignatureVerificationException if the verification fails
+   */
+  public Event constructEvent(byte[] payload, String sigHeader)
+      throws SignatureVerificationException {
+    verify(payload, sigHeader);
+    return parseEvent(payload, 0, payload.length);
+  }
+
+  /**
+   * Verifies the signature of a payload, then parses it into an event. Throws a JsonSyntaxException
+   * if the payload is correctly signed but is not valid JSON. The position of the buffer is left
+   * unchanged.
+   *
+   * @param payload the payload sent by Stripe, between the buffer's position and its limit
+   * @param sigHeader the contents of the signature header sent by Stripe
+   * @return the Event instance
+   * @throws SignatureVerificationException if the verification fails
+   */
+  public Event constructEvent(ByteBuffer payload, String sigHeader)
+      throws SignatureVerificationException {
+    verify(payload, sigHeader);
+    if (payload.hasArray()) {
+      return parseEvent(
+          payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+    }
+    byte[] bytes = new byte[payload.remaining()];
+    payload.duplicate().get(bytes);
+    return parseEvent(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Verifies the signature of a payload, then parses it into an event. Throws a JsonSyntaxException
+   * if the payload is correctly signed but is not valid JSON.
+   *
+   * @param payload the payload sent by Stripe
+   * @param sigHeader the contents of the signature header sent by Stripe
+   * @return the Event instance
+   * @throws SignatureVerificationException if the verification fails
+   */
+  public Event constructEvent(String payload, String sigHeader)
+      throws SignatureVerificationException {
+    verify(payload, sigHeader);
+    return ApiResource.GSON.fromJson(payload, Event.class);
+  }
+
+  /**
+   * Verifies the signature of a payload, then reads only its envelope, leaving the event's data
+   * object unparsed until it is asked for. Throws a JsonSyntaxException if the payload is correctly
+   * signed but its envelope is not valid JSON.
+   *
+   * @param payload the payload sent by Stripe
+   * @param sigHeader the contents of the signature header sent by Stripe
+   * @return the event envelope
+   * @throws SignatureVerificationException if the verification fails
+   */
+  public EventEnvelope constructEventEnvelope(byte[] payload, String sigHeader)
+      throws SignatureVerificationException {
+    verify(payload, sigHeader);
+    return EventEnvelope.parse(payload);
+  }
+
+  /**
+   * Reads a payload to the end, verifies its signature, then parses it into an event. The stream
+   * is not closed. Throws a JsonSyntaxException if the payload is correctly signed but is not valid
+   * JSON.
+   *
+   * @param payload the payload sent by Stripe
+   * @param sigHeader the contents of the signature header sent by Stripe
+   * @return the Event instance
+   * @throws SignatureVerificationException if the verification fails
+   * @throws IOException if the payload cannot be read
+   */
+  public Event constructEvent(InputStream payload, String sigHeader)
+      throws SignatureVerificationException, IOException {
+    // The payload has to be buffered anyway, since it is only parsed once it has been verified.
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    int read;
+    while ((read = payload.read(chunk)) != -1) {
+      buffer.write(chunk, 0, read);
+    }
+    return constructEvent(buffer.toByteArray(), sigHeader);
+  }
+
+  private static Event parseEvent(byte[] payload, int offset, int length) {
+    InputStream stream = new ByteArrayInputStream(payload, offset, length);
+    return ApiResource.GSON.fromJson(
+        new InputStreamReader(stream, ApiResource.CHARSET), Event.class);
+  }
+
+  private Mac[] initMacs() {
+    Mac[] macs = new Mac[this.keys.size()];
+    for (int i = 0; i < macs.length; i++) {
+      macs[i] = newHmacSha256();
+      try {
+        macs[i].init(this.keys.get(i));
+      } catch (InvalidKeyException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return macs;
+  }
+
+  /** Creates an uninitialized HMAC/SHA-256 {@link Mac}. */
+  static Mac newHmacSha256() {
+    try {
+      return Mac.getInstance(HMAC_SHA256);
+    } catch (NoSuchAlgorithmException e) {
+      // Every implementation of the Java platform is required to support HmacSHA256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Verifies a signature header against a payload.
+   *
+   * @param payload the payload, between the buffer's position and its limit
+   * @param sigHeader the signature header
+   * @param macs initialized {@link Mac} instances, one for each accepted secret
+   * @param tolerance maximum difference in seconds allowed between the header's timestamp and the
+   *     current time, or 0 to skip this check
+   * @throws SignatureVerificationException if the verification fails
+   */
+  static void verify(ByteBuffer payload, String sigHeader, Mac[] macs, long tolerance)
+      throws SignatureVerificationException {
+    long timestamp = -1;
+    int signatureCount = 0;
+    List<byte[]> signatures = new ArrayList<>(2);
+
+    // Get timestamp and signatures from header
+    int start = 0;
+    while (start <= sigHeader.length()) {
+      int end = sigHeader.indexOf(',', start);
+      if (end == -1) {
+        end = sigHeader.length();
+      }
+      int equals = sigHeader.indexOf('=', start);
+      if (equals != -1 && equals < end) {
+        if (equals - start == 1 && sigHeader.charAt(start) == 't') {
+          if (timestamp == -1) {
+            timestamp = parseTimestamp(sigHeader.substring(equals + 1, end));
+          }
+        } else if (equals - start == Webhook.Signature.EXPECTED_SCHEME.length()
+            && sigHeader.startsWith(Webhook.Signature.EXPECTED_SCHEME, start)) {
+          signatureCount += 1;
+          byte[] signature = decodeHex(sigHeader, equals + 1, end);
+          if (signature != null) {
+            signatures.add(signature);
+          }
+        }
+      }
+      start = end + 1;
+    }
+
+    if (timestamp <= 0) {
+      throw new SignatureVerificationException(
+          "Unable to extract timestamp and signatures from header", sigHeader);
+    }
+    if (signatureCount == 0) {
+      throw new SignatureVerificationException(
+          "No signatures found with expected scheme", sigHeader);
+    }
+
+    // The signed payload is the timestamp and the payload, separated by a dot.
+    byte[] prefix = (timestamp + ".").getBytes(StandardCharsets.US_ASCII);
+    boolean signatureFound = false;
+    for (Mac mac : macs) {
+      mac.update(prefix);
+      mac.update(payload.duplicate());
+      byte[] expectedSignature = mac.doFinal();
+      for (byte[] signature : signatures) {
+        if (MessageDigest.isEqual(expectedSignature, signature)) {
+          signatureFound = true;
+          break;
+        }
+      }
+      if (signatureFound) {
+        break;
+      }
+    }
+    if (!signatureFound) {
+      throw new SignatureVerificationException(
+          "No signatures found matching the expected signature for payload", sigHeader);
+    }
+
+    // Check tolerance
+    if ((tolerance > 0) && (timestamp < (Webhook.Util.getTimeNow() - tolerance))) {
+      throw new SignatureVerificationException("Timestamp outside the tolerance zone", sigHeader);
+    }
+  }
+
+  private static long parseTimestamp(String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Decodes a lowercase hex string, or returns null if it is not one. Signatures used to be
+   * compared as lowercase hex strings, so other spellings are still rejected.
+   */
+  private static byte[] decodeHex(String s, int start, int end) {
+    if ((end - start) % 2 != 0) {
+      return null;
+    }
+    byte[] bytes = new byte[(end - start) / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      int high = hexDigit(s.charAt(start + 2 * i));
+      int low = hexDigit(s.charAt(start + 2 * i + 1));
+      if (high == -1 || low == -1) {
+        return null;
+      }
+      bytes[i] = (byte) ((high << 4) | low);
+    }
+    return bytes;
+  }
+
+  private static int hexDigit(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    } else if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    return -1;
+  }
+
+  /** Builder for {@link WebhookVerifier} instances. */
+  public static final class Builder {
+    private final List<SecretKeySpec> keys = new ArrayList<>();
+    private long tolerance = Webhook.DEFAULT_TOLERANCE;
+
+    private Builder() {}
+
+    /**
+     * Adds a secret to accept signatures from. Add several secrets to accept payloads signed with
+     * any of them, e.g. while rolling an endpoint secret.
+     *
+     * @param secret the endpoint secret
+     */
+    public Builder addSecret(String secret) {
+      if (secret == null || secret.isEmpty()) {
+        throw new IllegalArgumentException("secret must not be empty");
+      }
+      this.keys.add(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_SHA256));
+      return this;
+    }
+
+    /**
+     * Sets the maximum difference in seconds allowed between the header's timestamp and the
+     * current time. Defaults to 300 seconds. Set to 0 to skip this check.
+     *
+     * @param tolerance the tolerance, in seconds
+     */
+    public Builder setTolerance(long tolerance) {
+      this.tolerance = tolerance;
+      return this;
+    }
+
+    /** Builds the verifier. */
+    public WebhookVerifier build() {
+      if (this.keys.isEmpty()) {
+        throw new IllegalStateException("At least one secret must be added");
+      }
+      return new WebhookVerifier(
+          Collections.unmodifiableList(new ArrayList<>(this.keys)), this.tolerance);
+    }
+  }
+}
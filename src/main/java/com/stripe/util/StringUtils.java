@@ -4,13 +4,11 @@ import static java.util.Objects.requireNonNull;
 
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.util.regex.Pattern;
 
 public final class StringUtils {
-  private static Pattern whitespacePattern = Pattern.compile("\\s");
-
   /**
-   * Checks whether a string contains any whitespace characters or not.
+   * Checks whether a string contains any whitespace characters or not, whitespace being the
+   * characters matched by {@code \\s} in a regular expression.
    *
    * @param str the string to check.
    * @return {@code true} if the string contains any whitespace characters; otherwise, {@code
@@ -18,7 +16,20 @@ public final class StringUtils {
    */
   public static boolean containsWhitespace(String str) {
     requireNonNull(str);
-    return whitespacePattern.matcher(str).find();
+    for (int i = 0; i < str.length(); i++) {
+      switch (str.charAt(i)) {
+        case ' ':
+        case '\t':
+        case '\n':
+        case '\u000B':
+        case '\f':
+        case '\r':
+          return true;
+        default:
+          break;
+      }
+    }
+    return false;
   }
 
   /**
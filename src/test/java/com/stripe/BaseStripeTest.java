@@ -7,8 +7,10 @@ import com.google.gson.reflect.TypeToken;
 import com.stripe.exception.StripeException;
 import com.stripe.model.StripeObjectInterface;
 import com.stripe.net.ApiResource;
+import com.stripe.net.HttpClient;
 import com.stripe.net.LiveStripeResponseGetter;
 import com.stripe.net.OAuth;
+import com.stripe.net.PooledHttpClient;
 import com.stripe.net.RequestOptions;
 import com.stripe.net.StripeResponseGetter;
 import java.io.BufferedReader;
@@ -38,6 +40,13 @@ public class BaseStripeTest {
 
   public static StripeResponseGetter networkSpy;
 
+  /**
+   * HTTP client used by the network spy. Setting the {@code STRIPE_JAVA_HTTP_CLIENT} environment
+   * variable to {@code pooled} runs the suite against {@link PooledHttpClient}; otherwise the
+   * default client is used.
+   */
+  private static final HttpClient httpClient = buildHttpClient();
+
   private String origApiBase;
   private String origApiKey;
   private String origClientId;
@@ -118,11 +127,18 @@ public class BaseStripeTest {
     Stripe.clientId = "ca_123";
     Stripe.enableTelemetry = false;
 
-    networkSpy = Mockito.spy(new LiveStripeResponseGetter());
+    networkSpy = Mockito.spy(new LiveStripeResponseGetter(httpClient));
     ApiResource.setStripeResponseGetter(networkSpy);
     OAuth.setStripeResponseGetter(networkSpy);
   }
 
+  private static HttpClient buildHttpClient() {
+    if ("pooled".equals(System.getenv().get("STRIPE_JAVA_HTTP_CLIENT"))) {
+      return new PooledHttpClient();
+    }
+    return null;
+  }
+
   /**
    * Deactivates usage stripe-mock by returning the API host to whatever it was before stripe-mock
    * was activated.
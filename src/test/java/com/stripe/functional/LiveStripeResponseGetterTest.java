@@ -1,21 +1,44 @@
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.google.gson.JsonSyntaxException;
+import com.seamlesspay.SPAPI;
 import com.stripe.BaseStripeTest;
+import com.stripe.exception.ApiConnectionException;
 import com.stripe.exception.ApiException;
+import com.stripe.exception.RateLimitException;
 import com.stripe.exception.StripeException;
+import com.stripe.model.SPCharge;
+import com.stripe.model.SPChargeCollection;
 import com.stripe.model.Subscription;
 import com.stripe.net.ApiResource;
 import com.stripe.net.HttpClient;
 import com.stripe.net.HttpHeaders;
 import com.stripe.net.HttpURLConnectionClient;
 import com.stripe.net.LiveStripeResponseGetter;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.RequestOptions.ResponseRetention;
 import com.stripe.net.StripeRequest;
 import com.stripe.net.StripeResponse;
 import com.stripe.net.StripeResponseGetter;
+import com.stripe.net.StripeResponseStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.Cleanup;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
 import org.hamcrest.CoreMatchers;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -41,4 +64,301 @@ public class LiveStripeResponseGetterTest extends BaseStripeTest {
     assertNotNull(exception.getCause());
     assertThat(exception.getCause(), CoreMatchers.instanceOf(JsonSyntaxException.class));
   }
+
+  @Test
+  public void testInvalidJsonStreamed() throws StripeException {
+    HttpClient spy = Mockito.spy(new HttpURLConnectionClient());
+    StripeResponseGetter srg = new LiveStripeResponseGetter(spy);
+    ApiResource.setStripeResponseGetter(srg);
+    StripeResponseStream response =
+        new StripeResponseStream(
+            200,
+            HttpHeaders.of(Collections.emptyMap()),
+            new ByteArrayInputStream("invalid JSON".getBytes(ApiResource.CHARSET)));
+    Mockito.doReturn(response).when(spy).requestStreamWithRetries(Mockito.<StripeRequest>any());
+    Exception exception =
+        assertThrows(
+            ApiException.class,
+            () -> {
+              Subscription.retrieve("sub_123", headersOnly().build());
+            });
+    assertThat(
+        exception.getMessage(), CoreMatchers.containsString("Invalid response object from API"));
+    assertNotNull(exception.getCause());
+    assertThat(exception.getCause(), CoreMatchers.instanceOf(JsonSyntaxException.class));
+  }
+
+  @Test
+  public void testTrailingContentAfterJson() throws StripeException {
+    HttpClient spy = Mockito.spy(new HttpURLConnectionClient());
+    StripeResponseGetter srg = new LiveStripeResponseGetter(spy);
+    ApiResource.setStripeResponseGetter(srg);
+    StripeResponseStream response =
+        new StripeResponseStream(
+            200,
+            HttpHeaders.of(Collections.emptyMap()),
+            new ByteArrayInputStream("{\"id\": \"sub_123\"} {}".getBytes(ApiResource.CHARSET)));
+    Mockito.doReturn(response).when(spy).requestStreamWithRetries(Mockito.<StripeRequest>any());
+    Exception exception =
+        assertThrows(
+            ApiException.class,
+            () -> {
+              Subscription.retrieve("sub_123", headersOnly().build());
+            });
+    assertThat(
+        exception.getMessage(), CoreMatchers.containsString("Invalid response object from API"));
+  }
+
+  @Test
+  public void testStreamsChunkedResponse() throws StripeException, IOException {
+    String origSeamlessPayApiBase = SPAPI.getApiBase();
+    ApiResource.setStripeResponseGetter(new LiveStripeResponseGetter());
+    try {
+      @Cleanup MockWebServer server = new MockWebServer();
+      server.enqueue(
+          new MockResponse()
+              .setHeader("Request-Id", "req_123")
+              .setChunkedBody("{\"id\": \"TR_123\", \"amount\": \"25.00\"}", 5));
+      server.start();
+      SPAPI.overrideApiBase(server.url("").toString());
+
+      SPCharge charge =
+          SPCharge.retrieve("TR_123", headersOnly().setApiKey("sk_test_123").build());
+
+      assertEquals("TR_123", charge.getId());
+      assertEquals("25.00", charge.getAmount());
+      assertEquals(200, charge.getLastResponse().code());
+      assertEquals("req_123", charge.getLastResponse().requestId());
+      assertEquals("", charge.getLastResponse().body());
+      assertNull(charge.getRawJsonObject());
+    } finally {
+      SPAPI.overrideApiBase(origSeamlessPayApiBase);
+    }
+  }
+
+  @Test
+  public void testCollectionElementsShareResponse() throws StripeException, IOException {
+    String origSeamlessPayApiBase = SPAPI.getApiBase();
+    ApiResource.setStripeResponseGetter(new LiveStripeResponseGetter());
+    try {
+      @Cleanup MockWebServer server = new MockWebServer();
+      String page = "{\"data\": [{\"id\": \"TR_1\"}, {\"id\": \"TR_2\"}], \"total\": 2}";
+      server.enqueue(new MockResponse().setHeader("Request-Id", "req_123").setBody(page));
+      server.enqueue(new MockResponse().setHeader("Request-Id", "req_456").setBody(page));
+      server.start();
+      SPAPI.overrideApiBase(server.url("").toString());
+
+      SPChargeCollection charges =
+          SPCharge.list(
+              RequestOptions.builder()
+                  .setApiKey("sk_test_123")
+                  .setResponseRetention(ResponseRetention.FULL)
+                  .build());
+
+      assertEquals(page, charges.getLastResponse().body());
+      StripeResponse elementResponse = charges.getData().get(0).getLastResponse();
+      assertEquals("req_123", elementResponse.requestId());
+      assertEquals("", elementResponse.body());
+      assertSame(elementResponse, charges.getData().get(1).getLastResponse());
+
+      SPChargeCollection untracked =
+          SPCharge.list(
+              RequestOptions.builder()
+                  .setApiKey("sk_test_123")
+                  .setResponseRetention(ResponseRetention.NONE)
+                  .build());
+
+      assertEquals(2, untracked.getData().size());
+      assertNull(untracked.getLastResponse());
+      assertNull(untracked.getData().get(0).getLastResponse());
+    } finally {
+      SPAPI.overrideApiBase(origSeamlessPayApiBase);
+    }
+  }
+
+  private static RequestOptions.RequestOptionsBuilder headersOnly() {
+    return RequestOptions.builder().setResponseRetention(ResponseRetention.HEADERS_ONLY);
+  }
+
+  /**
+   * Starts a retrieve that blocks in the HTTP client, and joins it with two asynchronous retrieves
+   * of the same charge.
+   */
+  private static SPCharge[] retrieveConcurrently(LiveStripeResponseGetter.Coalescing coalescing)
+      throws Exception {
+    HttpClient spy = Mockito.spy(new HttpURLConnectionClient());
+    LiveStripeResponseGetter srg = new LiveStripeResponseGetter(spy);
+    srg.setCoalescing(coalescing);
+    CountDownLatch sent = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Mockito.doAnswer(
+            invocation -> {
+              sent.countDown();
+              assertTrue(release.await(10, TimeUnit.SECONDS));
+              return new StripeResponse(
+                  200, HttpHeaders.of(Collections.emptyMap()), "{\"id\": \"TR_123\"}");
+            })
+        .when(spy)
+        .requestWithRetries(Mockito.<StripeRequest>any());
+    String url = "https://api.seamlesspay.com/charges/TR_123";
+    RequestOptions options = RequestOptions.builder().setApiKey("sk_test_123").build();
+
+    CompletableFuture<SPCharge> first =
+        CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return srg.request(
+                    ApiResource.RequestMethod.GET, url, null, SPCharge.class, options);
+              } catch (StripeException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    assertTrue(sent.await(10, TimeUnit.SECONDS));
+    CompletableFuture<SPCharge> second =
+        srg.requestAsync(ApiResource.RequestMethod.GET, url, null, SPCharge.class, options);
+    CompletableFuture<SPCharge> third =
+        srg.requestAsync(ApiResource.RequestMethod.GET, url, null, SPCharge.class, options);
+    release.countDown();
+
+    SPCharge[] charges = {
+      first.get(10, TimeUnit.SECONDS),
+      second.get(10, TimeUnit.SECONDS),
+      third.get(10, TimeUnit.SECONDS)
+    };
+    Mockito.verify(spy, Mockito.times(1)).requestWithRetries(Mockito.<StripeRequest>any());
+    Mockito.verify(spy, Mockito.never()).requestWithRetriesAsync(Mockito.<StripeRequest>any());
+    return charges;
+  }
+
+  @Test
+  public void testCoalescingSharesResource() throws Exception {
+    SPCharge[] charges = retrieveConcurrently(LiveStripeResponseGetter.Coalescing.SHARE);
+
+    assertEquals("TR_123", charges[0].getId());
+    assertSame(charges[0], charges[1]);
+    assertSame(charges[0], charges[2]);
+  }
+
+  @Test
+  public void testCoalescingCopiesResource() throws Exception {
+    SPCharge[] charges = retrieveConcurrently(LiveStripeResponseGetter.Coalescing.COPY);
+
+    assertEquals("TR_123", charges[1].getId());
+    assertEquals("TR_123", charges[2].getId());
+    assertNotSame(charges[0], charges[1]);
+    assertNotSame(charges[1], charges[2]);
+  }
+
+  @Test
+  public void testCoalescingSharesFailures() throws Exception {
+    HttpClient spy = Mockito.spy(new HttpURLConnectionClient());
+    LiveStripeResponseGetter srg = new LiveStripeResponseGetter(spy);
+    srg.setCoalescing(LiveStripeResponseGetter.Coalescing.SHARE);
+    StripeResponse response =
+        new StripeResponse(200, HttpHeaders.of(Collections.emptyMap()), "invalid JSON");
+    Mockito.doReturn(CompletableFuture.completedFuture(response))
+        .when(spy)
+        .requestWithRetriesAsync(Mockito.<StripeRequest>any());
+
+    CompletableFuture<SPCharge> future =
+        srg.requestAsync(
+            ApiResource.RequestMethod.GET,
+            "https://api.seamlesspay.com/charges/TR_123",
+            null,
+            SPCharge.class,
+            RequestOptions.builder().setApiKey("sk_test_123").build());
+
+    ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+    assertThat(exception.getCause(), CoreMatchers.instanceOf(ApiException.class));
+  }
+
+  @Test
+  public void testCoalescingCopiesFailuresForEachCaller() throws Exception {
+    HttpClient spy = Mockito.spy(new HttpURLConnectionClient());
+    LiveStripeResponseGetter srg = new LiveStripeResponseGetter(spy);
+    srg.setCoalescing(LiveStripeResponseGetter.Coalescing.SHARE);
+    CompletableFuture<StripeResponse> pending = new CompletableFuture<>();
+    Mockito.doReturn(pending).when(spy).requestWithRetriesAsync(Mockito.<StripeRequest>any());
+    String url = "https://api.seamlesspay.com/charges/TR_123";
+    RequestOptions options = RequestOptions.builder().setApiKey("sk_test_123").build();
+
+    CompletableFuture<SPCharge> first =
+        srg.requestAsync(ApiResource.RequestMethod.GET, url, null, SPCharge.class, options);
+    CompletableFuture<SPCharge> second =
+        srg.requestAsync(ApiResource.RequestMethod.GET, url, null, SPCharge.class, options);
+    CompletableFuture<SPCharge> third =
+        srg.requestAsync(ApiResource.RequestMethod.GET, url, null, SPCharge.class, options);
+    RateLimitException failure =
+        new RateLimitException("Too many requests", null, "req_123", "rate_limit", 429, null);
+    pending.completeExceptionally(failure);
+
+    assertSame(failure, assertThrows(ExecutionException.class, first::get).getCause());
+    Throwable secondFailure = assertThrows(ExecutionException.class, second::get).getCause();
+    Throwable thirdFailure = assertThrows(ExecutionException.class, third::get).getCause();
+    assertThat(secondFailure, CoreMatchers.instanceOf(RateLimitException.class));
+    assertThat(thirdFailure, CoreMatchers.instanceOf(RateLimitException.class));
+    assertNotSame(secondFailure, thirdFailure);
+    assertSame(failure, secondFailure.getCause());
+    assertSame(failure, thirdFailure.getCause());
+    assertEquals(failure.getMessage(), secondFailure.getMessage());
+    assertEquals(Integer.valueOf(429), ((RateLimitException) secondFailure).getStatusCode());
+  }
+
+  @Test
+  public void testCoalescingWrapsCheckedFailures() throws Exception {
+    HttpClient spy = Mockito.spy(new HttpURLConnectionClient());
+    LiveStripeResponseGetter srg = new LiveStripeResponseGetter(spy);
+    srg.setCoalescing(LiveStripeResponseGetter.Coalescing.SHARE);
+    CompletableFuture<StripeResponse> pending = new CompletableFuture<>();
+    Mockito.doReturn(pending).when(spy).requestWithRetriesAsync(Mockito.<StripeRequest>any());
+    String url = "https://api.seamlesspay.com/charges/TR_123";
+    RequestOptions options = RequestOptions.builder().setApiKey("sk_test_123").build();
+
+    CompletableFuture<SPCharge> first =
+        srg.requestAsync(ApiResource.RequestMethod.GET, url, null, SPCharge.class, options);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread second =
+        new Thread(
+            () -> {
+              try {
+                srg.request(ApiResource.RequestMethod.GET, url, null, SPCharge.class, options);
+              } catch (Throwable e) {
+                failure.set(e);
+              }
+            });
+    second.start();
+    while (second.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    IOException cause = new IOException("Connection reset");
+    pending.completeExceptionally(cause);
+    second.join(10_000);
+
+    assertThrows(ExecutionException.class, first::get);
+    assertThat(failure.get(), CoreMatchers.instanceOf(ApiConnectionException.class));
+    assertSame(cause, failure.get().getCause());
+  }
+
+  @Test
+  public void testCoalescingReleasesRequestsOnError() throws Exception {
+    HttpClient spy = Mockito.spy(new HttpURLConnectionClient());
+    LiveStripeResponseGetter srg = new LiveStripeResponseGetter(spy);
+    srg.setCoalescing(LiveStripeResponseGetter.Coalescing.SHARE);
+    Mockito.doThrow(new AssertionError("boom"))
+        .doReturn(
+            new StripeResponse(
+                200, HttpHeaders.of(Collections.emptyMap()), "{\"id\": \"TR_123\"}"))
+        .when(spy)
+        .requestWithRetries(Mockito.<StripeRequest>any());
+    String url = "https://api.seamlesspay.com/charges/TR_123";
+    RequestOptions options = RequestOptions.builder().setApiKey("sk_test_123").build();
+
+    assertThrows(
+        AssertionError.class,
+        () -> srg.request(ApiResource.RequestMethod.GET, url, null, SPCharge.class, options));
+    // The failed request no longer counts as in flight.
+    SPCharge charge =
+        srg.request(ApiResource.RequestMethod.GET, url, null, SPCharge.class, options);
+    assertEquals("TR_123", charge.getId());
+  }
 }
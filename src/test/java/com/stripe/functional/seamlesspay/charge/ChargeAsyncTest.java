@@ -0,0 +1,108 @@
+package com.stripe.functional.seamlesspay.charge;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.seamlesspay.SPAPI;
+import com.stripe.BaseStripeTest;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.model.SPCharge;
+import com.stripe.net.RequestOptions;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import lombok.Cleanup;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChargeAsyncTest extends BaseStripeTest {
+  private String origSeamlessPayApiBase;
+
+  private RequestOptions requestOptions;
+
+  @BeforeEach
+  void setUp() {
+    this.origSeamlessPayApiBase = SPAPI.getApiBase();
+    this.requestOptions = RequestOptions.builder().setApiKey("sk_test_123").build();
+  }
+
+  @AfterEach
+  void tearDown() {
+    SPAPI.overrideApiBase(this.origSeamlessPayApiBase);
+  }
+
+  @Test
+  void testCreateAsync() throws IOException, InterruptedException, ExecutionException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setBody("{\"id\": \"TR_123\", \"amount\": \"25.00\"}"));
+    server.start();
+    SPAPI.overrideApiBase(server.url("").toString());
+
+    Map<String, Object> params = new HashMap<>();
+    params.put("amount", "25.00");
+    CompletableFuture<SPCharge> future = SPCharge.createAsync(params, requestOptions);
+
+    SPCharge charge = future.get();
+    assertEquals("TR_123", charge.getId());
+    assertEquals("25.00", charge.getAmount());
+
+    RecordedRequest request = server.takeRequest();
+    assertEquals("POST", request.getMethod());
+    assertTrue(request.getPath().endsWith("/charges"));
+  }
+
+  @Test
+  void testRetrieveAsyncThenCaptureAsync()
+      throws IOException, InterruptedException, ExecutionException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setBody("{\"id\": \"TR_123\", \"status\": \"authorized\"}"));
+    server.enqueue(new MockResponse().setBody("{\"id\": \"TR_123\", \"status\": \"captured\"}"));
+    server.start();
+    SPAPI.overrideApiBase(server.url("").toString());
+
+    SPCharge captured =
+        SPCharge.retrieveAsync("TR_123", requestOptions)
+            .thenCompose(charge -> charge.captureAsync(requestOptions))
+            .get();
+
+    assertEquals("TR_123", captured.getId());
+    assertTrue(server.takeRequest().getPath().endsWith("/charges/TR_123"));
+    assertTrue(server.takeRequest().getPath().endsWith("/charges/TR_123/capture"));
+  }
+
+  @Test
+  void testRetrieveAsyncMapsApiErrors() throws IOException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse()
+            .setResponseCode(404)
+            .setBody("{\"code\": 404, \"name\": \"NotFound\", \"message\": \"No such charge\"}"));
+    server.start();
+    SPAPI.overrideApiBase(server.url("").toString());
+
+    ExecutionException e =
+        assertThrows(
+            ExecutionException.class, () -> SPCharge.retrieveAsync("TR_404", requestOptions).get());
+
+    assertTrue(e.getCause() instanceof ApiException);
+    ApiException apiException = (ApiException) e.getCause();
+    assertEquals(404, apiException.getStatusCode());
+    assertTrue(apiException.getMessage().startsWith("Not found error"));
+  }
+
+  @Test
+  void testRetrieveAsyncWithNullId() {
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> SPCharge.retrieveAsync(null).get());
+
+    assertTrue(e.getCause() instanceof InvalidRequestException);
+  }
+}
@@ -0,0 +1,188 @@
+package com.stripe.functional.seamlesspay.charge;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.seamlesspay.SPAPI;
+import com.stripe.BaseStripeTest;
+import com.stripe.exception.StripeException;
+import com.stripe.model.SPCharge;
+import com.stripe.model.SPChargeCollection;
+import com.stripe.net.RequestOptions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.Cleanup;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChargePagingTest extends BaseStripeTest {
+  private static final int PAGES = 4;
+
+  private String origSeamlessPayApiBase;
+
+  private RequestOptions requestOptions;
+
+  @BeforeEach
+  void setUp() {
+    this.origSeamlessPayApiBase = SPAPI.getApiBase();
+    this.requestOptions = RequestOptions.builder().setApiKey("sk_test_123").build();
+  }
+
+  @AfterEach
+  void tearDown() {
+    SPAPI.overrideApiBase(this.origSeamlessPayApiBase);
+  }
+
+  /** Serves {@link #PAGES} pages of two charges each, and fails for any other page. */
+  private static MockWebServer startServer() throws IOException {
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            String pageParam = request.getRequestUrl().queryParameter("page");
+            int page = (pageParam == null) ? 1 : Integer.parseInt(pageParam);
+            if (page > PAGES || !"bar".equals(request.getRequestUrl().queryParameter("foo"))) {
+              return new MockResponse().setResponseCode(422).setBody("{\"message\": \"bad\"}");
+            }
+            return new MockResponse()
+                .setBody(
+                    String.format(
+                        "{\"data\": [{\"id\": \"TR_%d_a\"}, {\"id\": \"TR_%d_b\"}], "
+                            + "\"pagination\": {\"count\": 2, \"page\": %d, \"pages\": %d, "
+                            + "\"size\": %d}, \"total\": %d}",
+                        page, page, page, PAGES, PAGES * 2, PAGES * 2));
+          }
+        });
+    server.start();
+    SPAPI.overrideApiBase(server.url("").toString());
+    return server;
+  }
+
+  private static List<String> expectedIds() {
+    List<String> ids = new ArrayList<>();
+    for (int page = 1; page <= PAGES; page++) {
+      ids.add(String.format("TR_%d_a", page));
+      ids.add(String.format("TR_%d_b", page));
+    }
+    return ids;
+  }
+
+  private SPChargeCollection listFirstPage() throws StripeException {
+    Map<String, Object> params = new HashMap<>();
+    params.put("foo", "bar");
+    return SPCharge.list(params, requestOptions);
+  }
+
+  @Test
+  void testPaginationGetters() throws IOException, StripeException {
+    @Cleanup MockWebServer server = startServer();
+
+    SPChargeCollection charges = listFirstPage();
+
+    assertEquals(1, charges.getPagination().getPage().intValue());
+    assertEquals(PAGES, charges.getPagination().getPages().intValue());
+    assertEquals(2, charges.getPagination().getCount().intValue());
+    assertEquals(PAGES * 2, charges.getPagination().getSize().intValue());
+  }
+
+  @Test
+  void testAutoPagination() throws IOException, StripeException, InterruptedException {
+    @Cleanup MockWebServer server = startServer();
+
+    List<String> ids = new ArrayList<>();
+    for (SPCharge charge : listFirstPage().autoPagingIterable()) {
+      ids.add(charge.getId());
+    }
+
+    assertEquals(expectedIds(), ids);
+    assertEquals(PAGES, server.getRequestCount());
+    server.takeRequest();
+    for (int page = 2; page <= PAGES; page++) {
+      assertEquals(
+          String.valueOf(page), server.takeRequest().getRequestUrl().queryParameter("page"));
+    }
+  }
+
+  @Test
+  void testParallelAutoPagination() throws IOException, StripeException, InterruptedException {
+    @Cleanup MockWebServer server = startServer();
+
+    SPChargeCollection charges = listFirstPage();
+    Iterable<SPCharge> allCharges =
+        charges.autoPagingIterable(charges.getRequestParams(), requestOptions, 3);
+    List<String> ids = new ArrayList<>();
+    for (SPCharge charge : allCharges) {
+      ids.add(charge.getId());
+    }
+
+    assertEquals(expectedIds(), ids);
+    assertEquals(PAGES, server.getRequestCount());
+    Set<String> requestedPages = new HashSet<>();
+    server.takeRequest();
+    for (int page = 2; page <= PAGES; page++) {
+      requestedPages.add(server.takeRequest().getRequestUrl().queryParameter("page"));
+    }
+    assertEquals(new HashSet<>(Arrays.asList("2", "3", "4")), requestedPages);
+  }
+
+  @Test
+  void testAutoPagingStream() throws IOException, StripeException {
+    @Cleanup MockWebServer server = startServer();
+
+    SPChargeCollection charges = listFirstPage();
+    List<String> ids;
+    try (Stream<SPCharge> stream =
+        charges.autoPagingStream(charges.getRequestParams(), requestOptions, 2)) {
+      ids = stream.map(SPCharge::getId).collect(Collectors.toList());
+    }
+
+    assertEquals(expectedIds(), ids);
+  }
+
+  @Test
+  void testAutoPaginationFailure() throws IOException, StripeException {
+    @Cleanup MockWebServer server = startServer();
+
+    SPChargeCollection charges = listFirstPage();
+    Map<String, Object> params = new HashMap<>();
+    params.put("foo", "baz");
+    Iterator<SPCharge> it = charges.autoPagingIterable(params).iterator();
+    it.next();
+    it.next();
+
+    assertThrows(RuntimeException.class, it::hasNext);
+  }
+
+  @Test
+  void testSinglePage() throws IOException, StripeException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse()
+            .setBody(
+                "{\"data\": [], \"pagination\": {\"count\": 0, \"page\": 1, \"pages\": 1, "
+                    + "\"size\": 0}, \"total\": 0}"));
+    server.start();
+    SPAPI.overrideApiBase(server.url("").toString());
+
+    SPChargeCollection charges = SPCharge.list(requestOptions);
+
+    assertFalse(charges.autoPagingIterable().iterator().hasNext());
+    assertFalse(charges.autoPagingIterable(null, null, 2).iterator().hasNext());
+  }
+}
@@ -0,0 +1,130 @@
+package com.stripe.functional.seamlesspay.charge;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.seamlesspay.SPAPI;
+import com.stripe.BaseStripeTest;
+import com.stripe.model.SPCharge;
+import com.stripe.net.ApiResource;
+import com.stripe.net.LiveStripeResponseGetter;
+import com.stripe.net.PooledHttpClient;
+import com.stripe.net.RequestOptions;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Cleanup;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs many concurrent blocking calls on virtual threads, and checks that they do not pin their
+ * carrier thread while blocked on the network.
+ *
+ * <p>The test JVM runs virtual threads on a single carrier thread (see the {@code test} task of
+ * {@code build.gradle}), so a call pinning it would keep any other virtual thread from running.
+ * Skipped before Java 21, or when the scheduler has more than one carrier thread.
+ */
+class ChargeVirtualThreadTest extends BaseStripeTest {
+  private static final int CONCURRENT_CALLS = 10_000;
+
+  private String origSeamlessPayApiBase;
+
+  private PooledHttpClient httpClient;
+
+  @BeforeEach
+  void setUp() {
+    this.origSeamlessPayApiBase = SPAPI.getApiBase();
+    this.httpClient = new PooledHttpClient(64, Duration.ofSeconds(30));
+    ApiResource.setStripeResponseGetter(new LiveStripeResponseGetter(this.httpClient));
+  }
+
+  @AfterEach
+  void tearDown() {
+    SPAPI.overrideApiBase(this.origSeamlessPayApiBase);
+    this.httpClient.close();
+  }
+
+  @Test
+  void testBlockedCallsDoNotPinCarrierThread() throws Exception {
+    assumeTrue(
+        "1".equals(System.getProperty("jdk.virtualThreadScheduler.parallelism")),
+        "pinning is only detected with a single carrier thread");
+    ExecutorService executor = newVirtualThreadPerTaskExecutor();
+    assumeTrue(executor != null, "virtual threads require Java 21 or later");
+
+    AtomicInteger received = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            received.incrementAndGet();
+            // Keep the calls blocked on the network until the probe has run.
+            release.await(1, TimeUnit.MINUTES);
+            return new MockResponse().setBody("{\"id\": \"TR_123\", \"amount\": \"25.00\"}");
+          }
+        });
+    server.start();
+    SPAPI.overrideApiBase(server.url("").toString());
+
+    RequestOptions options = RequestOptions.builder().setApiKey("sk_test_123").build();
+    AtomicInteger succeeded = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+
+    try {
+      for (int i = 0; i < CONCURRENT_CALLS; i++) {
+        executor.execute(
+            () -> {
+              try {
+                SPCharge charge = SPCharge.retrieve("TR_123", options);
+                if ("TR_123".equals(charge.getId())) {
+                  succeeded.incrementAndGet();
+                }
+              } catch (Exception e) {
+                failed.incrementAndGet();
+              }
+            });
+      }
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+      while (received.get() == 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertTrue(received.get() > 0, "no call reached the server");
+
+      // A call blocked on the network holding its carrier thread would keep the probe from ever
+      // running on the single carrier.
+      CountDownLatch probe = new CountDownLatch(1);
+      executor.execute(probe::countDown);
+      assertTrue(probe.await(10, TimeUnit.SECONDS), "a blocked call pinned the carrier thread");
+    } finally {
+      release.countDown();
+    }
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+    assertEquals(0, failed.get());
+    assertEquals(CONCURRENT_CALLS, succeeded.get());
+  }
+
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
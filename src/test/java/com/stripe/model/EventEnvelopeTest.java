@@ -0,0 +1,146 @@
+package com.stripe.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.stripe.BaseStripeTest;
+import com.stripe.Stripe;
+import com.stripe.exception.EventDataObjectDeserializationException;
+import com.stripe.net.ApiResource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+public class EventEnvelopeTest extends BaseStripeTest {
+  private String getCurrentEventStringFixture() throws IOException {
+    // Render the event at the library's API version, so that it can be deserialized safely.
+    return getResourceAsString("/api_fixtures/account_application_deauthorized.json")
+        .replace("2017-08-15", Stripe.API_VERSION);
+  }
+
+  @Test
+  public void testEnvelopeMatchesEvent() throws IOException {
+    final String data = getResourceAsString("/api_fixtures/event_plan.json");
+    final Event event = ApiResource.GSON.fromJson(data, Event.class);
+
+    EventEnvelope envelope = EventEnvelope.parse(data);
+
+    assertEquals(event.getId(), envelope.getId());
+    assertEquals(event.getType(), envelope.getType());
+    assertEquals(event.getCreated(), envelope.getCreated());
+    assertEquals(event.getApiVersion(), envelope.getApiVersion());
+    assertEquals(event.getAccount(), envelope.getAccount());
+    assertEquals(event.getLivemode(), envelope.getLivemode());
+    assertEquals(event.getData().object, JsonParser.parseString(envelope.getRawDataObject()));
+    assertEquals("gold", envelope.getDataObjectId());
+    assertNull(envelope.getPreviousAttributes());
+    assertEquals(event, envelope.toEvent());
+  }
+
+  @Test
+  public void testParseSlice() throws IOException {
+    final String data = getResourceAsString("/api_fixtures/event_plan.json");
+    byte[] bytes = ("[" + data + "]").getBytes(StandardCharsets.UTF_8);
+
+    EventEnvelope envelope = EventEnvelope.parse(bytes, 1, bytes.length - 2);
+
+    assertEquals("evt_123", envelope.getId());
+    assertEquals(ApiResource.GSON.fromJson(data, Event.class), envelope.toEvent());
+  }
+
+  @Test
+  public void testEscapedValuesAndNesting() {
+    final String data =
+        "{\"id\":\"evt_\\u00e9\\\"\",\"data\":{\"object\":{\"name\":\"}\\\"{\","
+            + "\"object\":\"application\",\"nested\":[1,{\"id\":null}]},"
+            + "\"previous_attributes\":{\"name\":\"old\"}},\"type\":\"account.updated\","
+            + "\"account\":\"acct_123\"}";
+
+    EventEnvelope envelope = EventEnvelope.parse(data);
+
+    assertEquals("evt_\u00e9\"", envelope.getId());
+    assertEquals("account.updated", envelope.getType());
+    assertEquals("acct_123", envelope.getAccount());
+    assertNull(envelope.getCreated());
+    assertNull(envelope.getDataObjectId());
+    assertEquals("old", envelope.getPreviousAttributes().get("name"));
+    assertTrue(envelope.getRawDataObject().startsWith("{\"name\":\"}\\\"{\""));
+  }
+
+  @Test
+  public void testGetDataObjectOnApiVersionMatch() throws Exception {
+    EventEnvelope envelope = EventEnvelope.parse(getCurrentEventStringFixture());
+
+    Optional<StripeObject> object = envelope.getDataObject();
+    assertTrue(object.isPresent());
+    assertTrue(object.get() instanceof Application);
+    assertEquals("ca_00000000000000", ((Application) object.get()).getId());
+    assertEquals("Test Platform", ((Application) object.get()).getName());
+  }
+
+  @Test
+  public void testGetDataObjectOnApiVersionMismatch() throws Exception {
+    final String data = getResourceAsString("/api_fixtures/account_application_deauthorized.json");
+    EventEnvelope envelope = EventEnvelope.parse(data);
+
+    assertFalse(envelope.getDataObject().isPresent());
+
+    // although version mismatch, schema is still compatible
+    StripeObject object = envelope.deserializeDataObjectUnsafe();
+    assertEquals("ca_00000000000000", ((Application) object).getId());
+    assertFalse(envelope.getDataObject().isPresent());
+  }
+
+  @Test
+  public void testDeserializeUnsafeFailure() throws Exception {
+    final String data =
+        getResourceAsString("/api_fixtures/account_application_deauthorized_old_version.json");
+    EventEnvelope envelope = EventEnvelope.parse(data);
+
+    EventDataObjectDeserializationException exception =
+        assertThrows(
+            EventDataObjectDeserializationException.class, envelope::deserializeDataObjectUnsafe);
+    assertEquals(
+        JsonParser.parseString(envelope.getRawDataObject()),
+        JsonParser.parseString(exception.getRawJson()));
+  }
+
+  @Test
+  public void testDataObjectDeserializer() throws Exception {
+    final String data = getCurrentEventStringFixture();
+    final Event event = ApiResource.GSON.fromJson(data, Event.class);
+
+    EventDataObjectDeserializer deserializer =
+        EventEnvelope.parse(data).getDataObjectDeserializer();
+
+    assertEquals(event.getDataObjectDeserializer(), deserializer);
+  }
+
+  @Test
+  public void testNoDataObject() {
+    EventEnvelope envelope =
+        EventEnvelope.parse("{\"id\":\"evt_123\",\"api_version\":null,\"data\":null}");
+
+    assertNull(envelope.getApiVersion());
+    assertNull(envelope.getRawDataObject());
+    assertFalse(envelope.getDataObject().isPresent());
+    assertThrows(
+        EventDataObjectDeserializationException.class, envelope::deserializeDataObjectUnsafe);
+  }
+
+  @Test
+  public void testInvalidJson() {
+    assertThrows(JsonSyntaxException.class, () -> EventEnvelope.parse("this is not valid JSON"));
+    assertThrows(JsonSyntaxException.class, () -> EventEnvelope.parse("{\"id\":\"evt_123\""));
+    assertThrows(
+        JsonSyntaxException.class, () -> EventEnvelope.parse("{\"id\":\"a\" \"type\":\"b\"}"));
+    assertThrows(JsonSyntaxException.class, () -> EventEnvelope.parse("{\"created\":\"now\"}"));
+    assertThrows(JsonSyntaxException.class, () -> EventEnvelope.parse("{} trailing"));
+  }
+}
@@ -10,9 +10,12 @@ import com.stripe.net.RequestOptions;
 import com.stripe.net.RequestOptions.RequestOptionsBuilder;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -148,4 +151,53 @@ public class PagingIteratorTest extends BaseStripeTest {
     verifyRequest(ApiResource.RequestMethod.GET, "/v1/pageable_models", page2Params, options);
     verifyNoMoreInteractions(networkSpy);
   }
+
+  @Test
+  public void testAutoPaginationWithPrefetch() throws StripeException {
+    final Map<String, Object> page0Params = new HashMap<>();
+    page0Params.put("foo", "bar");
+
+    final Map<String, Object> page1Params = new HashMap<>();
+    page1Params.put("foo", "bar");
+    page1Params.put("starting_after", "pm_124");
+
+    final Map<String, Object> page2Params = new HashMap<>();
+    page2Params.put("foo", "bar");
+    page2Params.put("starting_after", "pm_126");
+
+    final RequestOptions options = new RequestOptionsBuilder().setApiKey("sk_paging_key").build();
+    final PageableModelCollection collection = PageableModel.list(page0Params, options);
+
+    final List<PageableModel> models = new ArrayList<>();
+    for (PageableModel model : collection.autoPagingIterable(page0Params, options, 2)) {
+      models.add(model);
+    }
+
+    assertEquals(5, models.size());
+    assertEquals("pm_123", models.get(0).getId());
+    assertEquals("pm_124", models.get(1).getId());
+    assertEquals("pm_125", models.get(2).getId());
+    assertEquals("pm_126", models.get(3).getId());
+    assertEquals("pm_127", models.get(4).getId());
+
+    verifyRequest(ApiResource.RequestMethod.GET, "/v1/pageable_models", page0Params, options);
+    verifyRequest(ApiResource.RequestMethod.GET, "/v1/pageable_models", page1Params, options);
+    verifyRequest(ApiResource.RequestMethod.GET, "/v1/pageable_models", page2Params, options);
+    verifyNoMoreInteractions(networkSpy);
+  }
+
+  @Test
+  public void testAutoPagingStream() throws StripeException {
+    final Map<String, Object> page0Params = new HashMap<>();
+    page0Params.put("foo", "bar");
+
+    final PageableModelCollection collection = PageableModel.list(page0Params, null);
+
+    final List<String> ids;
+    try (Stream<PageableModel> stream = collection.autoPagingStream(page0Params, null, 1)) {
+      ids = stream.map(PageableModel::getId).collect(Collectors.toList());
+    }
+
+    assertEquals(Arrays.asList("pm_123", "pm_124", "pm_125", "pm_126", "pm_127"), ids);
+  }
 }
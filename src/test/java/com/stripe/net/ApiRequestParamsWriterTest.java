@@ -0,0 +1,313 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
+import com.stripe.exception.StripeException;
+import com.stripe.model.SPCurrency;
+import com.stripe.param.ChargeCreateParams;
+import com.stripe.param.FileCreateParams;
+import com.stripe.param.SPChargeCreateParams;
+import com.stripe.param.common.EmptyParam;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link ApiRequestParamsWriter} encodes typed params the same way as converting them
+ * to an untyped map and encoding that map.
+ */
+public class ApiRequestParamsWriterTest {
+  enum ParamCode implements ApiRequestParams.EnumParam {
+    ENUM_FOO("enum_foo");
+
+    private final String value;
+
+    ParamCode(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public String getValue() {
+      return this.value;
+    }
+  }
+
+  // The fields are implicitly used in testing serialization
+  @SuppressWarnings("UnusedVariable")
+  private static class NestedParams extends ApiRequestParams {
+    private String stringValue = "foo & <bar>";
+    private ApiRequestParams.EnumParam enumValue;
+
+    @SerializedName(ApiRequestParams.EXTRA_PARAMS_KEY)
+    private Map<String, Object> extraParams = new HashMap<>();
+
+    NestedParams(ApiRequestParams.EnumParam enumValue) {
+      this.enumValue = enumValue;
+    }
+  }
+
+  @SuppressWarnings("UnusedVariable")
+  private static class RootParams extends ApiRequestParams {
+    private Long longValue = 1234L;
+    private BigDecimal decimalValue = new BigDecimal("25.00");
+    private Boolean booleanValue = true;
+    private Object emptyValue = EmptyParam.EMPTY;
+    private NestedParams nested = new NestedParams(EmptyParam.EMPTY);
+    private List<NestedParams> nestedList =
+        Arrays.asList(new NestedParams(ParamCode.ENUM_FOO), new NestedParams(null));
+    private List<String> emptyList = new ArrayList<>();
+    private String[] array = {"a", null, "c"};
+    private Map<String, Object> mapWithNulls = new HashMap<>();
+    private String unset;
+
+    @SerializedName(ApiRequestParams.EXTRA_PARAMS_KEY)
+    private Map<String, Object> extraParams = new HashMap<>();
+
+    RootParams() {
+      this.mapWithNulls.put("present", "value");
+      this.mapWithNulls.put("absent", null);
+      this.nested.extraParams.put("nested_extra", Collections.singletonMap("deep", 1));
+      this.extraParams.put("root_param[foo][string]", "value_foo");
+      this.extraParams.put("root_list", Arrays.asList(1, 2));
+    }
+  }
+
+  private static class WrongExtraParamsType extends ApiRequestParams {
+    @SerializedName(ApiRequestParams.EXTRA_PARAMS_KEY)
+    String extraParams = "should have been a map";
+  }
+
+  private static void assertEncodedLikeMap(ApiRequestParams params) throws IOException {
+    Map<String, Object> map = params.toMap();
+
+    assertEquals(
+        JsonParser.parseString(JsonEncoder.createHttpContent(map).stringContent()),
+        JsonParser.parseString(ApiRequestParamsWriter.createJsonContent(params).stringContent()));
+    assertEquals(
+        sortedPairs(FormEncoder.createQueryString(map)),
+        sortedPairs(ApiRequestParamsWriter.createQueryString(params)));
+    assertEquals(
+        sortedPairs(FormEncoder.createHttpContent(map).stringContent()),
+        sortedPairs(ApiRequestParamsWriter.createFormContent(params).stringContent()));
+  }
+
+  private static List<String> sortedPairs(String queryString) {
+    List<String> pairs = new ArrayList<>(Arrays.asList(queryString.split("&", -1)));
+    Collections.sort(pairs);
+    return pairs;
+  }
+
+  @Test
+  public void testChargeCreateParams() throws IOException {
+    ChargeCreateParams params =
+        ChargeCreateParams.builder()
+            .setAmount(2000L)
+            .setCurrency("usd")
+            .setDescription("Order #1043 = 10% off")
+            .addExpand("customer")
+            .addExpand("invoice")
+            .setMetadata(EmptyParam.EMPTY)
+            .putExtraParam("new_param", "new_value")
+            .setShipping(
+                ChargeCreateParams.Shipping.builder()
+                    .setName("Jenny Rosen")
+                    .putExtraParam("new_shipping_param", Collections.singletonMap("a", "b"))
+                    .setAddress(
+                        ChargeCreateParams.Shipping.Address.builder()
+                            .setLine1("510 Townsend St")
+                            .setCountry("US")
+                            .build())
+                    .build())
+            .build();
+
+    assertEncodedLikeMap(params);
+  }
+
+  @Test
+  public void testSeamlessPayParams() throws IOException {
+    SPChargeCreateParams params =
+        SPChargeCreateParams.builder()
+            .amount("25.00")
+            .capture(true)
+            .currency(SPCurrency.USD)
+            .description("Ticket for \"The Show\"")
+            .token("TKN_01")
+            .build();
+
+    assertEncodedLikeMap(params);
+  }
+
+  @Test
+  public void testNestedAndEmptyValues() throws IOException {
+    assertEncodedLikeMap(new RootParams());
+  }
+
+  @Test
+  public void testDuplicateExtraParam() {
+    NestedParams params = new NestedParams(ParamCode.ENUM_FOO);
+    params.extraParams.put("string_value", "conflict");
+
+    assertThrows(IllegalArgumentException.class, params::toMap);
+    assertThrows(
+        IllegalArgumentException.class, () -> ApiRequestParamsWriter.createJsonContent(params));
+    assertThrows(
+        IllegalArgumentException.class, () -> ApiRequestParamsWriter.createQueryString(params));
+  }
+
+  @Test
+  public void testExtraParamDoesNotConflictWithUnsetParam() throws IOException {
+    NestedParams params = new NestedParams(null);
+    params.extraParams.put("enum_value", "from_extra");
+
+    assertEncodedLikeMap(params);
+  }
+
+  @Test
+  public void testIllegalExtraParamsType() {
+    WrongExtraParamsType params = new WrongExtraParamsType();
+
+    assertThrows(IllegalStateException.class, params::toMap);
+    assertThrows(
+        IllegalStateException.class, () -> ApiRequestParamsWriter.createJsonContent(params));
+    assertThrows(
+        IllegalStateException.class, () -> ApiRequestParamsWriter.createQueryString(params));
+  }
+
+  @Test
+  public void testParamsMapIsLazyView() {
+    RootParams params = new RootParams();
+    Map<String, Object> map = ApiRequestParamsMap.of(params);
+
+    assertSame(params, ApiRequestParamsMap.unreadParams(map));
+    assertEquals(params.toMap(), map);
+    assertEquals("value_foo", map.get("root_param[foo][string]"));
+    assertNull(ApiRequestParamsMap.unreadParams(map));
+    assertEquals(null, ApiRequestParamsMap.of(null));
+  }
+
+  @SuppressWarnings("UnusedVariable")
+  private static class FileParams extends ApiRequestParams {
+    private String purpose = "dispute_evidence";
+    private NestedFileParams nested = new NestedFileParams();
+  }
+
+  @SuppressWarnings("UnusedVariable")
+  private static class NestedFileParams extends ApiRequestParams {
+    private File file;
+  }
+
+  @Test
+  public void testStripeRequestWithTypedParamsHoldingFiles() throws Exception {
+    File file = File.createTempFile("stripe-java", ".txt");
+    file.deleteOnExit();
+    FileParams params = new FileParams();
+    params.nested.file = file;
+
+    StripeRequest request =
+        new StripeRequest(
+            ApiResource.RequestMethod.POST,
+            "http://example.com/post",
+            ApiRequestParamsMap.of(params),
+            RequestOptions.builder().setApiKey("sk_test_123").build());
+
+    assertTrue(request.content().contentType().startsWith("multipart/form-data"));
+
+    // The file of FileCreateParams is a transient field, which only its toMap() includes.
+    FileCreateParams fileCreateParams =
+        FileCreateParams.builder()
+            .setFile(file)
+            .setPurpose(FileCreateParams.Purpose.DISPUTE_EVIDENCE)
+            .build();
+    StripeRequest upload =
+        new StripeRequest(
+            ApiResource.RequestMethod.POST,
+            "http://example.com/post",
+            ApiRequestParamsMap.of(fileCreateParams),
+            RequestOptions.builder().setApiKey("sk_test_123").build());
+
+    assertTrue(upload.content().contentType().startsWith("multipart/form-data"));
+  }
+
+  @Test
+  public void testStripeRequestWithModifiedParamsMap() throws StripeException {
+    RootParams params = new RootParams();
+    Map<String, Object> map = ApiRequestParamsMap.of(params);
+    // A custom response getter may modify the params, as it could the map from toMap().
+    map.put("added", "value");
+    map.remove("root_param[foo][string]");
+
+    StripeRequest request =
+        new StripeRequest(
+            ApiResource.RequestMethod.POST,
+            "http://example.com/post",
+            map,
+            RequestOptions.builder().setApiKey("sk_test_123").build());
+
+    String content = request.content().stringContent();
+    assertTrue(content.contains("\"added\""));
+    assertFalse(content.contains("value_foo"));
+  }
+
+  @Test
+  public void testMutableMapOfTypedParams() {
+    RootParams params = new RootParams();
+    Map<String, Object> map = ApiRequestParamsMap.toMutableMap(ApiRequestParamsMap.of(params));
+
+    assertEquals(params.toMap(), map);
+    map.put("starting_after", "ch_123");
+    assertEquals("ch_123", map.get("starting_after"));
+
+    Map<String, Object> untyped = params.toMap();
+    assertSame(untyped, ApiRequestParamsMap.toMutableMap(untyped));
+    assertEquals(null, ApiRequestParamsMap.toMutableMap(null));
+  }
+
+  @Test
+  public void testStripeRequestWithTypedParams() throws StripeException {
+    RootParams params = new RootParams();
+    RequestOptions options = RequestOptions.builder().setApiKey("sk_test_123").build();
+
+    StripeRequest typedPost =
+        new StripeRequest(
+            ApiResource.RequestMethod.POST,
+            "http://example.com/post",
+            ApiRequestParamsMap.of(params),
+            options);
+    StripeRequest untypedPost =
+        new StripeRequest(
+            ApiResource.RequestMethod.POST, "http://example.com/post", params.toMap(), options);
+
+    assertEquals(untypedPost.content().contentType(), typedPost.content().contentType());
+    assertEquals(
+        JsonParser.parseString(untypedPost.content().stringContent()),
+        JsonParser.parseString(typedPost.content().stringContent()));
+    assertEquals(untypedPost.params(), typedPost.params());
+
+    StripeRequest typedGet =
+        new StripeRequest(
+            ApiResource.RequestMethod.GET,
+            "http://example.com/get",
+            ApiRequestParamsMap.of(params),
+            options);
+    StripeRequest untypedGet =
+        new StripeRequest(
+            ApiResource.RequestMethod.GET, "http://example.com/get", params.toMap(), options);
+
+    assertEquals(
+        sortedPairs(untypedGet.url().getQuery()), sortedPairs(typedGet.url().getQuery()));
+  }
+}
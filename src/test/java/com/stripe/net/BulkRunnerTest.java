@@ -0,0 +1,242 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.param.CustomerUpdateParams;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BulkRunnerTest {
+  private final Map<String, String> idempotencyKeys = new ConcurrentHashMap<>();
+
+  private static Stream<Integer> items(int count) {
+    return IntStream.range(0, count).boxed();
+  }
+
+  private static Function<Integer, String> itemKey() {
+    return i -> "item_" + i;
+  }
+
+  private String echo(Integer input, RequestOptions options) {
+    this.idempotencyKeys.put("item_" + input, options.getIdempotencyKey());
+    return "result_" + input;
+  }
+
+  private static <I, R> List<BulkRunner.Result<I, R>> collect(
+      Stream<BulkRunner.Result<I, R>> stream) {
+    try (Stream<BulkRunner.Result<I, R>> results = stream) {
+      return results.collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testRunsAllItems() throws IOException {
+    BulkRunner runner = BulkRunner.builder("job").setParallelism(4).build();
+
+    List<BulkRunner.Result<Integer, String>> results =
+        collect(runner.run(items(100), itemKey(), this::echo));
+
+    assertEquals(100, results.size());
+    for (BulkRunner.Result<Integer, String> result : results) {
+      assertEquals(BulkRunner.Status.SUCCEEDED, result.getStatus());
+      assertEquals("result_" + result.getInput(), result.getValue());
+    }
+    assertEquals("job-item_7", this.idempotencyKeys.get("item_7"));
+  }
+
+  @Test
+  public void testBoundsParallelism() throws IOException {
+    BulkRunner runner = BulkRunner.builder("job").setParallelism(3).build();
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    collect(
+        runner.run(
+            items(50),
+            itemKey(),
+            (input, options) -> {
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              LockSupport.parkNanos(2_000_000);
+              running.decrementAndGet();
+              return input;
+            }));
+
+    assertTrue(maxRunning.get() <= 3);
+  }
+
+  @Test
+  public void testReportsFailures() throws IOException {
+    BulkRunner runner = BulkRunner.builder("job").build();
+    ApiConnectionException failure = new ApiConnectionException("boom");
+
+    List<BulkRunner.Result<Integer, String>> results =
+        collect(
+            runner.run(
+                Stream.of(1, 2),
+                itemKey(),
+                (input, options) -> {
+                  if (input == 2) {
+                    throw failure;
+                  }
+                  return "ok";
+                }));
+
+    BulkRunner.Result<Integer, String> failed =
+        results.stream().filter(r -> r.getInput() == 2).findFirst().get();
+    assertEquals(BulkRunner.Status.FAILED, failed.getStatus());
+    assertSame(failure, failed.getException());
+    assertNull(failed.getValue());
+  }
+
+  @Test
+  public void testRetriesRateLimitedItems() throws IOException {
+    BulkRunner runner =
+        BulkRunner.builder("job")
+            .setRateLimitBackoff(Duration.ZERO)
+            .setMaxRateLimitRetries(2)
+            .build();
+    AtomicInteger calls = new AtomicInteger();
+
+    List<BulkRunner.Result<Integer, String>> results =
+        collect(
+            runner.run(
+                Stream.of(1),
+                itemKey(),
+                (input, options) -> {
+                  if (calls.incrementAndGet() < 3) {
+                    throw new RateLimitException("slow down", null, null, null, 429, null);
+                  }
+                  return "ok";
+                }));
+
+    assertEquals(BulkRunner.Status.SUCCEEDED, results.get(0).getStatus());
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void testSkipsDuplicates() throws IOException {
+    BulkRunner runner = BulkRunner.builder("job").setSkipDuplicates(true).build();
+
+    List<BulkRunner.Result<Integer, String>> results =
+        collect(runner.run(Stream.of(1, 2, 1), itemKey(), this::echo));
+
+    assertEquals(
+        Arrays.asList(BulkRunner.Status.SKIPPED),
+        results.stream()
+            .map(BulkRunner.Result::getStatus)
+            .filter(s -> s == BulkRunner.Status.SKIPPED)
+            .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testResumesFromCheckpoint(@TempDir Path directory) throws IOException {
+    Path checkpoint = directory.resolve("job.checkpoint");
+    BulkRunner runner = BulkRunner.builder("job").setCheckpointFile(checkpoint).build();
+
+    // The first run stops after a few results, as if it had crashed.
+    try (Stream<BulkRunner.Result<Integer, String>> results =
+        runner.run(items(20), itemKey(), this::echo)) {
+      results.limit(5).forEach(r -> {});
+    }
+    // A crash while writing leaves half a line behind.
+    Files.write(checkpoint, "ite".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    long succeeded = Files.readAllLines(checkpoint).size() - 2;
+    assertTrue(succeeded >= 5);
+
+    this.idempotencyKeys.clear();
+    List<BulkRunner.Result<Integer, String>> results =
+        collect(runner.run(items(20), itemKey(), this::echo));
+
+    assertEquals(20, results.size());
+    assertEquals(
+        succeeded,
+        results.stream().filter(r -> r.getStatus() == BulkRunner.Status.SKIPPED).count());
+    assertEquals(20 - succeeded, this.idempotencyKeys.size());
+    assertEquals(22, Files.readAllLines(checkpoint).size());
+  }
+
+  @Test
+  public void testRejectsCheckpointOfAnotherJob(@TempDir Path directory) throws IOException {
+    Path checkpoint = directory.resolve("job.checkpoint");
+    collect(
+        BulkRunner.builder("job")
+            .setCheckpointFile(checkpoint)
+            .build()
+            .run(items(1), itemKey(), this::echo));
+
+    BulkRunner other = BulkRunner.builder("other").setCheckpointFile(checkpoint).build();
+    assertThrows(IllegalStateException.class, () -> other.run(items(1), itemKey(), this::echo));
+  }
+
+  @Test
+  public void testRunsDuplicatesByDefault() throws IOException {
+    BulkRunner runner = BulkRunner.builder("job").build();
+
+    List<BulkRunner.Result<Integer, String>> results =
+        collect(runner.run(Stream.of(1, 2, 1), itemKey(), this::echo));
+
+    assertTrue(results.stream().allMatch(r -> r.getStatus() == BulkRunner.Status.SUCCEEDED));
+  }
+
+  @Test
+  public void testKeysParamsByPosition() throws IOException {
+    BulkRunner runner = BulkRunner.builder("job").build();
+    CustomerUpdateParams first = CustomerUpdateParams.builder().setName("Jenny").build();
+    CustomerUpdateParams same = CustomerUpdateParams.builder().setName("Jenny").build();
+    CustomerUpdateParams other = CustomerUpdateParams.builder().setName("Rosen").build();
+
+    List<BulkRunner.Result<CustomerUpdateParams, String>> results =
+        collect(
+            runner.run(
+                Stream.of(first, same, other),
+                (CustomerUpdateParams params, RequestOptions options) ->
+                    options.getIdempotencyKey()));
+
+    // Identical params are distinct items.
+    assertEquals(
+        Arrays.asList("job-0", "job-1", "job-2"),
+        results.stream().map(BulkRunner.Result::getValue).sorted().collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testRethrowsErrors() throws IOException {
+    BulkRunner runner = BulkRunner.builder("job").build();
+
+    try (Stream<BulkRunner.Result<Integer, String>> results =
+        runner.run(
+            items(3),
+            itemKey(),
+            (Integer input, RequestOptions options) -> {
+              if (input == 1) {
+                throw new AssertionError("boom");
+              }
+              return "result_" + input;
+            })) {
+      AssertionError e =
+          assertThrows(AssertionError.class, () -> results.collect(Collectors.toList()));
+      assertEquals("boom", e.getMessage());
+    }
+  }
+}
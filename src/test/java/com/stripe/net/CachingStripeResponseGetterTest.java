@@ -0,0 +1,278 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.stripe.exception.ApiException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Coupon;
+import com.stripe.model.Price;
+import com.stripe.model.StripeObjectInterface;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class CachingStripeResponseGetterTest {
+  private static final String PRICE_URL = "https://api.stripe.com/v1/prices/price_123";
+
+  private final AtomicLong now = new AtomicLong();
+
+  private final FakeResponseGetter delegate = new FakeResponseGetter();
+
+  private final RequestOptions options = options().build();
+
+  private static RequestOptions.RequestOptionsBuilder options() {
+    return RequestOptions.builder().setApiKey("sk_test_123").setExecutor(Runnable::run);
+  }
+
+  private CachingStripeResponseGetter.Builder builder() {
+    return CachingStripeResponseGetter.builder(this.delegate)
+        .setNanoTime(this.now::get)
+        .setTtl(Price.class, Duration.ofMinutes(5));
+  }
+
+  private Price retrieve(StripeResponseGetter getter, String url, RequestOptions options)
+      throws StripeException {
+    return getter.request(ApiResource.RequestMethod.GET, url, null, Price.class, options);
+  }
+
+  private void advance(long minutes) {
+    this.now.addAndGet(TimeUnit.MINUTES.toNanos(minutes));
+  }
+
+  @Test
+  public void testCachesUntilTtl() throws StripeException {
+    CachingStripeResponseGetter cache = builder().build();
+
+    Price first = retrieve(cache, PRICE_URL, this.options);
+    Price second = retrieve(cache, PRICE_URL, this.options);
+    assertEquals(1, this.delegate.urls.size());
+    assertEquals("price_123", second.getId());
+    // Each call gets a resource of its own.
+    assertNotSame(first, second);
+    assertEquals(FakeResponseGetter.body(PRICE_URL, 1), second.getLastResponse().body());
+
+    advance(5);
+    retrieve(cache, PRICE_URL, this.options);
+    assertEquals(2, this.delegate.urls.size());
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void testOnlyCachesConfiguredClasses() throws StripeException {
+    CachingStripeResponseGetter cache = builder().build();
+
+    for (int i = 0; i < 2; i++) {
+      cache.request(
+          ApiResource.RequestMethod.GET,
+          "https://api.stripe.com/v1/coupons/co_123",
+          null,
+          Coupon.class,
+          this.options);
+      cache.request(ApiResource.RequestMethod.POST, PRICE_URL, null, Price.class, this.options);
+    }
+
+    assertEquals(4, this.delegate.urls.size());
+    assertEquals(0, cache.getMisses());
+  }
+
+  @Test
+  public void testCachePolicy() throws StripeException {
+    CachingStripeResponseGetter cache = builder().build();
+    retrieve(cache, PRICE_URL, this.options);
+
+    retrieve(cache, PRICE_URL, options().setCachePolicy(RequestOptions.CachePolicy.BYPASS).build());
+    assertEquals(2, this.delegate.urls.size());
+    retrieve(
+        cache, PRICE_URL, options().setCachePolicy(RequestOptions.CachePolicy.REFRESH).build());
+    assertEquals(3, this.delegate.urls.size());
+
+    // The refreshed response is fresh for another TTL.
+    advance(4);
+    retrieve(cache, PRICE_URL, this.options);
+    assertEquals(3, this.delegate.urls.size());
+  }
+
+  @Test
+  public void testKeysOnParamsAndOptions() throws StripeException {
+    CachingStripeResponseGetter cache = builder().build();
+
+    retrieve(cache, PRICE_URL, this.options);
+    cache.request(
+        ApiResource.RequestMethod.GET,
+        PRICE_URL,
+        Collections.singletonMap("expand", Collections.singletonList("product")),
+        Price.class,
+        this.options);
+    retrieve(cache, PRICE_URL, options().setSeamlessPayAccount("acct_1").build());
+
+    assertEquals(3, this.delegate.urls.size());
+  }
+
+  @Test
+  public void testNegativeCaching() throws StripeException {
+    CachingStripeResponseGetter cache = builder().setNegativeTtl(Duration.ofMinutes(1)).build();
+    String missing = "https://api.stripe.com/v1/prices/price_missing";
+
+    ApiException first =
+        assertThrows(ApiException.class, () -> retrieve(cache, missing, this.options));
+    ApiException second =
+        assertThrows(ApiException.class, () -> retrieve(cache, missing, this.options));
+    assertNotSame(first, second);
+    assertSame(first, second.getCause());
+    assertEquals(first.getUserMessage(), second.getUserMessage());
+    assertEquals(first.getStatusCode(), second.getStatusCode());
+    assertEquals(1, cache.getNegativeHits());
+
+    advance(1);
+    assertThrows(ApiException.class, () -> retrieve(cache, missing, this.options));
+    assertEquals(2, this.delegate.urls.size());
+  }
+
+  @Test
+  public void testStaleWhileRevalidate() throws StripeException {
+    CachingStripeResponseGetter cache =
+        builder().setStaleWhileRevalidate(Duration.ofMinutes(1)).build();
+    retrieve(cache, PRICE_URL, this.options);
+
+    advance(5);
+    this.delegate.version = 2;
+    // The stale response is served, and refreshed on the executor, which runs inline here.
+    assertEquals(Long.valueOf(1), retrieve(cache, PRICE_URL, this.options).getUnitAmount());
+    assertEquals(2, this.delegate.urls.size());
+    assertEquals(Long.valueOf(2), retrieve(cache, PRICE_URL, this.options).getUnitAmount());
+    assertEquals(1, cache.getStaleHits());
+
+    advance(6);
+    retrieve(cache, PRICE_URL, this.options);
+    assertEquals(3, this.delegate.urls.size());
+  }
+
+  @Test
+  public void testSegmentedLruEviction() throws StripeException {
+    CachingStripeResponseGetter cache = builder().setMaxEntries(5).build();
+    retrieve(cache, PRICE_URL, this.options);
+    retrieve(cache, PRICE_URL, this.options);
+
+    // A scan of one-off requests does not evict the response that was hit.
+    for (int i = 0; i < 10; i++) {
+      retrieve(cache, PRICE_URL + i, this.options);
+    }
+    assertEquals(5, cache.size());
+    assertEquals(6, cache.getEvictions());
+
+    retrieve(cache, PRICE_URL, this.options);
+    assertEquals(11, this.delegate.urls.size());
+  }
+
+  @Test
+  public void testResponseRetention() throws StripeException {
+    CachingStripeResponseGetter cache = builder().build();
+    retrieve(cache, PRICE_URL, this.options);
+
+    Price headersOnly =
+        retrieve(
+            cache,
+            PRICE_URL,
+            options().setResponseRetention(RequestOptions.ResponseRetention.HEADERS_ONLY).build());
+    assertEquals("", headersOnly.getLastResponse().body());
+    Price none =
+        retrieve(
+            cache,
+            PRICE_URL,
+            options().setResponseRetention(RequestOptions.ResponseRetention.NONE).build());
+    assertNull(none.getLastResponse());
+    assertEquals(1, this.delegate.urls.size());
+  }
+
+  @Test
+  public void testRequestAsync() throws Exception {
+    CachingStripeResponseGetter cache = builder().build();
+
+    for (int i = 0; i < 2; i++) {
+      Price price =
+          cache
+              .requestAsync(
+                  ApiResource.RequestMethod.GET, PRICE_URL, null, Price.class, this.options)
+              .get();
+      assertEquals("price_123", price.getId());
+    }
+
+    assertEquals(1, this.delegate.urls.size());
+    assertEquals(1, cache.getHits());
+  }
+
+  /** Answers like the API would, through the same deserialization path as live requests. */
+  private static class FakeResponseGetter implements StripeResponseGetter {
+    final List<String> urls = Collections.synchronizedList(new ArrayList<>());
+
+    volatile long version = 1;
+
+    static String body(String url, long version) {
+      String id = url.substring(url.lastIndexOf('/') + 1);
+      return String.format(
+          "{\"id\": \"%s\", \"object\": \"price\", \"unit_amount\": %d}", id, version);
+    }
+
+    @Override
+    public <T extends StripeObjectInterface> T request(
+        ApiResource.RequestMethod method,
+        String url,
+        Map<String, Object> params,
+        Class<T> clazz,
+        RequestOptions options)
+        throws StripeException {
+      this.urls.add(url);
+      StripeResponse response;
+      if (url.endsWith("missing")) {
+        response =
+            new StripeResponse(
+                404,
+                HttpHeaders.of(Collections.emptyMap()),
+                "{\"code\": 404, \"message\": \"No such price\"}");
+      } else {
+        response =
+            new StripeResponse(
+                200, HttpHeaders.of(Collections.emptyMap()), body(url, this.version));
+      }
+      return LiveStripeResponseGetter.processResponse(
+          response, clazz, options.getResponseRetention());
+    }
+
+    @Override
+    public <T extends StripeObjectInterface> CompletableFuture<T> requestAsync(
+        ApiResource.RequestMethod method,
+        String url,
+        Map<String, Object> params,
+        Class<T> clazz,
+        RequestOptions options) {
+      CompletableFuture<T> result = new CompletableFuture<>();
+      try {
+        result.complete(request(method, url, params, clazz, options));
+      } catch (StripeException e) {
+        result.completeExceptionally(e);
+      }
+      return result;
+    }
+
+    @Override
+    public <T extends StripeObjectInterface> T oauthRequest(
+        ApiResource.RequestMethod method,
+        String url,
+        Map<String, Object> params,
+        Class<T> clazz,
+        RequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.withSettings;
+
+import com.stripe.exception.CircuitBreakerOpenException;
+import com.stripe.exception.StripeException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class CircuitBreakerTest {
+  private final AtomicLong now = new AtomicLong();
+
+  private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+  private final HttpHeaders emptyHeaders = HttpHeaders.of(Collections.emptyMap());
+
+  private static StripeRequest request(String path) throws StripeException {
+    return new StripeRequest(
+        ApiResource.RequestMethod.GET,
+        "https://api.stripe.com" + path,
+        null,
+        RequestOptions.builder().setMaxNetworkRetries(2).build());
+  }
+
+  private CircuitBreaker.Builder builder() {
+    return CircuitBreaker.builder()
+        .setNanoTime(this.now::get)
+        .setWindowSize(4)
+        .setMinimumCalls(4)
+        .setProbes(2)
+        .setOpenDuration(Duration.ofSeconds(10))
+        .addListener((circuit, from, to) -> this.events.add(circuit + " " + from + "->" + to));
+  }
+
+  private void call(CircuitBreaker breaker, StripeRequest request, boolean failed)
+      throws CircuitBreakerOpenException {
+    CircuitBreaker.Permit permit = breaker.acquire(request);
+    permit.start();
+    permit.complete(failed);
+  }
+
+  @Test
+  public void testCircuitOf() throws Exception {
+    assertEquals(
+        "api.stripe.com/v1/customers/*",
+        CircuitBreaker.circuitOf(new URL("https://api.stripe.com/v1/customers/cus_123?expand=a")));
+    assertEquals(
+        "api.stripe.com/v1/payment_intents/*/confirm",
+        CircuitBreaker.circuitOf(
+            new URL("https://api.stripe.com/v1/payment_intents/pi_1/confirm")));
+    assertEquals(
+        "api.seamlesspay.com/charges",
+        CircuitBreaker.circuitOf(new URL("https://api.seamlesspay.com/charges")));
+    assertEquals(
+        "api.stripe.com/v2/*/v",
+        CircuitBreaker.circuitOf(new URL("https://api.stripe.com/v2/v1a/v")));
+  }
+
+  @Test
+  public void testBoundsCircuits() throws StripeException {
+    CircuitBreaker breaker = builder().build();
+    StripeRequest failing = request("/v1/charges");
+    for (int i = 0; i < 4; i++) {
+      call(breaker, failing, true);
+    }
+
+    // Ids without digits each get a circuit.
+    for (int i = 0; i < CircuitBreaker.MAX_CIRCUITS + 10; i++) {
+      StringBuilder id = new StringBuilder("cus_");
+      for (int n = i; n > 0; n /= 26) {
+        id.append((char) ('a' + n % 26));
+      }
+      call(breaker, request("/v1/customers/" + id), false);
+    }
+
+    assertTrue(breaker.circuitCount() <= CircuitBreaker.MAX_CIRCUITS);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState(failing));
+  }
+
+  @Test
+  public void testOpensOnFailureRate() throws StripeException {
+    CircuitBreaker breaker = builder().setFailureRateThreshold(0.5).build();
+    StripeRequest request = request("/v1/charges/ch_123");
+
+    call(breaker, request, true);
+    call(breaker, request, false);
+    call(breaker, request, false);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(request));
+    call(breaker, request, true);
+
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState(request));
+    CircuitBreakerOpenException exception =
+        assertThrows(CircuitBreakerOpenException.class, () -> breaker.acquire(request));
+    assertEquals("api.stripe.com/v1/charges/*", exception.getCircuit());
+
+    // Other endpoints have circuits of their own.
+    StripeRequest other = request("/v1/customers");
+    call(breaker, other, false);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(other));
+  }
+
+  @Test
+  public void testOpensOnSlowCalls() throws StripeException {
+    CircuitBreaker breaker =
+        builder().setSlowCallDuration(Duration.ofSeconds(1)).setSlowCallRateThreshold(1).build();
+    StripeRequest request = request("/v1/charges");
+
+    for (int i = 0; i < 4; i++) {
+      CircuitBreaker.Permit permit = breaker.acquire(request);
+      permit.start();
+      this.now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+      permit.complete(false);
+    }
+
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState(request));
+  }
+
+  @Test
+  public void testHalfOpenProbes() throws StripeException {
+    CircuitBreaker breaker = builder().build();
+    StripeRequest request = request("/v1/charges");
+    for (int i = 0; i < 4; i++) {
+      call(breaker, request, true);
+    }
+
+    this.now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    CircuitBreaker.Permit first = breaker.acquire(request);
+    CircuitBreaker.Permit second = breaker.acquire(request);
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(request));
+    // No more than the probes are let through.
+    assertThrows(CircuitBreakerOpenException.class, () -> breaker.acquire(request));
+    // A probe that is not sent is given back.
+    second.cancel();
+    second = breaker.acquire(request);
+
+    first.start();
+    first.complete(false);
+    second.start();
+    second.complete(true);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState(request));
+
+    this.now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    call(breaker, request, false);
+    call(breaker, request, false);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(request));
+
+    assertEquals(
+        Arrays.asList(
+            "api.stripe.com/v1/charges CLOSED->OPEN",
+            "api.stripe.com/v1/charges OPEN->HALF_OPEN",
+            "api.stripe.com/v1/charges HALF_OPEN->OPEN",
+            "api.stripe.com/v1/charges OPEN->HALF_OPEN",
+            "api.stripe.com/v1/charges HALF_OPEN->CLOSED"),
+        this.events);
+  }
+
+  @Test
+  public void testHttpClientFailsFast() throws Exception {
+    HttpClient client =
+        Mockito.mock(
+            HttpClient.class,
+            withSettings().useConstructor().defaultAnswer(Mockito.CALLS_REAL_METHODS));
+    client.networkRetriesSleep = false;
+    client.setCircuitBreaker(builder().build());
+    StripeRequest request = request("/v1/charges");
+    Mockito.when(client.request(request))
+        .thenReturn(new StripeResponse(503, this.emptyHeaders, "{}"));
+
+    // The first request and its retries fail, the second opens the circuit on its first retry.
+    assertEquals(503, client.requestWithRetries(request).code());
+    assertThrows(CircuitBreakerOpenException.class, () -> client.requestWithRetries(request));
+    Mockito.verify(client, Mockito.times(4)).request(request);
+
+    ExecutionException exception =
+        assertThrows(
+            ExecutionException.class, () -> client.requestWithRetriesAsync(request).get());
+    assertEquals(CircuitBreakerOpenException.class, exception.getCause().getClass());
+    Mockito.verify(client, Mockito.times(4)).request(request);
+  }
+}
@@ -0,0 +1,119 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.annotations.SerializedName;
+import com.stripe.model.Product;
+import com.stripe.model.StripeObject;
+import com.stripe.param.FileCreateParams;
+import com.stripe.param.common.EmptyParam;
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class ClassMetadataTest {
+  enum TestEnum {
+    @SerializedName("foo")
+    FOO,
+    BAR
+  }
+
+  // The fields are implicitly used in testing serialization
+  @SuppressWarnings("UnusedVariable")
+  private static class BaseParams extends ApiRequestParams {
+    private static final String CONSTANT = "constant";
+
+    private String baseValue;
+  }
+
+  @SuppressWarnings("UnusedVariable")
+  private static class TestParams extends BaseParams {
+    private String camelCaseValue;
+
+    @SerializedName("renamed")
+    private Long value;
+
+    private transient String transientValue;
+
+    @SerializedName(ApiRequestParams.EXTRA_PARAMS_KEY)
+    private Map<String, Object> extraParams;
+  }
+
+  @Test
+  public void testKinds() {
+    assertEquals(ClassMetadata.Kind.PARAMS, ClassMetadata.of(TestParams.class).kind());
+    assertEquals(ClassMetadata.Kind.ENUM_PARAM, ClassMetadata.of(EmptyParam.class).kind());
+    assertEquals(ClassMetadata.Kind.STRING, ClassMetadata.of(String.class).kind());
+    assertEquals(ClassMetadata.Kind.MAP, ClassMetadata.of(HashMap.class).kind());
+    assertEquals(ClassMetadata.Kind.FILE, ClassMetadata.of(java.io.File.class).kind());
+    assertEquals(
+        ClassMetadata.Kind.INPUT_STREAM, ClassMetadata.of(ByteArrayInputStream.class).kind());
+    assertEquals(ClassMetadata.Kind.COLLECTION, ClassMetadata.of(ArrayList.class).kind());
+    assertEquals(ClassMetadata.Kind.ARRAY, ClassMetadata.of(int[].class).kind());
+    assertEquals(ClassMetadata.Kind.ENUM, ClassMetadata.of(TestEnum.class).kind());
+    assertEquals(ClassMetadata.Kind.BOOLEAN, ClassMetadata.of(Boolean.class).kind());
+    assertEquals(ClassMetadata.Kind.NUMBER, ClassMetadata.of(BigDecimal.class).kind());
+    assertEquals(ClassMetadata.Kind.OTHER, ClassMetadata.of(Object.class).kind());
+  }
+
+  @Test
+  public void testMetadataIsCached() {
+    assertSame(ClassMetadata.of(TestParams.class), ClassMetadata.of(TestParams.class));
+  }
+
+  @Test
+  public void testParamsFields() {
+    ClassMetadata metadata = ClassMetadata.of(TestParams.class);
+
+    List<String> names =
+        metadata.fields().stream().map(field -> field.name).collect(Collectors.toList());
+    List<String> expected = new ArrayList<>();
+    expected.add("camel_case_value");
+    expected.add("renamed");
+    expected.add(ApiRequestParams.EXTRA_PARAMS_KEY);
+    expected.add("base_value");
+    assertEquals(expected, names);
+
+    assertTrue(metadata.field(ApiRequestParams.EXTRA_PARAMS_KEY).extraParams);
+    assertFalse(metadata.field("renamed").extraParams);
+    assertNull(metadata.field("transient_value"));
+
+    TestParams params = new TestParams();
+    params.value = 42L;
+    assertEquals(42L, metadata.field("renamed").get(params));
+  }
+
+  @Test
+  public void testEnumNames() {
+    ClassMetadata metadata = ClassMetadata.of(TestEnum.class);
+
+    assertEquals("foo", metadata.enumName(TestEnum.FOO));
+    assertEquals("BAR", metadata.enumName(TestEnum.BAR));
+    assertEquals("", ClassMetadata.of(EmptyParam.class).enumName(EmptyParam.EMPTY));
+    assertNull(ClassMetadata.of(String.class).enumName("foo"));
+  }
+
+  @Test
+  public void testOverridesToMap() {
+    assertTrue(ClassMetadata.of(FileCreateParams.class).overridesToMap());
+    assertFalse(ClassMetadata.of(TestParams.class).overridesToMap());
+    assertFalse(ClassMetadata.of(String.class).overridesToMap());
+  }
+
+  @Test
+  public void testIdField() {
+    assertEquals("id", ClassMetadata.of(Product.class).idField().getName());
+    assertEquals(Product.class, ClassMetadata.of(Product.class).idField().getDeclaringClass());
+    assertNull(ClassMetadata.of(StripeObject.class).idField());
+    assertNull(ClassMetadata.of(TestParams.class).idField());
+  }
+}
@@ -0,0 +1,168 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class EventDeduplicatorTest {
+  private static class MutableClock extends Clock {
+    private long millis = 1_600_000_000_000L;
+
+    void advance(Duration duration) {
+      this.millis += duration.toMillis();
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(this.millis);
+    }
+  }
+
+  private final MutableClock clock = new MutableClock();
+
+  @Test
+  public void testMarkSeen() throws IOException {
+    EventDeduplicator deduplicator = EventDeduplicator.builder().setClock(this.clock).build();
+
+    assertFalse(deduplicator.hasSeen("evt_123"));
+    assertTrue(deduplicator.markSeen("evt_123"));
+    assertFalse(deduplicator.markSeen("evt_123"));
+    assertTrue(deduplicator.hasSeen("evt_123"));
+    assertTrue(deduplicator.markSeen("evt_456"));
+    assertEquals(2, deduplicator.size());
+
+    deduplicator.forget("evt_123");
+    assertFalse(deduplicator.hasSeen("evt_123"));
+    assertTrue(deduplicator.hasSeen("evt_456"));
+    assertEquals(1, deduplicator.size());
+  }
+
+  @Test
+  public void testMatchesSetWithCollidingSlots() throws IOException {
+    // A tiny table, so that inserts and removals constantly collide.
+    EventDeduplicator deduplicator =
+        EventDeduplicator.builder().setMaxEvents(32).setBuckets(2).setClock(this.clock).build();
+    Set<String> expected = new HashSet<>();
+    Random random = new Random(42);
+
+    for (int i = 0; i < 10_000; i++) {
+      String id = "evt_" + random.nextInt(40);
+      if (random.nextBoolean()) {
+        if (expected.size() < 16 || expected.contains(id)) {
+          assertEquals(expected.add(id), deduplicator.markSeen(id));
+        }
+      } else {
+        deduplicator.forget(id);
+        expected.remove(id);
+      }
+      for (String seen : expected) {
+        assertTrue(deduplicator.hasSeen(seen));
+      }
+      assertEquals(expected.size(), deduplicator.size());
+    }
+  }
+
+  @Test
+  public void testExpiry() throws IOException {
+    EventDeduplicator deduplicator =
+        EventDeduplicator.builder()
+            .setRetention(Duration.ofHours(4))
+            .setBuckets(4)
+            .setClock(this.clock)
+            .build();
+
+    deduplicator.markSeen("evt_old");
+    this.clock.advance(Duration.ofHours(1));
+    deduplicator.markSeen("evt_new");
+    this.clock.advance(Duration.ofMinutes(150));
+
+    assertTrue(deduplicator.hasSeen("evt_old"));
+    assertTrue(deduplicator.hasSeen("evt_new"));
+
+    this.clock.advance(Duration.ofMinutes(31));
+    assertFalse(deduplicator.hasSeen("evt_old"));
+    assertTrue(deduplicator.hasSeen("evt_new"));
+
+    this.clock.advance(Duration.ofDays(1));
+    assertFalse(deduplicator.hasSeen("evt_new"));
+    assertEquals(0, deduplicator.size());
+  }
+
+  @Test
+  public void testMemoryIsBounded() throws IOException {
+    EventDeduplicator deduplicator =
+        EventDeduplicator.builder().setMaxEvents(100).setBuckets(4).setClock(this.clock).build();
+
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(deduplicator.markSeen("evt_" + i));
+    }
+
+    assertTrue(deduplicator.size() <= 100);
+    assertTrue(deduplicator.hasSeen("evt_999"));
+    assertFalse(deduplicator.hasSeen("evt_0"));
+  }
+
+  @Test
+  public void testMemoryMappedFile(@TempDir Path directory) throws IOException {
+    Path file = directory.resolve("events.dedup");
+
+    try (EventDeduplicator deduplicator =
+        EventDeduplicator.builder().setFile(file).setMaxEvents(1000).setClock(this.clock).build()) {
+      assertTrue(deduplicator.markSeen("evt_123"));
+    }
+
+    try (EventDeduplicator deduplicator =
+        EventDeduplicator.builder().setFile(file).setMaxEvents(1000).setClock(this.clock).build()) {
+      assertFalse(deduplicator.markSeen("evt_123"));
+      assertFalse(deduplicator.hasSeen("evt_456"));
+    }
+
+    // A file written with other settings is started over.
+    try (EventDeduplicator deduplicator =
+        EventDeduplicator.builder()
+            .setFile(file)
+            .setMaxEvents(1000)
+            .setBuckets(3)
+            .setClock(this.clock)
+            .build()) {
+      assertFalse(deduplicator.hasSeen("evt_123"));
+    }
+  }
+
+  @Test
+  public void testBuilderValidation() {
+    assertThrows(
+        IllegalArgumentException.class, () -> EventDeduplicator.builder().setMaxEvents(0));
+    assertThrows(IllegalArgumentException.class, () -> EventDeduplicator.builder().setBuckets(1));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> EventDeduplicator.builder().setRetention(Duration.ZERO));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> EventDeduplicator.builder().setMaxEvents(Integer.MAX_VALUE).build());
+  }
+}
@@ -0,0 +1,322 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.stripe.param.ChargeCreateParams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the single-pass {@link FormWriter} encodes params byte for byte as the original
+ * {@link FormEncoder} implementation, which is kept below as the reference.
+ */
+public class FormEncoderDifferentialTest {
+  private static final String[] STRINGS = {
+    "",
+    "foo",
+    "with space",
+    "a+b=c&d?e",
+    "%5B[]%5D",
+    "[nested]",
+    "a[b]",
+    "[",
+    "]]",
+    "-_.*~!'()",
+    "é",
+    "日本語",
+    "emoji 😀",
+    "lone \uD800 high",
+    "lone \uDC00 low",
+    "trailing \uD83D",
+    "\u0000\u007F\u0080߿ࠀ￿",
+    "tab\tnewline\ncr\r",
+    "/:;@,$#",
+  };
+
+  private final Random random = new Random(0x5eed);
+
+  @Test
+  public void testRandomParams() throws IOException {
+    for (int i = 0; i < 2_000; i++) {
+      Map<String, Object> params = randomMap(3);
+      assertSameEncoding(params);
+    }
+  }
+
+  @Test
+  public void testEdgeCases() throws IOException {
+    Map<String, Object> params = new LinkedHashMap<>();
+    for (String s : STRINGS) {
+      params.put(s, s);
+      Map<String, Object> nested = new LinkedHashMap<>();
+      nested.put(s, s);
+      nested.put("", s);
+      params.put("nested " + s, nested);
+    }
+    params.put("empty_list", new ArrayList<>());
+    params.put("empty_array", new String[0]);
+    params.put("empty_map", new HashMap<>());
+    params.put("list_of_empty_maps", Arrays.asList(new HashMap<>(), new HashMap<>()));
+    params.put("list_of_empty_lists", Arrays.asList(new ArrayList<>(), new ArrayList<>()));
+    params.put("null", null);
+    params.put("list_with_null", Arrays.asList("a", null, "b"));
+    params.put("ints", new int[] {1, -2, 3});
+    params.put("chars", new char[] {'a', ' ', 'é'});
+    params.put("decimal", new BigDecimal("1.50"));
+    params.put("enum", FormEncoderTest.TestEnum.FOO);
+    params.put("bool", true);
+    params.put("", "empty key");
+    params.put("[0]", Arrays.asList("bracketed", "key"));
+    assertSameEncoding(params);
+
+    List<Object> longList = new ArrayList<>();
+    for (int i = 0; i < 1_000; i++) {
+      longList.add(i);
+    }
+    assertSameEncoding(singletonParams("long", longList));
+    assertSameEncoding(singletonParams("long string", new String(new char[100_000])));
+  }
+
+  @Test
+  public void testTypedParams() throws IOException {
+    Map<String, String> metadata = new HashMap<>();
+    metadata.put("order_id", "1043");
+    metadata.put("note", "Ünïcödé & [brackets]");
+
+    ChargeCreateParams params =
+        ChargeCreateParams.builder()
+            .setAmount(2000L)
+            .setCurrency("usd")
+            .setCustomer("cus_123")
+            .setDescription("Order #1043")
+            .setMetadata(metadata)
+            .setShipping(
+                ChargeCreateParams.Shipping.builder()
+                    .setName("Jenny Rosen")
+                    .setPhone("+15555555555")
+                    .setAddress(
+                        ChargeCreateParams.Shipping.Address.builder()
+                            .setLine1("510 Townsend St")
+                            .setCity("San Francisco")
+                            .setPostalCode("94103")
+                            .build())
+                    .build())
+            .addExpand("customer")
+            .addExpand("balance_transaction")
+            .putExtraParam("extra[nested]", "value")
+            .build();
+
+    assertSameEncoding(params.toMap());
+  }
+
+  @Test
+  public void testNameValueCollection() {
+    List<KeyValuePair<String, String>> pairs = new ArrayList<>();
+    for (String s : STRINGS) {
+      pairs.add(new KeyValuePair<>(s, s));
+    }
+    pairs.add(new KeyValuePair<>(null, "null key"));
+    pairs.add(new KeyValuePair<>("null value", null));
+
+    assertEquals(referenceQueryString(pairs), FormEncoder.createQueryString(pairs));
+    for (String s : STRINGS) {
+      assertEquals(referenceUrlEncode(s), FormEncoder.urlEncode(s));
+    }
+  }
+
+  @Test
+  public void testMultipartFallback() throws IOException {
+    Map<String, Object> params = new LinkedHashMap<>();
+    params.put("purpose", "dispute_evidence");
+    params.put("file", new ByteArrayInputStream(new byte[] {1, 2, 3}));
+
+    HttpContent content = FormEncoder.createHttpContent(params);
+
+    assertEquals(true, content.contentType().startsWith("multipart/form-data; boundary="));
+    // Files are left out of query strings.
+    assertEquals("purpose=dispute_evidence", FormEncoder.createQueryString(params));
+  }
+
+  private static void assertSameEncoding(Map<String, Object> params) throws IOException {
+    String expected = referenceQueryString(params);
+    assertEquals(expected, FormEncoder.createQueryString(params));
+    assertArrayEquals(
+        expected.getBytes(StandardCharsets.UTF_8),
+        FormEncoder.createHttpContent(params).byteArrayContent());
+  }
+
+  private Map<String, Object> randomMap(int depth) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    int size = this.random.nextInt(5);
+    for (int i = 0; i < size; i++) {
+      map.put(randomString(), randomValue(depth - 1));
+    }
+    return map;
+  }
+
+  private Object randomValue(int depth) {
+    int kind = this.random.nextInt(depth > 0 ? 8 : 5);
+    switch (kind) {
+      case 0:
+        return null;
+      case 1:
+        return this.random.nextLong();
+      case 2:
+        return this.random.nextBoolean();
+      case 3:
+      case 4:
+        return randomString();
+      case 5:
+        return randomMap(depth);
+      case 6:
+        {
+          List<Object> list = new ArrayList<>();
+          int size = this.random.nextInt(4);
+          for (int i = 0; i < size; i++) {
+            list.add(randomValue(depth - 1));
+          }
+          return list;
+        }
+      default:
+        {
+          Object[] array = new Object[this.random.nextInt(3)];
+          for (int i = 0; i < array.length; i++) {
+            array[i] = randomValue(depth - 1);
+          }
+          return array;
+        }
+    }
+  }
+
+  private String randomString() {
+    if (this.random.nextBoolean()) {
+      return STRINGS[this.random.nextInt(STRINGS.length)];
+    }
+    char[] chars = new char[this.random.nextInt(8)];
+    for (int i = 0; i < chars.length; i++) {
+      // Mostly ASCII, with some of everything else, surrogates included.
+      int bound = (this.random.nextInt(4) == 0) ? 0x10000 : 0x80;
+      chars[i] = (char) this.random.nextInt(bound);
+    }
+    return new String(chars);
+  }
+
+  private static Map<String, Object> singletonParams(String key, Object value) {
+    Map<String, Object> params = new HashMap<>();
+    params.put(key, value);
+    return params;
+  }
+
+  // The original implementation, used as the reference.
+
+  private static String referenceQueryString(Map<String, Object> params) {
+    return referenceQueryString(
+        referenceFlatten(params, null).stream()
+            .filter(kvp -> kvp.getValue() instanceof String)
+            .map(kvp -> new KeyValuePair<String, String>(kvp.getKey(), (String) kvp.getValue()))
+            .collect(Collectors.toList()));
+  }
+
+  private static String referenceQueryString(Collection<KeyValuePair<String, String>> pairs) {
+    return String.join(
+        "&",
+        pairs.stream()
+            .map(
+                kvp ->
+                    String.format(
+                        "%s=%s",
+                        referenceUrlEncode(kvp.getKey()), referenceUrlEncode(kvp.getValue())))
+            .collect(Collectors.toList()));
+  }
+
+  private static String referenceUrlEncode(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return URLEncoder.encode(value, StandardCharsets.UTF_8.name())
+          .replaceAll("%5B", "[")
+          .replaceAll("%5D", "]");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static List<KeyValuePair<String, Object>> referenceFlatten(Object value, String prefix) {
+    List<KeyValuePair<String, Object>> flat = new ArrayList<>();
+    if (value == null) {
+      flat.add(new KeyValuePair<>(prefix, ""));
+      return flat;
+    }
+
+    ClassMetadata metadata = ClassMetadata.of(value.getClass());
+    switch (metadata.kind()) {
+      case MAP:
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          flat.addAll(
+              referenceFlatten(
+                  entry.getValue(), referencePrefix(entry.getKey().toString(), prefix)));
+        }
+        return flat;
+      case STRING:
+      case FILE:
+      case INPUT_STREAM:
+        flat.add(new KeyValuePair<>(prefix, value));
+        return flat;
+      case COLLECTION:
+      case ARRAY:
+        List<Object> collection = new ArrayList<>();
+        if (value instanceof Collection) {
+          collection.addAll((Collection<?>) value);
+        } else {
+          for (int i = 0; i < Array.getLength(value); i++) {
+            collection.add(Array.get(value, i));
+          }
+        }
+        int index = 0;
+        for (Object element : collection) {
+          flat.addAll(referenceFlatten(element, String.format("%s[%d]", prefix, index++)));
+        }
+        if (flat.isEmpty()) {
+          flat.add(new KeyValuePair<>(prefix, ""));
+        }
+        return flat;
+      case ENUM:
+      case ENUM_PARAM:
+        String enumName = metadata.enumName(value);
+        flat.add(new KeyValuePair<>(prefix, (enumName != null) ? enumName : value.toString()));
+        return flat;
+      default:
+        flat.add(new KeyValuePair<>(prefix, value.toString()));
+        return flat;
+    }
+  }
+
+  private static String referencePrefix(String key, String prefix) {
+    if (prefix == null || prefix.isEmpty()) {
+      return key;
+    }
+    int i = key.indexOf("[");
+    if (i == -1) {
+      return String.format("%s[%s]", prefix, key);
+    } else {
+      return String.format("%s[%s][%s]", prefix, key.substring(0, i), key.substring(i));
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.withSettings;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class HedgingPolicyTest {
+  private final HttpHeaders emptyHeaders = HttpHeaders.of(Collections.emptyMap());
+
+  private final List<CompletableFuture<StripeResponse>> attempts =
+      Collections.synchronizedList(new ArrayList<>());
+
+  private ScheduledExecutorService scheduler;
+
+  private StripeRequest request;
+
+  @BeforeEach
+  public void setUp() throws StripeException {
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.request =
+        new StripeRequest(
+            ApiResource.RequestMethod.GET,
+            "https://api.stripe.com/v1/charges/ch_123",
+            null,
+            RequestOptions.builder().setMaxNetworkRetries(0).build());
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.scheduler.shutdownNow();
+  }
+
+  /** Returns a policy that hedges immediately after a single sample. */
+  private HedgingPolicy.Builder builder() {
+    return HedgingPolicy.builder()
+        .setNanoTime(() -> 0)
+        .setMinDelay(Duration.ZERO)
+        .setMinSamples(1);
+  }
+
+  private CompletableFuture<StripeResponse> send(HedgingPolicy policy) throws Exception {
+    CompletableFuture<StripeResponse> result =
+        policy.send(
+            this.request,
+            r -> {
+              CompletableFuture<StripeResponse> attempt = new CompletableFuture<>();
+              this.attempts.add(attempt);
+              return attempt;
+            },
+            this.scheduler);
+    // Tasks due at the same time run in order, so this waits for the hedge, if any.
+    this.scheduler.schedule(() -> {}, 0, TimeUnit.NANOSECONDS).get();
+    return result;
+  }
+
+  private void warmUp(HedgingPolicy policy) throws Exception {
+    CompletableFuture<StripeResponse> result = send(policy);
+    this.attempts.remove(0).complete(response("warm-up"));
+    result.get();
+  }
+
+  private StripeResponse response(String body) {
+    return new StripeResponse(200, this.emptyHeaders, body);
+  }
+
+  @Test
+  public void testNoHedgeWithoutSamples() throws Exception {
+    HedgingPolicy policy = builder().setMinSamples(2).build();
+
+    warmUp(policy);
+    assertFalse(policy.getDelay(this.request).isPresent());
+    send(policy);
+
+    assertEquals(1, this.attempts.size());
+    assertEquals(0, policy.getHedges());
+  }
+
+  @Test
+  public void testBoundsEndpoints() throws Exception {
+    AtomicLong now = new AtomicLong();
+    HedgingPolicy policy = builder().setNanoTime(now::get).build();
+    warmUp(policy);
+
+    // Ids without digits each get an endpoint, which is dropped while it has too few samples.
+    for (int i = 0; i < HedgingPolicy.MAX_ENDPOINTS + 10; i++) {
+      policy.getDelay(customerRequest(i));
+    }
+    assertTrue(policy.endpointCount() <= HedgingPolicy.MAX_ENDPOINTS);
+    assertTrue(policy.getDelay(this.request).isPresent());
+
+    // Idle endpoints are dropped too, even with enough samples.
+    now.addAndGet(TimeUnit.MINUTES.toNanos(10));
+    for (int i = 0; i < HedgingPolicy.MAX_ENDPOINTS + 10; i++) {
+      policy.getDelay(customerRequest(i));
+    }
+    assertTrue(policy.endpointCount() <= HedgingPolicy.MAX_ENDPOINTS);
+    assertFalse(policy.getDelay(this.request).isPresent());
+  }
+
+  private static StripeRequest customerRequest(int n) throws StripeException {
+    StringBuilder id = new StringBuilder("cus_");
+    for (; n > 0; n /= 26) {
+      id.append((char) ('a' + n % 26));
+    }
+    return new StripeRequest(
+        ApiResource.RequestMethod.GET,
+        "https://api.stripe.com/v1/customers/" + id,
+        null,
+        RequestOptions.builder().setMaxNetworkRetries(0).build());
+  }
+
+  @Test
+  public void testFirstResponseWins() throws Exception {
+    HedgingPolicy policy = builder().build();
+    warmUp(policy);
+    assertEquals(Duration.ZERO, policy.getDelay(this.request).get());
+
+    CompletableFuture<StripeResponse> result = send(policy);
+    assertEquals(2, this.attempts.size());
+    StripeResponse hedgeResponse = response("hedge");
+    this.attempts.get(1).complete(hedgeResponse);
+    this.attempts.get(0).complete(response("first"));
+
+    assertSame(hedgeResponse, result.get());
+    assertEquals(1, policy.getHedges());
+    assertEquals(1, policy.getHedgeWins());
+  }
+
+  @Test
+  public void testFailureWaitsForHedge() throws Exception {
+    HedgingPolicy policy = builder().build();
+    warmUp(policy);
+
+    CompletableFuture<StripeResponse> result = send(policy);
+    ApiConnectionException failure = new ApiConnectionException("first");
+    this.attempts.get(0).completeExceptionally(failure);
+    assertFalse(result.isDone());
+    StripeResponse hedgeResponse = response("hedge");
+    this.attempts.get(1).complete(hedgeResponse);
+    assertSame(hedgeResponse, result.get());
+
+    this.attempts.clear();
+    result = send(policy);
+    this.attempts.get(0).completeExceptionally(failure);
+    this.attempts.get(1).completeExceptionally(new ApiConnectionException("hedge"));
+    ExecutionException exception = assertThrows(ExecutionException.class, result::get);
+    assertSame(failure, exception.getCause());
+  }
+
+  @Test
+  public void testBudget() throws Exception {
+    HedgingPolicy policy = builder().setBudget(0.5).setMaxBudgetBalance(1).build();
+    warmUp(policy);
+
+    send(policy);
+    assertEquals(2, this.attempts.size());
+    // Half a hedge has been earned since.
+    send(policy);
+    assertEquals(3, this.attempts.size());
+    send(policy);
+    assertEquals(5, this.attempts.size());
+    assertEquals(2, policy.getHedges());
+  }
+
+  @Test
+  public void testHttpClientHedgesGetRequests() throws Exception {
+    HttpClient client =
+        Mockito.mock(
+            HttpClient.class,
+            withSettings().useConstructor().defaultAnswer(Mockito.CALLS_REAL_METHODS));
+    HedgingPolicy policy =
+        HedgingPolicy.builder().setMinDelay(Duration.ZERO).setMinSamples(1).build();
+    client.setHedgingPolicy(policy);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    Mockito.when(client.request(this.request))
+        .thenAnswer(
+            invocation -> {
+              if (calls.incrementAndGet() > 1 && policy.getHedges() == 0) {
+                // The first request after the warm-up is slow, unless it starts after its hedge.
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+                return response("slow");
+              }
+              return response("fast");
+            });
+
+    assertEquals("fast", client.requestWithRetries(this.request).body());
+    assertEquals("fast", client.requestWithRetries(this.request).body());
+    release.countDown();
+
+    assertEquals(1, policy.getHedges());
+  }
+}
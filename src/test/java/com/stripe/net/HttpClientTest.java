@@ -14,6 +14,11 @@ import com.stripe.exception.StripeException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -179,4 +184,87 @@ public class HttpClientTest extends BaseStripeTest {
     assertEquals(200, response.code());
     assertEquals(1, response.numRetries());
   }
+
+  @Test
+  public void testRequestWithRetriesAsyncConnectException()
+      throws StripeException, InterruptedException, ExecutionException {
+    Mockito.when(this.client.request(this.request))
+        .thenThrow(new ApiConnectionException("foo", new ConnectException("timeout or something")))
+        .thenReturn(new StripeResponse(200, emptyHeaders, "{}"));
+
+    StripeResponse response = this.client.requestWithRetriesAsync(this.request).get();
+
+    assertNotNull(response);
+    assertEquals(200, response.code());
+    assertEquals(1, response.numRetries());
+  }
+
+  @Test
+  public void testRequestWithRetriesAsyncRethrowAfterAllAttempts() throws StripeException {
+    Mockito.when(this.client.request(this.request))
+        .thenThrow(new ApiConnectionException("1", new ConnectException("timeout 1")))
+        .thenThrow(new ApiConnectionException("2", new ConnectException("timeout 2")))
+        .thenThrow(new ApiConnectionException("3", new ConnectException("timeout 3")));
+
+    CompletableFuture<StripeResponse> future = this.client.requestWithRetriesAsync(this.request);
+
+    ExecutionException e = assertThrows(ExecutionException.class, future::get);
+    assertTrue(e.getCause() instanceof ApiConnectionException);
+    assertEquals("3", e.getCause().getMessage());
+  }
+
+  @Test
+  public void testRequestWithRetriesAsyncServiceUnavailable()
+      throws StripeException, InterruptedException, ExecutionException {
+    Mockito.when(this.client.request(this.request))
+        .thenReturn(new StripeResponse(503, emptyHeaders, "{}"))
+        .thenReturn(new StripeResponse(503, emptyHeaders, "{}"))
+        .thenReturn(new StripeResponse(503, emptyHeaders, "{}"));
+
+    StripeResponse response = this.client.requestWithRetriesAsync(this.request).get();
+
+    assertEquals(503, response.code());
+    assertEquals(2, response.numRetries());
+  }
+
+  @Test
+  public void testRequestAsyncUsesExecutorFromOptions()
+      throws StripeException, InterruptedException, ExecutionException {
+    AtomicInteger executions = new AtomicInteger();
+    Executor executor =
+        runnable -> {
+          executions.incrementAndGet();
+          runnable.run();
+        };
+    StripeRequest request =
+        new StripeRequest(
+            ApiResource.RequestMethod.GET,
+            "http://example.com/get",
+            null,
+            RequestOptions.builder().setExecutor(executor).build());
+    Mockito.when(this.client.request(request))
+        .thenReturn(new StripeResponse(200, emptyHeaders, "{}"));
+
+    StripeResponse response = this.client.requestAsync(request).get();
+
+    assertEquals(200, response.code());
+    assertEquals(1, executions.get());
+  }
+
+  @Test
+  public void testRequestWithRetriesAsyncCompletesOnError() throws StripeException {
+    StripeRequest request =
+        new StripeRequest(
+            ApiResource.RequestMethod.GET,
+            "http://example.com/get",
+            null,
+            RequestOptions.builder().setExecutor(Runnable::run).build());
+    Mockito.when(this.client.request(request)).thenThrow(new AssertionError("boom"));
+
+    ExecutionException e =
+        assertThrows(
+            ExecutionException.class,
+            () -> this.client.requestWithRetriesAsync(request).get(10, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof AssertionError);
+  }
 }
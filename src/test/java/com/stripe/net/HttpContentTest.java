@@ -1,15 +1,24 @@
 package com.stripe.net;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.stripe.BaseStripeTest;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class HttpContentTest extends BaseStripeTest {
   @Test
@@ -177,4 +186,75 @@ public class HttpContentTest extends BaseStripeTest {
     assertEquals(9, stringContent.length());
     assertEquals("key=value", stringContent);
   }
+
+  @Test
+  public void testStreamingMultipartFormDataContentMatchesBuffered(@TempDir Path dir)
+      throws IOException {
+    File file = dir.resolve("evidence.pdf").toFile();
+    Files.write(file.toPath(), "%PDF-1.4 ク".getBytes(StandardCharsets.UTF_8));
+
+    HttpContent streamed =
+        HttpContent.buildStreamingMultipartFormDataContent(
+            multipartData(file, "Hello World!"), "test-boundary");
+    HttpContent buffered =
+        HttpContent.buildMultipartFormDataContent(
+            multipartData(file, "Hello World!"), "test-boundary");
+
+    assertTrue(streamed.isStreamed());
+    assertEquals(buffered.contentType(), streamed.contentType());
+    // The length of input streams is unknown until they are read.
+    assertEquals(-1, streamed.contentLength());
+    assertTrue(streamed.isRepeatable());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    streamed.writeTo(out);
+    assertArrayEquals(buffered.byteArrayContent(), out.toByteArray());
+    assertFalse(streamed.isRepeatable());
+    assertThrows(IOException.class, () -> streamed.writeTo(new ByteArrayOutputStream()));
+  }
+
+  @Test
+  public void testStreamingMultipartFormDataContentRereadsFiles(@TempDir Path dir)
+      throws IOException {
+    File file = dir.resolve("evidence.png").toFile();
+    byte[] data = new byte[200_000];
+    data[123_456] = 42;
+    Files.write(file.toPath(), data);
+    List<KeyValuePair<String, Object>> fields = new ArrayList<>();
+    fields.add(new KeyValuePair<String, Object>("purpose", "dispute_evidence"));
+    fields.add(new KeyValuePair<String, Object>("file", file));
+
+    HttpContent content =
+        HttpContent.buildStreamingMultipartFormDataContent(fields, "test-boundary");
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    content.writeTo(first);
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    content.writeTo(second);
+
+    assertEquals(first.size(), content.contentLength());
+    assertArrayEquals(first.toByteArray(), second.toByteArray());
+    assertArrayEquals(
+        HttpContent.buildMultipartFormDataContent(fields, "test-boundary").byteArrayContent(),
+        first.toByteArray());
+    assertTrue(content.isRepeatable());
+
+    // Files are checked when the content is built, and must not change until it is sent.
+    Files.write(file.toPath(), new byte[10]);
+    assertThrows(IOException.class, () -> content.writeTo(new ByteArrayOutputStream()));
+    assertThrows(
+        FileNotFoundException.class,
+        () ->
+            HttpContent.buildStreamingMultipartFormDataContent(
+                multipartData(dir.resolve("missing.pdf").toFile(), "")));
+  }
+
+  private static List<KeyValuePair<String, Object>> multipartData(File file, String stream) {
+    List<KeyValuePair<String, Object>> data = new ArrayList<KeyValuePair<String, Object>>();
+    data.add(new KeyValuePair<String, Object>("purpose", "dispute_evidenceク"));
+    data.add(new KeyValuePair<String, Object>("file", file));
+    data.add(
+        new KeyValuePair<String, Object>(
+            "stream", new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8))));
+    return data;
+  }
 }
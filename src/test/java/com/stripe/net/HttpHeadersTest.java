@@ -2,6 +2,7 @@ package com.stripe.net;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -10,6 +11,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.stripe.BaseStripeTest;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.Test;
@@ -101,4 +103,43 @@ public class HttpHeadersTest extends BaseStripeTest {
         ImmutableMap.of("Some-Header", ImmutableList.of("First value", "Second value")),
         headers.map());
   }
+
+  @Test
+  public void testLastHeaderWinsRegardlessOfCase() {
+    HttpHeaders headers =
+        HttpHeaders.of(this.headerMap).withAdditionalHeader("SOME-HEADER", "Replaced");
+
+    assertEquals(ImmutableList.of("Replaced"), headers.allValues("some-header"));
+    assertEquals(ImmutableMap.of("SOME-HEADER", ImmutableList.of("Replaced")), headers.map());
+  }
+
+  @Test
+  public void testManyHeaders() {
+    Map<String, List<String>> headerMap = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      headerMap.put("Header-" + i, ImmutableList.of("value " + i));
+    }
+    headerMap.put(null, ImmutableList.of("HTTP/1.1 200 OK"));
+    HttpHeaders headers = HttpHeaders.of(headerMap);
+
+    assertEquals(101, headers.map().size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals("value " + i, headers.firstValue("HEADER-" + i).orElse(null));
+    }
+    assertEquals("HTTP/1.1 200 OK", headers.firstValue(null).orElse(null));
+    assertFalse(headers.firstValue("Header-100").isPresent());
+    assertEquals(headerMap, headers.map());
+  }
+
+  @Test
+  public void testEqualsIgnoresCase() {
+    HttpHeaders headers = HttpHeaders.of(this.headerMap);
+    HttpHeaders lowerCase =
+        HttpHeaders.of(
+            ImmutableMap.of("some-header", ImmutableList.of("First value", "Second value")));
+
+    assertEquals(headers, lowerCase);
+    assertEquals(headers.hashCode(), lowerCase.hashCode());
+    assertNotEquals(headers, headers.withAdditionalHeader("Other-Header", "value"));
+  }
 }
@@ -0,0 +1,86 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+  private static LatencyHistogram histogramOf(long... latencies) {
+    long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+    long sum = 0;
+    long max = 0;
+    for (long latency : latencies) {
+      counts[LatencyHistogram.bucketOf(latency)]++;
+      sum += latency;
+      max = Math.max(max, latency);
+    }
+    return new LatencyHistogram(counts, sum, max);
+  }
+
+  @Test
+  public void testBuckets() {
+    assertEquals(0, LatencyHistogram.bucketOf(-1));
+    assertEquals(15, LatencyHistogram.bucketOf(15));
+    assertEquals(16, LatencyHistogram.bucketOf(16));
+    assertEquals(31, LatencyHistogram.bucketOf(31));
+    assertEquals(32, LatencyHistogram.bucketOf(32));
+    assertEquals(32, LatencyHistogram.bucketOf(33));
+    assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+
+    // Each latency falls in the bucket whose bounds surround it, within 1/16th of its value.
+    for (long latency = 1; latency < 1L << 44; latency = latency * 3 / 2 + 1) {
+      int bucket = LatencyHistogram.bucketOf(latency);
+      long lower = LatencyHistogram.lowerBound(bucket);
+      long upper = LatencyHistogram.lowerBound(bucket + 1) - 1;
+      assertTrue(lower <= latency && latency <= upper, "latency " + latency);
+      assertTrue(upper - lower <= lower / 16, "latency " + latency);
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    long[] latencies = new long[1000];
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = (i + 1) * 1_000_000L;
+    }
+    LatencyHistogram histogram = histogramOf(latencies);
+
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500_500_000L, histogram.getMeanNanos());
+    assertEquals(1_000_000_000L, histogram.getMaxNanos());
+    assertWithin(500_000_000L, histogram.getValueAtPercentile(50));
+    assertWithin(990_000_000L, histogram.getValueAtPercentile(99));
+    assertWithin(999_000_000L, histogram.getValueAtPercentile(99.9));
+    assertEquals(1_000_000_000L, histogram.getValueAtPercentile(100));
+    assertWithin(1_000_000L, histogram.getValueAtPercentile(0));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(
+        actual >= expected && actual <= expected + expected / 16,
+        "expected about " + expected + " but was " + actual);
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0, LatencyHistogram.EMPTY.getCount());
+    assertEquals(0, LatencyHistogram.EMPTY.getMeanNanos());
+    assertEquals(0, LatencyHistogram.EMPTY.getValueAtPercentile(99));
+    assertThrows(
+        IllegalArgumentException.class, () -> LatencyHistogram.EMPTY.getValueAtPercentile(101));
+  }
+
+  @Test
+  public void testMerge() {
+    LatencyHistogram merged = histogramOf(10, 20).merge(histogramOf(30, 1_000));
+
+    assertEquals(4, merged.getCount());
+    assertEquals(1_060, merged.getSumNanos());
+    assertEquals(1_000, merged.getMaxNanos());
+    assertEquals(30, merged.getValueAtPercentile(75));
+    assertEquals(
+        histogramOf(10, 20, 30, 1_000).getValueAtPercentile(75), merged.getValueAtPercentile(75));
+  }
+}
@@ -0,0 +1,124 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class LatencyRecorderTest {
+  private static final String CUSTOMER = "api.stripe.com/v1/customers/*";
+
+  private static final LatencyRecorder.Series CUSTOMER_OK =
+      new LatencyRecorder.Series(ApiResource.RequestMethod.GET, CUSTOMER, 2);
+
+  private final LatencyRecorder recorder = new LatencyRecorder();
+
+  @Test
+  public void testRecordsPerSeries() {
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 200, 1_000);
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 201, 3_000);
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 404, 500);
+    this.recorder.record(ApiResource.RequestMethod.POST, CUSTOMER, 200, 2_000);
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 0, 10_000);
+
+    Map<LatencyRecorder.Series, LatencyHistogram> snapshot = this.recorder.snapshot();
+
+    assertEquals(4, snapshot.size());
+    assertEquals(2, snapshot.get(CUSTOMER_OK).getCount());
+    assertEquals(3_000, snapshot.get(CUSTOMER_OK).getMaxNanos());
+    assertEquals(
+        1,
+        snapshot
+            .get(new LatencyRecorder.Series(ApiResource.RequestMethod.GET, CUSTOMER, 4))
+            .getCount());
+    assertEquals(
+        10_000,
+        snapshot
+            .get(new LatencyRecorder.Series(ApiResource.RequestMethod.GET, CUSTOMER, 0))
+            .getMaxNanos());
+    assertEquals("GET api.stripe.com/v1/customers/* 2xx", CUSTOMER_OK.toString());
+  }
+
+  @Test
+  public void testIntervals() {
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 200, 1_000);
+    LatencyHistogram first = this.recorder.intervalSnapshot().get(CUSTOMER_OK);
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 200, 2_000);
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 200, 4_000);
+    LatencyHistogram second = this.recorder.intervalSnapshot().get(CUSTOMER_OK);
+
+    assertEquals(1, first.getCount());
+    assertEquals(2, second.getCount());
+    assertEquals(4_000, second.getMaxNanos());
+    assertTrue(this.recorder.intervalSnapshot().isEmpty());
+
+    // The cumulative snapshot still covers every interval.
+    LatencyHistogram total = this.recorder.snapshot().get(CUSTOMER_OK);
+    assertEquals(3, total.getCount());
+    assertEquals(7_000, total.getSumNanos());
+    assertEquals(first.merge(second).getValueAtPercentile(50), total.getValueAtPercentile(50));
+  }
+
+  @Test
+  public void testReset() {
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 200, 1_000);
+    this.recorder.intervalSnapshot();
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 200, 1_000);
+
+    this.recorder.reset();
+
+    assertTrue(this.recorder.snapshot().isEmpty());
+    this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 200, 1_000);
+    assertEquals(1, this.recorder.snapshot().get(CUSTOMER_OK).getCount());
+  }
+
+  @Test
+  public void testRecordsEndEvents() {
+    for (RequestEvent.Type type : RequestEvent.Type.values()) {
+      this.recorder.onEvent(
+          new RequestEvent(
+              type, ApiResource.RequestMethod.GET, CUSTOMER, 0, 200, 5_000, 1_000, 0, 0, null));
+    }
+
+    LatencyHistogram histogram = this.recorder.snapshot().get(CUSTOMER_OK);
+    assertEquals(1, histogram.getCount());
+    assertEquals(5_000, histogram.getMaxNanos());
+    assertNull(
+        this.recorder
+            .snapshot()
+            .get(new LatencyRecorder.Series(ApiResource.RequestMethod.POST, CUSTOMER, 2)));
+  }
+
+  @Test
+  public void testConcurrentRecording() throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 10_000; i++) {
+                  this.recorder.record(ApiResource.RequestMethod.GET, CUSTOMER, 200, i);
+                }
+              });
+      threads.add(thread);
+      thread.start();
+    }
+    long intervals = 0;
+    while (threads.stream().anyMatch(Thread::isAlive)) {
+      LatencyHistogram interval = this.recorder.intervalSnapshot().get(CUSTOMER_OK);
+      intervals += (interval != null) ? interval.getCount() : 0;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    LatencyHistogram last = this.recorder.intervalSnapshot().get(CUSTOMER_OK);
+    intervals += (last != null) ? last.getCount() : 0;
+
+    assertEquals(40_000, intervals);
+    assertEquals(40_000, this.recorder.snapshot().get(CUSTOMER_OK).getCount());
+  }
+}
@@ -0,0 +1,52 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class LruCacheTest {
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    AtomicInteger computed = new AtomicInteger();
+
+    String a = cache.get("a", key -> key + computed.incrementAndGet());
+    cache.get("b", key -> key + computed.incrementAndGet());
+    // Using "a" again makes "b" the least recently used entry.
+    assertSame(a, cache.get("a", key -> key + computed.incrementAndGet()));
+    cache.get("c", key -> key + computed.incrementAndGet());
+
+    assertEquals(2, cache.size());
+    assertEquals(3, computed.get());
+    assertSame(a, cache.get("a", key -> key + computed.incrementAndGet()));
+    assertEquals("b4", cache.get("b", key -> key + computed.incrementAndGet()));
+  }
+
+  @Test
+  public void testDoesNotCacheFailures() throws IOException {
+    LruCache<String, String> cache = new LruCache<>(2);
+
+    assertThrows(
+        IOException.class,
+        () ->
+            cache.get(
+                "a",
+                key -> {
+                  throw new IOException("failed");
+                }));
+    assertEquals(0, cache.size());
+    assertEquals("value", cache.get("a", key -> "value"));
+  }
+
+  @Test
+  public void testReusesApiKeyEncoding() {
+    RequestOptions first = RequestOptions.builder().setApiKey("sk_test_lru").build();
+    RequestOptions second = RequestOptions.builder().setApiKey("sk_test_lru").build();
+
+    assertSame(first.getApiKey(), second.getApiKey());
+  }
+}
@@ -0,0 +1,242 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.stripe.BaseStripeTest;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.StripeException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import lombok.Cleanup;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PooledHttpClientTest extends BaseStripeTest {
+  private PooledHttpClient client;
+
+  @BeforeEach
+  public void setUpClient() {
+    this.client = new PooledHttpClient(2, Duration.ofSeconds(30));
+  }
+
+  @AfterEach
+  public void tearDownClient() {
+    this.client.close();
+  }
+
+  private StripeRequest buildRequest(MockWebServer server, ApiResource.RequestMethod method)
+      throws StripeException {
+    return new StripeRequest(
+        method,
+        server.url("/v1/charges").toString(),
+        null,
+        RequestOptions.builder().setReadTimeout(1000).build());
+  }
+
+  @Test
+  public void testReusesConnection() throws StripeException, IOException, InterruptedException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setBody("{\"id\": \"ch_1\"}"));
+    server.enqueue(new MockResponse().setBody("{\"id\": \"ch_2\"}"));
+    server.start();
+
+    StripeResponse response1 =
+        this.client.request(buildRequest(server, ApiResource.RequestMethod.GET));
+    StripeResponse response2 =
+        this.client.request(buildRequest(server, ApiResource.RequestMethod.POST));
+
+    assertEquals(200, response1.code());
+    assertEquals("{\"id\": \"ch_1\"}", response1.body());
+    assertEquals("{\"id\": \"ch_2\"}", response2.body());
+
+    RecordedRequest request1 = server.takeRequest();
+    RecordedRequest request2 = server.takeRequest();
+    assertEquals("GET", request1.getMethod());
+    assertEquals("POST", request2.getMethod());
+    assertEquals("application/json", request2.getHeader("Content-Type"));
+    // Both requests went over the same connection.
+    assertEquals(0, request1.getSequenceNumber());
+    assertEquals(1, request2.getSequenceNumber());
+    assertEquals(1, this.client.idleConnectionCount());
+  }
+
+  @Test
+  public void testChunkedResponse() throws StripeException, IOException, InterruptedException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setChunkedBody("{\"id\": \"ch_123\", \"amount\": 100}", 4));
+    server.enqueue(new MockResponse().setBody("{}"));
+    server.start();
+
+    StripeResponse response =
+        this.client.request(buildRequest(server, ApiResource.RequestMethod.GET));
+    this.client.request(buildRequest(server, ApiResource.RequestMethod.GET));
+
+    assertEquals("{\"id\": \"ch_123\", \"amount\": 100}", response.body());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(1, server.takeRequest().getSequenceNumber());
+  }
+
+  @Test
+  public void testDoesNotReuseClosedConnection()
+      throws StripeException, IOException, InterruptedException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse().setBody("{}").setSocketPolicy(SocketPolicy.DISCONNECT_AT_END));
+    server.enqueue(new MockResponse().setBody("{}"));
+    server.start();
+
+    this.client.request(buildRequest(server, ApiResource.RequestMethod.GET));
+    StripeResponse response =
+        this.client.request(buildRequest(server, ApiResource.RequestMethod.GET));
+
+    assertEquals(200, response.code());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+  }
+
+  @Test
+  public void testDoesNotResendPostOnClosedConnection()
+      throws StripeException, IOException, InterruptedException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse().setBody("{}").setSocketPolicy(SocketPolicy.DISCONNECT_AT_END));
+    server.enqueue(new MockResponse().setBody("{}"));
+    server.start();
+
+    this.client.request(buildRequest(server, ApiResource.RequestMethod.GET));
+    // The POST may have reached the server before it closed the connection, so it is not sent
+    // again on a new connection.
+    assertThrows(
+        ApiConnectionException.class,
+        () -> this.client.request(buildRequest(server, ApiResource.RequestMethod.POST)));
+
+    assertEquals(1, server.getRequestCount());
+    assertEquals(0, this.client.idleConnectionCount());
+  }
+
+  @Test
+  public void testErrorResponseReleasesConnection()
+      throws StripeException, IOException, InterruptedException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(
+        new MockResponse()
+            .setResponseCode(400)
+            .setBody("{\"error\": {\"message\": \"bad bad bad\"}}"));
+    server.enqueue(new MockResponse().setBody("{}"));
+    server.start();
+
+    StripeResponse response1 =
+        this.client.request(buildRequest(server, ApiResource.RequestMethod.GET));
+    StripeResponse response2 =
+        this.client.request(buildRequest(server, ApiResource.RequestMethod.GET));
+
+    assertEquals(400, response1.code());
+    assertEquals(200, response2.code());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(1, server.takeRequest().getSequenceNumber());
+  }
+
+  @Test
+  public void testReadTimeout() throws StripeException, IOException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setBody("{}").setHeadersDelay(3, TimeUnit.SECONDS));
+    server.start();
+
+    ApiConnectionException e =
+        assertThrows(
+            ApiConnectionException.class,
+            () -> this.client.request(buildRequest(server, ApiResource.RequestMethod.GET)));
+    assertEquals(SocketTimeoutException.class, e.getCause().getClass());
+    assertEquals(0, this.client.idleConnectionCount());
+  }
+
+  @Test
+  public void testStreamsFileUpload(@TempDir Path directory)
+      throws StripeException, IOException, InterruptedException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setBody("{}"));
+    server.start();
+    byte[] data = new byte[200_000];
+    new Random(42).nextBytes(data);
+    Path file = directory.resolve("evidence.pdf");
+    Files.write(file, data);
+    Map<String, Object> params = new LinkedHashMap<>();
+    params.put("purpose", "dispute_evidence");
+    params.put("file", file.toFile());
+    List<RequestEvent> progress = new ArrayList<>();
+    this.client.setRequestListener(
+        event -> {
+          if (event.getType() == RequestEvent.Type.UPLOAD_PROGRESS) {
+            progress.add(event);
+          }
+        });
+
+    StripeRequest request =
+        new StripeRequest(
+            ApiResource.RequestMethod.POST,
+            server.url("/v1/files").toString(),
+            params,
+            RequestOptions.builder().setReadTimeout(1000).build());
+    StripeResponse response = this.client.requestWithRetries(request);
+
+    assertEquals(200, response.code());
+    assertTrue(request.content().isStreamed());
+    RecordedRequest recorded = server.takeRequest();
+    long length = request.content().contentLength();
+    assertTrue(recorded.getHeader("Content-Type").startsWith("multipart/form-data; boundary="));
+    assertEquals(String.valueOf(length), recorded.getHeader("Content-Length"));
+    assertArrayEquals(request.content().byteArrayContent(), recorded.getBody().readByteArray());
+    // One event every 64 KiB of the body.
+    assertEquals(length / RequestTrace.PROGRESS_INTERVAL, progress.size());
+    assertEquals(length, progress.get(0).getUploadLength());
+    long uploaded = progress.get(2).getUploadedBytes();
+    assertTrue(uploaded >= 3 * RequestTrace.PROGRESS_INTERVAL && uploaded <= length);
+  }
+
+  @Test
+  public void testStreamsInputStreamUploadInChunks()
+      throws StripeException, IOException, InterruptedException {
+    @Cleanup MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setBody("{}"));
+    server.start();
+    Map<String, Object> params = new LinkedHashMap<>();
+    params.put("purpose", "dispute_evidence");
+    params.put("file", new ByteArrayInputStream("Hello World!".getBytes(StandardCharsets.UTF_8)));
+
+    StripeRequest request =
+        new StripeRequest(
+            ApiResource.RequestMethod.POST,
+            server.url("/v1/files").toString(),
+            params,
+            RequestOptions.builder().setReadTimeout(1000).build());
+    this.client.request(request);
+
+    RecordedRequest recorded = server.takeRequest();
+    assertEquals("chunked", recorded.getHeader("Transfer-Encoding"));
+    assertEquals(null, recorded.getHeader("Content-Length"));
+    assertTrue(recorded.getBody().readUtf8().contains("\r\n\r\nHello World!\r\n"));
+    // The stream was read, so the request cannot be retried.
+    assertFalse(request.content().isRepeatable());
+  }
+}
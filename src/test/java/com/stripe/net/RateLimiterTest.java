@@ -0,0 +1,219 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.withSettings;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class RateLimiterTest {
+  private final AtomicLong now = new AtomicLong();
+
+  private final HttpHeaders emptyHeaders = HttpHeaders.of(Collections.emptyMap());
+
+  private static StripeRequest request(ApiResource.RequestMethod method, String path, String key)
+      throws StripeException {
+    return new StripeRequest(
+        method,
+        "https://api.stripe.com" + path,
+        null,
+        RequestOptions.builder().setApiKey(key).setMaxNetworkRetries(2).build());
+  }
+
+  private RateLimiter.Builder builder() {
+    return RateLimiter.builder().setNanoTime(this.now::get);
+  }
+
+  @Test
+  public void testEndpointClass() throws StripeException {
+    assertEquals(
+        RateLimiter.EndpointClass.READ,
+        RateLimiter.EndpointClass.of(request(ApiResource.RequestMethod.GET, "/v1/charges", "sk")));
+    assertEquals(
+        RateLimiter.EndpointClass.SEARCH,
+        RateLimiter.EndpointClass.of(
+            request(ApiResource.RequestMethod.GET, "/v1/charges/search", "sk")));
+    assertEquals(
+        RateLimiter.EndpointClass.WRITE,
+        RateLimiter.EndpointClass.of(
+            request(ApiResource.RequestMethod.DELETE, "/v1/customers/cus_123", "sk")));
+  }
+
+  @Test
+  public void testPacesRequests() throws StripeException {
+    RateLimiter limiter =
+        builder()
+            .setMaxRate(RateLimiter.EndpointClass.READ, 10)
+            .setBurst(Duration.ZERO)
+            .setMaxWait(Duration.ofSeconds(1))
+            .build();
+    StripeRequest request = request(ApiResource.RequestMethod.GET, "/v1/charges", "sk");
+
+    assertEquals(0, limiter.reserve(request));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.reserve(request));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(200), limiter.reserve(request));
+
+    this.now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals(0, limiter.reserve(request));
+  }
+
+  @Test
+  public void testFailsFast() throws StripeException {
+    RateLimiter limiter =
+        builder()
+            .setMaxRate(RateLimiter.EndpointClass.WRITE, 2)
+            .setMaxWait(Duration.ZERO)
+            .build();
+    StripeRequest request = request(ApiResource.RequestMethod.POST, "/v1/charges", "sk");
+
+    // The bucket starts with a one second burst, and the next request takes a token ahead.
+    limiter.reserve(request);
+    limiter.reserve(request);
+    limiter.reserve(request);
+    RateLimitException exception =
+        assertThrows(RateLimitException.class, () -> limiter.reserve(request));
+    assertEquals("rate_limit", exception.getCode());
+
+    // Other keys and endpoint classes have buckets of their own.
+    limiter.reserve(request(ApiResource.RequestMethod.POST, "/v1/charges", "other"));
+    limiter.reserve(request(ApiResource.RequestMethod.GET, "/v1/charges", "sk"));
+
+    this.now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals(0, limiter.reserve(request));
+  }
+
+  @Test
+  public void testDoesNotLetInterruptedRequestsThrough() throws StripeException {
+    RateLimiter limiter =
+        builder()
+            .setMaxRate(RateLimiter.EndpointClass.READ, 10)
+            .setBurst(Duration.ZERO)
+            .setMaxWait(Duration.ofSeconds(1))
+            .build();
+    StripeRequest request = request(ApiResource.RequestMethod.GET, "/v1/charges", "sk");
+    limiter.acquire(request);
+
+    Thread.currentThread().interrupt();
+    try {
+      assertThrows(ApiConnectionException.class, () -> limiter.acquire(request));
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void testEvictsIdleBuckets() throws StripeException {
+    RateLimiter limiter = builder().build();
+    StripeRequest idle = request(ApiResource.RequestMethod.GET, "/v1/charges", "sk_idle");
+    StripeRequest active = request(ApiResource.RequestMethod.GET, "/v1/charges", "sk_active");
+    limiter.onResponse(idle, new StripeResponse(429, this.emptyHeaders, "{}"));
+    limiter.reserve(active);
+    assertEquals(50, limiter.getRate(idle), 1e-9);
+
+    this.now.addAndGet(RateLimiter.BUCKET_IDLE_EXPIRY.toNanos() / 2);
+    limiter.reserve(active);
+    this.now.addAndGet(RateLimiter.BUCKET_IDLE_EXPIRY.toNanos() / 2 + 1);
+    assertEquals(2, limiter.bucketCount());
+
+    // Eviction runs when a new bucket is created, and keeps the recently used ones.
+    limiter.reserve(request(ApiResource.RequestMethod.GET, "/v1/charges", "sk_new"));
+    assertEquals(2, limiter.bucketCount());
+    // A dropped bucket starts again at the maximum rate.
+    assertEquals(100, limiter.getRate(idle), 1e-9);
+  }
+
+  @Test
+  public void testAdditiveIncreaseMultiplicativeDecrease() throws StripeException {
+    RateLimiter limiter = builder().setMaxRate(RateLimiter.EndpointClass.READ, 40).build();
+    StripeRequest request = request(ApiResource.RequestMethod.GET, "/v1/charges", "sk");
+    StripeResponse throttled = new StripeResponse(429, this.emptyHeaders, "{}");
+    StripeResponse ok = new StripeResponse(200, this.emptyHeaders, "{}");
+
+    limiter.onResponse(request, throttled);
+    assertEquals(20, limiter.getRate(request), 1e-9);
+
+    // Requests in flight when throttling started do not back off again.
+    limiter.onResponse(request, throttled);
+    assertEquals(20, limiter.getRate(request), 1e-9);
+
+    this.now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    limiter.onResponse(request, throttled);
+    assertEquals(10, limiter.getRate(request), 1e-9);
+
+    // A second worth of successful requests adds about one request per second.
+    for (int i = 0; i < 10; i++) {
+      limiter.onResponse(request, ok);
+    }
+    assertEquals(11, limiter.getRate(request), 0.1);
+
+    for (int i = 0; i < 10_000; i++) {
+      limiter.onResponse(request, ok);
+    }
+    assertEquals(40, limiter.getRate(request), 1e-9);
+  }
+
+  @Test
+  public void testHttpClientRetriesRateLimitedRequests() throws Exception {
+    HttpClient client =
+        Mockito.mock(
+            HttpClient.class,
+            withSettings().useConstructor().defaultAnswer(Mockito.CALLS_REAL_METHODS));
+    client.networkRetriesSleep = false;
+    StripeRequest request = request(ApiResource.RequestMethod.GET, "/v1/charges", "sk");
+    Mockito.when(client.request(request))
+        .thenReturn(new StripeResponse(429, this.emptyHeaders, "{}"))
+        .thenReturn(new StripeResponse(200, this.emptyHeaders, "{}"));
+
+    // Without a rate limiter, rate limited requests are not retried.
+    assertEquals(429, client.requestWithRetries(request).code());
+
+    RateLimiter limiter = builder().build();
+    client.setRateLimiter(limiter);
+    Mockito.when(client.request(request))
+        .thenReturn(new StripeResponse(429, this.emptyHeaders, "{}"))
+        .thenReturn(new StripeResponse(200, this.emptyHeaders, "{}"));
+
+    StripeResponse response = client.requestWithRetries(request);
+
+    assertEquals(200, response.code());
+    assertEquals(1, response.numRetries());
+    assertTrue(limiter.getRate(request) < 100);
+  }
+
+  @Test
+  public void testHttpClientAsyncFailsFast() throws Exception {
+    HttpClient client =
+        Mockito.mock(
+            HttpClient.class,
+            withSettings().useConstructor().defaultAnswer(Mockito.CALLS_REAL_METHODS));
+    StripeRequest request = request(ApiResource.RequestMethod.GET, "/v1/charges", "sk");
+    Mockito.when(client.request(request))
+        .thenReturn(new StripeResponse(200, this.emptyHeaders, "{}"));
+    client.setRateLimiter(
+        builder()
+            .setMaxRate(RateLimiter.EndpointClass.READ, 1)
+            .setMaxWait(Duration.ZERO)
+            .build());
+
+    assertEquals(200, client.requestWithRetriesAsync(request).get().code());
+    assertEquals(200, client.requestWithRetriesAsync(request).get().code());
+
+    ExecutionException exception =
+        assertThrows(
+            ExecutionException.class, () -> client.requestWithRetriesAsync(request).get());
+    assertInstanceOf(RateLimitException.class, exception.getCause());
+    Mockito.verify(client, Mockito.times(2)).request(request);
+  }
+}
@@ -0,0 +1,194 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.withSettings;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.Customer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class RequestMetricsListenerTest {
+  private static final String ENDPOINT = "api.stripe.com/v1/customers/*";
+
+  private final HttpHeaders emptyHeaders = HttpHeaders.of(Collections.emptyMap());
+
+  private final List<RequestEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+  private final RequestMetricsListener metrics = new RequestMetricsListener();
+
+  private HttpClient client;
+
+  @BeforeEach
+  public void setUp() {
+    this.client =
+        Mockito.mock(
+            HttpClient.class,
+            withSettings().useConstructor().defaultAnswer(Mockito.CALLS_REAL_METHODS));
+    this.client.networkRetriesSleep = false;
+    this.client.setRequestListener(
+        event -> {
+          this.events.add(event);
+          this.metrics.onEvent(event);
+        });
+  }
+
+  private static RequestOptions options() {
+    return RequestOptions.builder().setApiKey("sk_test_123").setMaxNetworkRetries(2).build();
+  }
+
+  private List<RequestEvent.Type> types() {
+    return this.events.stream().map(RequestEvent::getType).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testReportsPhasesAndRetries() throws StripeException {
+    Mockito.doReturn(new StripeResponse(503, this.emptyHeaders, "{}"))
+        .doReturn(new StripeResponse(200, this.emptyHeaders, "{\"id\": \"cus_123\"}"))
+        .when(this.client)
+        .request(Mockito.any());
+
+    Customer customer =
+        new LiveStripeResponseGetter(this.client)
+            .request(
+                ApiResource.RequestMethod.GET,
+                "https://api.stripe.com/v1/customers/cus_123",
+                null,
+                Customer.class,
+                options());
+
+    assertEquals("cus_123", customer.getId());
+    assertEquals(
+        Arrays.asList(
+            RequestEvent.Type.START,
+            RequestEvent.Type.RESPONSE_HEADERS,
+            RequestEvent.Type.RESPONSE_BODY_READ,
+            RequestEvent.Type.RETRY,
+            RequestEvent.Type.RESPONSE_HEADERS,
+            RequestEvent.Type.RESPONSE_BODY_READ,
+            RequestEvent.Type.DESERIALIZED,
+            RequestEvent.Type.END),
+        types());
+
+    RequestEvent retry = this.events.get(3);
+    assertEquals(503, retry.getStatusCode());
+    assertEquals(0, retry.getRetries());
+    RequestEvent end = this.events.get(7);
+    assertEquals(ENDPOINT, end.getEndpoint());
+    assertEquals(200, end.getStatusCode());
+    assertEquals(1, end.getRetries());
+    assertNull(end.getError());
+    long total = this.events.stream().mapToLong(RequestEvent::getNanosSincePrevious).sum();
+    assertEquals(total, end.getNanosSinceStart());
+
+    RequestMetricsListener.EndpointMetrics endpoint =
+        this.metrics.getEndpoint(ApiResource.RequestMethod.GET, ENDPOINT);
+    assertEquals(1, endpoint.getRequests());
+    assertEquals(0, endpoint.getFailures());
+    assertEquals(1, endpoint.getRetries());
+    assertEquals(2 + 17, endpoint.getBytesReceived());
+    assertEquals(2, endpoint.getPhase(RequestEvent.Type.RESPONSE_HEADERS).getCount());
+    assertEquals(1, endpoint.getPhase(RequestEvent.Type.DESERIALIZED).getCount());
+    assertEquals(
+        end.getNanosSinceStart(), endpoint.getPhase(RequestEvent.Type.END).getTotalNanos());
+  }
+
+  @Test
+  public void testCountsFailures() {
+    Mockito.doReturn(
+            new StripeResponse(
+                404, this.emptyHeaders, "{\"code\": 404, \"message\": \"No such customer\"}"))
+        .when(this.client)
+        .request(Mockito.any());
+
+    StripeException exception =
+        assertThrows(
+            StripeException.class,
+            () ->
+                new LiveStripeResponseGetter(this.client)
+                    .request(
+                        ApiResource.RequestMethod.GET,
+                        "https://api.stripe.com/v1/customers/cus_123",
+                        null,
+                        Customer.class,
+                        options()));
+
+    RequestEvent end = this.events.get(this.events.size() - 1);
+    assertEquals(RequestEvent.Type.END, end.getType());
+    assertEquals(exception, end.getError());
+    assertEquals(1, types().stream().filter(t -> t == RequestEvent.Type.END).count());
+    assertEquals(
+        1, this.metrics.getEndpoint(ApiResource.RequestMethod.GET, ENDPOINT).getFailures());
+  }
+
+  @Test
+  public void testReportsAsyncRequests() throws Exception {
+    Mockito.doReturn(new StripeResponse(200, this.emptyHeaders, "{\"id\": \"cus_123\"}"))
+        .when(this.client)
+        .request(Mockito.any());
+
+    new LiveStripeResponseGetter(this.client)
+        .requestAsync(
+            ApiResource.RequestMethod.GET,
+            "https://api.stripe.com/v1/customers/cus_123",
+            null,
+            Customer.class,
+            options())
+        .get();
+
+    assertEquals(
+        Arrays.asList(
+            RequestEvent.Type.START,
+            RequestEvent.Type.RESPONSE_HEADERS,
+            RequestEvent.Type.RESPONSE_BODY_READ,
+            RequestEvent.Type.DESERIALIZED,
+            RequestEvent.Type.END),
+        types());
+  }
+
+  @Test
+  public void testIgnoresListenerExceptions() throws StripeException {
+    this.client.setRequestListener(
+        event -> {
+          throw new IllegalStateException("boom");
+        });
+    Mockito.doReturn(new StripeResponse(200, this.emptyHeaders, "{}"))
+        .when(this.client)
+        .request(Mockito.any());
+
+    StripeRequest request =
+        new StripeRequest(
+            ApiResource.RequestMethod.GET, "https://api.stripe.com/v1/charges", null, options());
+    assertEquals(200, this.client.requestWithRetries(request).code());
+  }
+
+  @Test
+  public void testReset() {
+    this.metrics.onEvent(
+        new RequestEvent(
+            RequestEvent.Type.END,
+            ApiResource.RequestMethod.POST,
+            "api.stripe.com/v1/charges",
+            0,
+            200,
+            1_000,
+            1_000,
+            10,
+            20,
+            null));
+    assertNotNull(this.metrics.getEndpoints().get("POST api.stripe.com/v1/charges"));
+
+    this.metrics.reset();
+    assertTrue(this.metrics.getEndpoints().isEmpty());
+  }
+}
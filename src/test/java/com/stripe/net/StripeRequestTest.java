@@ -3,7 +3,9 @@ package com.stripe.net;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -192,4 +194,33 @@ public class StripeRequestTest extends BaseStripeTest {
     assertTrue(updatedRequest.headers().firstValue("New-Header").isPresent());
     assertEquals("bar", updatedRequest.headers().firstValue("New-Header").get());
   }
+
+  @Test
+  public void testReusesHeadersOfSameCredentials() throws StripeException {
+    RequestOptions options = RequestOptions.builder().setApiKey("sk_reused").build();
+    StripeRequest first =
+        new StripeRequest(ApiResource.RequestMethod.GET, "http://example.com/a", null, options);
+    StripeRequest second =
+        new StripeRequest(ApiResource.RequestMethod.GET, "http://example.com/b", null, options);
+    RequestOptions otherOptions =
+        RequestOptions.builder().setApiKey("sk_reused").setSeamlessPayAccount("acct_1").build();
+    StripeRequest other =
+        new StripeRequest(
+            ApiResource.RequestMethod.GET, "http://example.com/b", null, otherOptions);
+
+    assertSame(first.headers(), second.headers());
+    assertNotSame(first.headers(), other.headers());
+    assertFalse(first.headers().firstValue("SeamlessPay-Account").isPresent());
+    assertEquals("acct_1", other.headers().firstValue("SeamlessPay-Account").orElse(null));
+
+    StripeRequest post =
+        new StripeRequest(ApiResource.RequestMethod.POST, "http://example.com/a", null, options);
+    assertTrue(post.headers().firstValue("Idempotency-Key").isPresent());
+    assertFalse(first.headers().firstValue("Idempotency-Key").isPresent());
+
+    // Alternating between credentials keeps the headers of both.
+    StripeRequest third =
+        new StripeRequest(ApiResource.RequestMethod.GET, "http://example.com/c", null, options);
+    assertSame(first.headers(), third.headers());
+  }
 }
@@ -0,0 +1,89 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.stripe.exception.ApiException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Customer;
+import com.stripe.model.StripeObjectInterface;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class StripeResponseGetterTest {
+  private static final String URL = "https://api.stripe.com/v1/customers/cus_123";
+
+  /** A getter that only implements the blocking methods, as custom getters did before. */
+  private static class BlockingResponseGetter implements StripeResponseGetter {
+    final StripeException failure;
+
+    BlockingResponseGetter(StripeException failure) {
+      this.failure = failure;
+    }
+
+    @Override
+    public <T extends StripeObjectInterface> T request(
+        ApiResource.RequestMethod method,
+        String url,
+        Map<String, Object> params,
+        Class<T> clazz,
+        RequestOptions options)
+        throws StripeException {
+      if (this.failure != null) {
+        throw this.failure;
+      }
+      return ApiResource.GSON.fromJson("{\"id\": \"cus_123\"}", clazz);
+    }
+
+    @Override
+    public <T extends StripeObjectInterface> T oauthRequest(
+        ApiResource.RequestMethod method,
+        String url,
+        Map<String, Object> params,
+        Class<T> clazz,
+        RequestOptions options) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Test
+  public void testDefaultRequestAsyncRunsOnExecutor() throws Exception {
+    AtomicInteger executions = new AtomicInteger();
+    RequestOptions options =
+        RequestOptions.builder()
+            .setExecutor(
+                runnable -> {
+                  executions.incrementAndGet();
+                  runnable.run();
+                })
+            .build();
+
+    Customer customer =
+        new BlockingResponseGetter(null)
+            .requestAsync(ApiResource.RequestMethod.GET, URL, null, Customer.class, options)
+            .get(10, TimeUnit.SECONDS);
+
+    assertEquals("cus_123", customer.getId());
+    assertEquals(1, executions.get());
+  }
+
+  @Test
+  public void testDefaultRequestAsyncFailsWithStripeException() {
+    ApiException failure = new ApiException("boom", null, null, 500, null);
+    RequestOptions options = RequestOptions.builder().setExecutor(Runnable::run).build();
+
+    ExecutionException e =
+        assertThrows(
+            ExecutionException.class,
+            () ->
+                new BlockingResponseGetter(failure)
+                    .requestAsync(
+                        ApiResource.RequestMethod.GET, URL, null, Customer.class, options)
+                    .get(10, TimeUnit.SECONDS));
+    assertSame(failure, e.getCause());
+  }
+}
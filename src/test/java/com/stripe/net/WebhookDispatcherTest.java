@@ -0,0 +1,275 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.stripe.Stripe;
+import com.stripe.exception.EventDataObjectDeserializationException;
+import com.stripe.model.Application;
+import com.stripe.model.EventEnvelope;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WebhookDispatcherTest {
+  private ExecutorService executor;
+
+  @BeforeEach
+  public void setUpExecutor() {
+    this.executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterEach
+  public void tearDownExecutor() {
+    this.executor.shutdownNow();
+  }
+
+  private static EventEnvelope event(int number, String type, String objectId) {
+    return event(number, type, objectId, Stripe.API_VERSION);
+  }
+
+  private static EventEnvelope event(int number, String type, String objectId, String version) {
+    return EventEnvelope.parse(
+        String.format(
+            "{\"id\":\"evt_%d\",\"type\":\"%s\",\"api_version\":\"%s\",\"data\":{\"object\":"
+                + "{\"id\":\"%s\",\"object\":\"application\",\"name\":\"Platform %d\"}}}",
+            number, type, version, objectId, number));
+  }
+
+  @Test
+  public void testEventsWithSameObjectRunInOrder() throws Exception {
+    Map<String, List<String>> seen = Collections.synchronizedMap(new HashMap<>());
+    WebhookDispatcher dispatcher =
+        WebhookDispatcher.builder()
+            .setExecutor(this.executor)
+            .addHandler(
+                "application.updated",
+                event -> {
+                  List<String> events =
+                      seen.computeIfAbsent(event.getDataObjectId(), k -> new ArrayList<>());
+                  // Handlers of the same object never run concurrently, so this is not racy.
+                  events.add(event.getId());
+                  Thread.sleep(1);
+                })
+            .build();
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      futures.add(dispatcher.dispatch(event(i, "application.updated", "ca_" + (i % 4))));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+    assertEquals(4, seen.size());
+    for (int key = 0; key < 4; key++) {
+      List<String> expected = new ArrayList<>();
+      for (int i = key; i < 100; i += 4) {
+        expected.add("evt_" + i);
+      }
+      assertEquals(expected, seen.get("ca_" + key));
+    }
+    assertEquals(0, dispatcher.getPendingEvents());
+  }
+
+  @Test
+  public void testEventsWithDifferentObjectsRunInParallel() throws Exception {
+    CountDownLatch bothRunning = new CountDownLatch(2);
+    WebhookDispatcher dispatcher =
+        WebhookDispatcher.builder()
+            .setExecutor(this.executor)
+            .addHandler(
+                "application.updated",
+                event -> {
+                  bothRunning.countDown();
+                  if (!bothRunning.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("events did not run in parallel");
+                  }
+                })
+            .build();
+
+    CompletableFuture<Void> first = dispatcher.dispatch(event(1, "application.updated", "ca_1"));
+    CompletableFuture<Void> second = dispatcher.dispatch(event(2, "application.updated", "ca_2"));
+
+    CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testDefaultExecutorBoundsConcurrency() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    WebhookDispatcher dispatcher =
+        WebhookDispatcher.builder()
+            .setMaxConcurrentEvents(2)
+            .addHandler(
+                "application.updated",
+                event -> {
+                  maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                  Thread.sleep(10);
+                  running.decrementAndGet();
+                })
+            .build();
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      futures.add(dispatcher.dispatch(event(i, "application.updated", "ca_" + i)));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+    assertEquals(2, maxRunning.get());
+  }
+
+  @Test
+  public void testObjectHandler() throws Exception {
+    List<Application> applications = Collections.synchronizedList(new ArrayList<>());
+    WebhookDispatcher dispatcher =
+        WebhookDispatcher.builder()
+            .setExecutor(this.executor)
+            .addHandler(
+                "application.updated",
+                Application.class,
+                (event, application) -> applications.add(application))
+            .build();
+
+    dispatcher.dispatch(event(1, "application.updated", "ca_1")).get(10, TimeUnit.SECONDS);
+    assertEquals(1, applications.size());
+    assertEquals("ca_1", applications.get(0).getId());
+    assertEquals("Platform 1", applications.get(0).getName());
+
+    CompletableFuture<Void> oldVersion =
+        dispatcher.dispatch(event(2, "application.updated", "ca_2", "2000-01-01"));
+    ExecutionException exception =
+        assertThrows(ExecutionException.class, () -> oldVersion.get(10, TimeUnit.SECONDS));
+    assertInstanceOf(EventDataObjectDeserializationException.class, exception.getCause());
+  }
+
+  @Test
+  public void testUnhandledEventType() throws Exception {
+    WebhookDispatcher dispatcher =
+        WebhookDispatcher.builder()
+            .setExecutor(this.executor)
+            .addHandler("application.updated", event -> {})
+            .build();
+
+    CompletableFuture<Void> future = dispatcher.dispatch(event(1, "charge.succeeded", "ch_1"));
+
+    assertTrue(future.isDone());
+    assertEquals(0, dispatcher.getHandlerMetrics().get(0).getInvocations());
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    WebhookDispatcher dispatcher =
+        WebhookDispatcher.builder()
+            .setExecutor(this.executor)
+            .setMaxPendingEvents(1)
+            .addHandler("application.updated", event -> release.await())
+            .build();
+
+    CompletableFuture<Void> first = dispatcher.dispatch(event(1, "application.updated", "ca_1"));
+    assertEquals(1, dispatcher.getPendingEvents());
+    assertFalse(dispatcher.tryDispatch(event(2, "application.updated", "ca_2")).isPresent());
+
+    release.countDown();
+    first.get(10, TimeUnit.SECONDS);
+    CompletableFuture<Void> second =
+        dispatcher.tryDispatch(event(3, "application.updated", "ca_3")).get();
+    second.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testHandlerFailuresAndMetrics() throws Exception {
+    IllegalStateException failure = new IllegalStateException("boom");
+    List<String> seen = Collections.synchronizedList(new ArrayList<>());
+    WebhookDispatcher dispatcher =
+        WebhookDispatcher.builder()
+            .setExecutor(this.executor)
+            .addHandler(
+                "application.updated",
+                event -> {
+                  if ("evt_1".equals(event.getId())) {
+                    throw failure;
+                  }
+                })
+            .addHandler("application.updated", event -> seen.add(event.getId()))
+            .build();
+
+    CompletableFuture<Void> failed = dispatcher.dispatch(event(1, "application.updated", "ca_1"));
+    CompletableFuture<Void> next = dispatcher.dispatch(event(2, "application.updated", "ca_1"));
+
+    ExecutionException exception =
+        assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+    assertSame(failure, exception.getCause());
+    next.get(10, TimeUnit.SECONDS);
+
+    // The other handlers of the event, and the following events, still run.
+    assertEquals(2, seen.size());
+    WebhookDispatcher.HandlerMetrics metrics = dispatcher.getHandlerMetrics().get(0);
+    assertEquals("application.updated", metrics.getEventType());
+    assertEquals(2, metrics.getInvocations());
+    assertEquals(1, metrics.getFailures());
+    assertTrue(metrics.getMaxLatency().compareTo(metrics.getTotalLatency()) <= 0);
+  }
+
+  @Test
+  public void testDeduplication() throws Exception {
+    List<String> seen = Collections.synchronizedList(new ArrayList<>());
+    WebhookDispatcher dispatcher =
+        WebhookDispatcher.builder()
+            .setExecutor(this.executor)
+            .setDeduplicator(EventDeduplicator.builder().setMaxEvents(1000).build())
+            .addHandler(
+                "application.updated",
+                event -> {
+                  seen.add(event.getId());
+                  if (seen.size() == 1) {
+                    throw new IllegalStateException("first attempt fails");
+                  }
+                })
+            .build();
+
+    CompletableFuture<Void> failed = dispatcher.dispatch(event(1, "application.updated", "ca_1"));
+    assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+
+    // A failed event is handled again when redelivered, but only once.
+    dispatcher.dispatch(event(1, "application.updated", "ca_1")).get(10, TimeUnit.SECONDS);
+    dispatcher.dispatch(event(1, "application.updated", "ca_1")).get(10, TimeUnit.SECONDS);
+
+    assertEquals(2, seen.size());
+  }
+
+  @Test
+  public void testRejectedExecution() throws Exception {
+    WebhookDispatcher dispatcher =
+        WebhookDispatcher.builder()
+            .setExecutor(
+                command -> {
+                  throw new RejectedExecutionException("shut down");
+                })
+            .addHandler("application.updated", event -> {})
+            .build();
+
+    CompletableFuture<Void> future = dispatcher.dispatch(event(1, "application.updated", "ca_1"));
+
+    ExecutionException exception =
+        assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+    assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+    assertEquals(0, dispatcher.getPendingEvents());
+  }
+}
@@ -0,0 +1,187 @@
+package com.stripe.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.gson.JsonSyntaxException;
+import com.stripe.BaseStripeTest;
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.model.Event;
+import com.stripe.model.EventEnvelope;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WebhookVerifierTest extends BaseStripeTest {
+  private static final String SECRET = "whsec_test_secret";
+  private static final String NEW_SECRET = "whsec_test_new_secret";
+  private static final String PAYLOAD =
+      "{\n  \"id\": \"evt_test_webhook\",\n  \"object\": \"event\"\n}";
+
+  private WebhookVerifier verifier;
+
+  @BeforeEach
+  public void setUpVerifier() {
+    this.verifier = WebhookVerifier.builder().addSecret(SECRET).build();
+  }
+
+  private static String sigHeader(String secret, long timestamp, String payload)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    String signature =
+        Webhook.Util.computeHmacSha256(secret, String.format("%d.%s", timestamp, payload));
+    return String.format("t=%d,v1=%s", timestamp, signature);
+  }
+
+  private static String sigHeader(String secret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    return sigHeader(secret, Webhook.Util.getTimeNow(), PAYLOAD);
+  }
+
+  @Test
+  public void testConstructEventFromString() throws Exception {
+    Event event = this.verifier.constructEvent(PAYLOAD, sigHeader(SECRET));
+
+    assertEquals("evt_test_webhook", event.getId());
+  }
+
+  @Test
+  public void testConstructEventFromBytes() throws Exception {
+    Event event =
+        this.verifier.constructEvent(PAYLOAD.getBytes(StandardCharsets.UTF_8), sigHeader(SECRET));
+
+    assertEquals("evt_test_webhook", event.getId());
+  }
+
+  @Test
+  public void testConstructEventFromByteBuffer() throws Exception {
+    byte[] bytes = ("padding" + PAYLOAD).getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    buffer.position("padding".length());
+
+    Event event = this.verifier.constructEvent(buffer, sigHeader(SECRET));
+
+    assertEquals("evt_test_webhook", event.getId());
+    assertEquals("padding".length(), buffer.position());
+  }
+
+  @Test
+  public void testConstructEventFromDirectByteBuffer() throws Exception {
+    byte[] bytes = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).flip();
+
+    Event event = this.verifier.constructEvent(buffer, sigHeader(SECRET));
+
+    assertEquals("evt_test_webhook", event.getId());
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void testConstructEventFromInputStream() throws Exception {
+    ByteArrayInputStream stream =
+        new ByteArrayInputStream(PAYLOAD.getBytes(StandardCharsets.UTF_8));
+
+    Event event = this.verifier.constructEvent(stream, sigHeader(SECRET));
+
+    assertEquals("evt_test_webhook", event.getId());
+  }
+
+  @Test
+  public void testConstructEventEnvelope() throws Exception {
+    EventEnvelope envelope =
+        this.verifier.constructEventEnvelope(
+            PAYLOAD.getBytes(StandardCharsets.UTF_8), sigHeader(SECRET));
+
+    assertEquals("evt_test_webhook", envelope.getId());
+    assertThrows(
+        SignatureVerificationException.class,
+        () ->
+            this.verifier.constructEventEnvelope(
+                "{}".getBytes(StandardCharsets.UTF_8), sigHeader(SECRET)));
+  }
+
+  @Test
+  public void testMultipleSecrets() throws Exception {
+    WebhookVerifier rolling =
+        WebhookVerifier.builder().addSecret(SECRET).addSecret(NEW_SECRET).build();
+
+    rolling.verify(PAYLOAD, sigHeader(SECRET));
+    rolling.verify(PAYLOAD, sigHeader(NEW_SECRET));
+    assertThrows(
+        SignatureVerificationException.class,
+        () -> this.verifier.verify(PAYLOAD, sigHeader(NEW_SECRET)));
+  }
+
+  @Test
+  public void testForgedPayloadIsRejectedBeforeParsing() throws Exception {
+    String forged = "this is not valid JSON";
+    String sigHeader = sigHeader(SECRET);
+
+    Throwable exception =
+        assertThrows(
+            SignatureVerificationException.class,
+            () -> this.verifier.constructEvent(forged, sigHeader));
+    assertEquals(
+        "No signatures found matching the expected signature for payload", exception.getMessage());
+  }
+
+  @Test
+  public void testSignedInvalidJson() throws Exception {
+    String payload = "this is not valid JSON";
+    String sigHeader = sigHeader(SECRET, Webhook.Util.getTimeNow(), payload);
+
+    assertThrows(
+        JsonSyntaxException.class, () -> this.verifier.constructEvent(payload, sigHeader));
+  }
+
+  @Test
+  public void testMalformedHeader() {
+    Throwable exception =
+        assertThrows(
+            SignatureVerificationException.class,
+            () -> this.verifier.verify(PAYLOAD, "i'm not even a real signature header"));
+    assertEquals("Unable to extract timestamp and signatures from header", exception.getMessage());
+  }
+
+  @Test
+  public void testHeaderContainsValidSignature() throws Exception {
+    String sigHeader = String.format("%s,v1=bad_signature,v0=abcdef", sigHeader(SECRET));
+
+    this.verifier.verify(PAYLOAD, sigHeader);
+  }
+
+  @Test
+  public void testUppercaseSignatureIsRejected() throws Exception {
+    long timestamp = Webhook.Util.getTimeNow();
+    String signature =
+        Webhook.Util.computeHmacSha256(SECRET, String.format("%d.%s", timestamp, PAYLOAD));
+    String sigHeader = String.format("t=%d,v1=%s", timestamp, signature.toUpperCase());
+
+    assertThrows(
+        SignatureVerificationException.class, () -> this.verifier.verify(PAYLOAD, sigHeader));
+  }
+
+  @Test
+  public void testTolerance() throws Exception {
+    String sigHeader = sigHeader(SECRET, Webhook.Util.getTimeNow() - 15, PAYLOAD);
+
+    WebhookVerifier strict = WebhookVerifier.builder().addSecret(SECRET).setTolerance(10).build();
+    Throwable exception =
+        assertThrows(SignatureVerificationException.class, () -> strict.verify(PAYLOAD, sigHeader));
+    assertEquals("Timestamp outside the tolerance zone", exception.getMessage());
+
+    WebhookVerifier lenient = WebhookVerifier.builder().addSecret(SECRET).setTolerance(0).build();
+    lenient.verify(PAYLOAD, sigHeader(SECRET, 12345L, PAYLOAD));
+  }
+
+  @Test
+  public void testBuilder() {
+    assertEquals(300, this.verifier.getTolerance());
+    assertThrows(IllegalStateException.class, () -> WebhookVerifier.builder().build());
+    assertThrows(IllegalArgumentException.class, () -> WebhookVerifier.builder().addSecret(""));
+  }
+}